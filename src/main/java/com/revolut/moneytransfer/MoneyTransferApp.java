@@ -1,7 +1,10 @@
 package com.revolut.moneytransfer;
 
+import com.revolut.moneytransfer.dao.ConnectionPool;
 import com.revolut.moneytransfer.dao.H2Dao;
+import com.revolut.moneytransfer.model.CurrencyRegistry;
 import com.revolut.moneytransfer.service.AccountService;
+import com.revolut.moneytransfer.service.MetricsService;
 import com.revolut.moneytransfer.service.RateService;
 import com.revolut.moneytransfer.service.ServiceExceptionMapper;
 import com.revolut.moneytransfer.service.TransferService;
@@ -22,16 +25,20 @@ class MoneyTransferApp
 
     /**
      * MoneyTransferApp Main method
-     * Load test data in H2 database and start embedded server
+     * Prepare the H2 database and start embedded server
      * @param args main arguments
      * @throws Exception e
      */
     public static void main( String[] args ) throws Exception {
-        // Initialize H2 database with demo data
+        // Initialize H2 database : demo data in memory mode, existing store in file mode
         log.info("Configure demo .....");
+        long start = System.currentTimeMillis();
         H2Dao h2Dao = new H2Dao();
-        h2Dao.loadH2Database();
-        log.info("Configuration Ended....");
+        h2Dao.initDatabase();
+        // balances loaded and currencies registered before the first transfer
+        h2Dao.getTransferEngine();
+        log.info(CurrencyRegistry.count() + " currencies registered");
+        log.info("Configuration Ended in " + (System.currentTimeMillis() - start) + " ms....");
         // Host service on jetty
         startRestFulApp();
     }
@@ -51,13 +58,17 @@ class MoneyTransferApp
                 AccountService.class.getCanonicalName() + ","
                         + TransferService.class.getCanonicalName() + ","
                         + ServiceExceptionMapper.class.getCanonicalName() + ","
-                        + RateService.class.getCanonicalName());
+                        + RateService.class.getCanonicalName() + ","
+                        + MetricsService.class.getCanonicalName());
         try {
             server.start();
             server.join();
         } finally {
             server.stop();
             server.destroy();
+            new H2Dao().shutdownAsyncTransfers();
+            new H2Dao().shutdownTransferEngine();
+            ConnectionPool.shutdown();
         }
     }
 }
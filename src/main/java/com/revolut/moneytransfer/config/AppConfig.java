@@ -0,0 +1,63 @@
+package com.revolut.moneytransfer.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Application configuration
+ * Values are read from moneytransfer.properties on the classpath and can be overridden by JVM system properties
+ * (e.g. -Ddb.pool.maxSize=20)
+ */
+public final class AppConfig {
+    private static final Logger log = Logger.getLogger("AppConfig");
+    private static final String CONFIG_FILE = "moneytransfer.properties";
+    private static final Properties properties = load();
+
+    private AppConfig() {
+    }
+
+    private static Properties load() {
+        Properties props = new Properties();
+        try (InputStream in = AppConfig.class.getClassLoader().getResourceAsStream(CONFIG_FILE)) {
+            if (in != null) {
+                props.load(in);
+            } else {
+                log.warning("Configuration file " + CONFIG_FILE + " not found, using defaults.");
+            }
+        } catch (IOException e) {
+            log.severe("Error while reading configuration file " + CONFIG_FILE);
+            throw new RuntimeException(e);
+        }
+        return props;
+    }
+
+    /**
+     * @param key          property name
+     * @param defaultValue value returned when the property is not set
+     * @return property value, system property first then configuration file
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,213 @@
+package com.revolut.moneytransfer.dao;
+
+import com.revolut.moneytransfer.model.Account;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded read-through cache of the accounts by account number, in front of the account lookups
+ * The cache is split in segments, each a least recently used map holding at most capacity / SEGMENTS accounts, so
+ * that lookups of unrelated accounts do not contend. An account is kept at most ttl after it was read.
+ * Writers invalidate the accounts they changed once their transaction is committed. A lookup takes a stamp of the
+ * account before reading it from the database, and its result is only cached if the account was not invalidated
+ * meanwhile : an account read before a commit is never cached after it, and a client never reads a stale balance once
+ * the write is answered.
+ */
+public class AccountCache {
+    private static final int SEGMENTS = 16;
+    // invalidation stamps, by account number hash
+    private static final int STAMPS = 1024;
+
+    private final int capacity;
+    private final long ttlMillis;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMPS);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private static final class CachedAccount {
+        private final Account account;
+        private final long expiresAt;
+
+        private CachedAccount(Account account, long expiresAt) {
+            this.account = account;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Least recently used accounts of a segment, to be used holding its lock
+     */
+    private final class Segment extends LinkedHashMap<Long, CachedAccount> {
+        private final int segmentCapacity;
+
+        private Segment(int segmentCapacity) {
+            super(16, 0.75f, true);
+            this.segmentCapacity = segmentCapacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedAccount> eldest) {
+            if (size() > segmentCapacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param capacity  maximum number of accounts cached, 0 to disable the cache
+     * @param ttlMillis time an account is cached after it was read
+     */
+    public AccountCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS));
+        }
+    }
+
+    /**
+     * @return true if accounts are cached
+     */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * @param accountNo account number
+     * @return cached account, null if not cached or expired
+     */
+    Account get(long accountNo) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Segment segment = segment(accountNo);
+        synchronized (segment) {
+            CachedAccount entry = segment.get(accountNo);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                segment.remove(accountNo);
+                expirations.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.account;
+        }
+    }
+
+    /**
+     * @param accountNo account number
+     * @return stamp of the account, to be taken before reading the account from the database
+     */
+    long stamp(long accountNo) {
+        return stamps.get(stampIndex(accountNo));
+    }
+
+    /**
+     * Cache an account read from the database, unless it was invalidated since the stamp was taken
+     * @param account account read
+     * @param stamp   stamp of the account taken before reading it
+     */
+    void put(Account account, long stamp) {
+        if (!isEnabled()) {
+            return;
+        }
+        long accountNo = account.getAccountNo();
+        Segment segment = segment(accountNo);
+        synchronized (segment) {
+            if (stamps.get(stampIndex(accountNo)) == stamp) {
+                segment.put(accountNo, new CachedAccount(account, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+    }
+
+    /**
+     * Drop a changed account, once the change is committed
+     * @param accountNo account number
+     */
+    void invalidate(long accountNo) {
+        stamps.incrementAndGet(stampIndex(accountNo));
+        Segment segment = segment(accountNo);
+        synchronized (segment) {
+            if (segment.remove(accountNo) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * Drop changed accounts, once the changes are committed
+     * @param accountNos account numbers
+     */
+    void invalidate(Collection<Long> accountNos) {
+        for (Long accountNo : accountNos) {
+            invalidate(accountNo);
+        }
+    }
+
+    /**
+     * Drop every account, when the database is recreated
+     */
+    public void clear() {
+        for (int i = 0; i < STAMPS; i++) {
+            stamps.incrementAndGet(i);
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(long accountNo) {
+        return segments[(int) (mix(accountNo) & (SEGMENTS - 1))];
+    }
+
+    private static int stampIndex(long accountNo) {
+        return (int) ((mix(accountNo) >>> 4) & (STAMPS - 1));
+    }
+
+    private static long mix(long accountNo) {
+        long hash = accountNo * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * @return snapshot of the cache size and of its hits, misses, evictions, expirations and invalidations
+     */
+    public Map<String, Object> snapshot() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", isEnabled());
+        metrics.put("capacity", capacity);
+        metrics.put("ttlMillis", ttlMillis);
+        metrics.put("size", size);
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        metrics.put("evictions", evictions.sum());
+        metrics.put("expirations", expirations.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+}
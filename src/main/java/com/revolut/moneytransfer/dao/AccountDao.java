@@ -1,13 +1,27 @@
 package com.revolut.moneytransfer.dao;
 
+import com.revolut.moneytransfer.exception.ProjectException;
 import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.CurrencyRegistry;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Page;
 import com.revolut.moneytransfer.model.Transfer;
 import org.apache.commons.dbutils.DbUtils;
 
+import javax.sql.DataSource;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Logger;
 
 /**
@@ -15,23 +29,98 @@ import java.util.logging.Logger;
  */
 public class AccountDao {
     private static final Logger log = Logger.getLogger("AccountDao");
-    // JDBC driver name and database URL
-    private static final String JDBC_DRIVER = "org.h2.Driver";
-    private static final String DB_URL = "jdbc:h2:mem:moneytransferapp;DB_CLOSE_DELAY=-1";
-
-    //  Database credentials
-    private static final String USER = "sa";
-    private static final String PASS = "sa";
 
     // SQL STATEMENTS
-    private static final String SELECT_ALL = "SELECT * FROM ACCOUNTS";
-    private static final String SELECT_BY_ID = "SELECT * FROM ACCOUNTS WHERE ID = ? ";
-    private static final String SELECT_BY_ACCOUNT_NO = "SELECT * FROM ACCOUNTS WHERE ACCOUNT_NUMBER = ? ";
-    private static final String GET_BALANCE_BY_ACCOUNT_NO = "SELECT BALANCE FROM ACCOUNTS WHERE ACCOUNT_NUMBER = ? ";
-    private final static String LOCK_ACCOUNT_BY_NUMBER = "SELECT * FROM ACCOUNTS WHERE ACCOUNT_NUMBER = ? FOR UPDATE";
-    private final static String UPDATE_ACCOUNT_BALANCE = "UPDATE ACCOUNTS SET BALANCE = ?, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ?";
+    // balance of a sharded account : its own balance plus the sum of its sub-balance slots
+    private static final String TOTAL_BALANCE = "CASE WHEN A.BALANCE_SLOTS = 0 THEN A.BALANCE ELSE A.BALANCE + (SELECT COALESCE(SUM(S.BALANCE), 0) FROM ACCOUNT_BALANCE_SLOTS S WHERE S.ACCOUNT_NUMBER = A.ACCOUNT_NUMBER) END";
+    private static final String ACCOUNT_COLUMNS = "A.ID, A.CUSTOMER_ID, A.ACCOUNT_NUMBER, " + TOTAL_BALANCE + " AS BALANCE, A.CURRENCY_CODE, A.CREATED_DT, A.LAST_UPDATED_DT, A.VERSION, A.BALANCE_SLOTS";
+    private static final String SELECT_ALL = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A";
+    private static final String SELECT_PAGE = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A WHERE A.ID > ? ORDER BY A.ID LIMIT ?";
+    private static final String SELECT_BY_ID = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A WHERE A.ID = ? ";
+    private static final String SELECT_BY_ACCOUNT_NO = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A WHERE A.ACCOUNT_NUMBER = ? ";
+    private final static String LOCK_ACCOUNT_BY_NUMBER = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A WHERE A.ACCOUNT_NUMBER = ? FOR UPDATE";
+    // sharded accounts are not locked : their balance is only moved by relative updates
+    private final static String LOCK_ACCOUNTS_BY_NUMBERS = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A WHERE A.ACCOUNT_NUMBER IN (?, ?) AND A.BALANCE_SLOTS = 0 ORDER BY A.ACCOUNT_NUMBER FOR UPDATE";
+    private static final String SELECT_BY_ACCOUNT_NOS = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A WHERE A.ACCOUNT_NUMBER IN (?, ?)";
+    private static final String SELECT_BY_ACCOUNT_NO_LIST = "SELECT " + ACCOUNT_COLUMNS + " FROM ACCOUNTS A WHERE A.ACCOUNT_NUMBER IN ";
+    private static final String LOCK_BY_ACCOUNT_NO_LIST = " AND A.BALANCE_SLOTS = 0 ORDER BY A.ACCOUNT_NUMBER FOR UPDATE";
+    // every balance update increments the row version, so that optimistic updates detect it
+    private final static String UPDATE_ACCOUNT_BALANCE = "UPDATE ACCOUNTS SET BALANCE = ?, VERSION = VERSION + 1, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ?";
+    private final static String UPDATE_ACCOUNT_BALANCE_VERSIONED = "UPDATE ACCOUNTS SET BALANCE = ?, VERSION = VERSION + 1, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ? AND VERSION = ?";
+    private final static String DEBIT_ACCOUNT_BALANCE = "UPDATE ACCOUNTS SET BALANCE = BALANCE - ?, VERSION = VERSION + 1, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ? AND BALANCE >= ?";
+    private final static String CREDIT_ACCOUNT_BALANCE = "UPDATE ACCOUNTS SET BALANCE = BALANCE + ?, VERSION = VERSION + 1, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ?";
+    private final static String SET_BALANCE_SLOTS = "UPDATE ACCOUNTS SET BALANCE_SLOTS = ?, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ?";
+    private final static String LOCK_BALANCE_SLOTS = "SELECT BALANCE FROM ACCOUNT_BALANCE_SLOTS WHERE ACCOUNT_NUMBER = ? FOR UPDATE";
+    private final static String EMPTY_BALANCE_SLOTS = "UPDATE ACCOUNT_BALANCE_SLOTS SET BALANCE = 0, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ?";
+    private final static String CREDIT_BALANCE_SLOT = "UPDATE ACCOUNT_BALANCE_SLOTS SET BALANCE = BALANCE + ?, LAST_UPDATED_DT = SYSDATE WHERE ACCOUNT_NUMBER = ? AND SLOT = ?";
+    private final static String INSERT_BALANCE_SLOT = "INSERT INTO ACCOUNT_BALANCE_SLOTS values (?, ?, 0, SYSDATE)";
+    private final static String DELETE_BALANCE_SLOTS = "DELETE ACCOUNT_BALANCE_SLOTS WHERE ACCOUNT_NUMBER = ?";
     private final static String DELETE_ACCOUNT = "DELETE ACCOUNTS WHERE ACCOUNT_NUMBER = ?";
+    private final static String INSERT_ACCOUNT = "INSERT INTO ACCOUNTS (ID, CUSTOMER_ID, ACCOUNT_NUMBER, BALANCE, CURRENCY_CODE, CREATED_DT, LAST_UPDATED_DT) values (?, ?, ?, ?, ?, SYSDATE, null)";
+    private final static String ALLOCATE_ACCOUNT_IDS = "SELECT ACCOUNTS_SEQ.nextVal FROM SYSTEM_RANGE(1, ?)";
+    // ACCOUNT_NUMBER NUMBER(11)
+    private final static long MAX_ACCOUNT_NUMBER = 99999999999L;
+    // maximum number of sub-balance slots of a sharded account
+    public final static int MAX_BALANCE_SLOTS = 64;
+
+    private final DataSource dataSource;
+    private final AccountCache accountCache;
+
+    /**
+     * @param dataSource pooled data source
+     */
+    public AccountDao(DataSource dataSource) {
+        this(dataSource, new AccountCache(0, 0));
+    }
+
+    /**
+     * @param dataSource   pooled data source
+     * @param accountCache cache of the account lookups by account number
+     */
+    public AccountDao(DataSource dataSource, AccountCache accountCache) {
+        this.dataSource = dataSource;
+        this.accountCache = accountCache;
+    }
 
+    public AccountCache getAccountCache() {
+        return accountCache;
+    }
+
+    /**
+     * Keyset paginated accounts, in ID order
+     * @param afterId ID of the last account of the previous page, 0 for the first page
+     * @param limit   maximum number of accounts of the page
+     * @return page of accounts with the cursor of the next page
+     * @throws Exception e
+     */
+    public Page<Account> getAccountsPage(long afterId, int limit) throws Exception {
+        log.info("getAccountsPage : after " + afterId + ", limit " + limit);
+        List<Account> accountList = new ArrayList<>(limit + 1);
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_PAGE)) {
+            stmt.setLong(1, afterId);
+            // one more row than the page tells whether a next page exists
+            stmt.setInt(2, limit + 1);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                Account acc = readAccount(rs);
+                accountList.add(acc);
+            }
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + SELECT_PAGE);
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+        if (accountList.size() <= limit) {
+            return new Page<>(accountList, null);
+        }
+        accountList.remove(limit);
+        return new Page<>(accountList, (long) accountList.get(limit - 1).getId());
+    }
 
     /**
      * Get all accounts list
@@ -41,17 +130,14 @@ public class AccountDao {
     public List<Account> getAllAccounts() throws Exception {
         List<Account> accountList = new ArrayList<>();
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
-
         // Try with resource to ensure resources are closed on exit
-        try(Connection conn = DriverManager.getConnection(DB_URL,USER,PASS);
+        try(Connection conn = dataSource.getConnection();
             Statement stmt = conn.createStatement();
             ResultSet rs = stmt.executeQuery(SELECT_ALL)){
             if (rs == null)
                 throw new SQLException("SQL Exception while executing : " + SELECT_ALL);
             while (rs.next()) {
-                Account acc = new Account(rs.getInt("ID"), rs.getInt("CUSTOMER_ID"), rs.getLong("ACCOUNT_NUMBER"), rs.getBigDecimal("BALANCE"), rs.getString("CURRENCY_CODE"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                Account acc = readAccount(rs);
                 accountList.add(acc);
             }
             return accountList;
@@ -74,17 +160,14 @@ public class AccountDao {
         ResultSet rs = null;
         Account account = null;
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
-
         // Try with resource to ensure resources are closed on exit
-        try(Connection conn = DriverManager.getConnection(DB_URL,USER,PASS);
+        try(Connection conn = dataSource.getConnection();
             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ID)){
             stmt.setInt(1, accountId);
             // Execute a query
             rs = stmt.executeQuery();
             if (rs.next()) {
-                account = new Account(rs.getInt("ID"), rs.getInt("CUSTOMER_ID"), rs.getLong("ACCOUNT_NUMBER"), rs.getBigDecimal("BALANCE"), rs.getString("CURRENCY_CODE"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                account = readAccount(rs);
             }
             return account;
         } catch(SQLException se) {
@@ -100,166 +183,602 @@ public class AccountDao {
     }
 
     /**
-     * Get account by unique account number
+     * Get account by unique account number, from the account cache when cached
+     * The account returned is shared by the callers and must not be modified.
      * @param accountNo account number
      * @return Account
      * @throws Exception e
      */
     public Account getAccountByAccountNo(Long accountNo) throws Exception {
         log.info("getAccountByAccountNo : "+ accountNo);
-        ResultSet rs = null;
-        Account account = null;
-
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
-
-        // Try with resource to ensure resources are closed on exit
-        try(Connection conn = DriverManager.getConnection(DB_URL,USER,PASS);
-            PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ACCOUNT_NO)){
-            stmt.setLong(1, accountNo);
-            //Execute a query
-            rs = stmt.executeQuery();
-            if (rs.next()) {
-                account = new Account(rs.getInt("ID"), rs.getInt("CUSTOMER_ID"), rs.getLong("ACCOUNT_NUMBER"), rs.getBigDecimal("BALANCE"), rs.getString("CURRENCY_CODE"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
-            }
-            return account;
-        } catch(SQLException se) {
-            log.severe("SQL Exception while executing : " + SELECT_BY_ID + " - accountNo : " + accountNo);
-            throw new SQLException(se);
-        } catch(Exception e) {
-            throw new Exception(e);
-        } finally {
-            DbUtils.closeQuietly(rs);
-            // finally block used to close remaining resources
-            // end finally try
-        }
+        return cachedAccount(accountNo);
     }
 
     /**
-     * Get account balance by unique account number
+     * Get account balance by unique account number, from the account cache when cached
      * @param accountNo account number
      * @return Account Balance
      * @throws Exception e
      */
     public BigDecimal getAccountBalance(Long accountNo) throws Exception {
         log.info("getAccountBalance : "+ accountNo);
-        ResultSet rs = null;
-        BigDecimal balance = null;
+        Account account = cachedAccount(accountNo);
+        return account == null ? null : account.getBalance();
+    }
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
+    /**
+     * @return account from the cache, read from the database and cached on a miss
+     */
+    private Account cachedAccount(Long accountNo) throws Exception {
+        Account account = accountCache.get(accountNo);
+        if (account != null) {
+            return account;
+        }
+        long stamp = accountCache.stamp(accountNo);
+        ResultSet rs = null;
 
         // Try with resource to ensure resources are closed on exit
-        try(Connection conn = DriverManager.getConnection(DB_URL,USER,PASS);
-            PreparedStatement stmt = conn.prepareStatement(GET_BALANCE_BY_ACCOUNT_NO)){
+        try(Connection conn = dataSource.getConnection();
+            PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ACCOUNT_NO)){
             stmt.setLong(1, accountNo);
             //Execute a query
             rs = stmt.executeQuery();
             if (rs.next()) {
-                balance = rs.getBigDecimal("BALANCE");
+                account = readAccount(rs);
+                accountCache.put(account, stamp);
             }
-            return balance;
+            return account;
         } catch(SQLException se) {
-            log.severe("SQL Exception while executing : " + GET_BALANCE_BY_ACCOUNT_NO + " - accountNo : " + accountNo);
+            log.severe("SQL Exception while executing : " + SELECT_BY_ACCOUNT_NO + " - accountNo : " + accountNo);
             throw new SQLException(se);
         } catch(Exception e) {
             throw new Exception(e);
         } finally {
             DbUtils.closeQuietly(rs);
-            // finally block used to close remaining resources
-            // end finally try
         }
     }
 
+    /**
+     * Drop accounts changed by a committed transaction from the account cache
+     * @param accountNos account numbers
+     */
+    void accountsChanged(Collection<Long> accountNos) {
+        accountCache.invalidate(accountNos);
+    }
+
     /**
      * Lock account by account number for update
+     * The lock is released as soon as the method returns, use {@link #lockAccountByNumber(Connection, Long)} to hold it
+     * for the duration of a transaction
      * @param accountNo Account number to be locked
      * @return Account locked for update
      * @throws Exception e
      */
     Account lockAccountByNumber(Long accountNo) throws Exception {
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection()) {
+            return lockAccountByNumber(conn, accountNo);
+        }
+    }
+
+    /**
+     * Lock account by account number for update within the caller's transaction
+     * The row lock is held until the caller commits or rolls back the connection
+     * @param conn      connection of the current transaction (auto commit disabled)
+     * @param accountNo Account number to be locked
+     * @return Account locked for update
+     * @throws Exception e
+     */
+    Account lockAccountByNumber(Connection conn, Long accountNo) throws Exception {
         log.info("lockAccountByNumber : " + accountNo);
         ResultSet rs = null;
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
-
         // Try with resource to ensure resources are closed on exit
-        try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
-             PreparedStatement lockStmt = conn.prepareStatement(LOCK_ACCOUNT_BY_NUMBER)) {
-
+        try (PreparedStatement lockStmt = conn.prepareStatement(LOCK_ACCOUNT_BY_NUMBER)) {
             lockStmt.setLong(1, accountNo);
             //Execute Lock query
             rs = lockStmt.executeQuery();
             if (rs.next()) {
-                return new Account(rs.getInt("ID"), rs.getInt("CUSTOMER_ID"), rs.getLong("ACCOUNT_NUMBER"), rs.getBigDecimal("BALANCE"), rs.getString("CURRENCY_CODE"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                return readAccount(rs);
             }
             return null;
-        } catch (Exception e) {
-            throw new Exception(e);
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + LOCK_ACCOUNT_BY_NUMBER + " - accountNo : " + accountNo);
+            throw se;
         } finally {
             DbUtils.closeQuietly(rs);
         }
+    }
 
+    /**
+     * Lock both accounts of a transfer for update within the caller's transaction
+     * Both rows are locked by a single statement, so every transaction acquires account locks in the same global
+     * order whatever the transfer direction : concurrent A to B and B to A transfers cannot deadlock.
+     * Sharded accounts are read without lock, their balance being only moved by relative updates.
+     * The row locks are held until the caller commits or rolls back the connection
+     * @param conn              connection of the current transaction (auto commit disabled)
+     * @param firstAccountNo    first account number
+     * @param secondAccountNo   second account number
+     * @return locked accounts by account number, missing accounts are absent from the map
+     * @throws Exception e
+     */
+    Map<Long, Account> lockAccountsByNumber(Connection conn, Long firstAccountNo, Long secondAccountNo) throws Exception {
+        log.info("lockAccountsByNumber : " + firstAccountNo + ", " + secondAccountNo);
+        Map<Long, Account> accounts = selectAccountsByNumber(conn, LOCK_ACCOUNTS_BY_NUMBERS, firstAccountNo, secondAccountNo);
+        if (accounts.size() < (firstAccountNo.equals(secondAccountNo) ? 1 : 2)) {
+            // sharded or missing accounts
+            for (Account account : selectAccountsByNumber(conn, SELECT_BY_ACCOUNT_NOS, firstAccountNo, secondAccountNo).values()) {
+                accounts.putIfAbsent(account.getAccountNo(), account);
+            }
+        }
+        return accounts;
     }
 
     /**
-     * Proceed with the fund transfer - to be called after verification and accounts lock for update
+     * Read both accounts of a transfer with their row version, without lock, within the caller's transaction
+     * @param conn              connection of the current transaction
+     * @param firstAccountNo    first account number
+     * @param secondAccountNo   second account number
+     * @return accounts by account number, missing accounts are absent from the map
+     * @throws Exception e
+     */
+    Map<Long, Account> getAccountsByNumber(Connection conn, Long firstAccountNo, Long secondAccountNo) throws Exception {
+        log.info("getAccountsByNumber : " + firstAccountNo + ", " + secondAccountNo);
+        return selectAccountsByNumber(conn, SELECT_BY_ACCOUNT_NOS, firstAccountNo, secondAccountNo);
+    }
+
+    /**
+     * Read the accounts of a batch of transfers by a single statement within the caller's transaction, locking them
+     * for update in account number order if requested : batches and single transfers acquire account locks in the
+     * same global order. Sharded accounts are read without lock.
+     * @param conn       connection of the current transaction (auto commit disabled)
+     * @param accountNos account numbers
+     * @param lock       true to lock the accounts until the caller commits or rolls back
+     * @return accounts by account number, missing accounts are absent from the map
+     * @throws Exception e
+     */
+    Map<Long, Account> getAccountsByNumbers(Connection conn, Collection<Long> accountNos, boolean lock) throws Exception {
+        log.info("getAccountsByNumbers : " + accountNos.size() + " accounts" + (lock ? ", locked" : ""));
+        Map<Long, Account> accounts = new HashMap<>(accountNos.size() * 2);
+        if (accountNos.isEmpty()) {
+            return accounts;
+        }
+        SortedSet<Long> sortedAccountNos = new TreeSet<>(accountNos);
+        StringBuilder inList = new StringBuilder("(?");
+        for (int i = 1; i < sortedAccountNos.size(); i++) {
+            inList.append(", ?");
+        }
+        inList.append(')');
+        selectAccountsByNumbers(conn, SELECT_BY_ACCOUNT_NO_LIST + inList + (lock ? LOCK_BY_ACCOUNT_NO_LIST : ""), sortedAccountNos, accounts);
+        if (lock && accounts.size() < sortedAccountNos.size()) {
+            // sharded or missing accounts
+            selectAccountsByNumbers(conn, SELECT_BY_ACCOUNT_NO_LIST + inList, sortedAccountNos, accounts);
+        }
+        return accounts;
+    }
+
+    private void selectAccountsByNumbers(Connection conn, String sqlQuery, SortedSet<Long> accountNos, Map<Long, Account> accounts) throws SQLException {
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement stmt = conn.prepareStatement(sqlQuery)) {
+            int index = 1;
+            for (Long accountNo : accountNos) {
+                stmt.setLong(index++, accountNo);
+            }
+            //Execute query
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                Account account = readAccount(rs);
+                accounts.putIfAbsent(account.getAccountNo(), account);
+            }
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + sqlQuery + " - " + accountNos.size() + " accountNos");
+            throw se;
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+    }
+
+    private Map<Long, Account> selectAccountsByNumber(Connection conn, String sqlQuery, Long firstAccountNo, Long secondAccountNo) throws Exception {
+        Map<Long, Account> accounts = new HashMap<>(4);
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement stmt = conn.prepareStatement(sqlQuery)) {
+            stmt.setLong(1, firstAccountNo);
+            stmt.setLong(2, secondAccountNo);
+            //Execute query
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                Account account = readAccount(rs);
+                accounts.put(account.getAccountNo(), account);
+            }
+            return accounts;
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + sqlQuery + " - accountNos : " + firstAccountNo + ", " + secondAccountNo);
+            throw se;
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+    }
+
+    /**
+     * Proceed with the fund transfer in its own transaction - to be called after verification
      * @param fromAccount source account
      * @param toAccount destination account
      * @param transfer  transfer
      * @return Transfer.transferResponse
      * @throws Exception e
      */
-    @SuppressWarnings("SameReturnValue")
     Transfer.transferResponse transferFund(Account fromAccount, Account toAccount, Transfer transfer) throws Exception {
-        log.info("transferFund from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
         Connection conn = null;
-        PreparedStatement updateStmt = null;
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
         try {
-            conn = DriverManager.getConnection(DB_URL, USER, PASS);
+            conn = dataSource.getConnection();
             //set autocommit false to control the rollback in case of exception
             conn.setAutoCommit(false);
-            updateStmt = conn.prepareStatement(UPDATE_ACCOUNT_BALANCE);
-            BigDecimal newSourceBalance = fromAccount.getBalance().setScale(2, BigDecimal.ROUND_HALF_EVEN).subtract(transfer.getDebitedAmount().setScale(2, BigDecimal.ROUND_HALF_EVEN));
-            BigDecimal newDestinationBalance = toAccount.getBalance().setScale(2, BigDecimal.ROUND_HALF_EVEN).add(transfer.getCreditedAmount().setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            Transfer.transferResponse response = transferFund(conn, fromAccount, toAccount, transfer);
+            //Commit DB transaction
+            conn.commit();
+            accountsChanged(Arrays.asList(transfer.getSourceAccountNo(), transfer.getDestinationAccountNo()));
+            return response;
+        } catch (Exception e) {
+            if (conn != null)
+                conn.rollback();
+            throw e;
+        } finally {
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Proceed with the fund transfer within the caller's transaction - to be called after verification and
+     * accounts lock for update on the same connection. The caller is responsible for commit and rollback.
+     * @param conn        connection of the current transaction (auto commit disabled)
+     * @param fromAccount source account
+     * @param toAccount   destination account
+     * @param transfer    transfer
+     * @return Transfer.transferResponse
+     * @throws Exception e
+     */
+    @SuppressWarnings("SameReturnValue")
+    Transfer.transferResponse transferFund(Connection conn, Account fromAccount, Account toAccount, Transfer transfer) throws Exception {
+        log.info("transferFund from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
+
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement updateStmt = conn.prepareStatement(UPDATE_ACCOUNT_BALANCE)) {
+            Money newSourceBalance = amount(fromAccount.getBalance()).minus(amount(transfer.getDebitedAmount()));
+            Money newDestinationBalance = amount(toAccount.getBalance()).plus(amount(transfer.getCreditedAmount()));
 
             //Proceed with add update source account to batch
-            updateStmt.setBigDecimal(1, newSourceBalance);
+            updateStmt.setBigDecimal(1, newSourceBalance.toBigDecimal());
             updateStmt.setLong(2, transfer.getSourceAccountNo());
             updateStmt.addBatch();
 
             //Proceed with add update update destination account to batch
-            updateStmt.setBigDecimal(1, newDestinationBalance);
+            updateStmt.setBigDecimal(1, newDestinationBalance.toBigDecimal());
             updateStmt.setLong(2, transfer.getDestinationAccountNo());
             updateStmt.addBatch();
 
             //Execute batch update
             updateStmt.executeBatch();
+        } catch (SQLException se) {
+            log.severe("SQL Exception while transferring fund from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
+            throw se;
+        }
+        return Transfer.transferResponse.SUCCESS;
+    }
 
-            //Commit DB transaction
-            conn.commit();
+    /**
+     * Proceed with the fund transfer within the caller's transaction, writing the new balances only if the accounts
+     * are still at the version they were read at - to be called after verification, no prior lock being needed.
+     * Both rows are updated in account number order. The caller is responsible for commit and rollback.
+     * @param conn        connection of the current transaction (auto commit disabled)
+     * @param fromAccount source account, as read with its version
+     * @param toAccount   destination account, as read with its version
+     * @param transfer    validated transfer
+     * @return Transfer.transferResponse
+     * @throws VersionConflictException if an account was updated since it was read
+     * @throws Exception e
+     */
+    @SuppressWarnings("SameReturnValue")
+    Transfer.transferResponse transferFundOptimistic(Connection conn, Account fromAccount, Account toAccount, Transfer transfer) throws Exception {
+        log.info("transferFundOptimistic from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
+        Map<Long, Money> balances = new TreeMap<>();
+        Map<Long, Long> versions = new HashMap<>(4);
+        balances.merge(fromAccount.getAccountNo(), amount(fromAccount.getBalance()).minus(amount(transfer.getDebitedAmount())), Money::plus);
+        versions.put(fromAccount.getAccountNo(), fromAccount.getVersion());
+        if (toAccount.getAccountNo() == fromAccount.getAccountNo()) {
+            balances.merge(toAccount.getAccountNo(), amount(transfer.getCreditedAmount()), Money::plus);
+        } else {
+            balances.put(toAccount.getAccountNo(), amount(toAccount.getBalance()).plus(amount(transfer.getCreditedAmount())));
+            versions.put(toAccount.getAccountNo(), toAccount.getVersion());
+        }
+
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement updateStmt = conn.prepareStatement(UPDATE_ACCOUNT_BALANCE_VERSIONED)) {
+            for (Map.Entry<Long, Money> balance : balances.entrySet()) {
+                updateStmt.setBigDecimal(1, balance.getValue().toBigDecimal());
+                updateStmt.setLong(2, balance.getKey());
+                updateStmt.setLong(3, versions.get(balance.getKey()));
+                if (updateStmt.executeUpdate() == 0) {
+                    throw new VersionConflictException("Account updated since read : " + balance.getKey() + " - version : " + versions.get(balance.getKey()));
+                }
+            }
+        } catch (VersionConflictException ve) {
+            log.info(ve.getMessage());
+            throw ve;
         } catch (SQLException se) {
             log.severe("SQL Exception while transferring fund from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
-            if (conn != null)
+            throw se;
+        }
+        return Transfer.transferResponse.SUCCESS;
+    }
+
+    /**
+     * Proceed with the fund transfer using relative balance updates within the caller's transaction
+     * The debit only applies if the balance covers the debited amount, so no prior lock is needed. Both rows are
+     * updated in account number order, the same order used by the locking path, to avoid deadlocks.
+     * The caller is responsible for commit and rollback.
+     * @param conn     connection of the current transaction (auto commit disabled)
+     * @param transfer validated transfer
+     * @return SUCCESS, INSUFFICIENT_FUND if the debit condition failed, INVALID_TO_ACC if the credit found no account
+     * @throws Exception e
+     */
+    Transfer.transferResponse transferFundConditional(Connection conn, Transfer transfer) throws Exception {
+        log.info("transferFundConditional from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
+        BigDecimal debitedAmount = amount(transfer.getDebitedAmount()).toBigDecimal();
+        BigDecimal creditedAmount = amount(transfer.getCreditedAmount()).toBigDecimal();
+        // balance changes are undone on failure while the transfer record can still be written
+        Savepoint savepoint = conn.setSavepoint();
+
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement debitStmt = conn.prepareStatement(DEBIT_ACCOUNT_BALANCE);
+             PreparedStatement creditStmt = conn.prepareStatement(CREDIT_ACCOUNT_BALANCE)) {
+            debitStmt.setBigDecimal(1, debitedAmount);
+            debitStmt.setLong(2, transfer.getSourceAccountNo());
+            debitStmt.setBigDecimal(3, debitedAmount);
+            creditStmt.setBigDecimal(1, creditedAmount);
+            creditStmt.setLong(2, transfer.getDestinationAccountNo());
+
+            int debited;
+            int credited;
+            if (transfer.getSourceAccountNo().compareTo(transfer.getDestinationAccountNo()) <= 0) {
+                debited = debitStmt.executeUpdate();
+                credited = debited == 0 ? 0 : creditStmt.executeUpdate();
+            } else {
+                credited = creditStmt.executeUpdate();
+                debited = debitStmt.executeUpdate();
+            }
+            if (debited == 0) {
+                log.info("Insufficient balance on account : " + transfer.getSourceAccountNo());
+                conn.rollback(savepoint);
+                return Transfer.transferResponse.INSUFFICIENT_FUND;
+            }
+            if (credited == 0) {
+                log.info("Destination account not found : " + transfer.getDestinationAccountNo());
+                conn.rollback(savepoint);
+                return Transfer.transferResponse.INVALID_TO_ACC;
+            }
+        } catch (SQLException se) {
+            log.severe("SQL Exception while transferring fund from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
+            throw se;
+        }
+        return Transfer.transferResponse.SUCCESS;
+    }
+
+    /**
+     * Proceed with the fund transfer using relative balance updates within the caller's transaction, when one of the
+     * accounts is sharded : a sharded destination is credited on one of its sub-balance slots picked at random, without
+     * contending on its ACCOUNTS row, a sharded source is debited on its own balance, its slots being swept into it
+     * when it does not cover the debit. Rows are updated in account number order. The caller is responsible for
+     * commit and rollback.
+     * @param conn        connection of the current transaction (auto commit disabled)
+     * @param fromAccount source account
+     * @param toAccount   destination account
+     * @param transfer    validated transfer
+     * @return SUCCESS, INSUFFICIENT_FUND if the balance does not cover the debit, INVALID_TO_ACC if the credit found no
+     * account
+     * @throws Exception e
+     */
+    Transfer.transferResponse transferFundSharded(Connection conn, Account fromAccount, Account toAccount, Transfer transfer) throws Exception {
+        log.info("transferFundSharded from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
+        BigDecimal debitedAmount = amount(transfer.getDebitedAmount()).toBigDecimal();
+        BigDecimal creditedAmount = amount(transfer.getCreditedAmount()).toBigDecimal();
+        // balance changes are undone on failure while the transfer record can still be written
+        Savepoint savepoint = conn.setSavepoint();
+
+        try {
+            boolean debited;
+            boolean credited;
+            if (fromAccount.getAccountNo() <= toAccount.getAccountNo()) {
+                debited = debit(conn, fromAccount, debitedAmount);
+                credited = debited && credit(conn, toAccount, creditedAmount);
+            } else {
+                credited = credit(conn, toAccount, creditedAmount);
+                debited = debit(conn, fromAccount, debitedAmount);
+            }
+            if (!debited) {
+                log.info("Insufficient balance on account : " + transfer.getSourceAccountNo());
+                conn.rollback(savepoint);
+                return Transfer.transferResponse.INSUFFICIENT_FUND;
+            }
+            if (!credited) {
+                log.info("Destination account not found : " + transfer.getDestinationAccountNo());
+                conn.rollback(savepoint);
+                return Transfer.transferResponse.INVALID_TO_ACC;
+            }
+        } catch (SQLException se) {
+            log.severe("SQL Exception while transferring fund from : " + transfer.getSourceAccountNo() + " to : " + transfer.getDestinationAccountNo() + " of amount : " + transfer.getTransferAmount() + transfer.getTransferCurrencyCode());
+            throw se;
+        }
+        return Transfer.transferResponse.SUCCESS;
+    }
+
+    /**
+     * @return false if the balance, slots included for a sharded account, does not cover the amount
+     */
+    private boolean debit(Connection conn, Account account, BigDecimal amount) throws SQLException {
+        try (PreparedStatement debitStmt = conn.prepareStatement(DEBIT_ACCOUNT_BALANCE)) {
+            debitStmt.setBigDecimal(1, amount);
+            debitStmt.setLong(2, account.getAccountNo());
+            debitStmt.setBigDecimal(3, amount);
+            if (debitStmt.executeUpdate() > 0) {
+                return true;
+            }
+            if (account.getBalanceSlots() == 0) {
+                return false;
+            }
+            sweepBalanceSlots(conn, account.getAccountNo());
+            return debitStmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * @return false if the account no longer exists
+     */
+    private boolean credit(Connection conn, Account account, BigDecimal amount) throws SQLException {
+        if (account.getBalanceSlots() == 0) {
+            try (PreparedStatement creditStmt = conn.prepareStatement(CREDIT_ACCOUNT_BALANCE)) {
+                creditStmt.setBigDecimal(1, amount);
+                creditStmt.setLong(2, account.getAccountNo());
+                return creditStmt.executeUpdate() > 0;
+            }
+        }
+        try (PreparedStatement creditStmt = conn.prepareStatement(CREDIT_BALANCE_SLOT)) {
+            creditStmt.setBigDecimal(1, amount);
+            creditStmt.setLong(2, account.getAccountNo());
+            creditStmt.setInt(3, ThreadLocalRandom.current().nextInt(account.getBalanceSlots()));
+            return creditStmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Move the sub-balances of a sharded account into its own balance, within the caller's transaction
+     * The slots are locked first, so that no credit committed meanwhile is lost.
+     */
+    private void sweepBalanceSlots(Connection conn, long accountNo) throws SQLException {
+        BigDecimal swept = BigDecimal.ZERO;
+        ResultSet rs = null;
+        try (PreparedStatement lockStmt = conn.prepareStatement(LOCK_BALANCE_SLOTS);
+             PreparedStatement emptyStmt = conn.prepareStatement(EMPTY_BALANCE_SLOTS);
+             PreparedStatement creditStmt = conn.prepareStatement(CREDIT_ACCOUNT_BALANCE)) {
+            lockStmt.setLong(1, accountNo);
+            rs = lockStmt.executeQuery();
+            while (rs.next()) {
+                swept = swept.add(rs.getBigDecimal("BALANCE"));
+            }
+            if (swept.signum() == 0) {
+                return;
+            }
+            emptyStmt.setLong(1, accountNo);
+            emptyStmt.executeUpdate();
+            creditStmt.setBigDecimal(1, swept);
+            creditStmt.setLong(2, accountNo);
+            creditStmt.executeUpdate();
+            log.info("Balance slots of account " + accountNo + " swept : " + swept);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+    }
+
+    /**
+     * Shard an account balance over sub-balance slots, or change its number of slots
+     * The current slots are swept into the account balance and replaced by empty ones, in one transaction : the
+     * balance of the account is unchanged.
+     *
+     * @param accountNo    account number
+     * @param balanceSlots number of slots, 0 to stop sharding the account
+     * @return Account.accountResponse
+     * @throws Exception e
+     */
+    public Account.accountResponse setBalanceSlots(Long accountNo, int balanceSlots) throws Exception {
+        log.info("setBalanceSlots : " + accountNo + " - slots : " + balanceSlots);
+        if (balanceSlots < 0 || balanceSlots > MAX_BALANCE_SLOTS) {
+            return Account.accountResponse.INVALID_BALANCE_SLOTS;
+        }
+        Connection conn = null;
+
+        try {
+            conn = dataSource.getConnection();
+            //set autocommit false to control the rollback in case of exception
+            conn.setAutoCommit(false);
+
+            if (lockAccountByNumber(conn, accountNo) == null) {
                 conn.rollback();
-            throw new SQLException(se);
-        } catch (Exception e) {
+                return Account.accountResponse.ACCOUNT_NOT_FOUND;
+            }
+            sweepBalanceSlots(conn, accountNo);
+            try (PreparedStatement deleteStmt = conn.prepareStatement(DELETE_BALANCE_SLOTS);
+                 PreparedStatement insertStmt = conn.prepareStatement(INSERT_BALANCE_SLOT);
+                 PreparedStatement updateStmt = conn.prepareStatement(SET_BALANCE_SLOTS)) {
+                deleteStmt.setLong(1, accountNo);
+                deleteStmt.executeUpdate();
+                for (int slot = 0; slot < balanceSlots; slot++) {
+                    insertStmt.setLong(1, accountNo);
+                    insertStmt.setInt(2, slot);
+                    insertStmt.addBatch();
+                }
+                if (balanceSlots > 0) {
+                    insertStmt.executeBatch();
+                }
+                updateStmt.setInt(1, balanceSlots);
+                updateStmt.setLong(2, accountNo);
+                updateStmt.executeUpdate();
+            }
+            conn.commit();
+            accountCache.invalidate(accountNo);
+        } catch (SQLException se) {
+            log.severe("SQL Exception while setting balance slots of account : " + accountNo);
             if (conn != null)
                 conn.rollback();
-            throw new Exception(e);
+            throw new SQLException(se);
         } finally {
             DbUtils.closeQuietly(conn);
-            DbUtils.closeQuietly(updateStmt);
         }
-        return Transfer.transferResponse.SUCCESS;
+        return Account.accountResponse.SUCCESS;
+    }
+
+    /**
+     * Apply the balance movements of successful transfers as relative updates within the caller's transaction : used
+     * when the balances are checked and moved outside of the database
+     * Movements are netted per account, one update per account being run in account number order.
+     * @param conn      connection of the current transaction (auto commit disabled)
+     * @param transfers processed transfers, only the successful ones moving funds
+     * @throws SQLException e, or if an account no longer exists
+     */
+    void applyTransferMovements(Connection conn, List<Transfer> transfers) throws SQLException {
+        // net movements in minor units
+        Map<Long, Long> movements = new TreeMap<>();
+        for (Transfer transfer : transfers) {
+            if (transfer.getResponse() != Transfer.transferResponse.SUCCESS)
+                continue;
+            movements.merge(transfer.getSourceAccountNo(), -amount(transfer.getDebitedAmount()).getMinor(), Math::addExact);
+            movements.merge(transfer.getDestinationAccountNo(), amount(transfer.getCreditedAmount()).getMinor(), Math::addExact);
+        }
+        if (movements.isEmpty())
+            return;
+
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement stmt = conn.prepareStatement(CREDIT_ACCOUNT_BALANCE)) {
+            for (Map.Entry<Long, Long> movement : movements.entrySet()) {
+                stmt.setBigDecimal(1, Money.ofMinor(movement.getValue(), Money.AMOUNT_SCALE).toBigDecimal());
+                stmt.setLong(2, movement.getKey());
+                stmt.addBatch();
+            }
+            int[] counts = stmt.executeBatch();
+            int i = 0;
+            for (Long accountNo : movements.keySet()) {
+                if (counts[i++] == 0)
+                    throw new SQLException("Account not found : " + accountNo);
+            }
+        }
     }
 
     /**
      * Delete account by account number (will only delete if balance is zero)
+     * The account is locked, checked and deleted in a single transaction
      *
      * @param accountNo account number to delete
      * @return Account.accountResponse
@@ -270,24 +789,30 @@ public class AccountDao {
         Connection conn = null;
         PreparedStatement updateStmt = null;
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
         try {
-            Account account = lockAccountByNumber(accountNo);
+            conn = dataSource.getConnection();
+            //set autocommit false to control the rollback in case of exception
+            conn.setAutoCommit(false);
+
+            Account account = lockAccountByNumber(conn, accountNo);
             if (account == null) {
+                conn.rollback();
                 return Account.accountResponse.ACCOUNT_NOT_FOUND;
             }
-            if (!account.getBalance().setScale(2, BigDecimal.ROUND_HALF_EVEN).equals(new BigDecimal(0).setScale(2, BigDecimal.ROUND_HALF_EVEN))) {
+            if (!amount(account.getBalance()).isZero()) {
+                conn.rollback();
                 return Account.accountResponse.BALANCE_NOT_ZERO;
             }
 
-            conn = DriverManager.getConnection(DB_URL, USER, PASS);
-            //set autocommit false to control the rollback in case of exception
-            conn.setAutoCommit(false);
-
+            try (PreparedStatement slotsStmt = conn.prepareStatement(DELETE_BALANCE_SLOTS)) {
+                slotsStmt.setLong(1, accountNo);
+                slotsStmt.executeUpdate();
+            }
             updateStmt = conn.prepareStatement(DELETE_ACCOUNT);
             updateStmt.setLong(1, accountNo);
-
+            updateStmt.executeUpdate();
+            conn.commit();
+            accountCache.invalidate(accountNo);
         } catch (SQLException se) {
             log.severe("SQL Exception while deleting account : " + accountNo);
             if (conn != null)
@@ -298,9 +823,111 @@ public class AccountDao {
                 conn.rollback();
             throw new Exception(e);
         } finally {
-            DbUtils.closeQuietly(conn);
             DbUtils.closeQuietly(updateStmt);
+            DbUtils.closeQuietly(conn);
         }
         return Account.accountResponse.SUCCESS;
     }
+
+    /**
+     * Bulk import of accounts
+     * Accounts are inserted in chunks of batchSize rows, each chunk being sent as one JDBC batch and committed as one
+     * transaction, with its account IDs allocated from ACCOUNTS_SEQ as one block in a single round trip.
+     * On failure the current chunk is rolled back, the chunks already committed are kept.
+     *
+     * @param accounts  accounts to import, read one chunk at a time
+     * @param batchSize number of accounts per batch and transaction
+     * @return number of accounts imported
+     * @throws ProjectException with the number of accounts imported before the failure, caused by an
+     *                          IllegalArgumentException for an invalid account or by the SQLException
+     */
+    public long importAccounts(Iterator<Account> accounts, int batchSize) throws ProjectException {
+        log.info("importAccounts : batch size " + batchSize);
+        long imported = 0;
+        Connection conn = null;
+        List<Account> chunk = new ArrayList<>(batchSize);
+
+        try {
+            conn = dataSource.getConnection();
+            //set autocommit false to commit one chunk at a time
+            conn.setAutoCommit(false);
+            try (PreparedStatement idStmt = conn.prepareStatement(ALLOCATE_ACCOUNT_IDS);
+                 PreparedStatement insertStmt = conn.prepareStatement(INSERT_ACCOUNT)) {
+                while (accounts.hasNext()) {
+                    chunk.clear();
+                    while (chunk.size() < batchSize && accounts.hasNext()) {
+                        Account account = accounts.next();
+                        validateImport(account, imported + chunk.size() + 1);
+                        chunk.add(account);
+                    }
+                    int[] ids = allocateIds(idStmt, chunk.size());
+                    for (int i = 0; i < chunk.size(); i++) {
+                        Account account = chunk.get(i);
+                        insertStmt.setInt(1, ids[i]);
+                        insertStmt.setInt(2, account.getAccountOwnerId());
+                        insertStmt.setLong(3, account.getAccountNo());
+                        insertStmt.setBigDecimal(4, amount(account.getBalance()).toBigDecimal());
+                        insertStmt.setString(5, account.getCurrencyCode());
+                        insertStmt.addBatch();
+                    }
+                    insertStmt.executeBatch();
+                    conn.commit();
+                    imported += chunk.size();
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.severe("Exception while importing accounts, " + imported + " accounts imported : " + e.getMessage());
+            try {
+                DbUtils.rollback(conn);
+            } catch (SQLException re) {
+                log.severe("SQL Exception while rolling back the current chunk : " + re.getMessage());
+            }
+            throw new ProjectException(imported + " accounts imported before failure : " + e.getMessage(), e);
+        } finally {
+            DbUtils.closeQuietly(conn);
+        }
+        log.info("importAccounts : " + imported + " accounts imported");
+        return imported;
+    }
+
+    private static int[] allocateIds(PreparedStatement idStmt, int count) throws SQLException {
+        int[] ids = new int[count];
+        idStmt.setInt(1, count);
+        try (ResultSet rs = idStmt.executeQuery()) {
+            for (int i = 0; i < count && rs.next(); i++) {
+                ids[i] = rs.getInt(1);
+            }
+        }
+        return ids;
+    }
+
+    private static void validateImport(Account account, long recordNo) {
+        if (account == null) {
+            throw new IllegalArgumentException("Account " + recordNo + " : empty record.");
+        }
+        if (account.getAccountNo() <= 0 || account.getAccountNo() > MAX_ACCOUNT_NUMBER) {
+            throw new IllegalArgumentException("Account " + recordNo + " : invalid account number " + account.getAccountNo() + ".");
+        }
+        if (account.getBalance() == null || account.getBalance().signum() < 0
+                || account.getBalance().stripTrailingZeros().scale() > Money.AMOUNT_SCALE) {
+            throw new IllegalArgumentException("Account " + recordNo + " : invalid balance " + account.getBalance() + ".");
+        }
+        if (!CurrencyRegistry.isValid(account.getCurrencyCode())) {
+            throw new IllegalArgumentException("Account " + recordNo + " : invalid currency code " + account.getCurrencyCode() + ".");
+        }
+    }
+
+    /**
+     * @return amount in minor units, at the scale of the balance column
+     */
+    private static Money amount(BigDecimal amount) {
+        return Money.of(amount, Money.AMOUNT_SCALE);
+    }
+
+    private static Account readAccount(ResultSet rs) throws SQLException {
+        Account account = new Account(rs.getInt("ID"), rs.getInt("CUSTOMER_ID"), rs.getLong("ACCOUNT_NUMBER"), rs.getBigDecimal("BALANCE"), rs.getString("CURRENCY_CODE"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+        account.setVersion(rs.getLong("VERSION"));
+        account.setBalanceSlots(rs.getInt("BALANCE_SLOTS"));
+        return account;
+    }
 }
@@ -0,0 +1,21 @@
+package com.revolut.moneytransfer.dao;
+
+/**
+ * Concurrency control used by the database transfer path
+ */
+public enum ConcurrencyMode {
+    /**
+     * Both accounts are locked with SELECT ... FOR UPDATE, validated and written with their new balances
+     */
+    PESSIMISTIC,
+    /**
+     * Accounts are read without lock and the balances are moved with relative updates, the debit being guarded by
+     * a BALANCE >= amount condition : row locks are only held for the duration of each update statement
+     */
+    CONDITIONAL,
+    /**
+     * Accounts are read without lock with their row version, validated and written with their new balances only if
+     * their version is unchanged : a transfer conflicting with a concurrent update is rolled back and retried
+     */
+    OPTIMISTIC
+}
@@ -0,0 +1,138 @@
+package com.revolut.moneytransfer.dao;
+
+import com.revolut.moneytransfer.config.AppConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+/**
+ * Single pooled DataSource shared by all DAOs
+ * Pool size, validation and wait time limits are read from the application configuration
+ */
+public final class ConnectionPool {
+    private static final Logger log = Logger.getLogger("ConnectionPool");
+    // JDBC driver name
+    private static final String JDBC_DRIVER = "org.h2.Driver";
+    // MVStore file extension appended by H2 to the database path
+    private static final String STORE_FILE_EXTENSION = ".mv.db";
+
+    private static final PoolMetrics metrics = new PoolMetrics();
+    private static volatile HikariDataSource dataSource;
+
+    private ConnectionPool() {
+    }
+
+    /**
+     * @return the shared pooled DataSource, created on first call
+     */
+    public static DataSource getDataSource() {
+        HikariDataSource ds = dataSource;
+        if (ds == null) {
+            synchronized (ConnectionPool.class) {
+                ds = dataSource;
+                if (ds == null) {
+                    ds = createDataSource();
+                    dataSource = ds;
+                }
+            }
+        }
+        return ds;
+    }
+
+    /**
+     * @return connection pool metrics
+     */
+    public static PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Close all pooled connections
+     */
+    public static synchronized void shutdown() {
+        if (dataSource != null) {
+            log.info("Closing connection pool ...");
+            dataSource.close();
+            dataSource = null;
+            log.info("... Connection pool closed.");
+        }
+    }
+
+    /**
+     * @return true when the database is a persistent file store (db.mode=file)
+     */
+    public static boolean isFileMode() {
+        return "file".equalsIgnoreCase(AppConfig.getString("db.mode", "memory"));
+    }
+
+    /**
+     * @return JDBC URL of the configured database
+     */
+    static String getJdbcUrl() {
+        if (!isFileMode()) {
+            return AppConfig.getString("db.url", "jdbc:h2:mem:moneytransferapp;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=1000");
+        }
+        return "jdbc:h2:file:" + AppConfig.getString("db.file.path", "./data/moneytransfer")
+                + ";CACHE_SIZE=" + AppConfig.getInt("db.file.cacheSizeKb", 65536)
+                + ";WRITE_DELAY=" + AppConfig.getInt("db.file.writeDelayMs", 500)
+                + ";MAX_COMPACT_TIME=" + AppConfig.getInt("db.file.maxCompactTimeMs", 200)
+                + ";LOCK_TIMEOUT=" + AppConfig.getInt("db.file.lockTimeoutMs", 1000);
+    }
+
+    /**
+     * Copy the prebuilt store image (db.file.image) to the database path when no database file exists yet,
+     * so that a new node starts from a ready store instead of loading its data
+     */
+    private static void seedFromImage() {
+        String image = AppConfig.getString("db.file.image", "");
+        Path store = Paths.get(AppConfig.getString("db.file.path", "./data/moneytransfer") + STORE_FILE_EXTENSION);
+        if (image.isEmpty() || Files.exists(store)) {
+            return;
+        }
+        try (InputStream in = ConnectionPool.class.getResourceAsStream(image)) {
+            if (in == null) {
+                log.warning("Database image " + image + " not found, starting with an empty store.");
+                return;
+            }
+            if (store.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(store.toAbsolutePath().getParent());
+            }
+            Files.copy(in, store);
+            log.info("Database store created from image " + image);
+        } catch (IOException e) {
+            log.severe("Error while copying database image " + image);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static HikariDataSource createDataSource() {
+        log.info("Initializing connection pool ...");
+        if (isFileMode()) {
+            seedFromImage();
+        }
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("moneytransfer");
+        config.setDriverClassName(JDBC_DRIVER);
+        config.setJdbcUrl(getJdbcUrl());
+        config.setUsername(AppConfig.getString("db.user", "sa"));
+        config.setPassword(AppConfig.getString("db.password", "sa"));
+        config.setMaximumPoolSize(AppConfig.getInt("db.pool.maxSize", 10));
+        config.setMinimumIdle(AppConfig.getInt("db.pool.minIdle", 2));
+        config.setConnectionTimeout(AppConfig.getLong("db.pool.connectionTimeoutMs", 2000));
+        config.setValidationTimeout(AppConfig.getLong("db.pool.validationTimeoutMs", 1000));
+        config.setIdleTimeout(AppConfig.getLong("db.pool.idleTimeoutMs", 600000));
+        config.setMaxLifetime(AppConfig.getLong("db.pool.maxLifetimeMs", 1800000));
+        config.setLeakDetectionThreshold(AppConfig.getLong("db.pool.leakDetectionThresholdMs", 0));
+        config.setMetricsTrackerFactory(metrics);
+        HikariDataSource ds = new HikariDataSource(config);
+        log.info("... Connection pool initialized, max size : " + config.getMaximumPoolSize());
+        return ds;
+    }
+}
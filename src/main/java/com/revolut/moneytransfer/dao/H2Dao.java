@@ -1,40 +1,42 @@
 package com.revolut.moneytransfer.dao;
 
+import com.revolut.moneytransfer.config.AppConfig;
+import com.revolut.moneytransfer.engine.AsyncTransferProcessor;
+import com.revolut.moneytransfer.engine.TransferEngine;
+import com.revolut.moneytransfer.engine.TransferEngines;
 import org.apache.commons.dbutils.DbUtils;
 import org.h2.tools.RunScript;
 
+import javax.sql.DataSource;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.logging.Logger;
 
 public class H2Dao {
     static final private Logger log = Logger.getLogger("H2Dao");
-    // JDBC driver name and database URL
-    static final private String JDBC_DRIVER = "org.h2.Driver";
-    static final private String DB_URL = "jdbc:h2:mem:moneytransferapp;DB_CLOSE_DELAY=-1";
 
-    //  Database credentials
-    static final private String USER = "sa";
-    static final private String PASS = "sa";
-
-    private final AccountDao accountDao = new AccountDao();
-    private final TransferDao transferDao = new TransferDao();
-    private final RateDao rateDao = new RateDao();
-
-
-    public H2Dao() {
-        // init: load driver
-        log.info("Initializing Driver ...");
-        DbUtils.loadDriver(JDBC_DRIVER);
-        log.info("... Driver Initialisation completed.");
-    }
+    // Single pooled DataSource and DAOs shared by every H2Dao instance
+    static final private DataSource dataSource = ConnectionPool.getDataSource();
+    static final private AccountDao accountDao = new AccountDao(dataSource, new AccountCache(
+            AppConfig.getInt("account.cache.capacity", 100000),
+            AppConfig.getLong("account.cache.ttlSeconds", 60) * 1000));
+    static final private RateDao rateDao = new RateDao(dataSource, AppConfig.getString("rates.pivot", "EUR"));
+    static final private TransferDao transferDao = new TransferDao(dataSource, accountDao, rateDao);
+    static final private IdempotencyDao idempotencyDao = new IdempotencyDao(dataSource, transferDao,
+            AppConfig.getInt("transfer.idempotency.capacity", 100000),
+            AppConfig.getLong("transfer.idempotency.ttlSeconds", 86400) * 1000);
+    // started on first use, once the database is prepared, and restarted when the database is recreated
+    static private TransferEngine transferEngine;
+    // started on first use, processing the transfers through the current transfer engine
+    static private AsyncTransferProcessor asyncTransfers;
 
     private static Connection getConnection() throws SQLException {
         log.info("Connexion to H2 database");
-        return DriverManager.getConnection(DB_URL, USER, PASS);
+        return dataSource.getConnection();
 
     }
 
@@ -50,27 +52,148 @@ public class H2Dao {
         return rateDao;
     }
 
+    public IdempotencyDao getIdempotencyDao() {
+        return idempotencyDao;
+    }
+
+    /**
+     * @return transfer engine, started on first call
+     */
+    public TransferEngine getTransferEngine() {
+        synchronized (H2Dao.class) {
+            if (transferEngine == null) {
+                try {
+                    transferEngine = TransferEngines.create(accountDao, transferDao);
+                } catch (Exception e) {
+                    log.severe("Error while starting transfer engine.");
+                    throw new RuntimeException(e);
+                }
+            }
+            return transferEngine;
+        }
+    }
+
+    /**
+     * @return asynchronous transfer processor, started on first call
+     */
+    public AsyncTransferProcessor getAsyncTransfers() {
+        synchronized (H2Dao.class) {
+            if (asyncTransfers == null) {
+                asyncTransfers = new AsyncTransferProcessor(this::getTransferEngine, transferDao,
+                        AppConfig.getInt("transfer.async.threads", 16),
+                        AppConfig.getInt("transfer.async.queueCapacity", 10000),
+                        AppConfig.getInt("transfer.async.completedCapacity", 10000));
+            }
+            return asyncTransfers;
+        }
+    }
+
+    /**
+     * Process the transfers accepted asynchronously and stop the workers, before the transfer engine is stopped
+     */
+    public void shutdownAsyncTransfers() {
+        AsyncTransferProcessor processor;
+        synchronized (H2Dao.class) {
+            processor = asyncTransfers;
+            asyncTransfers = null;
+        }
+        if (processor != null) {
+            processor.shutdown();
+        }
+    }
+
+    /**
+     * Stop the transfer engine, recording every transfer already processed
+     * The next call to getTransferEngine() starts a new engine from the database.
+     */
+    public void shutdownTransferEngine() {
+        synchronized (H2Dao.class) {
+            if (transferEngine != null) {
+                transferEngine.shutdown();
+                transferEngine = null;
+            }
+        }
+    }
 
+
+    /**
+     * Prepare the database on application start
+     * In memory mode the demo database is recreated. In file mode an existing store is opened as is, only pending
+     * migrations being applied, and the demo data is only loaded into a new store.
+     */
+    public void initDatabase() {
+        shutdownTransferEngine();
+        if (!ConnectionPool.isFileMode()) {
+            loadH2Database();
+            return;
+        }
+        log.info("Start initDatabase ...");
+        Connection conn = null;
+        try {
+            conn = H2Dao.getConnection();
+            int storedVersion = SchemaMigrator.currentVersion(conn);
+            int version = SchemaMigrator.migrate(conn);
+            log.info("... Schema migrated from version " + storedVersion + " to version " + version + ".");
+            if (storedVersion == 0) {
+                loadDemoData(conn);
+            }
+        } catch (SQLException e) {
+            log.severe("Error while initializing database.");
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            log.severe("Error while reading database scripts.");
+            throw new RuntimeException(e);
+        } finally {
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Recreate the database : drop every object, apply the schema migrations then load the demo data
+     */
     public void loadH2Database() {
         log.info("Start loadH2Database ...");
+        // balances held by the engine would no longer match the database
+        shutdownTransferEngine();
+        // keys cached for transfers which no longer exist
+        idempotencyDao.clearCache();
+        // accounts cached from the previous database
+        accountDao.getAccountCache().clear();
         Connection conn = null;
         try {
             log.info("Connexion to H2 database ...");
             conn = H2Dao.getConnection();
             log.info("... Connexion established.");
-            log.info("Execution of Loading script ...");
-            RunScript.execute(conn, new FileReader("src/main/resources/db.sql"));
-            log.info("... Loading script executed successfully.");
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP ALL OBJECTS");
+            }
+            log.info("Applying schema migrations ...");
+            int version = SchemaMigrator.migrate(conn);
+            log.info("... Schema migrated to version " + version + ".");
+            loadDemoData(conn);
+            // rates read from the previous database
+            rateDao.invalidateRates();
         } catch (SQLException e) {
             log.severe("Error while executing loading script.");
             throw new RuntimeException(e);
         } catch (FileNotFoundException e) {
             log.severe("Loading script not found.");
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            log.severe("Error while reading loading script.");
+            throw new RuntimeException(e);
         } finally {
             log.info("Closing H2 database connexion ...");
             DbUtils.closeQuietly(conn);
             log.info("... Connexion closed quietly.");
         }
     }
+
+    private static void loadDemoData(Connection conn) throws SQLException, IOException {
+        log.info("Execution of Loading script ...");
+        try (Reader reader = SchemaMigrator.openScript("/db.sql")) {
+            RunScript.execute(conn, reader);
+        }
+        log.info("... Loading script executed successfully.");
+    }
 }
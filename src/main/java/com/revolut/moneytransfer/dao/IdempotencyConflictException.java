@@ -0,0 +1,15 @@
+package com.revolut.moneytransfer.dao;
+
+import com.revolut.moneytransfer.exception.ProjectException;
+
+/**
+ * Idempotency-Key rejected : reused for another transfer, or its transfer is still being processed
+ */
+public class IdempotencyConflictException extends ProjectException {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdempotencyConflictException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,290 @@
+package com.revolut.moneytransfer.dao;
+
+import com.revolut.moneytransfer.model.Transfer;
+import org.apache.commons.dbutils.DbUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Idempotency keys of the transfer requests : a request retried with the same key gets the result of the first one,
+ * its transfer being processed once
+ * Recent keys and their results are kept in a bounded in-memory cache, looked up in O(1) without allocation. The cache
+ * holds at most capacity keys, the oldest being evicted first, each key expiring ttl after its first request.
+ * Keys are backed by the IDEMPOTENCY_KEYS table : a key is claimed there, with the ID allocated to its transfer, before
+ * the transfer is processed, so that a retry reaching another instance, or arriving once the key is evicted from the
+ * cache, finds the original transfer by its ID instead of processing it again.
+ */
+public class IdempotencyDao {
+    private static final Logger log = Logger.getLogger("IdempotencyDao");
+
+    private static final String INSERT_KEY = "INSERT INTO IDEMPOTENCY_KEYS (IDEMPOTENCY_KEY, TRANSFER_ID, REQUEST_HASH, CREATED_DT) values (?, ?, ?, ?)";
+    private static final String SELECT_KEY = "SELECT TRANSFER_ID, REQUEST_HASH, CREATED_DT FROM IDEMPOTENCY_KEYS WHERE IDEMPOTENCY_KEY = ?";
+    private static final String DELETE_KEY = "DELETE FROM IDEMPOTENCY_KEYS WHERE IDEMPOTENCY_KEY = ? AND TRANSFER_ID = ?";
+    private static final String DELETE_EXPIRED_KEYS = "DELETE FROM IDEMPOTENCY_KEYS WHERE CREATED_DT < ?";
+    // expired keys are deleted from the table every PURGE_INTERVAL claims
+    private static final int PURGE_INTERVAL = 1024;
+    /**
+     * Maximum length of an idempotency key
+     */
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private final DataSource dataSource;
+    private final TransferDao transferDao;
+    private final int capacity;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    // cached entries in claim order, eldest first
+    private final ConcurrentLinkedQueue<Entry> claimOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger claims = new AtomicInteger();
+
+    /**
+     * Cached key : the transfer ID allocated to its request and the result of the request, completed once processed
+     */
+    private static final class Entry {
+        private final String key;
+        private final int requestHash;
+        private final long transferId;
+        private final long expiresAt;
+        private final CompletableFuture<Transfer> result = new CompletableFuture<>();
+
+        private Entry(String key, int requestHash, long transferId, long expiresAt) {
+            this.key = key;
+            this.requestHash = requestHash;
+            this.transferId = transferId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param dataSource  data source
+     * @param transferDao transfer DAO, allocating the transfer IDs and reading the original transfers
+     * @param capacity    maximum number of keys kept in memory
+     * @param ttlMillis   time a key is kept, from its first request
+     */
+    public IdempotencyDao(DataSource dataSource, TransferDao transferDao, int capacity, long ttlMillis) {
+        this.dataSource = dataSource;
+        this.transferDao = transferDao;
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Process a transfer request once per idempotency key
+     * The transfer is given the ID claimed with the key before being processed.
+     * If processing fails, the key is released : the request can be retried with it.
+     * @param key        idempotency key
+     * @param transfer   transfer of the request
+     * @param processing processes the transfer
+     * @return result of the first request made with the key : the transfer processed now, or the original transfer
+     * @throws IdempotencyConflictException if the key was used for another transfer, or if its transfer is still
+     *                                      being processed by another instance
+     * @throws Exception                    e, if the transfer could not be processed
+     */
+    public Transfer execute(String key, Transfer transfer, Callable<Transfer> processing) throws Exception {
+        int requestHash = requestHash(transfer);
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expiresAt <= now) {
+            cache.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            Entry claimed = new Entry(key, requestHash, transferDao.nextTransferId(), now + ttlMillis);
+            entry = cache.putIfAbsent(key, claimed);
+            if (entry == null) {
+                enqueue(claimed);
+                return process(claimed, transfer, processing);
+            }
+        }
+        // replay, waiting for the first request if still in progress
+        if (entry.requestHash != requestHash) {
+            throw new IdempotencyConflictException("Idempotency-Key already used for another transfer.");
+        }
+        try {
+            return entry.result.get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private Transfer process(Entry entry, Transfer transfer, Callable<Transfer> processing) throws Exception {
+        boolean claimed = false;
+        try {
+            Long originalId = claim(entry);
+            if (originalId != null) {
+                Transfer original = transferDao.getTransferById(originalId);
+                if (original == null) {
+                    throw new IdempotencyConflictException("Transfer of this Idempotency-Key is still being processed.");
+                }
+                original.setResponse(Transfer.transferResponse.valueOf(original.getStatus()));
+                entry.result.complete(original);
+                return original;
+            }
+            claimed = true;
+            transfer.setId(entry.transferId);
+            Transfer processed = processing.call();
+            entry.result.complete(processed);
+            return processed;
+        } catch (Exception e) {
+            cache.remove(entry.key, entry);
+            if (claimed) {
+                release(entry.key, entry.transferId);
+            }
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Claim the key in the IDEMPOTENCY_KEYS table, an expired claim being replaced
+     * @return null if claimed, otherwise the transfer ID of the earlier claim
+     */
+    private Long claim(Entry entry) throws Exception {
+        if (claims.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purgeExpired();
+        }
+        Connection conn = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            for (int attempt = 0; attempt < 2; attempt++) {
+                if (insert(conn, entry)) {
+                    return null;
+                }
+                try (PreparedStatement selectStmt = conn.prepareStatement(SELECT_KEY)) {
+                    selectStmt.setString(1, entry.key);
+                    rs = selectStmt.executeQuery();
+                    if (!rs.next()) {
+                        // released meanwhile
+                        continue;
+                    }
+                    long transferId = rs.getLong("TRANSFER_ID");
+                    if (rs.getInt("REQUEST_HASH") != entry.requestHash) {
+                        throw new IdempotencyConflictException("Idempotency-Key already used for another transfer.");
+                    }
+                    if (rs.getTimestamp("CREATED_DT").getTime() + ttlMillis > System.currentTimeMillis()) {
+                        return transferId;
+                    }
+                    DbUtils.closeQuietly(rs);
+                    // expired claim
+                    try (PreparedStatement deleteStmt = conn.prepareStatement(DELETE_KEY)) {
+                        deleteStmt.setString(1, entry.key);
+                        deleteStmt.setLong(2, transferId);
+                        deleteStmt.executeUpdate();
+                    }
+                }
+            }
+            throw new IdempotencyConflictException("Idempotency-Key claimed concurrently, retry the request.");
+        } catch (SQLException se) {
+            log.severe("SQL Exception while claiming idempotency key : " + entry.key);
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(rs);
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * @return false if the key is already claimed
+     */
+    private boolean insert(Connection conn, Entry entry) throws SQLException {
+        try (PreparedStatement insertStmt = conn.prepareStatement(INSERT_KEY)) {
+            insertStmt.setString(1, entry.key);
+            insertStmt.setLong(2, entry.transferId);
+            insertStmt.setInt(3, entry.requestHash);
+            insertStmt.setTimestamp(4, new Timestamp(entry.expiresAt - ttlMillis));
+            insertStmt.executeUpdate();
+            return true;
+        } catch (SQLException se) {
+            if ("23505".equals(se.getSQLState())) {
+                return false;
+            }
+            throw se;
+        }
+    }
+
+    /**
+     * Release the key of a transfer which ended in error after its result was returned, as when processed
+     * asynchronously : the request can then be retried with the key, instead of being refused until the key expires
+     * @param key        idempotency key
+     * @param transferId ID of the transfer claimed with the key, a later claim being kept
+     */
+    public void releaseFailed(String key, long transferId) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.transferId == transferId) {
+            cache.remove(key, entry);
+        }
+        release(key, transferId);
+    }
+
+    private void release(String key, long transferId) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement deleteStmt = conn.prepareStatement(DELETE_KEY)) {
+            deleteStmt.setString(1, key);
+            deleteStmt.setLong(2, transferId);
+            deleteStmt.executeUpdate();
+        } catch (SQLException se) {
+            // the claim stays until it expires
+            log.severe("SQL Exception while releasing idempotency key : " + key + " - " + se.getMessage());
+        }
+    }
+
+    private void purgeExpired() {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement deleteStmt = conn.prepareStatement(DELETE_EXPIRED_KEYS)) {
+            deleteStmt.setTimestamp(1, new Timestamp(System.currentTimeMillis() - ttlMillis));
+            int deleted = deleteStmt.executeUpdate();
+            log.info("purgeExpired : " + deleted + " idempotency keys deleted");
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + DELETE_EXPIRED_KEYS + " - " + se.getMessage());
+        }
+    }
+
+    /**
+     * Track a cached entry, evicting the eldest entries beyond the capacity and the expired ones
+     */
+    private void enqueue(Entry entry) {
+        claimOrder.add(entry);
+        queued.incrementAndGet();
+        long now = System.currentTimeMillis();
+        Entry eldest;
+        while ((eldest = claimOrder.peek()) != null && (queued.get() > capacity || eldest.expiresAt <= now)) {
+            if (claimOrder.remove(eldest)) {
+                queued.decrementAndGet();
+                cache.remove(eldest.key, eldest);
+            }
+        }
+    }
+
+    /**
+     * Hash of the transfer fields, amounts of different scales hashing the same (100 and 100.00)
+     */
+    private static int requestHash(Transfer transfer) {
+        int hash = Long.hashCode(transfer.getSourceAccountNo());
+        hash = 31 * hash + Long.hashCode(transfer.getDestinationAccountNo());
+        hash = 31 * hash + Double.hashCode(transfer.getTransferAmount().doubleValue());
+        return 31 * hash + transfer.getTransferCurrencyCode().hashCode();
+    }
+
+    /**
+     * Forget the cached keys, when the database is recreated
+     */
+    public void clearCache() {
+        cache.clear();
+        claimOrder.clear();
+        queued.set(0);
+    }
+}
@@ -0,0 +1,150 @@
+package com.revolut.moneytransfer.dao;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Bounded retry policy for transactions failing on lock timeouts or version conflicts, with contention metrics
+ * A unit of work failing because a row lock could not be acquired in time, or because an optimistic update found the
+ * row changed since it was read, is rolled back by the caller and retried after a jittered exponential backoff, up to
+ * maxRetries times.
+ */
+public class LockRetryPolicy {
+    private static final Logger log = Logger.getLogger("LockRetryPolicy");
+
+    // H2 error codes raised when a lock cannot be acquired
+    private static final int LOCK_TIMEOUT = 50200;
+    private static final int DEADLOCK = 40001;
+    private static final int CONCURRENT_UPDATE = 90131;
+
+    private final int maxRetries;
+    private final long backoffMillis;
+
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final AtomicLong maxLockWaitNanos = new AtomicLong();
+    private final LongAdder lockTimeouts = new LongAdder();
+    private final LongAdder versionConflicts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesExhausted = new LongAdder();
+
+    /**
+     * @param maxRetries    maximum number of retries after the first attempt
+     * @param backoffMillis base backoff, doubled on every retry and randomized
+     */
+    public LockRetryPolicy(int maxRetries, long backoffMillis) {
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Run the unit of work, retrying it on lock timeouts and version conflicts
+     *
+     * @param unitOfWork transaction to run, must roll back its own work before throwing
+     * @param <T>        result type
+     * @return unit of work result
+     * @throws Exception last failure when not a lock timeout or a version conflict, or when retries are exhausted
+     */
+    public <T> T execute(Callable<T> unitOfWork) throws Exception {
+        int attempt = 0;
+        while (true) {
+            try {
+                return unitOfWork.call();
+            } catch (Exception e) {
+                boolean conflict = isVersionConflict(e);
+                if (!conflict && !isLockFailure(e)) {
+                    throw e;
+                }
+                if (conflict) {
+                    versionConflicts.increment();
+                } else {
+                    lockTimeouts.increment();
+                }
+                if (attempt >= maxRetries) {
+                    retriesExhausted.increment();
+                    log.severe((conflict ? "Version conflict" : "Lock not acquired") + " after " + (attempt + 1) + " attempts.");
+                    throw e;
+                }
+                attempt++;
+                retries.increment();
+                long sleep = backoff(attempt);
+                log.info((conflict ? "Version conflict" : "Lock timeout") + " - retry " + attempt + "/" + maxRetries + " in " + sleep + " ms");
+                TimeUnit.MILLISECONDS.sleep(sleep);
+            }
+        }
+    }
+
+    /**
+     * Record the time spent waiting on a lock statement
+     *
+     * @param nanos elapsed time of the lock statement
+     */
+    void recordLockWait(long nanos) {
+        lockAcquisitions.increment();
+        lockWaitNanos.add(nanos);
+        maxLockWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return snapshot of lock contention counters
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long acquisitions = lockAcquisitions.sum();
+        metrics.put("lockAcquisitions", acquisitions);
+        metrics.put("averageLockWaitMicros", acquisitions == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(lockWaitNanos.sum() / acquisitions));
+        metrics.put("maxLockWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxLockWaitNanos.get()));
+        metrics.put("lockTimeouts", lockTimeouts.sum());
+        metrics.put("versionConflicts", versionConflicts.sum());
+        metrics.put("retries", retries.sum());
+        metrics.put("retriesExhausted", retriesExhausted.sum());
+        return metrics;
+    }
+
+    private long backoff(int attempt) {
+        long max = backoffMillis << (attempt - 1);
+        return max <= 0 ? 0 : ThreadLocalRandom.current().nextLong(max / 2, max + 1);
+    }
+
+    /**
+     * @param e failure
+     * @return true if the failure, or one of its causes, is an optimistic version conflict
+     */
+    static boolean isVersionConflict(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof VersionConflictException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param e failure
+     * @return true if the failure, or one of its causes, is a lock acquisition failure
+     */
+    static boolean isLockFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                int code = ((SQLException) t).getErrorCode();
+                if (code == LOCK_TIMEOUT || code == DEADLOCK || code == CONCURRENT_UPDATE) {
+                    return true;
+                }
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+}
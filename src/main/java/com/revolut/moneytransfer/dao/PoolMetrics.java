@@ -0,0 +1,85 @@
+package com.revolut.moneytransfer.dao;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool metrics
+ * Records connection wait times, usage times and timeouts reported by the pool, and exposes pool saturation
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder acquiredWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder usageCount = new LongAdder();
+    private final LongAdder usageMillis = new LongAdder();
+    private final AtomicLong maxUsageMillis = new AtomicLong();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                createdCount.increment();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquiredCount.increment();
+                acquiredWaitNanos.add(elapsedAcquiredNanos);
+                maxWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageCount.increment();
+                usageMillis.add(elapsedBorrowedMillis);
+                maxUsageMillis.accumulateAndGet(elapsedBorrowedMillis, Math::max);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeoutCount.increment();
+            }
+        };
+    }
+
+    /**
+     * @return snapshot of pool state and counters
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        PoolStats stats = poolStats;
+        if (stats != null) {
+            int max = stats.getMaxConnections();
+            int active = stats.getActiveConnections();
+            metrics.put("maxConnections", max);
+            metrics.put("totalConnections", stats.getTotalConnections());
+            metrics.put("activeConnections", active);
+            metrics.put("idleConnections", stats.getIdleConnections());
+            metrics.put("threadsAwaitingConnection", stats.getPendingThreads());
+            metrics.put("saturation", max == 0 ? 0d : (double) active / max);
+        }
+        long acquired = acquiredCount.sum();
+        long used = usageCount.sum();
+        metrics.put("connectionsCreated", createdCount.sum());
+        metrics.put("connectionsAcquired", acquired);
+        metrics.put("averageWaitMicros", acquired == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(acquiredWaitNanos.sum() / acquired));
+        metrics.put("maxWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+        metrics.put("averageUsageMillis", used == 0 ? 0 : usageMillis.sum() / used);
+        metrics.put("maxUsageMillis", maxUsageMillis.get());
+        metrics.put("connectionTimeouts", timeoutCount.sum());
+        return metrics;
+    }
+}
@@ -1,33 +1,179 @@
 package com.revolut.moneytransfer.dao;
 
+import com.revolut.moneytransfer.model.CurrencyRegistry;
 import com.revolut.moneytransfer.model.Rate;
 import org.apache.commons.dbutils.DbUtils;
 
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 /**
  * Rate DAO and Implementation Class
+ * Rates are versioned : an update inserts a new version of the rate of its currency pair, effective from its
+ * EFFECTIVE_DT until the next version. The versions of each currency pair are read from an immutable in-memory snapshot
+ * of the RATES table, indexed by effective time, and the rate effective now is kept aside for the transfers. The
+ * snapshot is reloaded and swapped at once when a rate is updated, or when the next future-dated rate becomes effective.
+ * The rates effective now are held in a dense matrix indexed by currency ordinal, the ordinal of a currency being read
+ * by its ID in the CurrencyRegistry, so that a lookup is a few array reads. Pairs without a rate of their own are derived through the pivot currency, when one is configured :
+ * source to pivot, then pivot to destination.
  */
 public class RateDao {
     private static final Logger log = Logger.getLogger("RateDao");
-    // JDBC driver name and database URL
-    private static final String JDBC_DRIVER = "org.h2.Driver";
-    private static final String DB_URL = "jdbc:h2:mem:moneytransferapp;DB_CLOSE_DELAY=-1";
-
-    //  Database credentials
-    private static final String USER = "sa";
-    private static final String PASS = "sa";
 
     // SQL STATEMENTS
     private static final String SELECT_ALL = "SELECT * FROM RATES";
-    private static final String SELECT_ALL_EFFECTIVE = "SELECT * FROM RATES WHERE ? >= EFFECTIVE_DT";
     private static final String SELECT_RATE_BY_ID = "SELECT * FROM RATES WHERE ID = ?";
     private static final String SELECT_BY_ID = "SELECT * FROM RATES WHERE ID = ? ";
-    private static final String SELECT_BY_SOURCE_DEST_CURRENCY = "SELECT * FROM RATES WHERE SOURCE_CURRENCY_CODE = ? AND DESTINATION_CURRENCY_CODE = ? AND ? >= EFFECTIVE_DT ORDER BY EFFECTIVE_DT DESC";
-    private static final String UPDATE_RATE_BY_ID = "UPDATE RATES SET RATE = ?, LAST_UPDATED_DT = SYSDATE, EFFECTIVE_DT = ? WHERE ID = ? ";
+    private static final String NEXT_RATE_ID = "SELECT RATES_SEQ.nextVal FROM DUAL";
+    private static final String INSERT_RATE_VERSION = "INSERT INTO RATES (ID, SOURCE_CURRENCY_CODE, DESTINATION_CURRENCY_CODE, RATE, EFFECTIVE_DT, CREATED_DT, LAST_UPDATED_DT) SELECT ?, SOURCE_CURRENCY_CODE, DESTINATION_CURRENCY_CODE, ?, ?, SYSDATE, SYSDATE FROM RATES WHERE ID = ? ";
+
+    // scale of the RATE column, derived rates are rounded to
+    static final int RATE_SCALE = 4;
+
+    private final DataSource dataSource;
+    private final String pivotCurrencyCode;
+    // effective rates, null until first read or once invalidated
+    private final AtomicReference<RateSnapshot> snapshot = new AtomicReference<>();
+    // serializes the snapshot loads : the last snapshot swapped in is always read after the last update
+    private final Object snapshotLock = new Object();
+
+    /**
+     * Rate versions by source then destination currency, indexed by effective time, and the matrix of the rates
+     * effective at load time, valid until the next future-dated version
+     */
+    private static final class RateSnapshot {
+        private final Map<String, Map<String, NavigableMap<Long, Rate>>> versions;
+        private final String pivotCurrencyCode;
+        // ordinal in the matrix by currency ID in the CurrencyRegistry, -1 for a currency without rate
+        private final short[] ordinals = new short[CurrencyRegistry.count()];
+        private final int currencyCount;
+        // rate of source ordinal * currencyCount + destination ordinal, null if none
+        private final Rate[] matrix;
+        private final long validUntil;
+
+        private RateSnapshot(Map<String, Map<String, NavigableMap<Long, Rate>>> versions, String pivotCurrencyCode, long now) {
+            this.versions = versions;
+            this.pivotCurrencyCode = pivotCurrencyCode;
+            Set<String> currencyCodes = new TreeSet<>();
+            long nextVersion = Long.MAX_VALUE;
+            for (Map.Entry<String, Map<String, NavigableMap<Long, Rate>>> destinations : versions.entrySet()) {
+                currencyCodes.add(destinations.getKey());
+                for (Map.Entry<String, NavigableMap<Long, Rate>> pairVersions : destinations.getValue().entrySet()) {
+                    currencyCodes.add(pairVersions.getKey());
+                    Long next = pairVersions.getValue().higherKey(now);
+                    if (next != null) {
+                        nextVersion = Math.min(nextVersion, next);
+                    }
+                }
+            }
+            this.validUntil = nextVersion;
+            // rates of codes unknown to the registry cannot be effective
+            Arrays.fill(ordinals, (short) -1);
+            List<String> matrixCodes = new ArrayList<>();
+            for (String currencyCode : currencyCodes) {
+                int currencyId = CurrencyRegistry.id(currencyCode);
+                if (currencyId != CurrencyRegistry.UNKNOWN) {
+                    ordinals[currencyId] = (short) matrixCodes.size();
+                    matrixCodes.add(currencyCode);
+                }
+            }
+            this.currencyCount = matrixCodes.size();
+            this.matrix = new Rate[currencyCount * currencyCount];
+            for (int source = 0; source < currencyCount; source++) {
+                for (int destination = 0; destination < currencyCount; destination++) {
+                    matrix[source * currencyCount + destination] = getAt(matrixCodes.get(source), matrixCodes.get(destination), now);
+                }
+            }
+        }
+
+        private Rate get(int sourceCurrencyId, int destCurrencyId) {
+            if (sourceCurrencyId < 0 || destCurrencyId < 0) {
+                return null;
+            }
+            int source = ordinals[sourceCurrencyId];
+            int destination = ordinals[destCurrencyId];
+            if (source < 0 || destination < 0) {
+                return null;
+            }
+            return matrix[source * currencyCount + destination];
+        }
+
+        /**
+         * @return rate version effective at the instant, derived through the pivot currency if the pair has none
+         */
+        private Rate getAt(String sourceCurrencyCode, String destCurrencyCode, long instant) {
+            Rate rate = versionAt(sourceCurrencyCode, destCurrencyCode, instant);
+            if (rate != null || pivotCurrencyCode == null || sourceCurrencyCode.equals(destCurrencyCode)
+                    || sourceCurrencyCode.equals(pivotCurrencyCode) || destCurrencyCode.equals(pivotCurrencyCode)) {
+                return rate;
+            }
+            Rate toPivot = versionAt(sourceCurrencyCode, pivotCurrencyCode, instant);
+            Rate fromPivot = versionAt(pivotCurrencyCode, destCurrencyCode, instant);
+            if (toPivot == null || fromPivot == null) {
+                return null;
+            }
+            // derived rates have no ID, effective once both legs are
+            Date effectiveDt = toPivot.getEffectiveDt().after(fromPivot.getEffectiveDt()) ? toPivot.getEffectiveDt() : fromPivot.getEffectiveDt();
+            return new Rate(0, sourceCurrencyCode, destCurrencyCode,
+                    toPivot.getRate().multiply(fromPivot.getRate()).setScale(RATE_SCALE, RoundingMode.HALF_EVEN), effectiveDt, null, null);
+        }
+
+        /**
+         * @return version of each currency pair effective at the instant, by ID, the superseded and future-dated
+         * versions being left out
+         */
+        private List<Rate> versionsAt(long instant) {
+            List<Rate> rates = new ArrayList<>();
+            for (Map<String, NavigableMap<Long, Rate>> destinations : versions.values()) {
+                for (NavigableMap<Long, Rate> pairVersions : destinations.values()) {
+                    Map.Entry<Long, Rate> version = pairVersions.floorEntry(instant);
+                    if (version != null) {
+                        rates.add(version.getValue());
+                    }
+                }
+            }
+            rates.sort(Comparator.comparingInt(Rate::getId));
+            return rates;
+        }
+
+        private Rate versionAt(String sourceCurrencyCode, String destCurrencyCode, long instant) {
+            Map<String, NavigableMap<Long, Rate>> destinations = versions.get(sourceCurrencyCode);
+            NavigableMap<Long, Rate> pairVersions = destinations == null ? null : destinations.get(destCurrencyCode);
+            Map.Entry<Long, Rate> version = pairVersions == null ? null : pairVersions.floorEntry(instant);
+            return version == null ? null : version.getValue();
+        }
+    }
+
+    /**
+     * @param dataSource pooled data source
+     */
+    public RateDao(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    /**
+     * @param dataSource        pooled data source
+     * @param pivotCurrencyCode currency through which the pairs without a rate are derived, null or empty for none
+     */
+    public RateDao(DataSource dataSource, String pivotCurrencyCode) {
+        this.dataSource = dataSource;
+        this.pivotCurrencyCode = pivotCurrencyCode == null || pivotCurrencyCode.isEmpty() ? null : pivotCurrencyCode;
+    }
 
     /**
      * Get all rates list
@@ -38,11 +184,8 @@ public class RateDao {
     public List<Rate> getAllRates() throws Exception {
         List<Rate> ratesList = new ArrayList<>();
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
-
         // Try with resource to ensure resources are closed on exit
-        try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
+        try (Connection conn = dataSource.getConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(SELECT_ALL)) {
             if (rs == null)
@@ -61,43 +204,20 @@ public class RateDao {
     }
 
     /**
-     * Get all rates effective list
+     * Get all rates effective list : the version of each currency pair effective now, read from the snapshot of the
+     * rates
      *
      * @return List of Rates
      * @throws Exception e
      */
     public List<Rate> getAllEffectiveRates() throws Exception {
-        List<Rate> ratesList = new ArrayList<>();
-        ResultSet rs = null;
-
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
-
-        // Try with resource to ensure resources are closed on exit
-        try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
-             PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_EFFECTIVE)) {
-            stmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-            // Execute a query
-            rs = stmt.executeQuery();
-            if (rs == null)
-                throw new SQLException("SQL Exception while executing : " + SELECT_ALL_EFFECTIVE);
-            while (rs.next()) {
-                Rate rate = new Rate(rs.getInt("ID"), rs.getString("SOURCE_CURRENCY_CODE"), rs.getString("DESTINATION_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getDate("EFFECTIVE_DT"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
-                ratesList.add(rate);
-            }
-            return ratesList;
-        } catch (SQLException se) {
-            log.severe("SQL Exception while executing : " + SELECT_ALL_EFFECTIVE);
-            throw new SQLException(se);
-        } catch (Exception e) {
-            throw new Exception(e);
-        } finally {
-            DbUtils.closeQuietly(rs);
-        }
+        return effectiveRates().versionsAt(System.currentTimeMillis());
     }
 
     /**
-     * Get the effective rate by source and destination currency
+     * Get the effective rate by source and destination currency, from the matrix of the effective rates, derived
+     * through the pivot currency if the pair has no rate of its own
+     * The rate returned is shared by the callers and must not be modified.
      *
      * @param sourceCurrencyCode source currency code
      * @param destCurrencyCode   destination currency code
@@ -105,82 +225,166 @@ public class RateDao {
      * @throws Exception e
      */
     public Rate getRateBySourceAndDestCurrency(String sourceCurrencyCode, String destCurrencyCode) throws Exception {
-        log.info("getRateById : " + sourceCurrencyCode + " to " + destCurrencyCode);
-        ResultSet rs = null;
-        Rate account = null;
+        return effectiveRates().get(CurrencyRegistry.id(sourceCurrencyCode), CurrencyRegistry.id(destCurrencyCode));
+    }
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
+    /**
+     * Get the effective rate by source and destination currency ID in the CurrencyRegistry, as
+     * getRateBySourceAndDestCurrency
+     * The rate returned is shared by the callers and must not be modified.
+     *
+     * @param sourceCurrencyId source currency ID
+     * @param destCurrencyId   destination currency ID
+     * @return Rate
+     * @throws Exception e
+     */
+    public Rate getRate(int sourceCurrencyId, int destCurrencyId) throws Exception {
+        return effectiveRates().get(sourceCurrencyId, destCurrencyId);
+    }
+
+    /**
+     * Get the rate version effective at an instant by source and destination currency : the latest version whose
+     * effective date is not after the instant, derived through the pivot currency if the pair has none
+     * The rate returned is shared by the callers and must not be modified.
+     *
+     * @param sourceCurrencyCode source currency code
+     * @param destCurrencyCode   destination currency code
+     * @param instant            instant, in milliseconds since the epoch
+     * @return Rate, null if no version was effective at the instant
+     * @throws Exception e
+     */
+    public Rate getRateAt(String sourceCurrencyCode, String destCurrencyCode, long instant) throws Exception {
+        return effectiveRates().getAt(sourceCurrencyCode, destCurrencyCode, instant);
+    }
+
+    /**
+     * @return snapshot of the rates, reloaded if a future-dated rate became effective since it was taken
+     */
+    private RateSnapshot effectiveRates() throws Exception {
+        RateSnapshot current = snapshot.get();
+        if (current != null && System.currentTimeMillis() < current.validUntil) {
+            return current;
+        }
+        synchronized (snapshotLock) {
+            current = snapshot.get();
+            if (current != null && System.currentTimeMillis() < current.validUntil) {
+                return current;
+            }
+            return reloadRates();
+        }
+    }
+
+    /**
+     * Load the rate versions and swap the snapshot, to be called holding snapshotLock
+     */
+    private RateSnapshot reloadRates() throws Exception {
+        Map<String, Map<String, NavigableMap<Long, Rate>>> versions = new HashMap<>();
+        int count = 0;
 
         // Try with resource to ensure resources are closed on exit
-        try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
-             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_SOURCE_DEST_CURRENCY)) {
-            stmt.setString(1, sourceCurrencyCode);
-            stmt.setString(2, destCurrencyCode);
-            // Get only the effective rates
-            stmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
-            // Execute a query
-            rs = stmt.executeQuery();
-
-            // Only Take the first one , latest effective
-            if (rs.next()) {
-                account = new Rate(rs.getInt("ID"), rs.getString("SOURCE_CURRENCY_CODE"), rs.getString("DESTINATION_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getDate("EFFECTIVE_DT"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(SELECT_ALL)) {
+            while (rs.next()) {
+                Timestamp effectiveDt = rs.getTimestamp("EFFECTIVE_DT");
+                if (effectiveDt == null) {
+                    // never effective
+                    continue;
+                }
+                Rate rate = new Rate(rs.getInt("ID"), rs.getString("SOURCE_CURRENCY_CODE"), rs.getString("DESTINATION_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getDate("EFFECTIVE_DT"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                NavigableMap<Long, Rate> pairVersions = versions.computeIfAbsent(rate.getSourceCurrencyCode(), code -> new HashMap<>())
+                        .computeIfAbsent(rate.getDestinationCurrencyCode(), code -> new TreeMap<>());
+                // versions effective at the same time : the last one inserted wins
+                Rate sameTime = pairVersions.get(effectiveDt.getTime());
+                if (sameTime == null || rate.getId() > sameTime.getId()) {
+                    pairVersions.put(effectiveDt.getTime(), rate);
+                }
+                count++;
             }
-            return account;
         } catch (SQLException se) {
-            log.severe("SQL Exception while executing : " + SELECT_BY_SOURCE_DEST_CURRENCY + " - source : " + sourceCurrencyCode + " - dest : " + destCurrencyCode);
+            log.severe("SQL Exception while executing : " + SELECT_ALL);
             throw new SQLException(se);
-        } catch (Exception e) {
-            throw new Exception(e);
-        } finally {
-            DbUtils.closeQuietly(rs);
-            // finally block used to close remaining resources
-            // end finally try
         }
+
+        for (Map<String, NavigableMap<Long, Rate>> destinations : versions.values()) {
+            destinations.replaceAll((destination, pairVersions) -> Collections.unmodifiableNavigableMap(pairVersions));
+        }
+        versions.replaceAll((source, destinations) -> Collections.unmodifiableMap(destinations));
+        RateSnapshot loaded = new RateSnapshot(Collections.unmodifiableMap(versions), pivotCurrencyCode, System.currentTimeMillis());
+        snapshot.set(loaded);
+        log.info("reloadRates : " + count + " rate versions loaded");
+        return loaded;
+    }
+
+    /**
+     * Drop the snapshot of the effective rates, when the RATES table is changed by other means, the next read
+     * reloading it
+     */
+    public void invalidateRates() {
+        snapshot.set(null);
     }
 
     /**
-     * Update currency rate
+     * Update currency rate : a new version of the rate of the currency pair is inserted, the earlier versions being
+     * kept for the point-in-time lookups
      *
-     * @param rateId rate uid
+     * @param rateId uid of a version of the rate
      * @param rate   rate object
-     * @return updated rate object
+     * @return new version of the rate
      * @throws Exception e
      */
     public Rate updateCurrencyRate(Long rateId, Rate rate) throws Exception {
-        ResultSet rs;
-
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
+        ResultSet rs = null;
 
         // Try with resource to ensure resources are closed on exit
-        try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
-             PreparedStatement stmt = conn.prepareStatement(UPDATE_RATE_BY_ID)) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement idStmt = conn.prepareStatement(NEXT_RATE_ID);
+             PreparedStatement stmt = conn.prepareStatement(INSERT_RATE_VERSION);
+             PreparedStatement selectStmt = conn.prepareStatement(SELECT_BY_ID)) {
             conn.setAutoCommit(false);
-            stmt.setBigDecimal(1, rate.getRate());
-            stmt.setDate(2, rate.getEffectiveDt());
-            stmt.setLong(3, rateId);
+            rs = idStmt.executeQuery();
+            rs.next();
+            long versionId = rs.getLong(1);
+            DbUtils.closeQuietly(rs);
+            stmt.setLong(1, versionId);
+            stmt.setBigDecimal(2, rate.getRate());
+            stmt.setDate(3, rate.getEffectiveDt());
+            stmt.setLong(4, rateId);
             int update = stmt.executeUpdate();
-            log.info("@@@ " + update + " rate updated.");
+            log.info("@@@ " + update + " rate version inserted.");
             if (update != 1) {
                 conn.rollback();
                 throw new Exception("Update rate failed.");
             }
             conn.commit();
-            PreparedStatement selectStmt = conn.prepareStatement(SELECT_BY_ID);
-            selectStmt.setLong(1, rateId);
+            refreshRates();
+            selectStmt.setLong(1, versionId);
             rs = selectStmt.executeQuery();
-            if (rs == null)
-                throw new SQLException("SQL Exception while executing : " + UPDATE_RATE_BY_ID);
             if (rs.next()) {
                 rate = new Rate(rs.getInt("ID"), rs.getString("SOURCE_CURRENCY_CODE"), rs.getString("DESTINATION_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getDate("EFFECTIVE_DT"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
             }
         } catch (SQLException se) {
-            log.severe("SQL Exception while executing : " + UPDATE_RATE_BY_ID);
+            log.severe("SQL Exception while executing : " + INSERT_RATE_VERSION);
             throw new SQLException(se);
         } catch (Exception e) {
             throw new Exception(e);
+        } finally {
+            DbUtils.closeQuietly(rs);
         }
         return rate;
     }
+
+    /**
+     * Swap in a new snapshot once a rate update is committed, or drop it if the rates cannot be read
+     */
+    private void refreshRates() {
+        synchronized (snapshotLock) {
+            try {
+                reloadRates();
+            } catch (Exception e) {
+                log.severe("Error while reloading rates : " + e.getMessage());
+                snapshot.set(null);
+            }
+        }
+    }
 }
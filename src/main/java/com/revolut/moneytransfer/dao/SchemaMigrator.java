@@ -0,0 +1,132 @@
+package com.revolut.moneytransfer.dao;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.h2.tools.RunScript;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * Versioned schema migrations
+ * Scripts live in db/migration on the classpath and are named V{version}__{description}.sql. Every script applied is
+ * recorded in the SCHEMA_VERSION table, so a database is only migrated from its current version onwards.
+ */
+public final class SchemaMigrator {
+    private static final Logger log = Logger.getLogger("SchemaMigrator");
+
+    private static final String LOCATION = "/db/migration/";
+    // Migration scripts, in version order
+    private static final String[] MIGRATIONS = {
+            "V1__create_tables.sql",
+            "V2__add_lookup_indexes.sql",
+            "V3__widen_transfer_id.sql",
+            "V4__add_journal_checkpoint.sql",
+            "V5__add_account_version.sql",
+            "V6__add_account_balance_slots.sql",
+            "V7__add_idempotency_keys.sql"
+    };
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS SCHEMA_VERSION (VERSION INT NOT NULL PRIMARY KEY, DESCRIPTION VARCHAR(200) NOT NULL, SCRIPT VARCHAR(200) NOT NULL, INSTALLED_DT datetime NOT NULL)";
+    private static final String SELECT_CURRENT_VERSION = "SELECT COALESCE(MAX(VERSION), 0) FROM SCHEMA_VERSION";
+    private static final String INSERT_VERSION = "INSERT INTO SCHEMA_VERSION values (?, ?, ?, SYSDATE)";
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * Apply every pending migration
+     * @param conn connection to the database to migrate
+     * @return schema version after migration
+     * @throws SQLException          e
+     * @throws FileNotFoundException if a migration script is missing from the classpath
+     */
+    public static int migrate(Connection conn) throws SQLException, FileNotFoundException {
+        return migrate(conn, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Apply pending migrations up to the target version
+     * @param conn          connection to the database to migrate
+     * @param targetVersion last version to apply
+     * @return schema version after migration
+     * @throws SQLException          e
+     * @throws FileNotFoundException if a migration script is missing from the classpath
+     */
+    public static int migrate(Connection conn, int targetVersion) throws SQLException, FileNotFoundException {
+        int currentVersion = currentVersion(conn);
+        log.info("Schema version : " + currentVersion);
+        for (String script : MIGRATIONS) {
+            int version = versionOf(script);
+            if (version <= currentVersion || version > targetVersion) {
+                continue;
+            }
+            log.info("Applying migration " + script + " ...");
+            try (Reader reader = openScript(LOCATION + script);
+                 PreparedStatement stmt = conn.prepareStatement(INSERT_VERSION)) {
+                RunScript.execute(conn, reader);
+                stmt.setInt(1, version);
+                stmt.setString(2, descriptionOf(script));
+                stmt.setString(3, script);
+                stmt.executeUpdate();
+                if (!conn.getAutoCommit()) {
+                    conn.commit();
+                }
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+            currentVersion = version;
+            log.info("... Migration " + script + " applied.");
+        }
+        return currentVersion;
+    }
+
+    /**
+     * @param conn connection to the database
+     * @return last migration version applied, 0 for an empty database
+     * @throws SQLException e
+     */
+    public static int currentVersion(Connection conn) throws SQLException {
+        ResultSet rs = null;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_VERSION_TABLE);
+            rs = stmt.executeQuery(SELECT_CURRENT_VERSION);
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+    }
+
+    /**
+     * @param path classpath location of a SQL script
+     * @return reader on the script
+     * @throws FileNotFoundException if the script is not on the classpath
+     */
+    static Reader openScript(String path) throws FileNotFoundException {
+        InputStream in = SchemaMigrator.class.getResourceAsStream(path);
+        if (in == null) {
+            throw new FileNotFoundException(path);
+        }
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    private static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static String descriptionOf(String script) {
+        return script.substring(script.indexOf("__") + 2, script.lastIndexOf(".sql")).replace('_', ' ');
+    }
+}
@@ -0,0 +1,72 @@
+package com.revolut.moneytransfer.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit ID generator, without database round trip
+ * ID layout : 41 bits of milliseconds since 2018-01-01 UTC | 10 bits of node id | 12 bits of sequence.
+ * IDs of a node are strictly increasing : up to 4096 IDs per millisecond, the timestamp part moving on to the next
+ * millisecond when the sequence is exhausted or when the clock goes backwards. Each node running against the same
+ * database must have its own node id.
+ */
+public class SnowflakeIdGenerator {
+    // 2018-01-01T00:00:00Z
+    static final long EPOCH = 1514764800000L;
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+
+    private final long node;
+    // last ID generated
+    private final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * @param nodeId node id, from 0 to 1023
+     */
+    public SnowflakeIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + " : " + nodeId);
+        }
+        this.node = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    /**
+     * @return next ID, greater than every ID previously returned by this generator
+     */
+    public long nextId() {
+        while (true) {
+            long last = lastId.get();
+            long lastTimestamp = last >>> TIMESTAMP_SHIFT;
+            long now = System.currentTimeMillis() - EPOCH;
+            long next;
+            if (now > lastTimestamp) {
+                next = now << TIMESTAMP_SHIFT | node;
+            } else if ((last & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = last + 1;
+            } else {
+                next = (lastTimestamp + 1) << TIMESTAMP_SHIFT | node;
+            }
+            if (lastId.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * @param id ID generated by a SnowflakeIdGenerator
+     * @return generation time of the ID, in epoch milliseconds
+     */
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    /**
+     * @param id ID generated by a SnowflakeIdGenerator
+     * @return node id of the generator
+     */
+    public static int nodeOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+}
@@ -1,15 +1,27 @@
 package com.revolut.moneytransfer.dao;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.revolut.moneytransfer.config.AppConfig;
 import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.CurrencyRegistry;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Page;
 import com.revolut.moneytransfer.model.Rate;
 import com.revolut.moneytransfer.model.Transfer;
 import org.apache.commons.dbutils.DbUtils;
 
+import javax.sql.DataSource;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.Currency;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -17,22 +29,62 @@ import java.util.logging.Logger;
  */
 public class TransferDao {
     private static final Logger log = Logger.getLogger("TransferDao");
-    // JDBC driver name and database URL
-    private static final String JDBC_DRIVER = "org.h2.Driver";
-    private static final String DB_URL = "jdbc:h2:mem:moneytransferapp;DB_CLOSE_DELAY=-1";
 
-    //  Database credentials
-    private static final String USER = "sa";
-    private static final String PASS = "sa";
+    // rate between accounts of the same currency
+    private static final BigDecimal IDENTITY_RATE = BigDecimal.ONE.setScale(2, RoundingMode.HALF_EVEN);
 
     private static final String SELECT_ALL = "SELECT * FROM TRANSFERS";
-    private static final String INSERT_TRANSFER = "INSERT INTO TRANSFERS values (TRANSFERS_SEQ.nextVal, ?, ?, ?, ?, ?, ?, ?, ?, ?, 'PENDING', SYSDATE, null);";
-    private static final String UPDATE_TRANSFER = "UPDATE TRANSFERS SET DEBITED_AMOUNT = ?, DEBITED_CURRENCY_CODE = ?, CREDITED_AMOUNT = ?, CREDITED_CURRENCY_CODE = ?, RATE = ?, STATUS = ?, LAST_UPDATED_DT = SYSDATE WHERE ID = ?";
+    private static final String INSERT_TRANSFER = "INSERT INTO TRANSFERS values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, SYSDATE, SYSDATE);";
+    // transfers processed outside of the database : recorded with their processing time
+    private static final String RECORD_TRANSFER = "INSERT INTO TRANSFERS values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, SYSDATE);";
+    private static final String SELECT_JOURNAL_CHECKPOINT = "SELECT JOURNAL_ID, JOURNAL_SEQUENCE FROM JOURNAL_CHECKPOINT WHERE ID = 1";
+    private static final String RESET_JOURNAL_CHECKPOINT = "UPDATE JOURNAL_CHECKPOINT SET JOURNAL_ID = ?, JOURNAL_SEQUENCE = ?, LAST_UPDATED_DT = SYSDATE WHERE ID = 1";
+    private static final String ADVANCE_JOURNAL_CHECKPOINT = "UPDATE JOURNAL_CHECKPOINT SET JOURNAL_SEQUENCE = ?, LAST_UPDATED_DT = SYSDATE WHERE ID = 1 AND JOURNAL_ID = ? AND JOURNAL_SEQUENCE < ?";
+    private static final String SELECT_BY_ID = "SELECT * FROM TRANSFERS WHERE ID = ?";
     private static final String SELECT_BY_TO_ACCOUNT_NO = "SELECT * FROM TRANSFERS WHERE TO_ACCOUNT_NO = ?";
     private static final String SELECT_BY_FROM_ACCOUNT_NO = "SELECT * FROM TRANSFERS WHERE FROM_ACCOUNT_NO = ?";
+    private static final String SELECT_PAGE = "SELECT * FROM TRANSFERS WHERE ID > ? ORDER BY ID LIMIT ?";
+    private static final String SELECT_BY_ID_LIST = "SELECT * FROM TRANSFERS WHERE ID IN ";
+    private static final String SELECT_BY_CREATED_DT = "SELECT * FROM TRANSFERS WHERE CREATED_DT >= ? AND CREATED_DT < ? ORDER BY ID";
+    // rows are produced while the result set is read instead of being computed upfront
+    private static final String SET_LAZY_QUERY_EXECUTION = "SET LAZY_QUERY_EXECUTION ";
+    private static final String SELECT_PAGE_BY_TO_ACCOUNT_NO = "SELECT * FROM TRANSFERS WHERE TO_ACCOUNT_NO = ? AND ID > ? ORDER BY ID LIMIT ?";
+    private static final String SELECT_PAGE_BY_FROM_ACCOUNT_NO = "SELECT * FROM TRANSFERS WHERE FROM_ACCOUNT_NO = ? AND ID > ? ORDER BY ID LIMIT ?";
+
+    private final DataSource dataSource;
+    private final AccountDao accountDao;
+    private final RateDao rateDao;
+    private final ConcurrencyMode concurrencyMode;
+    // one generator per node : IDs stay unique across every TransferDao of the application
+    private static final SnowflakeIdGenerator idGenerator = new SnowflakeIdGenerator(AppConfig.getInt("id.nodeId", 0));
+    private final LockRetryPolicy lockRetryPolicy;
 
-    private static final AccountDao accountDao = new AccountDao();
-    private static final RateDao rateDao = new RateDao();
+    /**
+     * @param dataSource pooled data source
+     * @param accountDao account DAO used to lock and move funds
+     * @param rateDao    rate DAO used for currency conversion
+     */
+    public TransferDao(DataSource dataSource, AccountDao accountDao, RateDao rateDao) {
+        this(dataSource, accountDao, rateDao, ConcurrencyMode.valueOf(AppConfig.getString("transfer.concurrency", ConcurrencyMode.PESSIMISTIC.name()).toUpperCase()));
+    }
+
+    /**
+     * @param dataSource      pooled data source
+     * @param accountDao      account DAO used to lock and move funds
+     * @param rateDao         rate DAO used for currency conversion
+     * @param concurrencyMode concurrency control used to move funds
+     */
+    public TransferDao(DataSource dataSource, AccountDao accountDao, RateDao rateDao, ConcurrencyMode concurrencyMode) {
+        this.dataSource = dataSource;
+        this.accountDao = accountDao;
+        this.rateDao = rateDao;
+        this.concurrencyMode = concurrencyMode;
+        // version conflicts are short-lived : retried sooner and more often than lock timeouts
+        this.lockRetryPolicy = concurrencyMode == ConcurrencyMode.OPTIMISTIC
+                ? new LockRetryPolicy(AppConfig.getInt("transfer.optimistic.maxRetries", 10), AppConfig.getLong("transfer.optimistic.backoffMs", 2))
+                : new LockRetryPolicy(AppConfig.getInt("transfer.lock.maxRetries", 3), AppConfig.getLong("transfer.lock.backoffMs", 20));
+        log.info("Transfer concurrency mode : " + concurrencyMode);
+    }
 
 
     /**
@@ -42,18 +94,15 @@ public class TransferDao {
     public List<Transfer> getAllTransfers() throws Exception {
         List<Transfer> transferList = new ArrayList<>();
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
-
         // Try with resource to ensure resources are closed on exit
-        try(Connection conn = DriverManager.getConnection(DB_URL,USER,PASS);
+        try(Connection conn = dataSource.getConnection();
             Statement stmt = conn.createStatement();
             ResultSet rs = stmt.executeQuery(SELECT_ALL)){
             if (rs == null)
                 throw new SQLException("SQL Exception while executing : " + SELECT_ALL);
 
             while (rs.next()) {
-                Transfer transfer = new Transfer(rs.getInt("ID"), rs.getLong("FROM_ACCOUNT_NO"), rs.getLong("TO_ACCOUNT_NO"), rs.getBigDecimal("DEBITED_AMOUNT"), rs.getString("DEBITED_CURRENCY_CODE"), rs.getBigDecimal("TRANSFER_AMOUNT"), rs.getString("TRANSFER_CURRENCY_CODE"), rs.getBigDecimal("CREDITED_AMOUNT"), rs.getString("CREDITED_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getString("STATUS"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                Transfer transfer = new Transfer(rs.getLong("ID"), rs.getLong("FROM_ACCOUNT_NO"), rs.getLong("TO_ACCOUNT_NO"), rs.getBigDecimal("DEBITED_AMOUNT"), rs.getString("DEBITED_CURRENCY_CODE"), rs.getBigDecimal("TRANSFER_AMOUNT"), rs.getString("TRANSFER_CURRENCY_CODE"), rs.getBigDecimal("CREDITED_AMOUNT"), rs.getString("CREDITED_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getString("STATUS"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
                 transferList.add(transfer);
             }
             return transferList;
@@ -65,6 +114,162 @@ public class TransferDao {
         }
     }
 
+    /**
+     * @param id transfer ID
+     * @return transfer, with its recorded status, null if not found
+     * @throws Exception e
+     */
+    public Transfer getTransferById(long id) throws Exception {
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ID)) {
+            stmt.setLong(1, id);
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                return new Transfer(rs.getLong("ID"), rs.getLong("FROM_ACCOUNT_NO"), rs.getLong("TO_ACCOUNT_NO"), rs.getBigDecimal("DEBITED_AMOUNT"), rs.getString("DEBITED_CURRENCY_CODE"), rs.getBigDecimal("TRANSFER_AMOUNT"), rs.getString("TRANSFER_CURRENCY_CODE"), rs.getBigDecimal("CREDITED_AMOUNT"), rs.getString("CREDITED_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getString("STATUS"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+            }
+            return null;
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + SELECT_BY_ID + " - id : " + id);
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+    }
+
+    /**
+     * Streaming export of the transfers created in a period, in ID order
+     * Rows are written to the JSON generator as they are read from the result set, with lazy query execution and a
+     * bounded fetch size, so that memory use does not depend on the number of transfers exported.
+     * @param fromDate  start of the period, inclusive
+     * @param toDate    end of the period, exclusive
+     * @param generator JSON generator the array of transfers is written to
+     * @return number of transfers exported
+     * @throws Exception e
+     */
+    public long exportTransfers(Timestamp fromDate, Timestamp toDate, JsonGenerator generator) throws Exception {
+        log.info("exportTransfers : from " + fromDate + " to " + toDate);
+        long exported = 0;
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection();
+             Statement settings = conn.createStatement();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_CREATED_DT)) {
+            settings.execute(SET_LAZY_QUERY_EXECUTION + "1");
+            try {
+                stmt.setFetchSize(AppConfig.getInt("transfer.export.fetchSize", 1000));
+                stmt.setTimestamp(1, fromDate);
+                stmt.setTimestamp(2, toDate);
+                rs = stmt.executeQuery();
+                generator.writeStartArray();
+                while (rs.next()) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", rs.getLong("ID"));
+                    generator.writeNumberField("sourceAccountNo", rs.getLong("FROM_ACCOUNT_NO"));
+                    generator.writeNumberField("destinationAccountNo", rs.getLong("TO_ACCOUNT_NO"));
+                    writeDecimal(generator, "debitedAmount", rs.getBigDecimal("DEBITED_AMOUNT"));
+                    generator.writeStringField("sourceCurrencyCode", rs.getString("DEBITED_CURRENCY_CODE"));
+                    writeDecimal(generator, "transferAmount", rs.getBigDecimal("TRANSFER_AMOUNT"));
+                    generator.writeStringField("transferCurrencyCode", rs.getString("TRANSFER_CURRENCY_CODE"));
+                    writeDecimal(generator, "creditedAmount", rs.getBigDecimal("CREDITED_AMOUNT"));
+                    generator.writeStringField("destinationCurrencyCode", rs.getString("CREDITED_CURRENCY_CODE"));
+                    writeDecimal(generator, "rate", rs.getBigDecimal("RATE"));
+                    generator.writeStringField("status", rs.getString("STATUS"));
+                    writeTimestamp(generator, "createdDt", rs.getTimestamp("CREATED_DT"));
+                    writeTimestamp(generator, "lastUpdatedDt", rs.getTimestamp("LAST_UPDATED_DT"));
+                    generator.writeEndObject();
+                    exported++;
+                }
+                generator.writeEndArray();
+                generator.flush();
+            } finally {
+                // the connection goes back to the pool
+                settings.execute(SET_LAZY_QUERY_EXECUTION + "0");
+            }
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + SELECT_BY_CREATED_DT);
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+        log.info("exportTransfers : " + exported + " transfers exported");
+        return exported;
+    }
+
+    private static void writeDecimal(JsonGenerator generator, String field, BigDecimal value) throws IOException {
+        if (value == null)
+            generator.writeNullField(field);
+        else
+            generator.writeNumberField(field, value);
+    }
+
+    private static void writeTimestamp(JsonGenerator generator, String field, Timestamp value) throws IOException {
+        if (value == null)
+            generator.writeNullField(field);
+        else
+            generator.writeNumberField(field, value.getTime());
+    }
+
+    /**
+     * Keyset paginated transfers, in ID order
+     * @param afterId ID of the last transfer of the previous page, 0 for the first page
+     * @param limit   maximum number of transfers of the page
+     * @return page of transfers with the cursor of the next page
+     * @throws Exception e
+     */
+    public Page<Transfer> getTransfersPage(long afterId, int limit) throws Exception {
+        log.info("getTransfersPage : after " + afterId + ", limit " + limit);
+        return selectPage(SELECT_PAGE, null, afterId, limit);
+    }
+
+    /**
+     * Keyset paginated transfers of an account, in ID order
+     * @param accountNo   account number
+     * @param accountType TO for the transfers credited to the account, FROM for the transfers debited from it
+     * @param afterId     ID of the last transfer of the previous page, 0 for the first page
+     * @param limit       maximum number of transfers of the page
+     * @return page of transfers with the cursor of the next page
+     * @throws Exception e
+     */
+    public Page<Transfer> getTransfersByAccountNoPage(Long accountNo, String accountType, long afterId, int limit) throws Exception {
+        log.info("getTransfersByAccountNoPage : " + accountNo + ", after " + afterId + ", limit " + limit);
+        return selectPage(accountType.equalsIgnoreCase("TO") ? SELECT_PAGE_BY_TO_ACCOUNT_NO : SELECT_PAGE_BY_FROM_ACCOUNT_NO, accountNo, afterId, limit);
+    }
+
+    private Page<Transfer> selectPage(String sqlQuery, Long accountNo, long afterId, int limit) throws Exception {
+        List<Transfer> transfersList = new ArrayList<>(limit + 1);
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sqlQuery)) {
+            int index = 1;
+            if (accountNo != null)
+                stmt.setLong(index++, accountNo);
+            stmt.setLong(index++, afterId);
+            // one more row than the page tells whether a next page exists
+            stmt.setInt(index, limit + 1);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                Transfer transfer = new Transfer(rs.getLong("ID"), rs.getLong("FROM_ACCOUNT_NO"), rs.getLong("TO_ACCOUNT_NO"), rs.getBigDecimal("DEBITED_AMOUNT"), rs.getString("DEBITED_CURRENCY_CODE"), rs.getBigDecimal("TRANSFER_AMOUNT"), rs.getString("TRANSFER_CURRENCY_CODE"), rs.getBigDecimal("CREDITED_AMOUNT"), rs.getString("CREDITED_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getString("STATUS"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                transfersList.add(transfer);
+            }
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + sqlQuery + " - accountNo : " + accountNo);
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+        if (transfersList.size() <= limit) {
+            return new Page<>(transfersList, null);
+        }
+        transfersList.remove(limit);
+        return new Page<>(transfersList, transfersList.get(limit - 1).getId());
+    }
+
     /**
      * @param accountNo   account no
      * @param accountType TO or FROM account
@@ -76,21 +281,19 @@ public class TransferDao {
         ResultSet rs = null;
         List<Transfer> transfersList = new ArrayList<>();
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
         String sqlQuery;
         if (accountType.equalsIgnoreCase("TO"))
             sqlQuery = SELECT_BY_TO_ACCOUNT_NO;
         else
             sqlQuery = SELECT_BY_FROM_ACCOUNT_NO;
         // Try with resource to ensure resources are closed on exit
-        try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
+        try (Connection conn = dataSource.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sqlQuery)) {
             stmt.setLong(1, accountNo);
             // Execute a query
             rs = stmt.executeQuery();
             while (rs.next()) {
-                Transfer transfer = new Transfer(rs.getInt("ID"), rs.getLong("FROM_ACCOUNT_NO"), rs.getLong("TO_ACCOUNT_NO"), rs.getBigDecimal("DEBITED_AMOUNT"), rs.getString("DEBITED_CURRENCY_CODE"), rs.getBigDecimal("TRANSFER_AMOUNT"), rs.getString("TRANSFER_CURRENCY_CODE"), rs.getBigDecimal("CREDITED_AMOUNT"), rs.getString("CREDITED_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getString("STATUS"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                Transfer transfer = new Transfer(rs.getLong("ID"), rs.getLong("FROM_ACCOUNT_NO"), rs.getLong("TO_ACCOUNT_NO"), rs.getBigDecimal("DEBITED_AMOUNT"), rs.getString("DEBITED_CURRENCY_CODE"), rs.getBigDecimal("TRANSFER_AMOUNT"), rs.getString("TRANSFER_CURRENCY_CODE"), rs.getBigDecimal("CREDITED_AMOUNT"), rs.getString("CREDITED_CURRENCY_CODE"), rs.getBigDecimal("RATE"), rs.getString("STATUS"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
                 transfersList.add(transfer);
             }
             return transfersList;
@@ -108,106 +311,169 @@ public class TransferDao {
 
     /**
      * Process transfer between two accounts
+     * The transfer runs as a single unit of work on one connection : both accounts are read once (and locked in
+     * PESSIMISTIC mode), then the balance updates and the transfer record (with its final status) are committed
+     * together. In CONDITIONAL mode the balances are moved with guarded relative updates instead of row locks, in
+     * OPTIMISTIC mode they are written only if the accounts are still at the version they were read at.
+     * A unit of work failing on a lock timeout or a version conflict is rolled back and retried by the retry policy.
      * @param transfer transfer to be processed
      * @return created Transfer entity
      * @throws Exception e
      */
     public Transfer processTransfer(Transfer transfer) throws Exception {
         log.info("@@@ processTransfer");
-        int transferId = 0;
-        Connection conn = null;
-        ResultSet rs;
-        PreparedStatement insertStmt;
-        PreparedStatement updateStmt = null;
+        return lockRetryPolicy.execute(() -> processTransferInTransaction(transfer));
+    }
 
-        //Load Driver
-        Class.forName(JDBC_DRIVER);
+    /**
+     * @return lock retry policy and its contention metrics
+     */
+    public LockRetryPolicy getLockRetryPolicy() {
+        return lockRetryPolicy;
+    }
 
-        try{
-            conn = DriverManager.getConnection(DB_URL,USER,PASS);
-            //set autocommit false to control the rollback in case of exception
+    /**
+     * Process a batch of transfers in a single transaction, with shared lookups : the accounts of the batch are read
+     * by one statement, and locked in account number order in PESSIMISTIC mode, the rate of each currency pair is read
+     * once. Funds are moved with guarded relative updates in batch order, a transfer seeing the balances left by the
+     * previous ones, and the transfer records are inserted as one JDBC batch.
+     * Best-effort : failed transfers are recorded with their status, the others being applied. Atomic : if any
+     * transfer fails, the transaction is rolled back and nothing is recorded, the transfers which would have succeeded
+     * being answered ROLLED_BACK.
+     * A batch failing on a lock timeout or a version conflict is rolled back and retried by the retry policy.
+     * @param transfers transfers to process, their account numbers, amounts and currencies being set
+     * @param atomic    true for all-or-nothing, false for best-effort
+     * @return the transfers, in the same order, with their ID and response
+     * @throws Exception e, nothing being recorded
+     */
+    public List<Transfer> processTransfers(List<Transfer> transfers, boolean atomic) throws Exception {
+        log.info("@@@ processTransfers : " + transfers.size() + " transfers" + (atomic ? ", atomic" : ""));
+        return lockRetryPolicy.execute(() -> processTransfersInTransaction(transfers, atomic));
+    }
+
+    private List<Transfer> processTransfersInTransaction(List<Transfer> transfers, boolean atomic) throws Exception {
+        Connection conn = null;
+
+        try {
+            conn = dataSource.getConnection();
+            //set autocommit false to commit the whole batch at once
             conn.setAutoCommit(false);
 
-            // Insert transfer record to log SUCCESS/FAILURE
-            insertStmt = conn.prepareStatement(INSERT_TRANSFER);
-            insertStmt.setLong(1, transfer.getSourceAccountNo());
-            insertStmt.setLong(2, transfer.getDestinationAccountNo());
-            insertStmt.setBigDecimal(3, null);
-            insertStmt.setString(4, null);
-            insertStmt.setBigDecimal(5, transfer.getTransferAmount());
-            insertStmt.setString(6, transfer.getTransferCurrencyCode());
-            insertStmt.setBigDecimal(7, null);
-            insertStmt.setString(8, null);
-            insertStmt.setBigDecimal(9, null);
+            Set<Long> accountNos = new HashSet<>();
+            for (Transfer transfer : transfers) {
+                accountNos.add(transfer.getSourceAccountNo());
+                accountNos.add(transfer.getDestinationAccountNo());
+            }
+            long lockStart = System.nanoTime();
+            Map<Long, Account> accounts = accountDao.getAccountsByNumbers(conn, accountNos, concurrencyMode == ConcurrencyMode.PESSIMISTIC);
+            if (concurrencyMode == ConcurrencyMode.PESSIMISTIC) {
+                lockRetryPolicy.recordLockWait(System.nanoTime() - lockStart);
+            }
+            Map<Integer, Rate> rates = new HashMap<>();
+
+            boolean failed = false;
+            for (Transfer transfer : transfers) {
+                Account fromAccount = accounts.get(transfer.getSourceAccountNo());
+                Account toAccount = accounts.get(transfer.getDestinationAccountNo());
+                // the guarded debit checks the balance left by the previous transfers of the batch
+                transactionValidations(transfer, fromAccount, toAccount, false, rates);
+                if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                    if (fromAccount.getBalanceSlots() > 0 || toAccount.getBalanceSlots() > 0) {
+                        transfer.setResponse(accountDao.transferFundSharded(conn, fromAccount, toAccount, transfer));
+                    } else {
+                        transfer.setResponse(accountDao.transferFundConditional(conn, transfer));
+                    }
+                }
+                failed |= transfer.getResponse() != Transfer.transferResponse.SUCCESS;
+            }
 
-            //Execute Insert query
-            log.info("@@@ before Execute insert");
-            int insertNo = insertStmt.executeUpdate();
-            log.info("@@@ " + insertNo + " transfer inserted.");
-            if (insertNo != 1) {
-                throw new Exception("Transfer insertion failed.");
+            if (atomic && failed) {
+                conn.rollback();
+                for (Transfer transfer : transfers) {
+                    if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                        transfer.setResponse(Transfer.transferResponse.ROLLED_BACK);
+                    }
+                }
+                log.info("Transfer batch rolled back.");
+                return transfers;
             }
-            rs = insertStmt.getGeneratedKeys();
-            if (rs.next())
-                transferId = rs.getInt(1);
-            log.info("Transfer successfully inserted in PENDING status. ID : " + transferId);
+
+            // Insert transfer records to log SUCCESS/FAILURE
+            insertTransfers(conn, transfers);
+
+            //Commit balances and transfer records together
             conn.commit();
-            transfer.setId(transferId);
+            accountDao.accountsChanged(accountNos);
+            log.info("Transfer batch committed : " + transfers.size() + " transfers.");
+            return transfers;
+        } catch(SQLException se) {
+            log.severe("@@@ SQLException : " + se.getMessage());
+            if (conn != null) {
+                conn.rollback();
+            }
+            throw new SQLException(se);
+        } catch(Exception e) {
+            log.severe("@@@ Exception : " + e.getMessage());
+            if (conn != null) {
+                conn.rollback();
+            }
+            throw new Exception(e);
+        } finally {
+            // release the connection back to the pool
+            DbUtils.closeQuietly(conn);
+        }
+    }
 
-            //Lock both accounts until transaction completed
-            Account fromAccount = accountDao.lockAccountByNumber(transfer.getSourceAccountNo());
-            Account toAccount = accountDao.lockAccountByNumber(transfer.getDestinationAccountNo());
+    private Transfer processTransferInTransaction(Transfer transfer) throws Exception {
+        Connection conn = null;
+
+        try{
+            conn = dataSource.getConnection();
+            //set autocommit false to control the rollback in case of exception
+            conn.setAutoCommit(false);
+
+            Map<Long, Account> accounts;
+            if (concurrencyMode == ConcurrencyMode.PESSIMISTIC) {
+                //Lock both accounts until transaction completed, in account number order
+                long lockStart = System.nanoTime();
+                accounts = accountDao.lockAccountsByNumber(conn, transfer.getSourceAccountNo(), transfer.getDestinationAccountNo());
+                lockRetryPolicy.recordLockWait(System.nanoTime() - lockStart);
+            } else {
+                //The conditional debit or the row versions guard the balance : accounts are read without lock
+                accounts = accountDao.getAccountsByNumber(conn, transfer.getSourceAccountNo(), transfer.getDestinationAccountNo());
+            }
+            Account fromAccount = accounts.get(transfer.getSourceAccountNo());
+            Account toAccount = accounts.get(transfer.getDestinationAccountNo());
 
             // validation method to call before any fund movement
-            transfer = transactionValidations(transfer);
+            transfer = transactionValidations(transfer, fromAccount, toAccount, concurrencyMode != ConcurrencyMode.CONDITIONAL, null);
             log.info("transactionValidations : " + transfer.getResponse().getErrorMessage());
 
-            if (!transfer.getResponse().equals(Transfer.transferResponse.SUCCESS)) {
-                log.info("Transfer validation error -- Update transfer record to failed.");
-                updateStmt = conn.prepareStatement(UPDATE_TRANSFER);
-                updateStmt.setBigDecimal(1, transfer.getDebitedAmount());
-                updateStmt.setString(2, transfer.getSourceCurrencyCode());
-                updateStmt.setBigDecimal(3, transfer.getCreditedAmount());
-                updateStmt.setString(4, transfer.getDestinationCurrencyCode());
-                updateStmt.setBigDecimal(5, transfer.getRate());
-                updateStmt.setString(6, transfer.getResponse().name());
-                updateStmt.setInt(7, transfer.getId());
-                updateStmt.executeUpdate();
-                conn.commit();
-                return transfer;
+            if (transfer.getResponse().equals(Transfer.transferResponse.SUCCESS)) {
+                log.info("Transfer validation success -- Processing transfer.");
+                if (fromAccount.getBalanceSlots() > 0 || toAccount.getBalanceSlots() > 0) {
+                    // sharded accounts are moved with relative updates whatever the mode
+                    transfer.setResponse(accountDao.transferFundSharded(conn, fromAccount, toAccount, transfer));
+                } else if (concurrencyMode == ConcurrencyMode.PESSIMISTIC) {
+                    transfer.setResponse(accountDao.transferFund(conn, fromAccount, toAccount, transfer));
+                } else if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+                    transfer.setResponse(accountDao.transferFundOptimistic(conn, fromAccount, toAccount, transfer));
+                } else {
+                    transfer.setResponse(accountDao.transferFundConditional(conn, transfer));
+                }
+            } else {
+                log.info("Transfer validation error -- Recording failed transfer.");
             }
 
-            log.info("Transfer validation success -- Processing transfer.");
-
-            Transfer.transferResponse transferFundResponse = accountDao.transferFund(fromAccount, toAccount, transfer);
-            transfer.setResponse(transferFundResponse);
-            if (!transferFundResponse.equals(Transfer.transferResponse.SUCCESS)) {
-                log.info("Transfer fund error -- Update transfer record to failed.");
-                updateStmt = conn.prepareStatement(UPDATE_TRANSFER);
-                updateStmt.setBigDecimal(1, transfer.getDebitedAmount());
-                updateStmt.setString(2, transfer.getSourceCurrencyCode());
-                updateStmt.setBigDecimal(3, transfer.getCreditedAmount());
-                updateStmt.setString(4, transfer.getDestinationCurrencyCode());
-                updateStmt.setBigDecimal(5, transfer.getRate());
-                updateStmt.setString(6, transferFundResponse.name());
-                updateStmt.setInt(7, transfer.getId());
-                updateStmt.executeUpdate();
-                conn.commit();
-                return transfer;
-            }
+            // Insert transfer record to log SUCCESS/FAILURE
+            insertTransfer(conn, transfer);
 
-            log.info("Transfer fund success -- Update transfer record to success.");
-
-            updateStmt = conn.prepareStatement(UPDATE_TRANSFER);
-            updateStmt.setBigDecimal(1, transfer.getDebitedAmount());
-            updateStmt.setString(2, transfer.getSourceCurrencyCode());
-            updateStmt.setBigDecimal(3, transfer.getCreditedAmount());
-            updateStmt.setString(4, transfer.getDestinationCurrencyCode());
-            updateStmt.setBigDecimal(5, transfer.getRate());
-            updateStmt.setString(6, transferFundResponse.name());
-            updateStmt.setInt(7, transferId);
-            updateStmt.executeUpdate();
+            //Commit balances and transfer record together
             conn.commit();
+            if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                accountDao.accountsChanged(Arrays.asList(transfer.getSourceAccountNo(), transfer.getDestinationAccountNo()));
+            }
+            log.info("Transfer committed. ID : " + transfer.getId() + " - status : " + transfer.getResponse().name());
             return transfer;
         } catch(SQLException se) {
             log.severe("@@@ SQLException : " + se.getMessage());
@@ -216,126 +482,414 @@ public class TransferDao {
             }
             throw new SQLException(se);
         } catch(Exception e) {
-            log.severe("@@@ Exception : " + e.getMessage() + conn + updateStmt);
+            log.severe("@@@ Exception : " + e.getMessage());
             if (conn != null) {
                 conn.rollback();
             }
             throw new Exception(e);
+        } finally {
+            // release the connection back to the pool
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Validate and price a transfer against accounts read by the caller, without checking the source balance
+     * Sets the response, the account currencies, the rate and the debited / credited amounts : used by the engines
+     * holding the balances outside of the database, which check and move the funds themselves.
+     * @param transfer    transfer to validate
+     * @param fromAccount source account, null if not found
+     * @param toAccount   destination account, null if not found
+     * @return transfer with its response, SUCCESS when the funds can be moved
+     * @throws Exception e
+     */
+    public Transfer priceTransfer(Transfer transfer, Account fromAccount, Account toAccount) throws Exception {
+        return transactionValidations(transfer, fromAccount, toAccount, false, null);
+    }
+
+    /**
+     * Validate and price a transfer of a batch, the rate of each currency pair being read once per batch
+     * @param transfer    transfer to validate
+     * @param fromAccount source account, null if not found
+     * @param toAccount   destination account, null if not found
+     * @param rates       rates already read by the batch, by currency pair (see currencyPair), filled by the call
+     * @return transfer with its response, SUCCESS when the funds can be moved
+     * @throws Exception e
+     */
+    public Transfer priceTransfer(Transfer transfer, Account fromAccount, Account toAccount, Map<Integer, Rate> rates) throws Exception {
+        return transactionValidations(transfer, fromAccount, toAccount, false, rates);
+    }
+
+    /**
+     * Reprice recorded transfers at the rates effective when they were created, read in one query
+     * Each transfer is answered as recorded, with its status, and priced again : its rate and debited / credited amounts
+     * are those of the rate versions effective at its creation time, its response being RATE_NOT_FOUND if none was.
+     * @param ids transfer IDs
+     * @return repriced transfers, in the order of the IDs, unknown IDs being left out
+     * @throws Exception e
+     */
+    public List<Transfer> repriceTransfers(List<Long> ids) throws Exception {
+        log.info("repriceTransfers : " + ids.size() + " transfers");
+        Map<Long, Transfer> transfers = new HashMap<>(ids.size() * 2);
+        Map<Long, Timestamp> createdTimes = new HashMap<>(ids.size() * 2);
+        Set<Long> distinctIds = new HashSet<>(ids);
+        List<Transfer> repriced = new ArrayList<>(distinctIds.size());
+        if (distinctIds.isEmpty()) {
+            return repriced;
+        }
+        StringBuilder inList = new StringBuilder("(?");
+        for (int i = 1; i < distinctIds.size(); i++) {
+            inList.append(", ?");
+        }
+        inList.append(')');
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ID_LIST + inList)) {
+            int index = 1;
+            for (Long id : distinctIds) {
+                stmt.setLong(index++, id);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                // amounts left to the repricing, currencies of the accounts as recorded
+                Transfer transfer = new Transfer(rs.getLong("ID"), rs.getLong("FROM_ACCOUNT_NO"), rs.getLong("TO_ACCOUNT_NO"), null, rs.getString("DEBITED_CURRENCY_CODE"), rs.getBigDecimal("TRANSFER_AMOUNT"), rs.getString("TRANSFER_CURRENCY_CODE"), null, rs.getString("CREDITED_CURRENCY_CODE"), null, rs.getString("STATUS"), rs.getDate("CREATED_DT"), rs.getDate("LAST_UPDATED_DT"));
+                transfers.put(transfer.getId(), transfer);
+                createdTimes.put(transfer.getId(), rs.getTimestamp("CREATED_DT"));
+            }
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + SELECT_BY_ID_LIST + " - " + distinctIds.size() + " ids");
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+
+        for (Long id : ids) {
+            Transfer transfer = transfers.get(id);
+            if (transfer != null) {
+                repriced.add(reprice(transfer, createdTimes.get(id)));
+            }
+        }
+        return repriced;
+    }
+
+    private Transfer reprice(Transfer transfer, Timestamp createdDt) throws Exception {
+        Account fromAccount = currencyAccount(transfer.getSourceAccountNo(), transfer.getSourceCurrencyCode());
+        Account toAccount = currencyAccount(transfer.getDestinationAccountNo(), transfer.getDestinationCurrencyCode());
+        Map<Integer, Rate> rates = new HashMap<>(2);
+        if (fromAccount != null && toAccount != null) {
+            rates.put(currencyPair(CurrencyRegistry.id(fromAccount.getCurrencyCode()), CurrencyRegistry.id(toAccount.getCurrencyCode())), createdDt == null ? null
+                    : rateDao.getRateAt(fromAccount.getCurrencyCode(), toAccount.getCurrencyCode(), createdDt.getTime()));
+        }
+        return transactionValidations(transfer, fromAccount, toAccount, false, rates);
+    }
+
+    /**
+     * @return account standing for the recorded currency of a transfer account, null if not recorded
+     */
+    private static Account currencyAccount(Long accountNo, String currencyCode) {
+        if (currencyCode == null) {
+            return null;
+        }
+        Account account = new Account();
+        account.setAccountNo(accountNo);
+        account.setCurrencyCode(currencyCode);
+        return account;
+    }
+
+    /**
+     * Record transfers processed outside of the database in one transaction : the balance movements of the successful
+     * transfers, applied as relative updates, and every transfer record with its final status
+     * @param transfers processed transfers
+     * @throws Exception e, nothing being recorded
+     */
+    public void recordTransfers(List<Transfer> transfers) throws Exception {
+        recordTransfers(transfers, 0, 0);
+    }
+
+    /**
+     * Record transfers projected from a transfer journal, advancing the journal checkpoint in the same transaction
+     * @param transfers journal entries, in sequence order
+     * @param journalId ID of the journal the database is projected from
+     * @param sequence  sequence of the last entry
+     * @throws Exception e, or if the checkpoint is not before the entries, nothing being recorded
+     */
+    public void recordJournalEntries(List<Transfer> transfers, long journalId, long sequence) throws Exception {
+        recordTransfers(transfers, journalId, sequence);
+    }
+
+    private void recordTransfers(List<Transfer> transfers, long journalId, long sequence) throws Exception {
+        Connection conn = null;
+
+        try {
+            conn = dataSource.getConnection();
+            //set autocommit false to control the rollback in case of exception
+            conn.setAutoCommit(false);
+            accountDao.applyTransferMovements(conn, transfers);
+            insertTransfers(conn, transfers);
+            if (journalId != 0) {
+                try (PreparedStatement stmt = conn.prepareStatement(ADVANCE_JOURNAL_CHECKPOINT)) {
+                    stmt.setLong(1, sequence);
+                    stmt.setLong(2, journalId);
+                    stmt.setLong(3, sequence);
+                    if (stmt.executeUpdate() != 1) {
+                        throw new SQLException("Journal checkpoint of journal " + journalId + " is not before sequence " + sequence);
+                    }
+                }
+            }
+            conn.commit();
+            Set<Long> accountNos = new HashSet<>();
+            for (Transfer transfer : transfers) {
+                if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                    accountNos.add(transfer.getSourceAccountNo());
+                    accountNos.add(transfer.getDestinationAccountNo());
+                }
+            }
+            accountDao.accountsChanged(accountNos);
+        } catch (SQLException se) {
+            log.severe("SQL Exception while recording " + transfers.size() + " transfers : " + se.getMessage());
+            if (conn != null) {
+                conn.rollback();
+            }
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(conn);
         }
     }
 
+    /**
+     * @return ID of the journal the database is projected from (0 if none) and sequence of its last projected entry
+     * @throws Exception e
+     */
+    public long[] getJournalCheckpoint() throws Exception {
+        ResultSet rs = null;
+
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            rs = stmt.executeQuery(SELECT_JOURNAL_CHECKPOINT);
+            rs.next();
+            return new long[]{rs.getLong("JOURNAL_ID"), rs.getLong("JOURNAL_SEQUENCE")};
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + SELECT_JOURNAL_CHECKPOINT);
+            throw new SQLException(se);
+        } finally {
+            DbUtils.closeQuietly(rs);
+        }
+    }
+
+    /**
+     * Attach the database to a new transfer journal
+     * @param journalId ID of the journal
+     * @param sequence  sequence of the last entry already in the database
+     * @throws Exception e
+     */
+    public void resetJournalCheckpoint(long journalId, long sequence) throws Exception {
+        // Try with resource to ensure resources are closed on exit
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(RESET_JOURNAL_CHECKPOINT)) {
+            stmt.setLong(1, journalId);
+            stmt.setLong(2, sequence);
+            stmt.executeUpdate();
+        } catch (SQLException se) {
+            log.severe("SQL Exception while executing : " + RESET_JOURNAL_CHECKPOINT);
+            throw new SQLException(se);
+        }
+    }
+
+    /**
+     * @return new transfer ID, for transfers processed outside of the database
+     */
+    public long nextTransferId() {
+        return idGenerator.nextId();
+    }
+
+    /**
+     * Insert the transfer record with its final status within the caller's transaction
+     * @param conn     connection of the current transaction
+     * @param transfer processed transfer
+     * @throws Exception e
+     */
+    private void insertTransfer(Connection conn, Transfer transfer) throws Exception {
+        // time-ordered ID generated in the application, no sequence round trip, unless given on submission
+        if (transfer.getId() == 0)
+            transfer.setId(idGenerator.nextId());
+
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement insertStmt = conn.prepareStatement(INSERT_TRANSFER)) {
+            bindTransfer(insertStmt, transfer);
+
+            //Execute Insert query
+            int insertNo = insertStmt.executeUpdate();
+            if (insertNo != 1) {
+                throw new Exception("Transfer insertion failed.");
+            }
+        }
+    }
+
+    /**
+     * Insert transfer records, as one batch, within the caller's transaction
+     * Transfers without ID are given one, transfers without creation time are created now.
+     * @param conn      connection of the current transaction
+     * @param transfers processed transfers
+     * @throws SQLException e
+     */
+    private void insertTransfers(Connection conn, List<Transfer> transfers) throws SQLException {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        // Try with resource to ensure resources are closed on exit
+        try (PreparedStatement insertStmt = conn.prepareStatement(RECORD_TRANSFER)) {
+            for (Transfer transfer : transfers) {
+                if (transfer.getId() == 0)
+                    transfer.setId(idGenerator.nextId());
+                bindTransfer(insertStmt, transfer);
+                insertStmt.setTimestamp(12, transfer.getCreatedDt() != null ? new Timestamp(transfer.getCreatedDt().getTime()) : now);
+                insertStmt.addBatch();
+            }
+            insertStmt.executeBatch();
+        }
+    }
+
+    private static void bindTransfer(PreparedStatement insertStmt, Transfer transfer) throws SQLException {
+        insertStmt.setLong(1, transfer.getId());
+        insertStmt.setLong(2, transfer.getSourceAccountNo());
+        insertStmt.setLong(3, transfer.getDestinationAccountNo());
+        insertStmt.setBigDecimal(4, transfer.getDebitedAmount());
+        insertStmt.setString(5, transfer.getSourceCurrencyCode());
+        insertStmt.setBigDecimal(6, transfer.getTransferAmount());
+        insertStmt.setString(7, transfer.getTransferCurrencyCode());
+        insertStmt.setBigDecimal(8, transfer.getCreditedAmount());
+        insertStmt.setString(9, transfer.getDestinationCurrencyCode());
+        insertStmt.setBigDecimal(10, transfer.getRate());
+        insertStmt.setString(11, transfer.getResponse().name());
+    }
+
     /**
      * Validation check method - to be called before taking/crediting amount from/to account
      *
-     * @param transfer transfer object
+     * @param transfer    transfer object
+     * @param fromAccount source account as read (and locked) by the current transaction, null if not found
+     * @param toAccount   destination account as read (and locked) by the current transaction, null if not found
+     * @param checkFunds  true to check the source balance, false when the fund movement itself guards the balance
+     * @param rates       rates already read by the batch of the transfer, by currency pair, null outside of a batch
      * @return Transfer.transferResponse
      * @throws Exception e
      */
-    private Transfer transactionValidations(Transfer transfer) throws Exception {
-        log.info("transactionValidations");
-        Account fromAccount = accountDao.getAccountByAccountNo(transfer.getSourceAccountNo());
+    private Transfer transactionValidations(Transfer transfer, Account fromAccount, Account toAccount, boolean checkFunds, Map<Integer, Rate> rates) throws Exception {
+        log.fine("transactionValidations");
         if (fromAccount == null) {
             transfer.setResponse(Transfer.transferResponse.INVALID_FROM_ACC);
             return transfer;
         }
-        log.info("Valid Source Account.");
-        Account toAccount = accountDao.getAccountByAccountNo(transfer.getDestinationAccountNo());
+        log.fine("Valid Source Account.");
         if (toAccount == null) {
             transfer.setResponse(Transfer.transferResponse.INVALID_TO_ACC);
             return transfer;
         }
-        log.info("Valid Destination Account.");
+        log.fine("Valid Destination Account.");
 
         //Validating currency codes
         String transferCurrencyCode = transfer.getTransferCurrencyCode();
-        try {
-            Currency instance = Currency.getInstance(transferCurrencyCode);
-            //noinspection ResultOfMethodCallIgnored
-            instance.getCurrencyCode().equals(transferCurrencyCode);
-        } catch (Exception e) {
+        int transferCurrency = CurrencyRegistry.id(transferCurrencyCode);
+        if (transferCurrency == CurrencyRegistry.UNKNOWN) {
             log.info("Invalid currency code : " + transferCurrencyCode);
             transfer.setResponse(Transfer.transferResponse.INVALID_CURRENCY_TRANSFER);
             return transfer;
         }
-        log.info("Valid Transfer Currency.");
+        log.fine("Valid Transfer Currency.");
 
         String fromCurrencyCode = fromAccount.getCurrencyCode();
-        try {
-            Currency instance = Currency.getInstance(fromCurrencyCode);
-            //noinspection ResultOfMethodCallIgnored
-            instance.getCurrencyCode().equals(fromCurrencyCode);
-        } catch (Exception e) {
+        int fromCurrency = CurrencyRegistry.id(fromCurrencyCode);
+        if (fromCurrency == CurrencyRegistry.UNKNOWN) {
             log.info("Invalid currency code : " + fromCurrencyCode);
             transfer.setResponse(Transfer.transferResponse.INVALID_CURRENCY_FROM_ACC);
             return transfer;
         }
-        log.info("Valid Source Account Currency.");
+        log.fine("Valid Source Account Currency.");
         transfer.setSourceCurrencyCode(fromCurrencyCode);
 
         String toCurrencyCode = toAccount.getCurrencyCode();
-        try {
-            Currency instance = Currency.getInstance(toCurrencyCode);
-            //noinspection ResultOfMethodCallIgnored
-            instance.getCurrencyCode().equals(toCurrencyCode);
-        } catch (Exception e) {
+        int toCurrency = CurrencyRegistry.id(toCurrencyCode);
+        if (toCurrency == CurrencyRegistry.UNKNOWN) {
             log.info("Invalid currency code : " + toCurrencyCode);
             transfer.setResponse(Transfer.transferResponse.INVALID_CURRENCY_TO_ACC);
             return transfer;
         }
-        log.info("Valid Destination Account Currency.");
+        log.fine("Valid Destination Account Currency.");
         transfer.setDestinationCurrencyCode(toCurrencyCode);
 
-
         //If the transfer currency doesn't match either accounts currencies : error
-        if (!transferCurrencyCode.equalsIgnoreCase(fromCurrencyCode) && !transferCurrencyCode.equalsIgnoreCase(toCurrencyCode)) {
+        if (transferCurrency != fromCurrency && transferCurrency != toCurrency) {
             log.info("Transfer currency doesn't correspond to either account currencies.");
             transfer.setResponse(Transfer.transferResponse.TRANSFER_CURRENCY_MISMATCH);
             return transfer;
         }
 
         Rate rate;
-        if (fromCurrencyCode.equalsIgnoreCase(toCurrencyCode)) {
-            log.info("Source and Destination currencies are the same , rate = 1");
+        if (fromCurrency == toCurrency) {
+            log.fine("Source and Destination currencies are the same , rate = 1");
             rate = new Rate();
-            rate.setRate(new BigDecimal(1).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            rate.setRate(IDENTITY_RATE);
         } else {
-            rate = rateDao.getRateBySourceAndDestCurrency(fromCurrencyCode, toCurrencyCode);
+            rate = rate(fromCurrency, toCurrency, rates);
         }
         if (rate == null) {
             log.info("Rate not found for the source and destination currencies");
             transfer.setResponse(Transfer.transferResponse.RATE_NOT_FOUND);
             return transfer;
         }
-        log.info("Valid Rate : " + rate.getRate());
+        log.fine("Valid Rate : " + rate.getRate());
         transfer.setRate(rate.getRate());
-        BigDecimal debitedAmount;
-        BigDecimal creditedAmount;
 
-        if (transferCurrencyCode.equalsIgnoreCase(fromCurrencyCode)) {
-            debitedAmount = transfer.getTransferAmount().setScale(2, BigDecimal.ROUND_HALF_EVEN);
+        //Amounts in minor units of their currencies
+        Money transferAmount = Money.of(transfer.getTransferAmount(), Money.fractionDigits(transferCurrency));
+        Money debitedAmount;
+        Money creditedAmount;
+        if (transferCurrency == fromCurrency) {
+            debitedAmount = transferAmount;
         } else {
-            debitedAmount = transfer.getTransferAmount().setScale(2, BigDecimal.ROUND_HALF_EVEN).divide(rate.getRate(), 2, BigDecimal.ROUND_HALF_UP);
+            debitedAmount = transferAmount.dividedBy(Money.scaled(rate.getRate(), RateDao.RATE_SCALE), RateDao.RATE_SCALE, Money.fractionDigits(fromCurrency), RoundingMode.HALF_UP);
         }
-        if (transferCurrencyCode.equalsIgnoreCase(toCurrencyCode)) {
-            creditedAmount = transfer.getTransferAmount().setScale(2, BigDecimal.ROUND_HALF_EVEN);
+        if (transferCurrency == toCurrency) {
+            creditedAmount = transferAmount;
         } else {
-            creditedAmount = transfer.getTransferAmount().setScale(2, BigDecimal.ROUND_HALF_EVEN).multiply(rate.getRate().setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            creditedAmount = transferAmount.times(Money.scaled(rate.getRate(), Money.AMOUNT_SCALE), Money.AMOUNT_SCALE, Money.fractionDigits(toCurrency), RoundingMode.HALF_EVEN);
         }
 
         //Validating sufficient fund
-        BigDecimal newBalance = fromAccount.getBalance().setScale(2, BigDecimal.ROUND_HALF_EVEN).subtract(debitedAmount.setScale(2, BigDecimal.ROUND_HALF_EVEN));
-        //check account balance
-        if (newBalance.compareTo(new BigDecimal(0).setScale(2, BigDecimal.ROUND_HALF_EVEN)) < 0) {
-            log.info("Insufficient balance on account : " + fromAccount.getAccountNo());
-            transfer.setResponse(Transfer.transferResponse.INSUFFICIENT_FUND);
-            return transfer;
+        if (checkFunds) {
+            //check account balance
+            if (Money.of(fromAccount.getBalance(), Money.AMOUNT_SCALE).minus(debitedAmount.withFractionDigits(Money.AMOUNT_SCALE)).isNegative()) {
+                log.info("Insufficient balance on account : " + fromAccount.getAccountNo());
+                transfer.setResponse(Transfer.transferResponse.INSUFFICIENT_FUND);
+                return transfer;
+            }
         }
-        log.info("debitedAmount : " + debitedAmount);
-        transfer.setDebitedAmount(debitedAmount);
-        log.info("creditedAmount : " + creditedAmount);
-        transfer.setCreditedAmount(creditedAmount);
+        log.fine("debitedAmount : " + debitedAmount);
+        transfer.setDebitedAmount(debitedAmount.toBigDecimal());
+        log.fine("creditedAmount : " + creditedAmount);
+        transfer.setCreditedAmount(creditedAmount.toBigDecimal());
         transfer.setResponse(Transfer.transferResponse.SUCCESS);
-        log.info("All transfer validations passed.");
+        log.fine("All transfer validations passed.");
         return transfer;
     }
+
+    private Rate rate(int fromCurrency, int toCurrency, Map<Integer, Rate> rates) throws Exception {
+        if (rates == null) {
+            return rateDao.getRate(fromCurrency, toCurrency);
+        }
+        Integer currencyPair = currencyPair(fromCurrency, toCurrency);
+        if (!rates.containsKey(currencyPair)) {
+            // missing rates are remembered too
+            rates.put(currencyPair, rateDao.getRate(fromCurrency, toCurrency));
+        }
+        return rates.get(currencyPair);
+    }
+
+    /**
+     * @return key of a currency pair in the rates of a batch, from the currency IDs in the CurrencyRegistry
+     */
+    private static int currencyPair(int fromCurrency, int toCurrency) {
+        return fromCurrency * CurrencyRegistry.count() + toCurrency;
+    }
 }
@@ -0,0 +1,15 @@
+package com.revolut.moneytransfer.dao;
+
+import java.sql.SQLException;
+
+/**
+ * Optimistic update rejected : the row was updated by another transaction since it was read
+ */
+public class VersionConflictException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    public VersionConflictException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,207 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous transfer submission : a transfer is accepted at once with its ID, then processed through the transfer
+ * engine by a bounded pool of workers, a full queue rejecting new submissions
+ * A transfer is PENDING until processed. The outcome of the last completedCapacity transfers is kept in memory, so
+ * that it is reported before the transfer is recorded (BATCH write mode) or when the transfer could not be processed
+ * (ERROR, nothing being recorded). Older transfers are read from the TRANSFERS table.
+ */
+public class AsyncTransferProcessor {
+    private static final Logger log = Logger.getLogger("AsyncTransferProcessor");
+    /**
+     * Status of a transfer accepted and not processed yet
+     */
+    public static final String PENDING = "PENDING";
+    /**
+     * Status of a transfer which could not be processed, nothing being recorded
+     */
+    public static final String ERROR = "ERROR";
+
+    private final Supplier<TransferEngine> engine;
+    private final TransferDao transferDao;
+    private final ThreadPoolExecutor workers;
+    // accepted transfers, as submitted, until processed
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    // outcome of the last processed transfers, eldest first
+    private final Map<Long, Transfer> completed;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private static final class Pending {
+        private final Transfer submitted;
+        private final Consumer<Transfer> onError;
+        private final CompletableFuture<Transfer> result = new CompletableFuture<>();
+
+        private Pending(Transfer submitted, Consumer<Transfer> onError) {
+            this.submitted = submitted;
+            this.onError = onError;
+        }
+    }
+
+    /**
+     * @param engine            transfer engine, looked up for every transfer as it is restarted with the database
+     * @param transferDao       transfer DAO, allocating the transfer IDs and reading the recorded transfers
+     * @param threads           number of workers
+     * @param queueCapacity     maximum number of accepted transfers waiting for a worker
+     * @param completedCapacity number of processed transfers whose outcome is kept in memory
+     */
+    public AsyncTransferProcessor(Supplier<TransferEngine> engine, TransferDao transferDao, int threads, int queueCapacity, int completedCapacity) {
+        this.engine = engine;
+        this.transferDao = transferDao;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), task -> {
+            Thread thread = new Thread(task, "transfer-async-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.completed = new LinkedHashMap<Long, Transfer>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Transfer> eldest) {
+                return size() > completedCapacity;
+            }
+        };
+    }
+
+    /**
+     * Accept a transfer, its ID being allocated at once unless already given
+     * @param transfer transfer to process
+     * @return the transfer as accepted, with its ID and the PENDING status
+     * @throws RejectedExecutionException if the queue is full or the processor stopped
+     */
+    public Transfer submit(Transfer transfer) {
+        return submit(transfer, null);
+    }
+
+    /**
+     * Accept a transfer, its ID being allocated at once unless already given
+     * @param transfer transfer to process
+     * @param onError  called with the transfer if it could not be processed (ERROR), null if none
+     * @return the transfer as accepted, with its ID and the PENDING status
+     * @throws RejectedExecutionException if the queue is full or the processor stopped
+     */
+    public Transfer submit(Transfer transfer, Consumer<Transfer> onError) {
+        if (transfer.getId() == 0) {
+            transfer.setId(transferDao.nextTransferId());
+        }
+        Pending entry = new Pending(copy(transfer, PENDING), onError);
+        pending.put(transfer.getId(), entry);
+        try {
+            workers.execute(() -> process(transfer, entry));
+        } catch (RejectedExecutionException e) {
+            pending.remove(transfer.getId());
+            rejected.increment();
+            throw e;
+        }
+        accepted.increment();
+        return entry.submitted;
+    }
+
+    private void process(Transfer transfer, Pending entry) {
+        Transfer processed;
+        try {
+            processed = engine.get().process(transfer);
+            processed.setStatus(processed.getResponse().name());
+        } catch (Exception e) {
+            log.severe("Error while processing transfer " + transfer.getId() + " : " + e.getMessage());
+            failed.increment();
+            processed = copy(entry.submitted, ERROR);
+        }
+        synchronized (completed) {
+            completed.put(processed.getId(), processed);
+        }
+        pending.remove(processed.getId());
+        entry.result.complete(processed);
+        if (entry.onError != null && ERROR.equals(processed.getStatus())) {
+            try {
+                entry.onError.accept(processed);
+            } catch (RuntimeException e) {
+                log.severe("Error while handling failed transfer " + processed.getId() + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param id         transfer ID
+     * @param waitMillis maximum time to wait for a pending transfer to be processed, 0 not to wait
+     * @return transfer with its status : PENDING, ERROR, or its response once processed ; null if unknown
+     * @throws Exception e, if a recorded transfer cannot be read
+     */
+    public Transfer getTransfer(long id, long waitMillis) throws Exception {
+        Pending entry = pending.get(id);
+        if (entry != null) {
+            try {
+                return waitMillis > 0 ? entry.result.get(waitMillis, TimeUnit.MILLISECONDS) : entry.result.getNow(entry.submitted);
+            } catch (TimeoutException e) {
+                return entry.submitted;
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            }
+        }
+        synchronized (completed) {
+            Transfer transfer = completed.get(id);
+            if (transfer != null) {
+                return transfer;
+            }
+        }
+        // answered by the engine before it is recorded
+        Transfer unrecorded = engine.get().getUnrecordedTransfer(id);
+        if (unrecorded != null) {
+            return unrecorded;
+        }
+        return transferDao.getTransferById(id);
+    }
+
+    private static Transfer copy(Transfer transfer, String status) {
+        Transfer copy = new Transfer(transfer.getSourceAccountNo(), transfer.getDestinationAccountNo(), transfer.getTransferAmount(), transfer.getTransferCurrencyCode());
+        copy.setId(transfer.getId());
+        copy.setStatus(status);
+        return copy;
+    }
+
+    /**
+     * @return snapshot of the accepted, rejected and failed transfers and of the workers queue
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pending", pending.size());
+        metrics.put("queueDepth", workers.getQueue().size());
+        metrics.put("activeWorkers", workers.getActiveCount());
+        metrics.put("accepted", accepted.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("failed", failed.sum());
+        return metrics;
+    }
+
+    /**
+     * Process the accepted transfers and stop
+     */
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
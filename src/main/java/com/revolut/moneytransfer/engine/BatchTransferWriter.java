@@ -0,0 +1,192 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Background writer recording processed transfers in batches
+ * Transfers are queued in a bounded queue, submitters blocking while it is full, and written by a single thread in
+ * one transaction per batch : a batch is written once batchSize transfers are queued or flushInterval has elapsed.
+ * Transfers are submitted in groups, each group recorded in one transaction, with a result completed once the group is
+ * recorded or failed. Every recorded transfer is handed to the recorded handler. When a batch fails, its groups are
+ * written one by one and the transfers of those still failing are handed to the failure handler.
+ */
+final class BatchTransferWriter {
+    private static final Logger log = Logger.getLogger("BatchTransferWriter");
+
+    private final TransferDao transferDao;
+    private final Consumer<Transfer> onRecorded;
+    private final Consumer<Transfer> onFailure;
+    private final BlockingQueue<Entry> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Thread thread;
+    // transfers submitted and not yet written or failed
+    private final AtomicLong pending = new AtomicLong();
+    private volatile boolean running = true;
+
+    private static final class Entry {
+        private final List<Transfer> transfers;
+        private final CompletableFuture<Void> result;
+
+        private Entry(List<Transfer> transfers, CompletableFuture<Void> result) {
+            this.transfers = transfers;
+            this.result = result;
+        }
+    }
+
+    /**
+     * @param transferDao         transfer DAO recording the batches
+     * @param onRecorded          called with every transfer recorded, before the result of its group is completed
+     * @param onFailure           called with every transfer that could not be recorded
+     * @param queueCapacity       maximum number of queued transfers
+     * @param batchSize           maximum number of transfers per batch
+     * @param flushIntervalMillis maximum time a transfer waits in the queue
+     */
+    BatchTransferWriter(TransferDao transferDao, Consumer<Transfer> onRecorded, Consumer<Transfer> onFailure,
+                        int queueCapacity, int batchSize, long flushIntervalMillis) {
+        this.transferDao = transferDao;
+        this.onRecorded = onRecorded;
+        this.onFailure = onFailure;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.thread = new Thread(this::run, "transfer-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue processed transfers, to be recorded in one transaction, waiting for space if the queue is full
+     * @param transfers processed transfers
+     * @param result    completed once the transfers are recorded, or exceptionally if they could not be
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void submit(List<Transfer> transfers, CompletableFuture<Void> result) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("Transfer writer stopped.");
+        }
+        pending.incrementAndGet();
+        queue.put(new Entry(transfers, result));
+    }
+
+    /**
+     * Wait until every transfer submitted so far is recorded
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException {
+        while (pending.get() > 0 && thread.isAlive()) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Record the queued transfers and stop the writer
+     */
+    void shutdown() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0 || !running) {
+                        break;
+                    }
+                    Entry next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                log.warning("Transfer writer interrupted, " + queue.size() + " transfers left unrecorded.");
+                return;
+            } finally {
+                pending.addAndGet(-batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        List<Transfer> transfers;
+        if (batch.size() == 1) {
+            transfers = batch.get(0).transfers;
+        } else {
+            transfers = new ArrayList<>();
+            for (Entry entry : batch) {
+                transfers.addAll(entry.transfers);
+            }
+        }
+        try {
+            record(transfers);
+            for (Entry entry : batch) {
+                recorded(entry);
+            }
+            return;
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                failed(batch.get(0), e);
+                return;
+            }
+            log.severe("Error while recording a batch of " + transfers.size() + " transfers, recording them group by group : " + e.getMessage());
+        }
+        for (Entry entry : batch) {
+            try {
+                record(entry.transfers);
+                recorded(entry);
+            } catch (Exception e) {
+                failed(entry, e);
+            }
+        }
+    }
+
+    private void record(List<Transfer> transfers) throws Exception {
+        transferDao.getLockRetryPolicy().execute(() -> {
+            transferDao.recordTransfers(transfers);
+            return null;
+        });
+    }
+
+    private void recorded(Entry entry) {
+        for (Transfer transfer : entry.transfers) {
+            onRecorded.accept(transfer);
+        }
+        entry.result.complete(null);
+    }
+
+    private void failed(Entry entry, Exception e) {
+        log.severe(entry.transfers.size() + " transfers could not be recorded : " + e.getMessage());
+        for (Transfer transfer : entry.transfers) {
+            onFailure.accept(transfer);
+        }
+        entry.result.completeExceptionally(e);
+    }
+}
@@ -0,0 +1,46 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.util.List;
+
+/**
+ * Transfers processed in database transactions, balances being read and moved in the ACCOUNTS table
+ */
+public class DatabaseTransferEngine implements TransferEngine {
+    private final AccountDao accountDao;
+    private final TransferDao transferDao;
+
+    /**
+     * @param accountDao  account DAO
+     * @param transferDao transfer DAO
+     */
+    public DatabaseTransferEngine(AccountDao accountDao, TransferDao transferDao) {
+        this.accountDao = accountDao;
+        this.transferDao = transferDao;
+    }
+
+    @Override
+    public Transfer process(Transfer transfer) throws Exception {
+        return transferDao.processTransfer(transfer);
+    }
+
+    /**
+     * One transaction per batch, the accounts and rates of the batch being read once
+     */
+    @Override
+    public List<Transfer> processBatch(List<Transfer> transfers, boolean atomic) throws Exception {
+        return transferDao.processTransfers(transfers, atomic);
+    }
+
+    /**
+     * The account row is locked while its balance is checked and the account deleted
+     */
+    @Override
+    public Account.accountResponse deleteAccount(long accountNo) throws Exception {
+        return accountDao.deleteAccount(accountNo);
+    }
+}
@@ -0,0 +1,180 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Projection of the transfer journal into the ACCOUNTS and TRANSFERS tables
+ * Durable journal records are recorded in batches of at most batchSize records, the journal checkpoint of the
+ * database being advanced in the same transaction : a record is projected exactly once, whatever the restarts.
+ * On start, the records not projected yet (the tail of the journal) are replayed before the balances are loaded.
+ * A batch failing is retried, the projection being stuck on it until it succeeds.
+ * The transfers appended since the last projection are kept by ID, so that they can be read before the database has
+ * them.
+ */
+final class JournalProjector {
+    private static final Logger log = Logger.getLogger("JournalProjector");
+    private static final long RETRY_MILLIS = 1000;
+
+    private final TransferJournal journal;
+    private final TransferDao transferDao;
+    private final int batchSize;
+    private final long intervalMillis;
+    // transfers appended to the journal, until projected
+    private final Map<Long, Transfer> unprojected = new ConcurrentHashMap<>();
+    private Thread thread;
+    private volatile long projected;
+    private volatile boolean running;
+
+    /**
+     * Open the journal of the database and replay its tail
+     * @param journal        journal, not opened yet
+     * @param transferDao    transfer DAO recording the batches
+     * @param batchSize      maximum number of records per batch
+     * @param intervalMillis maximum time between two batches
+     * @throws Exception e, if the journal cannot be opened or replayed
+     */
+    JournalProjector(TransferJournal journal, TransferDao transferDao, int batchSize, long intervalMillis) throws Exception {
+        this.journal = journal;
+        this.transferDao = transferDao;
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+
+        long[] checkpoint = transferDao.getJournalCheckpoint();
+        long journalId = journal.open(checkpoint[0], checkpoint[1]);
+        if (journalId != checkpoint[0]) {
+            transferDao.resetJournalCheckpoint(journalId, checkpoint[1]);
+        }
+        projected = checkpoint[1];
+        long start = System.currentTimeMillis();
+        long replayed = journal.durableSequence() - projected;
+        while (projectBatch()) {
+            // replay the tail
+        }
+        if (replayed > 0) {
+            log.info(replayed + " journal records replayed in " + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+
+    /**
+     * Start projecting in the background
+     */
+    void start() {
+        running = true;
+        thread = new Thread(this::run, "transfer-journal-projector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Keep a transfer until it is projected : to be called before it is appended to the journal
+     * @param transfer transfer, with its ID
+     */
+    void track(Transfer transfer) {
+        unprojected.put(transfer.getId(), transfer);
+    }
+
+    /**
+     * Forget a transfer which could not be appended to the journal
+     * @param transfer transfer, with its ID
+     */
+    void untrack(Transfer transfer) {
+        unprojected.remove(transfer.getId());
+    }
+
+    /**
+     * @param id transfer ID
+     * @return transfer appended to the journal and not projected yet, null if none
+     */
+    Transfer unprojected(long id) {
+        return unprojected.get(id);
+    }
+
+    /**
+     * Wait until every record appended so far is durable and projected
+     * @throws IOException          if the journal failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws IOException, InterruptedException {
+        long target = journal.lastSequence();
+        journal.awaitDurable(target);
+        while (projected < target && thread.isAlive()) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Project every record appended so far and stop, the records appended later being replayed on next start
+     */
+    void shutdown() {
+        try {
+            journal.awaitDurable(journal.lastSequence());
+        } catch (IOException e) {
+            log.severe("Journal records after sequence " + journal.durableSequence() + " not durable on shutdown : " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                if (!projectBatch()) {
+                    if (!running) {
+                        return;
+                    }
+                    TimeUnit.MILLISECONDS.sleep(intervalMillis);
+                }
+            } catch (InterruptedException e) {
+                log.warning("Journal projector interrupted at sequence " + projected + ".");
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    // replayed on next start
+                    log.severe("Error while projecting journal records after sequence " + projected + ", stopping : " + e.getMessage());
+                    return;
+                }
+                log.severe("Error while projecting journal records after sequence " + projected + ", retrying : " + e.getMessage());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if there was no durable record to project
+     */
+    private boolean projectBatch() throws Exception {
+        long durable = journal.durableSequence();
+        if (durable <= projected) {
+            return false;
+        }
+        long last = Math.min(durable, projected + batchSize);
+        List<Transfer> batch = journal.read(projected + 1, last);
+        transferDao.recordJournalEntries(batch, journal.getJournalId(), last);
+        projected = last;
+        for (Transfer transfer : batch) {
+            unprojected.remove(transfer.getId());
+        }
+        journal.release(last);
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package com.revolut.moneytransfer.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Serial execution lane : a single thread running the tasks of its accounts in submission order
+ * The balances of the accounts of the lane are only touched by its thread. The queue is unbounded so that a lane
+ * handing a task to another one never waits : the depth is bounded by the requests waiting on their transfers.
+ * Every task records its latency, from submission to completion.
+ */
+final class Lane {
+    private static final Logger log = Logger.getLogger("Lane");
+
+    private final int index;
+    private final Ledger ledger = new Ledger(1);
+    private final ThreadPoolExecutor executor;
+    private final LongAdder taskCount = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    Lane(int index) {
+        this.index = index;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "transfer-lane-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return balances of the accounts of the lane, to be touched from the lane tasks only
+     */
+    Ledger ledger() {
+        return ledger;
+    }
+
+    /**
+     * Queue a task, dropped with a log if the lane is stopped
+     * @param task task, its runtime exceptions being logged
+     */
+    void execute(Runnable task) {
+        long queued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.severe("Error in transfer lane " + index + " : " + e.getMessage());
+                } finally {
+                    long latency = System.nanoTime() - queued;
+                    taskCount.increment();
+                    latencyNanos.add(latency);
+                    maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.severe("Transfer lane " + index + " stopped, task dropped.");
+        }
+    }
+
+    /**
+     * @return number of tasks waiting in the lane
+     */
+    int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Run the queued tasks and stop
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return snapshot of the lane queue depth and task latencies
+     */
+    Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long tasks = taskCount.sum();
+        metrics.put("lane", index);
+        metrics.put("queueDepth", queueDepth());
+        metrics.put("tasks", tasks);
+        metrics.put("averageLatencyMicros", tasks == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(latencyNanos.sum() / tasks));
+        metrics.put("maxLatencyMicros", TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get()));
+        return metrics;
+    }
+}
@@ -0,0 +1,529 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Rate;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Transfers processed on account-partitioned serial lanes, the database being kept as the durable record
+ * Account numbers are hashed onto N lanes, each one a single thread owning the balances of its accounts : a transfer
+ * never takes a lock on a balance, and lanes run in parallel on as many cores. A transfer is validated and priced by
+ * the request thread, then its funds are moved by the lane of the source account. Between two accounts of the same
+ * lane, the debit and the credit are one step. Otherwise the transfer is handed over in a fixed order : debited by the
+ * source lane, then credited by the destination lane, so that no lane ever waits on another and funds are never
+ * credited before being debited. Transfers are then recorded in batches by a background writer, the request being
+ * answered once its transfer is recorded. The transfers of a batch request are priced with the rates read once, moved
+ * on their lanes and recorded in one transaction. A credit is held until its transfer is recorded, its settlement being
+ * then queued on the destination lane before the request is answered : a transfer failing to be recorded is reverted
+ * without taking back funds another transfer already spent. An account being deleted is closed on its lane, the
+ * transfers reaching it meanwhile being answered INVALID_FROM_ACC or INVALID_TO_ACC.
+ * Balances are loaded from the ACCOUNTS table when the engine starts, accounts created since being loaded on first use.
+ * While the engine runs, it owns the balances : they must not be moved in the database by other means.
+ */
+public class LaneTransferEngine implements TransferEngine {
+    private static final Logger log = Logger.getLogger("LaneTransferEngine");
+
+    private final AccountDao accountDao;
+    private final TransferDao transferDao;
+    private final Lane[] lanes;
+    // currency of the accounts held by the lanes, read by the request threads
+    private final Map<Long, String> currencies = new ConcurrentHashMap<>();
+    private final BatchTransferWriter writer;
+    // transfers submitted to the lanes and not yet handed to the writer
+    private final AtomicInteger inLanes = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /**
+     * @param accountDao          account DAO, balances being loaded from the ACCOUNTS table
+     * @param transferDao         transfer DAO used to validate, price and record the transfers
+     * @param laneCount           number of lanes
+     * @param queueCapacity       maximum number of requests waiting for their transfers to be recorded
+     * @param batchSize           maximum number of requests whose transfers are recorded per transaction
+     * @param flushIntervalMillis maximum time a transfer waits before being recorded
+     * @throws Exception e, if the balances cannot be loaded
+     */
+    public LaneTransferEngine(AccountDao accountDao, TransferDao transferDao, int laneCount,
+                              int queueCapacity, int batchSize, long flushIntervalMillis) throws Exception {
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("Invalid number of lanes : " + laneCount);
+        }
+        this.accountDao = accountDao;
+        this.transferDao = transferDao;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+        }
+
+        long start = System.currentTimeMillis();
+        long count = LedgerAccounts.load(accountDao, account -> {
+            long balance = Money.of(account.getBalance(), Money.AMOUNT_SCALE).getMinor();
+            Lane lane = laneOf(account.getAccountNo());
+            lane.execute(() -> lane.ledger().putIfAbsent(account.getAccountNo(), account.getCurrencyCode(), balance));
+            currencies.put(account.getAccountNo(), account.getCurrencyCode());
+        });
+        log.info(count + " account balances loaded on " + laneCount + " lanes in " + (System.currentTimeMillis() - start) + " ms.");
+
+        this.writer = new BatchTransferWriter(transferDao, this::settle, this::revert, queueCapacity, batchSize, flushIntervalMillis);
+    }
+
+    @Override
+    public Transfer process(Transfer transfer) throws Exception {
+        Account fromAccount = account(transfer.getSourceAccountNo());
+        Account toAccount = account(transfer.getDestinationAccountNo());
+
+        // validation and pricing on the request thread, the balance is checked by the source lane
+        transfer = transferDao.priceTransfer(transfer, fromAccount, toAccount);
+        int moving = transfer.getResponse() == Transfer.transferResponse.SUCCESS ? 1 : 0;
+        enterLanes(moving);
+        if (moving > 0) {
+            try {
+                await(move(transfer));
+            } catch (Exception e) {
+                inLanes.decrementAndGet();
+                throw e;
+            }
+        }
+        record(Collections.singletonList(transfer), moving);
+        return transfer;
+    }
+
+    /**
+     * Transfers priced with the rates of the batch read once, moved on their lanes, then recorded in one transaction.
+     * Best-effort : each transfer is moved as process() moves it. Atomic : every debit is taken on the source lanes
+     * first, then every credit is held on the destination lanes if they all succeeded, an atomic batch that failed
+     * being neither moved nor recorded. A transfer of the batch cannot spend funds credited by the same batch.
+     */
+    @Override
+    public List<Transfer> processBatch(List<Transfer> transfers, boolean atomic) throws Exception {
+        Map<Integer, Rate> rates = new HashMap<>();
+        int moving = 0;
+        for (Transfer transfer : transfers) {
+            Account fromAccount = account(transfer.getSourceAccountNo());
+            Account toAccount = account(transfer.getDestinationAccountNo());
+            transferDao.priceTransfer(transfer, fromAccount, toAccount, rates);
+            if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                moving++;
+            }
+        }
+        enterLanes(moving);
+        boolean applied;
+        try {
+            applied = atomic ? moveAtomically(transfers) : moveAll(transfers);
+        } catch (Exception e) {
+            inLanes.addAndGet(-moving);
+            throw e;
+        }
+        if (!applied) {
+            inLanes.addAndGet(-moving);
+            return transfers;
+        }
+        record(transfers, moving);
+        return transfers;
+    }
+
+    private void enterLanes(int moving) {
+        inLanes.addAndGet(moving);
+        if (!running) {
+            inLanes.addAndGet(-moving);
+            throw new IllegalStateException("Transfer lanes stopped.");
+        }
+    }
+
+    /**
+     * @return moved once the source lane debited the source account and the destination lane held the credit, the
+     * response becoming INSUFFICIENT_FUND if the balance did not cover the debit, INVALID_FROM_ACC or INVALID_TO_ACC
+     * if an account was closed meanwhile, nothing being moved
+     */
+    private CompletableFuture<Void> move(Transfer transfer) {
+        CompletableFuture<Void> moved = new CompletableFuture<>();
+        laneOf(transfer.getSourceAccountNo()).execute(() -> debit(transfer, moved));
+        return moved;
+    }
+
+    /**
+     * Source lane : debit the source account, then credit the destination account on the same lane or hand the
+     * credit over to the destination lane
+     */
+    private void debit(Transfer transfer, CompletableFuture<Void> moved) {
+        Lane source = laneOf(transfer.getSourceAccountNo());
+        Lane destination = laneOf(transfer.getDestinationAccountNo());
+        long debit = Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor();
+        long credit = Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor();
+        try {
+            // closed while it is deleted
+            if (source.ledger().currencyOf(transfer.getSourceAccountNo()) == null) {
+                transfer.setResponse(Transfer.transferResponse.INVALID_FROM_ACC);
+                moved.complete(null);
+                return;
+            }
+            if (source == destination && source.ledger().currencyOf(transfer.getDestinationAccountNo()) == null) {
+                transfer.setResponse(Transfer.transferResponse.INVALID_TO_ACC);
+                moved.complete(null);
+                return;
+            }
+            boolean debited = source == destination
+                    ? source.ledger().transfer(transfer.getSourceAccountNo(), transfer.getDestinationAccountNo(), debit, credit)
+                    : source.ledger().debit(transfer.getSourceAccountNo(), debit);
+            if (!debited) {
+                transfer.setResponse(Transfer.transferResponse.INSUFFICIENT_FUND);
+            }
+            if (!debited || source == destination) {
+                moved.complete(null);
+                return;
+            }
+        } catch (RuntimeException e) {
+            moved.completeExceptionally(e);
+            return;
+        }
+        destination.execute(() -> {
+            if (destination.ledger().currencyOf(transfer.getDestinationAccountNo()) == null) {
+                // closed while it is deleted : the debit is given back
+                source.execute(() -> source.ledger().refund(transfer.getSourceAccountNo(), debit));
+                transfer.setResponse(Transfer.transferResponse.INVALID_TO_ACC);
+                moved.complete(null);
+                return;
+            }
+            try {
+                destination.ledger().credit(transfer.getDestinationAccountNo(), credit);
+            } catch (RuntimeException e) {
+                // destination removed meanwhile
+                source.execute(() -> source.ledger().refund(transfer.getSourceAccountNo(), debit));
+                moved.completeExceptionally(e);
+                return;
+            }
+            moved.complete(null);
+        });
+    }
+
+    /**
+     * Best-effort : move every validated transfer, those moved being reverted if one failed
+     * @return true
+     */
+    private boolean moveAll(List<Transfer> transfers) throws Exception {
+        List<CompletableFuture<Void>> moves = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            moves.add(transfer.getResponse() == Transfer.transferResponse.SUCCESS ? move(transfer) : null);
+        }
+        Exception error = null;
+        for (int i = 0; i < transfers.size(); i++) {
+            if (moves.get(i) == null) {
+                continue;
+            }
+            try {
+                await(moves.get(i));
+            } catch (Exception e) {
+                error = e;
+                // nothing moved
+                moves.set(i, null);
+            }
+        }
+        if (error != null) {
+            for (int i = 0; i < transfers.size(); i++) {
+                if (moves.get(i) != null) {
+                    revert(transfers.get(i));
+                }
+            }
+            throw error;
+        }
+        return true;
+    }
+
+    /**
+     * Atomic : take every debit on the source lanes, then hold every credit on the destination lanes
+     * @return false, nothing being moved, if a transfer failed, an account closed meanwhile failing its transfer with
+     * INVALID_FROM_ACC or INVALID_TO_ACC : the transfers which would have succeeded are then ROLLED_BACK
+     */
+    private boolean moveAtomically(List<Transfer> transfers) throws Exception {
+        List<CompletableFuture<Boolean>> debits = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            long debit = Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor();
+            debits.add(transfer.getResponse() != Transfer.transferResponse.SUCCESS ? null
+                    : onLane(transfer.getSourceAccountNo(), ledger -> {
+                        if (ledger.currencyOf(transfer.getSourceAccountNo()) == null) {
+                            // closed while it is deleted
+                            transfer.setResponse(Transfer.transferResponse.INVALID_FROM_ACC);
+                            return false;
+                        }
+                        return ledger.debit(transfer.getSourceAccountNo(), debit);
+                    }));
+        }
+        boolean[] debited = new boolean[transfers.size()];
+        boolean failed = false;
+        Exception error = null;
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            if (debits.get(i) != null) {
+                try {
+                    debited[i] = await(debits.get(i));
+                    if (!debited[i] && transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                        transfer.setResponse(Transfer.transferResponse.INSUFFICIENT_FUND);
+                    }
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            failed |= !debited[i];
+        }
+        if (failed) {
+            for (int i = 0; i < transfers.size(); i++) {
+                if (debited[i]) {
+                    refund(transfers.get(i));
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            for (Transfer transfer : transfers) {
+                if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                    transfer.setResponse(Transfer.transferResponse.ROLLED_BACK);
+                }
+            }
+            return false;
+        }
+
+        List<CompletableFuture<Boolean>> credits = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            long credit = Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor();
+            credits.add(onLane(transfer.getDestinationAccountNo(), ledger -> {
+                if (ledger.currencyOf(transfer.getDestinationAccountNo()) == null) {
+                    // closed while it is deleted
+                    return false;
+                }
+                ledger.credit(transfer.getDestinationAccountNo(), credit);
+                return true;
+            }));
+        }
+        boolean[] credited = new boolean[transfers.size()];
+        for (int i = 0; i < transfers.size(); i++) {
+            try {
+                credited[i] = await(credits.get(i));
+                failed |= !credited[i];
+            } catch (Exception e) {
+                // destination removed meanwhile
+                error = e;
+            }
+        }
+        if (failed || error != null) {
+            for (int i = 0; i < transfers.size(); i++) {
+                refund(transfers.get(i));
+                if (credited[i]) {
+                    cancelCredit(transfers.get(i));
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            for (int i = 0; i < transfers.size(); i++) {
+                transfers.get(i).setResponse(credited[i] ? Transfer.transferResponse.ROLLED_BACK : Transfer.transferResponse.INVALID_TO_ACC);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hand moved transfers to the writer and wait until they are recorded in one transaction. The writer settles them,
+     * or reverts them if they could not be.
+     * @param moving number of transfers moved on the lanes, no longer in the lanes once handed to the writer
+     */
+    private void record(List<Transfer> transfers, int moving) throws Exception {
+        CompletableFuture<Void> recorded = new CompletableFuture<>();
+        try {
+            writer.submit(transfers, recorded);
+        } catch (Exception e) {
+            transfers.forEach(this::revert);
+            throw e;
+        } finally {
+            inLanes.addAndGet(-moving);
+        }
+        await(recorded);
+    }
+
+    /**
+     * Make available on its lane the credit of a recorded transfer
+     */
+    private void settle(Transfer transfer) {
+        if (transfer.getResponse() != Transfer.transferResponse.SUCCESS) {
+            return;
+        }
+        long credit = Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor();
+        Lane destination = laneOf(transfer.getDestinationAccountNo());
+        destination.execute(() -> destination.ledger().settle(transfer.getDestinationAccountNo(), credit));
+    }
+
+    /**
+     * Undo on their lanes the balance movements of a transfer that could not be recorded
+     */
+    private void revert(Transfer transfer) {
+        if (transfer.getResponse() != Transfer.transferResponse.SUCCESS) {
+            return;
+        }
+        refund(transfer);
+        cancelCredit(transfer);
+    }
+
+    private void refund(Transfer transfer) {
+        long debit = Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor();
+        Lane source = laneOf(transfer.getSourceAccountNo());
+        source.execute(() -> source.ledger().refund(transfer.getSourceAccountNo(), debit));
+    }
+
+    private void cancelCredit(Transfer transfer) {
+        long credit = Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor();
+        Lane destination = laneOf(transfer.getDestinationAccountNo());
+        destination.execute(() -> destination.ledger().cancelCredit(transfer.getDestinationAccountNo(), credit));
+    }
+
+    /**
+     * @param accountNo account number
+     * @return account with its currency, for validation, null if not found
+     */
+    private Account account(Long accountNo) throws Exception {
+        String currencyCode = currencies.get(accountNo);
+        if (currencyCode == null) {
+            Account account = accountDao.getAccountByAccountNo(accountNo);
+            if (account == null) {
+                return null;
+            }
+            // queued on the lane before any transfer of the account
+            long balance = Money.of(account.getBalance(), Money.AMOUNT_SCALE).getMinor();
+            Lane lane = laneOf(accountNo);
+            lane.execute(() -> lane.ledger().putIfAbsent(accountNo, account.getCurrencyCode(), balance));
+            currencies.putIfAbsent(accountNo, account.getCurrencyCode());
+            currencyCode = account.getCurrencyCode();
+        }
+        Account account = new Account();
+        account.setAccountNo(accountNo);
+        account.setCurrencyCode(currencyCode);
+        return account;
+    }
+
+    private Lane laneOf(long accountNo) {
+        return lanes[Math.floorMod(Long.hashCode(accountNo * 0x9E3779B97F4A7C15L), lanes.length)];
+    }
+
+    /**
+     * Run a task on the lane of an account
+     * @return result of the task, completed exceptionally if it failed
+     */
+    private <T> CompletableFuture<T> onLane(long accountNo, Function<Ledger, T> task) {
+        Lane lane = laneOf(accountNo);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        lane.execute(() -> {
+            try {
+                result.complete(task.apply(lane.ledger()));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The account is closed on its lane if its balance and held credits are zero, so that no transfer moves its funds
+     * meanwhile. The transfers processed so far are recorded before the account is deleted from the database, which
+     * checks its balance again.
+     */
+    @Override
+    public Account.accountResponse deleteAccount(long accountNo) throws Exception {
+        Lane lane = laneOf(accountNo);
+        if (!await(onLane(accountNo, ledger -> ledger.close(accountNo)))) {
+            return Account.accountResponse.BALANCE_NOT_ZERO;
+        }
+        boolean deleted = false;
+        try {
+            flush();
+            Account.accountResponse response = accountDao.deleteAccount(accountNo);
+            deleted = response == Account.accountResponse.SUCCESS;
+            return response;
+        } finally {
+            if (deleted) {
+                currencies.remove(accountNo);
+                lane.execute(() -> lane.ledger().remove(accountNo));
+            } else {
+                lane.execute(() -> lane.ledger().reopen(accountNo));
+            }
+        }
+    }
+
+    /**
+     * Wait until every transfer processed so far is recorded in the database
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        while (inLanes.get() > 0) {
+            Thread.sleep(1);
+        }
+        writer.flush();
+    }
+
+    /**
+     * @param accountNo account number
+     * @return balance in minor units, read on the lane of the account
+     * @throws Exception e, if the account is not held
+     */
+    public long balanceOf(long accountNo) throws Exception {
+        return await(onLane(accountNo, ledger -> ledger.balanceOf(accountNo)));
+    }
+
+    @Override
+    public Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        List<Map<String, Object>> laneMetrics = new ArrayList<>(lanes.length);
+        int queueDepth = 0;
+        for (Lane lane : lanes) {
+            Map<String, Object> snapshot = lane.snapshot();
+            queueDepth += (Integer) snapshot.get("queueDepth");
+            laneMetrics.add(snapshot);
+        }
+        metrics.put("engine", TransferEngines.LANES);
+        metrics.put("transfersInLanes", inLanes.get());
+        metrics.put("queueDepth", queueDepth);
+        metrics.put("lanes", laneMetrics);
+        return metrics;
+    }
+
+    /**
+     * Complete the transfers in the lanes, record them and stop
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Lane lane : lanes) {
+            lane.shutdown();
+        }
+        writer.shutdown();
+    }
+}
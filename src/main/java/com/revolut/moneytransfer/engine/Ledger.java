@@ -0,0 +1,386 @@
+package com.revolut.moneytransfer.engine;
+
+/**
+ * In-memory account balances, in minor units, guarded by striped locks
+ * Accounts are spread over a power-of-two number of stripes, each one an open-addressing table of primitive account
+ * numbers and balances guarded by its own monitor : transfers between accounts of different stripes never contend.
+ * A transfer locks the stripes of both accounts in stripe order, so that two opposite transfers cannot deadlock.
+ * A credit is held apart from the balance until the transfer is recorded (settle), so that it cannot be spent before :
+ * a transfer failing to be recorded is reverted (revert) without ever taking back funds already spent.
+ * An account is closed while it is deleted : its funds cannot be moved, and it is not loaded again meanwhile.
+ * Balances are held at the scale of the BALANCE column, as Money minor units of Money.AMOUNT_SCALE fraction digits.
+ */
+public final class Ledger {
+    // account number 0 is never valid : marks the free slots
+    private static final long FREE = 0L;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * @param stripes number of stripes, rounded up to a power of two
+     */
+    public Ledger(int stripes) {
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Add an account, unless already present : a balance already held, possibly moved since, is never overwritten
+     * @param accountNo    account number
+     * @param currencyCode account currency
+     * @param balance      balance in minor units
+     * @return true if the account was added
+     */
+    public boolean putIfAbsent(long accountNo, String currencyCode, long balance) {
+        checkAccountNo(accountNo);
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            if (stripe.indexOf(accountNo) >= 0) {
+                return false;
+            }
+            stripe.insert(accountNo, currencyCode, balance, 0);
+            return true;
+        }
+    }
+
+    /**
+     * Close an account before it is deleted, if its balance and held credits are zero : its funds cannot be moved until
+     * it is removed or reopened. An account not held is held closed, so that it is not added meanwhile.
+     * @param accountNo account number
+     * @return false, the account staying open, if its balance or held credits are not zero
+     */
+    public boolean close(long accountNo) {
+        checkAccountNo(accountNo);
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            int index = stripe.indexOf(accountNo);
+            if (index < 0) {
+                index = stripe.insert(accountNo, null, 0, 0);
+            } else if (stripe.balances[index] != 0 || stripe.held[index] != 0) {
+                return false;
+            }
+            stripe.closed[index] = true;
+            return true;
+        }
+    }
+
+    /**
+     * Reopen an account closed by close(), when it could not be deleted
+     * @param accountNo account number
+     */
+    public void reopen(long accountNo) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            int index = stripe.indexOf(accountNo);
+            if (index < 0) {
+                return;
+            }
+            if (stripe.currencies[index] == null) {
+                // was not held
+                stripe.remove(accountNo);
+            } else {
+                stripe.closed[index] = false;
+            }
+        }
+    }
+
+    /**
+     * Remove an account
+     * @param accountNo account number
+     */
+    public void remove(long accountNo) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            stripe.remove(accountNo);
+        }
+    }
+
+    /**
+     * @param accountNo account number
+     * @return account currency, null if the account is not held or closed
+     */
+    public String currencyOf(long accountNo) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            int index = stripe.indexOf(accountNo);
+            return index < 0 || stripe.closed[index] ? null : stripe.currencies[index];
+        }
+    }
+
+    /**
+     * @param accountNo account number
+     * @return balance available to debits in minor units, without the credits held
+     * @throws IllegalArgumentException if the account is not held
+     */
+    public long balanceOf(long accountNo) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            return stripe.balances[stripe.slotOf(accountNo)];
+        }
+    }
+
+    /**
+     * @param accountNo account number
+     * @return credits held until their transfers are recorded, in minor units
+     * @throws IllegalArgumentException if the account is not held
+     */
+    public long heldCreditOf(long accountNo) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            return stripe.held[stripe.slotOf(accountNo)];
+        }
+    }
+
+    /**
+     * Move funds between two held accounts if the source balance covers the debit, the credit being held until the
+     * transfer is settled or reverted
+     * @param fromAccountNo source account number
+     * @param toAccountNo   destination account number
+     * @param debit         amount debited from the source account, in minor units of its currency
+     * @param credit        amount credited to the destination account, in minor units of its currency
+     * @return false, nothing being moved, if the source balance is insufficient
+     * @throws IllegalArgumentException if an account is not held or closed
+     */
+    public boolean transfer(long fromAccountNo, long toAccountNo, long debit, long credit) {
+        Stripe from = stripeOf(fromAccountNo);
+        Stripe to = stripeOf(toAccountNo);
+        if (from == to) {
+            synchronized (from) {
+                return move(from, fromAccountNo, to, toAccountNo, debit, credit);
+            }
+        }
+        // stripes locked in a global order
+        Stripe first = stripeIndex(fromAccountNo) < stripeIndex(toAccountNo) ? from : to;
+        Stripe second = first == from ? to : from;
+        synchronized (first) {
+            synchronized (second) {
+                return move(from, fromAccountNo, to, toAccountNo, debit, credit);
+            }
+        }
+    }
+
+    /**
+     * Debit a held account if its balance covers the amount
+     * @param accountNo account number
+     * @param amount    amount in minor units
+     * @return false, nothing being debited, if the balance is insufficient
+     * @throws IllegalArgumentException if the account is not held or closed
+     */
+    public boolean debit(long accountNo, long amount) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            int index = stripe.openSlotOf(accountNo);
+            if (stripe.balances[index] < amount) {
+                return false;
+            }
+            stripe.balances[index] -= amount;
+            return true;
+        }
+    }
+
+    /**
+     * Credit a held account, the credit being held until its transfer is settled or reverted
+     * @param accountNo account number
+     * @param amount    amount in minor units
+     * @throws IllegalArgumentException if the account is not held or closed
+     */
+    public void credit(long accountNo, long amount) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            stripe.held[stripe.openSlotOf(accountNo)] += amount;
+        }
+    }
+
+    /**
+     * Give back an amount debited by debit() or transfer(), when its transfer is not applied
+     * @param accountNo account number
+     * @param amount    amount debited, in minor units
+     */
+    public void refund(long accountNo, long amount) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            int index = stripe.indexOf(accountNo);
+            if (index >= 0) {
+                stripe.balances[index] += amount;
+            }
+        }
+    }
+
+    /**
+     * Make a held credit available, once its transfer is recorded
+     * @param accountNo account number
+     * @param amount    amount credited by credit() or transfer(), in minor units
+     */
+    public void settle(long accountNo, long amount) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            int index = stripe.indexOf(accountNo);
+            if (index >= 0) {
+                stripe.held[index] -= amount;
+                stripe.balances[index] += amount;
+            }
+        }
+    }
+
+    /**
+     * Drop a held credit, when its transfer is not applied
+     * @param accountNo account number
+     * @param amount    amount credited by credit() or transfer(), in minor units
+     */
+    public void cancelCredit(long accountNo, long amount) {
+        Stripe stripe = stripeOf(accountNo);
+        synchronized (stripe) {
+            int index = stripe.indexOf(accountNo);
+            if (index >= 0) {
+                stripe.held[index] -= amount;
+            }
+        }
+    }
+
+    /**
+     * Undo a transfer applied by transfer() and not settled, when it could not be recorded
+     * The debit is given back to the source account and the held credit dropped : no funds already spent are taken
+     * back, the credit having never been available.
+     * @param fromAccountNo source account number of the transfer
+     * @param toAccountNo   destination account number of the transfer
+     * @param debit         amount debited by the transfer
+     * @param credit        amount credited by the transfer
+     */
+    public void revert(long fromAccountNo, long toAccountNo, long debit, long credit) {
+        refund(fromAccountNo, debit);
+        cancelCredit(toAccountNo, credit);
+    }
+
+    private static boolean move(Stripe from, long fromAccountNo, Stripe to, long toAccountNo, long debit, long credit) {
+        int fromIndex = from.openSlotOf(fromAccountNo);
+        int toIndex = to.openSlotOf(toAccountNo);
+        if (from.balances[fromIndex] < debit) {
+            return false;
+        }
+        from.balances[fromIndex] -= debit;
+        to.held[toIndex] += credit;
+        return true;
+    }
+
+    private Stripe stripeOf(long accountNo) {
+        return stripes[stripeIndex(accountNo)];
+    }
+
+    private int stripeIndex(long accountNo) {
+        // high bits of the hash select the stripe, low bits the slot within the stripe
+        return (int) (mix(accountNo) >>> 40) & stripeMask;
+    }
+
+    private static void checkAccountNo(long accountNo) {
+        if (accountNo == FREE) {
+            throw new IllegalArgumentException("Invalid account number : " + accountNo);
+        }
+    }
+
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    /**
+     * Open-addressing table with linear probing, guarded by its own monitor
+     */
+    private static final class Stripe {
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        private long[] balances = new long[INITIAL_STRIPE_CAPACITY];
+        private long[] held = new long[INITIAL_STRIPE_CAPACITY];
+        private boolean[] closed = new boolean[INITIAL_STRIPE_CAPACITY];
+        private String[] currencies = new String[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        private int indexOf(long accountNo) {
+            int mask = keys.length - 1;
+            for (int i = (int) mix(accountNo) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == accountNo) {
+                    return i;
+                }
+                if (keys[i] == FREE) {
+                    return -1;
+                }
+            }
+        }
+
+        private int slotOf(long accountNo) {
+            int index = indexOf(accountNo);
+            if (index < 0) {
+                throw new IllegalArgumentException("Account not held : " + accountNo);
+            }
+            return index;
+        }
+
+        private int openSlotOf(long accountNo) {
+            int index = slotOf(accountNo);
+            if (closed[index]) {
+                throw new IllegalArgumentException("Account closed : " + accountNo);
+            }
+            return index;
+        }
+
+        /**
+         * @return index of the account inserted, open
+         */
+        private int insert(long accountNo, String currencyCode, long balance, long heldCredit) {
+            // load factor kept under 1/2
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = (int) mix(accountNo) & mask;
+            while (keys[i] != FREE) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = accountNo;
+            balances[i] = balance;
+            held[i] = heldCredit;
+            closed[i] = false;
+            currencies[i] = currencyCode;
+            size++;
+            return i;
+        }
+
+        private void remove(long accountNo) {
+            int index = indexOf(accountNo);
+            if (index < 0) {
+                return;
+            }
+            // rehash the table rather than leaving a tombstone in the probe chains
+            keys[index] = FREE;
+            currencies[index] = null;
+            resize(keys.length);
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldBalances = balances;
+            long[] oldHeld = held;
+            boolean[] oldClosed = closed;
+            String[] oldCurrencies = currencies;
+            keys = new long[capacity];
+            balances = new long[capacity];
+            held = new long[capacity];
+            closed = new boolean[capacity];
+            currencies = new String[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    closed[insert(oldKeys[i], oldCurrencies[i], oldBalances[i], oldHeld[i])] = oldClosed[i];
+                }
+            }
+        }
+    }
+}
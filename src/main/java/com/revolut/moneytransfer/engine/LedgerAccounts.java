@@ -0,0 +1,211 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Page;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Accounts and transfers of the engines holding balances in a Ledger
+ */
+final class LedgerAccounts {
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    private LedgerAccounts() {
+    }
+
+    /**
+     * Load every account balance from the ACCOUNTS table
+     * @param ledger     ledger to fill
+     * @param accountDao account DAO
+     * @return number of accounts loaded
+     * @throws Exception e
+     */
+    static long load(Ledger ledger, AccountDao accountDao) throws Exception {
+        return load(accountDao, account -> ledger.putIfAbsent(account.getAccountNo(), account.getCurrencyCode(),
+                Money.of(account.getBalance(), Money.AMOUNT_SCALE).getMinor()));
+    }
+
+    /**
+     * Read every account of the ACCOUNTS table, page by page
+     * @param accountDao account DAO
+     * @param consumer   called with every account
+     * @return number of accounts read
+     * @throws Exception e
+     */
+    static long load(AccountDao accountDao, Consumer<Account> consumer) throws Exception {
+        long count = 0;
+        Long after = 0L;
+        while (after != null) {
+            Page<Account> page = accountDao.getAccountsPage(after, LOAD_PAGE_SIZE);
+            for (Account account : page.getItems()) {
+                consumer.accept(account);
+                count++;
+            }
+            after = page.getNextCursor();
+        }
+        return count;
+    }
+
+    /**
+     * @param ledger     ledger holding the account
+     * @param accountDao account DAO, the account being loaded when not held yet
+     * @param accountNo  account number
+     * @return account with its currency, for validation, null if not found or being deleted
+     * @throws Exception e
+     */
+    static Account account(Ledger ledger, AccountDao accountDao, Long accountNo) throws Exception {
+        String currencyCode = ledger.currencyOf(accountNo);
+        if (currencyCode == null) {
+            Account account = accountDao.getAccountByAccountNo(accountNo);
+            if (account == null) {
+                return null;
+            }
+            ledger.putIfAbsent(accountNo, account.getCurrencyCode(), Money.of(account.getBalance(), Money.AMOUNT_SCALE).getMinor());
+            currencyCode = ledger.currencyOf(accountNo);
+            if (currencyCode == null) {
+                // closed while it is deleted
+                return null;
+            }
+        }
+        Account account = new Account();
+        account.setAccountNo(accountNo);
+        account.setCurrencyCode(currencyCode);
+        return account;
+    }
+
+    /**
+     * Move the funds of a validated transfer, the response becoming INSUFFICIENT_FUND if the balance does not cover
+     * the debit, INVALID_FROM_ACC or INVALID_TO_ACC if an account was closed since the transfer was validated : the
+     * credit is held until the transfer is settled or reverted
+     * @param ledger   ledger holding both accounts
+     * @param transfer priced transfer
+     */
+    static void apply(Ledger ledger, Transfer transfer) {
+        if (transfer.getResponse() != Transfer.transferResponse.SUCCESS) {
+            return;
+        }
+        boolean moved;
+        try {
+            moved = ledger.transfer(transfer.getSourceAccountNo(), transfer.getDestinationAccountNo(),
+                    Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor(), Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor());
+        } catch (IllegalArgumentException e) {
+            // closed while it is deleted, nothing moved
+            transfer.setResponse(ledger.currencyOf(transfer.getSourceAccountNo()) == null
+                    ? Transfer.transferResponse.INVALID_FROM_ACC : Transfer.transferResponse.INVALID_TO_ACC);
+            return;
+        }
+        if (!moved) {
+            transfer.setResponse(Transfer.transferResponse.INSUFFICIENT_FUND);
+        }
+    }
+
+    /**
+     * Move the funds of validated transfers in order, as apply() : if a transfer cannot be applied, those applied
+     * before it are reverted
+     * @param ledger    ledger holding the accounts
+     * @param transfers priced transfers
+     */
+    static void applyAll(Ledger ledger, List<Transfer> transfers) {
+        for (int i = 0; i < transfers.size(); i++) {
+            try {
+                apply(ledger, transfers.get(i));
+            } catch (RuntimeException e) {
+                for (Transfer transfer : transfers.subList(0, i)) {
+                    revert(ledger, transfer);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Move the funds of validated transfers all or nothing, in two steps so that nothing is credited unless every
+     * transfer is covered : every debit is taken first, then every credit is held if they all succeeded. A transfer
+     * cannot spend funds credited by the same batch.
+     * @param ledger    ledger holding the accounts
+     * @param transfers priced transfers
+     * @return false, nothing being moved, if a transfer failed, an account closed since the transfer was validated
+     * failing it with INVALID_FROM_ACC or INVALID_TO_ACC : the transfers which would have succeeded are then
+     * ROLLED_BACK
+     */
+    static boolean applyAtomically(Ledger ledger, List<Transfer> transfers) {
+        boolean failed = false;
+        for (Transfer transfer : transfers) {
+            if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                try {
+                    if (!ledger.debit(transfer.getSourceAccountNo(), Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor())) {
+                        transfer.setResponse(Transfer.transferResponse.INSUFFICIENT_FUND);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // closed while it is deleted
+                    transfer.setResponse(Transfer.transferResponse.INVALID_FROM_ACC);
+                }
+            }
+            failed |= transfer.getResponse() != Transfer.transferResponse.SUCCESS;
+        }
+        if (failed) {
+            refund(ledger, transfers);
+            for (Transfer transfer : transfers) {
+                if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                    transfer.setResponse(Transfer.transferResponse.ROLLED_BACK);
+                }
+            }
+            return false;
+        }
+        int credited = 0;
+        try {
+            for (; credited < transfers.size(); credited++) {
+                Transfer transfer = transfers.get(credited);
+                ledger.credit(transfer.getDestinationAccountNo(), Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor());
+            }
+        } catch (IllegalArgumentException e) {
+            // destination closed while it is deleted
+            refund(ledger, transfers);
+            for (Transfer transfer : transfers.subList(0, credited)) {
+                ledger.cancelCredit(transfer.getDestinationAccountNo(), Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor());
+            }
+            for (Transfer transfer : transfers) {
+                transfer.setResponse(Transfer.transferResponse.ROLLED_BACK);
+            }
+            transfers.get(credited).setResponse(Transfer.transferResponse.INVALID_TO_ACC);
+            return false;
+        }
+        return true;
+    }
+
+    private static void refund(Ledger ledger, List<Transfer> transfers) {
+        for (Transfer transfer : transfers) {
+            if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+                ledger.refund(transfer.getSourceAccountNo(), Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor());
+            }
+        }
+    }
+
+    /**
+     * Make the credit of a recorded transfer available
+     * @param ledger   ledger holding both accounts
+     * @param transfer transfer applied by apply()
+     */
+    static void settle(Ledger ledger, Transfer transfer) {
+        if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+            ledger.settle(transfer.getDestinationAccountNo(), Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor());
+        }
+    }
+
+    /**
+     * Undo the balance movements of a transfer that could not be recorded
+     * @param ledger   ledger holding both accounts
+     * @param transfer transfer applied by apply()
+     */
+    static void revert(Ledger ledger, Transfer transfer) {
+        if (transfer.getResponse() == Transfer.transferResponse.SUCCESS) {
+            ledger.revert(transfer.getSourceAccountNo(), transfer.getDestinationAccountNo(),
+                    Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor(), Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor());
+        }
+    }
+}
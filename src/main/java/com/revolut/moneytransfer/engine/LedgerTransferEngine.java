@@ -0,0 +1,336 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Rate;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Transfers processed against in-memory balances, the database being kept as the durable record
+ * Balances are loaded from the ACCOUNTS table when the engine starts, accounts created since being loaded on first
+ * use. A transfer is validated and priced without lock, then its funds are checked and moved under the striped locks
+ * of the ledger, in microseconds. The transfer and its balance movements are then recorded in the database, before
+ * the transfer is answered, on its own (SYNC) or in a batch shared with other requests by a background writer
+ * (BATCH), or appended to a transfer journal, answered once durable and projected into the database in batches
+ * (JOURNAL). The credit of a transfer is only made available once the transfer is recorded (durable in JOURNAL mode) :
+ * a transfer failing to be recorded is reverted without taking back funds another transfer already spent.
+ * While the engine runs, it owns the balances : they must not be moved in the database by other means.
+ */
+public class LedgerTransferEngine implements TransferEngine {
+    private static final Logger log = Logger.getLogger("LedgerTransferEngine");
+
+    private final AccountDao accountDao;
+    private final TransferDao transferDao;
+    private final Ledger ledger;
+    private final WriteMode writeMode;
+    private final BatchTransferWriter writer;
+    private final TransferJournal journal;
+    private final JournalProjector projector;
+
+    /**
+     * @param accountDao          account DAO, balances being loaded from the ACCOUNTS table
+     * @param transferDao         transfer DAO used to validate, price and record the transfers
+     * @param stripes             number of lock stripes of the ledger
+     * @param writeMode           how transfers are recorded, SYNC or BATCH
+     * @param queueCapacity       BATCH : maximum number of requests waiting for their transfers to be recorded
+     * @param batchSize           BATCH : maximum number of requests whose transfers are recorded per transaction
+     * @param flushIntervalMillis BATCH : maximum time a transfer waits before being recorded
+     * @throws Exception e, if the balances cannot be loaded
+     */
+    public LedgerTransferEngine(AccountDao accountDao, TransferDao transferDao, int stripes, WriteMode writeMode,
+                                int queueCapacity, int batchSize, long flushIntervalMillis) throws Exception {
+        if (writeMode == WriteMode.JOURNAL) {
+            throw new IllegalArgumentException("A journal is needed in JOURNAL write mode.");
+        }
+        this.accountDao = accountDao;
+        this.transferDao = transferDao;
+        this.ledger = new Ledger(stripes);
+        this.writeMode = writeMode;
+        this.journal = null;
+        this.projector = null;
+        load();
+        this.writer = writeMode == WriteMode.BATCH
+                ? new BatchTransferWriter(transferDao, this::settle, this::revert, queueCapacity, batchSize, flushIntervalMillis)
+                : null;
+    }
+
+    /**
+     * JOURNAL write mode : the journal tail not projected yet is replayed into the database before the balances are
+     * loaded
+     * @param accountDao          account DAO, balances being loaded from the ACCOUNTS table
+     * @param transferDao         transfer DAO used to validate, price and project the transfers
+     * @param stripes             number of lock stripes of the ledger
+     * @param journal             transfer journal, not opened yet
+     * @param batchSize           maximum number of journal records projected per transaction
+     * @param flushIntervalMillis maximum time between two projections
+     * @throws Exception e, if the journal cannot be opened or replayed, or the balances cannot be loaded
+     */
+    public LedgerTransferEngine(AccountDao accountDao, TransferDao transferDao, int stripes, TransferJournal journal,
+                                int batchSize, long flushIntervalMillis) throws Exception {
+        this.accountDao = accountDao;
+        this.transferDao = transferDao;
+        this.ledger = new Ledger(stripes);
+        this.writeMode = WriteMode.JOURNAL;
+        this.writer = null;
+        this.journal = journal;
+        this.projector = new JournalProjector(journal, transferDao, batchSize, flushIntervalMillis);
+        load();
+        this.projector.start();
+    }
+
+    private void load() throws Exception {
+        long start = System.currentTimeMillis();
+        long count = LedgerAccounts.load(ledger, accountDao);
+        log.info(count + " account balances loaded in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    @Override
+    public Transfer process(Transfer transfer) throws Exception {
+        Account fromAccount = LedgerAccounts.account(ledger, accountDao, transfer.getSourceAccountNo());
+        Account toAccount = LedgerAccounts.account(ledger, accountDao, transfer.getDestinationAccountNo());
+
+        // validation and pricing outside of the locks, the balance is checked when the funds are moved
+        transfer = transferDao.priceTransfer(transfer, fromAccount, toAccount);
+        LedgerAccounts.apply(ledger, transfer);
+
+        if (writeMode == WriteMode.BATCH) {
+            record(Collections.singletonList(transfer));
+            return transfer;
+        }
+        if (writeMode == WriteMode.JOURNAL) {
+            if (transfer.getId() == 0) {
+                transfer.setId(transferDao.nextTransferId());
+            }
+            long sequence;
+            projector.track(transfer);
+            try {
+                sequence = journal.append(transfer);
+            } catch (Exception e) {
+                projector.untrack(transfer);
+                revert(transfer);
+                throw e;
+            }
+            // once appended, the transfer is projected if it becomes durable : no revert past this point, the credit
+            // staying held if it does not
+            journal.awaitDurable(sequence);
+            settle(transfer);
+            return transfer;
+        }
+        try {
+            // recorded as the database engine processes transfers : retried on lock timeouts
+            Transfer processed = transfer;
+            transferDao.getLockRetryPolicy().execute(() -> {
+                transferDao.recordTransfers(Collections.singletonList(processed));
+                return null;
+            });
+        } catch (Exception e) {
+            revert(transfer);
+            throw e;
+        }
+        settle(transfer);
+        return transfer;
+    }
+
+    /**
+     * Transfers priced with the rates of the batch read once, then applied in batch order and recorded in one
+     * transaction (SYNC), handed to the background writer (BATCH) or appended to the journal (JOURNAL).
+     * An atomic batch is applied in two steps, so that nothing is credited unless the whole batch is covered : every
+     * debit is taken first, then every credit is held if they all succeeded. A transfer of an atomic batch cannot spend
+     * funds credited by the same batch.
+     */
+    @Override
+    public List<Transfer> processBatch(List<Transfer> transfers, boolean atomic) throws Exception {
+        Map<Integer, Rate> rates = new HashMap<>();
+        for (Transfer transfer : transfers) {
+            Account fromAccount = LedgerAccounts.account(ledger, accountDao, transfer.getSourceAccountNo());
+            Account toAccount = LedgerAccounts.account(ledger, accountDao, transfer.getDestinationAccountNo());
+            transferDao.priceTransfer(transfer, fromAccount, toAccount, rates);
+        }
+        if (atomic) {
+            if (!LedgerAccounts.applyAtomically(ledger, transfers)) {
+                return transfers;
+            }
+        } else {
+            LedgerAccounts.applyAll(ledger, transfers);
+        }
+
+        if (writeMode == WriteMode.BATCH) {
+            record(transfers);
+            return transfers;
+        }
+        if (writeMode == WriteMode.JOURNAL) {
+            long sequence = 0;
+            for (int i = 0; i < transfers.size(); i++) {
+                Transfer transfer = transfers.get(i);
+                if (transfer.getId() == 0) {
+                    transfer.setId(transferDao.nextTransferId());
+                }
+                projector.track(transfer);
+                try {
+                    sequence = journal.append(transfer);
+                } catch (Exception e) {
+                    projector.untrack(transfer);
+                    revert(transfers.subList(i, transfers.size()));
+                    throw e;
+                }
+            }
+            journal.awaitDurable(sequence);
+            settle(transfers);
+            return transfers;
+        }
+        try {
+            transferDao.getLockRetryPolicy().execute(() -> {
+                transferDao.recordTransfers(transfers);
+                return null;
+            });
+        } catch (Exception e) {
+            revert(transfers);
+            throw e;
+        }
+        settle(transfers);
+        return transfers;
+    }
+
+    /**
+     * BATCH : hand applied transfers to the writer and wait until they are recorded in one transaction, so that a
+     * transfer is never answered before it is recorded. The writer settles them, or reverts them if they could not be.
+     */
+    private void record(List<Transfer> transfers) throws Exception {
+        CompletableFuture<Void> recorded = new CompletableFuture<>();
+        try {
+            writer.submit(transfers, recorded);
+        } catch (Exception e) {
+            revert(transfers);
+            throw e;
+        }
+        try {
+            recorded.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void settle(List<Transfer> transfers) {
+        for (Transfer transfer : transfers) {
+            settle(transfer);
+        }
+    }
+
+    /**
+     * Make available in memory the credit of a recorded transfer
+     */
+    private void settle(Transfer transfer) {
+        LedgerAccounts.settle(ledger, transfer);
+    }
+
+    private void revert(List<Transfer> transfers) {
+        for (Transfer transfer : transfers) {
+            revert(transfer);
+        }
+    }
+
+    /**
+     * Undo in memory the balance movements of a transfer that could not be recorded
+     */
+    private void revert(Transfer transfer) {
+        LedgerAccounts.revert(ledger, transfer);
+    }
+
+    /**
+     * The account is closed in the ledger if its balance and held credits are zero, so that no transfer moves its
+     * funds meanwhile. The transfers processed so far are recorded (projected from the journal in JOURNAL mode) before
+     * the account is deleted from the database, which checks its balance again : no transfer of the account is left
+     * to be recorded once it is deleted.
+     */
+    @Override
+    public Account.accountResponse deleteAccount(long accountNo) throws Exception {
+        if (!ledger.close(accountNo)) {
+            return Account.accountResponse.BALANCE_NOT_ZERO;
+        }
+        boolean deleted = false;
+        try {
+            flush();
+            Account.accountResponse response = accountDao.deleteAccount(accountNo);
+            deleted = response == Account.accountResponse.SUCCESS;
+            return response;
+        } finally {
+            if (deleted) {
+                ledger.remove(accountNo);
+            } else {
+                ledger.reopen(accountNo);
+            }
+        }
+    }
+
+    /**
+     * Wait until every transfer processed so far is recorded in the database
+     * @throws IOException          if the journal failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws IOException, InterruptedException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (projector != null) {
+            projector.flush();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+        if (journal != null) {
+            // the segments are unmapped once projected
+            projector.shutdown();
+            journal.close();
+        }
+    }
+
+    /**
+     * JOURNAL : transfers are answered once durable, before they are projected into the database
+     */
+    @Override
+    public Transfer getUnrecordedTransfer(long id) {
+        return projector != null ? projector.unprojected(id) : null;
+    }
+
+    /**
+     * JOURNAL : the balance held in memory, the database lagging behind by the transfers not projected yet
+     */
+    @Override
+    public BigDecimal getUnrecordedBalance(long accountNo) {
+        if (writeMode != WriteMode.JOURNAL || ledger.currencyOf(accountNo) == null) {
+            return null;
+        }
+        try {
+            return Money.ofMinor(ledger.balanceOf(accountNo), Money.AMOUNT_SCALE).toBigDecimal();
+        } catch (IllegalArgumentException e) {
+            // deleted meanwhile
+            return null;
+        }
+    }
+
+    /**
+     * @return in-memory balances
+     */
+    public Ledger getLedger() {
+        return ledger;
+    }
+}
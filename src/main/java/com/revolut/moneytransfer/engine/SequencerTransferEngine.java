@@ -0,0 +1,431 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Rate;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Transfers processed in sequence by a single business thread, the database being kept as the durable record
+ * Request threads claim a sequence in a preallocated ring buffer and publish their transfer into its slot, without
+ * lock. A single business thread takes the slots in sequence order, validates and prices each transfer and moves its
+ * funds in the ledger : being the only thread touching the balances, it never waits on another one, however hot the
+ * accounts. A batch of transfers takes a single slot, priced with the rates read once and applied as a whole. A
+ * persister thread follows the business thread in the ring, records the processed transfers in batches of at most
+ * batchSize, one transaction per batch, and only then answers the waiting requests. A slot is reused once persisted.
+ * Credits are held until their transfers are recorded, the business thread settling them (or reverting the transfers
+ * that could not be recorded) before it processes any transfer published after the requests were answered.
+ * Balances are loaded from the ACCOUNTS table when the engine starts, accounts created since being loaded on first use.
+ * While the engine runs, it owns the balances : they must not be moved in the database by other means.
+ */
+public class SequencerTransferEngine implements TransferEngine {
+    private static final Logger log = Logger.getLogger("SequencerTransferEngine");
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final AccountDao accountDao;
+    private final TransferDao transferDao;
+    private final Ledger ledger;
+    private final Slot[] slots;
+    private final int mask;
+    private final int batchSize;
+    // sequence of the slot published in each ring entry
+    private final AtomicLongArray published;
+    // last sequence claimed by a request thread, processed by the business thread, persisted
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong processed = new AtomicLong(-1);
+    private final AtomicLong persisted = new AtomicLong(-1);
+    // number of sequences claimed but never published, the engine having stopped while their request waited for a slot
+    private final AtomicLong abandoned = new AtomicLong();
+    // ledger changes requested by other threads, run by the business thread between two transfers
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final Thread processor;
+    private final Thread persister;
+    private volatile boolean running = true;
+
+    /**
+     * Ring entry, preallocated : written by the request thread before the slot is published, then by the business
+     * thread before its sequence is processed
+     */
+    private static final class Slot {
+        private List<Transfer> transfers;
+        private boolean atomic;
+        private CompletableFuture<Void> result;
+        // atomic batch failed : nothing moved nor recorded
+        private boolean rolledBack;
+        private Exception error;
+    }
+
+    /**
+     * @param accountDao  account DAO, balances being loaded from the ACCOUNTS table
+     * @param transferDao transfer DAO used to validate, price and record the transfers
+     * @param ringSize    number of slots of the ring buffer, a power of two
+     * @param batchSize   maximum number of transfers recorded per transaction, a larger batch request being recorded
+     *                    in its own transaction
+     * @throws Exception e, if the balances cannot be loaded
+     */
+    public SequencerTransferEngine(AccountDao accountDao, TransferDao transferDao, int ringSize, int batchSize) throws Exception {
+        if (ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("The ring size must be a power of two : " + ringSize);
+        }
+        this.accountDao = accountDao;
+        this.transferDao = transferDao;
+        // touched by the business thread only : its stripe locks are never contended
+        this.ledger = new Ledger(1);
+        this.slots = new Slot[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = ringSize - 1;
+        this.batchSize = batchSize;
+        this.published = new AtomicLongArray(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            published.set(i, -1);
+        }
+
+        long start = System.currentTimeMillis();
+        long count = LedgerAccounts.load(ledger, accountDao);
+        log.info(count + " account balances loaded in " + (System.currentTimeMillis() - start) + " ms.");
+
+        this.processor = new Thread(this::processLoop, "transfer-sequencer");
+        this.processor.setDaemon(true);
+        this.persister = new Thread(this::persistLoop, "transfer-sequencer-persister");
+        this.persister.setDaemon(true);
+        this.processor.start();
+        this.persister.start();
+    }
+
+    @Override
+    public Transfer process(Transfer transfer) throws Exception {
+        publish(Collections.singletonList(transfer), false);
+        return transfer;
+    }
+
+    /**
+     * The batch takes a single slot : its transfers are priced with the rates read once, applied by the business thread
+     * as a whole, and recorded in one transaction. An atomic batch is applied as the ledger engine applies it, and not
+     * recorded if it failed.
+     */
+    @Override
+    public List<Transfer> processBatch(List<Transfer> transfers, boolean atomic) throws Exception {
+        if (!transfers.isEmpty()) {
+            publish(transfers, atomic);
+        }
+        return transfers;
+    }
+
+    /**
+     * Publish transfers in the next slot of the ring and wait until they are recorded
+     */
+    private void publish(List<Transfer> transfers, boolean atomic) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("Transfer sequencer stopped.");
+        }
+        long sequence = claimed.incrementAndGet();
+        // the slot is free once the transfer published a ring earlier is persisted
+        for (int tries = 0; sequence - slots.length > persisted.get(); tries++) {
+            if (!running || !persister.isAlive()) {
+                abandoned.incrementAndGet();
+                throw new IllegalStateException("Transfer sequencer stopped.");
+            }
+            idle(tries);
+        }
+        int index = (int) sequence & mask;
+        Slot slot = slots[index];
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        slot.transfers = transfers;
+        slot.atomic = atomic;
+        slot.result = result;
+        slot.rolledBack = false;
+        slot.error = null;
+        published.set(index, sequence);
+
+        while (true) {
+            try {
+                result.get(1, TimeUnit.SECONDS);
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            } catch (TimeoutException e) {
+                if (!persister.isAlive()) {
+                    throw new IllegalStateException("Transfer sequencer stopped.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Business thread : validates, prices and applies the published transfers in sequence order
+     */
+    private void processLoop() {
+        long next = 0;
+        int tries = 0;
+        while (true) {
+            runCommands();
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                // stopped, and every sequence claimed from next on abandoned, if any
+                if (!running && claimed.get() - abandoned.get() < next) {
+                    return;
+                }
+                idle(tries++);
+                continue;
+            }
+            tries = 0;
+            // commands queued before the transfer was published, e.g. the settlement of a credit it spends
+            runCommands();
+            Slot slot = slots[index];
+            try {
+                // rates read once per batch
+                Map<Integer, Rate> rates = slot.transfers.size() == 1 ? null : new HashMap<>();
+                for (Transfer transfer : slot.transfers) {
+                    Account fromAccount = LedgerAccounts.account(ledger, accountDao, transfer.getSourceAccountNo());
+                    Account toAccount = LedgerAccounts.account(ledger, accountDao, transfer.getDestinationAccountNo());
+                    transferDao.priceTransfer(transfer, fromAccount, toAccount, rates);
+                }
+                if (slot.atomic) {
+                    slot.rolledBack = !LedgerAccounts.applyAtomically(ledger, slot.transfers);
+                } else {
+                    LedgerAccounts.applyAll(ledger, slot.transfers);
+                }
+            } catch (Exception e) {
+                slot.error = e;
+            }
+            processed.set(next++);
+        }
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /**
+     * Persister thread : records the processed transfers in batches and answers the requests
+     */
+    private void persistLoop() {
+        List<Slot> batch = new ArrayList<>();
+        long next = 0;
+        int tries = 0;
+        while (true) {
+            long available = processed.get();
+            if (available < next) {
+                if (!processor.isAlive() && processed.get() < next) {
+                    return;
+                }
+                idle(tries++);
+                continue;
+            }
+            tries = 0;
+            // at most batchSize transfers, unless a single slot holds more
+            long last = next;
+            int size = slots[(int) next & mask].transfers.size();
+            while (last < available && size + slots[(int) (last + 1) & mask].transfers.size() <= batchSize) {
+                size += slots[(int) ++last & mask].transfers.size();
+            }
+            for (long sequence = next; sequence <= last; sequence++) {
+                Slot slot = slots[(int) sequence & mask];
+                if (slot.error == null && !slot.rolledBack) {
+                    batch.add(slot);
+                }
+            }
+            write(batch);
+            batch.clear();
+            for (long sequence = next; sequence <= last; sequence++) {
+                Slot slot = slots[(int) sequence & mask];
+                CompletableFuture<Void> result = slot.result;
+                if (slot.error == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(slot.error);
+                }
+                slot.transfers = null;
+                slot.result = null;
+                slot.error = null;
+            }
+            persisted.set(last);
+            next = last + 1;
+        }
+    }
+
+    /**
+     * Record the transfers of a batch of slots, slot by slot if the batch fails : the slots still failing get their
+     * error. The transfers are handed back to the business thread to be settled, or reverted if they could not be
+     * recorded, before the requests are answered.
+     */
+    private void write(List<Slot> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Transfer> transfers;
+        if (batch.size() == 1) {
+            transfers = batch.get(0).transfers;
+        } else {
+            transfers = new ArrayList<>();
+            for (Slot slot : batch) {
+                transfers.addAll(slot.transfers);
+            }
+        }
+        try {
+            record(transfers);
+            return;
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                failed(batch.get(0), e);
+                return;
+            }
+            log.severe("Error while recording a batch of " + transfers.size() + " transfers, recording them slot by slot : " + e.getMessage());
+        }
+        for (Slot slot : batch) {
+            try {
+                record(slot.transfers);
+            } catch (Exception e) {
+                failed(slot, e);
+            }
+        }
+    }
+
+    private void record(List<Transfer> transfers) throws Exception {
+        transferDao.getLockRetryPolicy().execute(() -> {
+            transferDao.recordTransfers(transfers);
+            return null;
+        });
+        commands.add(() -> transfers.forEach(transfer -> LedgerAccounts.settle(ledger, transfer)));
+    }
+
+    private void failed(Slot slot, Exception e) {
+        List<Transfer> transfers = slot.transfers;
+        log.severe(transfers.size() + " transfers could not be recorded : " + e.getMessage());
+        commands.add(() -> transfers.forEach(transfer -> LedgerAccounts.revert(ledger, transfer)));
+        slot.error = e;
+    }
+
+    /**
+     * Spin, then yield, then park : a thread waiting on the ring does not starve the others of the CPU
+     */
+    private static void idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            return;
+        }
+        if (tries < YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * The account is closed by the business thread if its balance and held credits are zero, so that no transfer moves
+     * its funds meanwhile. The transfers published so far are recorded before the account is deleted from the database,
+     * which checks its balance again.
+     */
+    @Override
+    public Account.accountResponse deleteAccount(long accountNo) throws Exception {
+        if (!call(() -> ledger.close(accountNo))) {
+            return Account.accountResponse.BALANCE_NOT_ZERO;
+        }
+        boolean deleted = false;
+        try {
+            flush();
+            Account.accountResponse response = accountDao.deleteAccount(accountNo);
+            deleted = response == Account.accountResponse.SUCCESS;
+            return response;
+        } finally {
+            boolean removed = deleted;
+            commands.add(() -> {
+                if (removed) {
+                    ledger.remove(accountNo);
+                } else {
+                    ledger.reopen(accountNo);
+                }
+            });
+        }
+    }
+
+    /**
+     * Run a ledger command on the business thread and wait for its result
+     */
+    private <T> T call(Supplier<T> command) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        commands.add(() -> {
+            try {
+                result.complete(command.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        while (true) {
+            try {
+                return result.get(1, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            } catch (TimeoutException e) {
+                if (!processor.isAlive()) {
+                    throw new IllegalStateException("Transfer sequencer stopped.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until every transfer published so far is recorded in the database
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        long target = claimed.get();
+        while (persisted.get() < target && persister.isAlive()) {
+            Thread.sleep(1);
+        }
+        // the settlements queued by the persister run before this one
+        CompletableFuture<Void> settled = new CompletableFuture<>();
+        commands.add(() -> settled.complete(null));
+        while (!settled.isDone() && processor.isAlive()) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Process and record the published transfers and stop
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        try {
+            processor.join();
+            persister.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return in-memory balances, to be read once the engine is flushed or stopped
+     */
+    public Ledger getLedger() {
+        return ledger;
+    }
+}
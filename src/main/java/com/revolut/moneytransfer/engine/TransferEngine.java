@@ -0,0 +1,72 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transfer processing : validates a transfer, moves the funds and records the transfer with its final status
+ */
+public interface TransferEngine {
+
+    /**
+     * Process a transfer
+     * @param transfer transfer to process
+     * @return processed transfer, with its ID and response
+     * @throws Exception e, if the transfer could not be processed
+     */
+    Transfer process(Transfer transfer) throws Exception;
+
+    /**
+     * Process a batch of transfers, the rates of the batch being read once
+     * @param transfers transfers to process
+     * @param atomic    true for all-or-nothing : if any transfer fails none is applied nor recorded, the transfers which
+     *                  would have succeeded being answered ROLLED_BACK, false for best-effort
+     * @return the transfers, in the same order, with their ID and response
+     * @throws Exception e, if the batch could not be processed, none of its transfers being recorded
+     */
+    List<Transfer> processBatch(List<Transfer> transfers, boolean atomic) throws Exception;
+
+    /**
+     * Delete an account whose balance is zero, no transfer moving its funds meanwhile
+     * @param accountNo account number
+     * @return SUCCESS, ACCOUNT_NOT_FOUND or BALANCE_NOT_ZERO
+     * @throws Exception e
+     */
+    Account.accountResponse deleteAccount(long accountNo) throws Exception;
+
+    /**
+     * Transfer answered by the engine but not recorded in the database yet
+     * @param id transfer ID
+     * @return transfer, null if the engine has none pending recording, the database being current
+     */
+    default Transfer getUnrecordedTransfer(long id) {
+        return null;
+    }
+
+    /**
+     * Balance of an account moved by transfers answered by the engine but not recorded in the database yet
+     * @param accountNo account number
+     * @return balance available on the account, null if the database balance is current
+     */
+    default BigDecimal getUnrecordedBalance(long accountNo) {
+        return null;
+    }
+
+    /**
+     * @return snapshot of the engine metrics, empty if the engine has none
+     */
+    default Map<String, Object> snapshot() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Stop the engine, recording every transfer already processed
+     */
+    default void shutdown() {
+    }
+}
@@ -0,0 +1,81 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.config.AppConfig;
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.TransferDao;
+
+import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+/**
+ * Transfer engine factory, the engine being chosen with the transfer.engine property
+ */
+public final class TransferEngines {
+    private static final Logger log = Logger.getLogger("TransferEngines");
+
+    /**
+     * database : transfers processed in database transactions, the default
+     */
+    public static final String DATABASE = "database";
+    /**
+     * ledger : transfers processed against in-memory balances, recorded in the database
+     */
+    public static final String LEDGER = "ledger";
+    /**
+     * sequencer : transfers processed in sequence by a single business thread, recorded in the database in batches
+     */
+    public static final String SEQUENCER = "sequencer";
+    /**
+     * lanes : transfers processed on account-partitioned serial lanes, recorded in the database in batches
+     */
+    public static final String LANES = "lanes";
+
+    private TransferEngines() {
+    }
+
+    /**
+     * @param accountDao  account DAO
+     * @param transferDao transfer DAO
+     * @return transfer engine configured by transfer.engine
+     * @throws Exception e, if the engine cannot be started
+     */
+    public static TransferEngine create(AccountDao accountDao, TransferDao transferDao) throws Exception {
+        String engine = AppConfig.getString("transfer.engine", DATABASE).toLowerCase();
+        log.info("Starting " + engine + " transfer engine ...");
+        switch (engine) {
+            case DATABASE:
+                return new DatabaseTransferEngine(accountDao, transferDao);
+            case LEDGER:
+                WriteMode writeMode = WriteMode.valueOf(AppConfig.getString("ledger.writeMode", WriteMode.SYNC.name()).toUpperCase());
+                if (writeMode == WriteMode.JOURNAL) {
+                    TransferJournal journal = new TransferJournal(Paths.get(AppConfig.getString("ledger.journal.path", "./data/journal")),
+                            AppConfig.getInt("ledger.journal.segmentSize", 67108864),
+                            AppConfig.getLong("ledger.journal.groupCommitMs", 2));
+                    return new LedgerTransferEngine(accountDao, transferDao,
+                            AppConfig.getInt("ledger.stripes", 1024),
+                            journal,
+                            AppConfig.getInt("ledger.batchSize", 1000),
+                            AppConfig.getLong("ledger.flushIntervalMs", 10));
+                }
+                return new LedgerTransferEngine(accountDao, transferDao,
+                        AppConfig.getInt("ledger.stripes", 1024),
+                        writeMode,
+                        AppConfig.getInt("ledger.queueCapacity", 65536),
+                        AppConfig.getInt("ledger.batchSize", 1000),
+                        AppConfig.getLong("ledger.flushIntervalMs", 10));
+            case SEQUENCER:
+                return new SequencerTransferEngine(accountDao, transferDao,
+                        AppConfig.getInt("sequencer.ringSize", 16384),
+                        AppConfig.getInt("sequencer.batchSize", 1000));
+            case LANES:
+                int laneCount = AppConfig.getInt("lanes.count", 0);
+                return new LaneTransferEngine(accountDao, transferDao,
+                        laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors(),
+                        AppConfig.getInt("lanes.queueCapacity", 65536),
+                        AppConfig.getInt("lanes.batchSize", 1000),
+                        AppConfig.getLong("lanes.flushIntervalMs", 2));
+            default:
+                throw new IllegalArgumentException("Unknown transfer engine : " + engine);
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Transfer;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only journal of processed transfers, in memory-mapped segment files
+ * Every transfer is appended as a fixed-layout binary record of RECORD_SIZE bytes, at the position given by its
+ * sequence number, and is durable once its segment is forced to disk : a flusher thread forces the current segment
+ * every groupCommit interval, all the records appended in the meantime becoming durable together (group commit).
+ * With a 0 interval, every append forces the segment itself.
+ *
+ * Segments are named journal-{journal id}-{first sequence}.log. The journal id ties the journal to the database it is
+ * projected into (see JournalProjector) : segments of any other journal are deleted when the journal is opened.
+ * On open, the records of the existing segments are checked up to the first missing or corrupted one, which ends the
+ * journal, and appends continue in a new segment. Other files of the directory are left alone.
+ * Segments are unmapped once released or when the journal is closed, rather than when their buffer is garbage
+ * collected.
+ *
+ * Record layout (big-endian) :
+ * <pre>
+ *  0 sequence              8 transfer ID          16 source account       24 destination account
+ * 32 debited amount       40 transfer amount      48 credited amount      56 rate (4 decimals)
+ * 64 created time (ms)    72 source currency      78 transfer currency    84 destination currency (3 chars each)
+ * 90 status               91 null amounts flags   92 CRC32 of bytes 0 to 91
+ * </pre>
+ * Amounts are in minor units (2 decimals), as held in the database.
+ */
+public final class TransferJournal implements AutoCloseable {
+    private static final Logger log = Logger.getLogger("TransferJournal");
+
+    static final int RECORD_SIZE = 96;
+    private static final int CRC_OFFSET = 92;
+    private static final int CURRENCY_LENGTH = 3;
+    private static final int RATE_SCALE = 4;
+    private static final byte NULL_DEBITED = 1;
+    private static final byte NULL_CREDITED = 2;
+    private static final byte NULL_RATE = 4;
+    private static final Transfer.transferResponse[] RESPONSES = Transfer.transferResponse.values();
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-([0-9a-f]{16})-(0[0-9]{19})\\.log");
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final long groupCommitNanos;
+
+    // segments by first sequence
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object appendLock = new Object();
+    private final Object durableMonitor = new Object();
+    private final CRC32 crc = new CRC32();
+    private long journalId;
+    private Segment current;
+    // guarded by appendLock
+    private long lastAppended;
+    private volatile long durable;
+    private volatile IOException failure;
+    private volatile boolean open;
+    private Thread flusher;
+
+    /**
+     * @param directory         directory of the segment files, created if needed
+     * @param segmentSize       size of a segment file in bytes
+     * @param groupCommitMillis interval between two forces of the journal to disk, 0 to force on every append
+     */
+    public TransferJournal(Path directory, int segmentSize, long groupCommitMillis) {
+        this.directory = directory;
+        this.segmentRecords = Math.max(1, segmentSize / RECORD_SIZE);
+        this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitMillis);
+    }
+
+    /**
+     * Open the journal of a database
+     * @param checkpointJournalId ID of the journal the database is projected from, 0 for a new journal
+     * @param checkpointSequence  sequence of the last entry projected into the database
+     * @return ID of the journal : a new one when checkpointJournalId is 0
+     * @throws IOException e
+     */
+    public long open(long checkpointJournalId, long checkpointSequence) throws IOException {
+        Files.createDirectories(directory);
+        journalId = checkpointJournalId != 0 ? checkpointJournalId : ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        long last = checkpointSequence;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : files) {
+                Matcher name = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (!name.matches()) {
+                    log.warning("Not a journal segment, skipped : " + file);
+                    continue;
+                }
+                if (Long.parseUnsignedLong(name.group(1), 16) != journalId) {
+                    log.info("Deleting segment of another journal : " + file);
+                    Files.delete(file);
+                    continue;
+                }
+                long firstSequence = Long.parseLong(name.group(2));
+                segments.put(firstSequence, map(file, firstSequence));
+            }
+        }
+        // the journal ends at the first record missing or corrupted
+        for (Segment segment : segments.values()) {
+            if (segment.firstSequence > last + 1) {
+                break;
+            }
+            for (long sequence = Math.max(last + 1, segment.firstSequence); sequence < segment.firstSequence + segmentRecords; sequence++) {
+                if (!segment.isValid(sequence)) {
+                    break;
+                }
+                last = sequence;
+            }
+        }
+        // segments past the end of the journal hold no record to keep
+        for (Segment segment : new ArrayList<>(segments.tailMap(last + 1).values())) {
+            segments.remove(segment.firstSequence);
+            segment.unmap();
+            Files.delete(segment.file);
+        }
+        release(checkpointSequence);
+        lastAppended = last;
+        durable = last;
+        current = newSegment(last + 1);
+        open = true;
+        if (groupCommitNanos > 0) {
+            flusher = new Thread(this::flushLoop, "transfer-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        log.info("Transfer journal " + Long.toHexString(journalId) + " opened in " + directory + ", last sequence : " + last);
+        return journalId;
+    }
+
+    /**
+     * Append a processed transfer
+     * @param transfer processed transfer, with its ID
+     * @return sequence of the record, durable once awaitDurable returns
+     * @throws IOException              if the journal failed or is closed
+     * @throws IllegalArgumentException if the transfer cannot be encoded (amount or currency code too large)
+     */
+    public long append(Transfer transfer) throws IOException {
+        ByteBuffer record = encode(transfer);
+        synchronized (appendLock) {
+            checkOpen();
+            long sequence = lastAppended + 1;
+            if (sequence >= current.firstSequence + segmentRecords) {
+                // the full segment is made durable before records are appended to the next one
+                current.force();
+                current = newSegment(sequence);
+            }
+            record.putLong(0, sequence);
+            crc.reset();
+            crc.update(record.array(), 0, CRC_OFFSET);
+            record.putInt(CRC_OFFSET, (int) crc.getValue());
+            // ByteBuffer.duplicate() : MappedByteBuffer.duplicate() only exists since Java 17
+            ByteBuffer target = ((ByteBuffer) current.buffer).duplicate();
+            target.position(current.offsetOf(sequence));
+            target.put(record.array());
+            lastAppended = sequence;
+            return sequence;
+        }
+    }
+
+    /**
+     * Wait until a record is durable
+     * @param sequence sequence of the record
+     * @throws IOException          if the journal failed : the record may or may not be durable
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitDurable(long sequence) throws IOException, InterruptedException {
+        if (groupCommitNanos == 0) {
+            force();
+            return;
+        }
+        synchronized (durableMonitor) {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw failure;
+                }
+                durableMonitor.wait();
+            }
+        }
+    }
+
+    /**
+     * @return sequence of the last record appended, durable or not
+     */
+    public long lastSequence() {
+        synchronized (appendLock) {
+            return lastAppended;
+        }
+    }
+
+    /**
+     * @return sequence of the last durable record
+     */
+    public long durableSequence() {
+        return durable;
+    }
+
+    /**
+     * Read durable records
+     * @param fromSequence first sequence to read
+     * @param toSequence   last sequence to read, at most durableSequence()
+     * @return transfers, in sequence order
+     * @throws IOException if a record is missing or corrupted
+     */
+    public List<Transfer> read(long fromSequence, long toSequence) throws IOException {
+        List<Transfer> transfers = new ArrayList<>((int) (toSequence - fromSequence + 1));
+        for (long sequence = fromSequence; sequence <= toSequence; sequence++) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+            if (entry == null || !entry.getValue().isValid(sequence)) {
+                throw new IOException("Transfer journal record " + sequence + " missing or corrupted.");
+            }
+            transfers.add(entry.getValue().decode(sequence));
+        }
+        return transfers;
+    }
+
+    /**
+     * Unmap and delete the segments whose records are all projected
+     * @param projectedSequence sequence of the last record projected
+     */
+    public void release(long projectedSequence) {
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Long next = segments.higherKey(entry.getKey());
+            if (next == null || next - 1 > projectedSequence) {
+                break;
+            }
+            segments.remove(entry.getKey());
+            entry.getValue().unmap();
+            try {
+                Files.deleteIfExists(entry.getValue().file);
+            } catch (IOException e) {
+                log.warning("Transfer journal segment " + entry.getValue().file + " could not be deleted : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return ID of the journal
+     */
+    public long getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * Force the appended records to disk, stop the flusher and unmap the segments : to be called once the records are
+     * no longer read
+     */
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            if (!open) {
+                return;
+            }
+            open = false;
+        }
+        if (flusher != null) {
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            force();
+        } catch (IOException e) {
+            log.severe("Transfer journal could not be forced on close : " + e.getMessage());
+        }
+        for (Segment segment : segments.values()) {
+            segment.unmap();
+        }
+        segments.clear();
+    }
+
+    private void flushLoop() {
+        while (open) {
+            LockSupport.parkNanos(groupCommitNanos);
+            try {
+                force();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Force the current segment, every record appended so far becoming durable
+     */
+    private void force() throws IOException {
+        Segment segment;
+        long sequence;
+        synchronized (appendLock) {
+            segment = current;
+            sequence = lastAppended;
+        }
+        if (sequence <= durable) {
+            return;
+        }
+        try {
+            // earlier segments were forced when full
+            segment.force();
+        } catch (RuntimeException e) {
+            // I/O errors of a mapped buffer surface as unchecked exceptions
+            failure = new IOException("Transfer journal could not be forced to disk.", e);
+            log.severe(failure.getMessage() + " " + e.getMessage());
+            synchronized (durableMonitor) {
+                durableMonitor.notifyAll();
+            }
+            throw failure;
+        }
+        synchronized (durableMonitor) {
+            if (sequence > durable) {
+                durable = sequence;
+            }
+            durableMonitor.notifyAll();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!open) {
+            throw new IOException("Transfer journal closed.");
+        }
+    }
+
+    private Segment newSegment(long firstSequence) throws IOException {
+        Path file = directory.resolve(String.format("journal-%016x-%020d.log", journalId, firstSequence));
+        Segment segment = map(file, firstSequence);
+        segments.put(firstSequence, segment);
+        return segment;
+    }
+
+    private Segment map(Path file, long firstSequence) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid once the channel is closed
+            return new Segment(file, firstSequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_SIZE));
+        }
+    }
+
+    /**
+     * Unmap a buffer now, through the JDK internal cleaner (sun.misc.Unsafe.invokeCleaner from Java 9, the buffer
+     * cleaner on Java 8), the mapping being otherwise released when the buffer is garbage collected
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (Exception e) {
+            log.fine("Transfer journal segment left to the garbage collector to unmap : " + e);
+        }
+    }
+
+    private static ByteBuffer encode(Transfer transfer) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        byte nulls = 0;
+        record.putLong(8, transfer.getId());
+        record.putLong(16, transfer.getSourceAccountNo());
+        record.putLong(24, transfer.getDestinationAccountNo());
+        if (transfer.getDebitedAmount() != null) {
+            record.putLong(32, Money.of(transfer.getDebitedAmount(), Money.AMOUNT_SCALE).getMinor());
+        } else {
+            nulls |= NULL_DEBITED;
+        }
+        record.putLong(40, Money.of(transfer.getTransferAmount(), Money.AMOUNT_SCALE).getMinor());
+        if (transfer.getCreditedAmount() != null) {
+            record.putLong(48, Money.of(transfer.getCreditedAmount(), Money.AMOUNT_SCALE).getMinor());
+        } else {
+            nulls |= NULL_CREDITED;
+        }
+        if (transfer.getRate() != null) {
+            record.putLong(56, Money.scaled(transfer.getRate(), RATE_SCALE));
+        } else {
+            nulls |= NULL_RATE;
+        }
+        record.putLong(64, transfer.getCreatedDt() != null ? transfer.getCreatedDt().getTime() : System.currentTimeMillis());
+        putCurrency(record, 72, transfer.getSourceCurrencyCode());
+        putCurrency(record, 78, transfer.getTransferCurrencyCode());
+        putCurrency(record, 84, transfer.getDestinationCurrencyCode());
+        record.put(90, (byte) transfer.getResponse().ordinal());
+        record.put(91, nulls);
+        return record;
+    }
+
+    private static void putCurrency(ByteBuffer record, int offset, String currencyCode) {
+        if (currencyCode == null) {
+            return;
+        }
+        // same limit as the currency columns
+        if (currencyCode.isEmpty() || currencyCode.length() > CURRENCY_LENGTH) {
+            throw new IllegalArgumentException("Currency code cannot be journaled : " + currencyCode);
+        }
+        for (int i = 0; i < currencyCode.length(); i++) {
+            record.putChar(offset + 2 * i, currencyCode.charAt(i));
+        }
+    }
+
+    private static String getCurrency(ByteBuffer record, int offset) {
+        StringBuilder currencyCode = new StringBuilder(CURRENCY_LENGTH);
+        for (int i = 0; i < CURRENCY_LENGTH; i++) {
+            char c = record.getChar(offset + 2 * i);
+            if (c == 0) {
+                break;
+            }
+            currencyCode.append(c);
+        }
+        return currencyCode.length() == 0 ? null : currencyCode.toString();
+    }
+
+    /**
+     * Memory-mapped segment file
+     */
+    private final class Segment {
+        private final Path file;
+        private final long firstSequence;
+        private final MappedByteBuffer buffer;
+        // guarded by this
+        private boolean unmapped;
+
+        private Segment(Path file, long firstSequence, MappedByteBuffer buffer) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+        }
+
+        private int offsetOf(long sequence) {
+            return (int) (sequence - firstSequence) * RECORD_SIZE;
+        }
+
+        private synchronized void force() {
+            if (!unmapped) {
+                buffer.force();
+            }
+        }
+
+        /**
+         * Release the mapping : the segment must no longer be read nor written
+         */
+        private synchronized void unmap() {
+            if (!unmapped) {
+                unmapped = true;
+                TransferJournal.unmap(buffer);
+            }
+        }
+
+        private ByteBuffer record(long sequence) {
+            ByteBuffer record = ((ByteBuffer) buffer).duplicate();
+            record.position(offsetOf(sequence));
+            record.limit(offsetOf(sequence) + RECORD_SIZE);
+            return record.slice();
+        }
+
+        private boolean isValid(long sequence) {
+            if (sequence < firstSequence || sequence >= firstSequence + segmentRecords) {
+                return false;
+            }
+            ByteBuffer record = record(sequence);
+            if (record.getLong(0) != sequence) {
+                return false;
+            }
+            int checksum = record.getInt(CRC_OFFSET);
+            CRC32 crc = new CRC32();
+            record.limit(CRC_OFFSET);
+            crc.update(record);
+            return checksum == (int) crc.getValue();
+        }
+
+        private Transfer decode(long sequence) {
+            ByteBuffer record = record(sequence);
+            byte nulls = record.get(91);
+            Transfer.transferResponse response = RESPONSES[record.get(90)];
+            Transfer transfer = new Transfer(record.getLong(8), record.getLong(16), record.getLong(24),
+                    (nulls & NULL_DEBITED) != 0 ? null : Money.ofMinor(record.getLong(32), Money.AMOUNT_SCALE).toBigDecimal(),
+                    getCurrency(record, 72),
+                    Money.ofMinor(record.getLong(40), Money.AMOUNT_SCALE).toBigDecimal(),
+                    getCurrency(record, 78),
+                    (nulls & NULL_CREDITED) != 0 ? null : Money.ofMinor(record.getLong(48), Money.AMOUNT_SCALE).toBigDecimal(),
+                    getCurrency(record, 84),
+                    (nulls & NULL_RATE) != 0 ? null : BigDecimal.valueOf(record.getLong(56), RATE_SCALE),
+                    response.name(), new Date(record.getLong(64)), null);
+            transfer.setResponse(response);
+            return transfer;
+        }
+    }
+}
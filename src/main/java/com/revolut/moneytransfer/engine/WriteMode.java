@@ -0,0 +1,23 @@
+package com.revolut.moneytransfer.engine;
+
+/**
+ * How the in-memory ledger engine records transfers in the database
+ */
+public enum WriteMode {
+    /**
+     * Every transfer is recorded before it is answered : a transfer that cannot be recorded is reverted in memory
+     * and fails
+     */
+    SYNC,
+    /**
+     * Transfers are queued and recorded in batches by a background writer, the transfers of many requests sharing one
+     * transaction : a transfer is answered once its batch is committed, waiting at most one flush interval, and a
+     * transfer that cannot be recorded is reverted in memory and fails
+     */
+    BATCH,
+    /**
+     * Transfers are appended to a memory-mapped journal and answered once durable (group commit), then projected
+     * into the database in batches : the journal tail not projected yet is replayed on start
+     */
+    JOURNAL
+}
@@ -0,0 +1,43 @@
+package com.revolut.moneytransfer.loader;
+
+import com.revolut.moneytransfer.config.AppConfig;
+import com.revolut.moneytransfer.dao.ConnectionPool;
+import com.revolut.moneytransfer.dao.H2Dao;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.logging.Logger;
+
+/**
+ * Command line account loader
+ * Streams a CSV (.csv) or JSON / NDJSON file of accounts into the configured database, typically a file store
+ * (db.mode=file), using the batch size of account.import.batchSize.
+ *
+ * Usage : AccountLoader {accounts file}
+ */
+public class AccountLoader {
+    private static final Logger log = Logger.getLogger("AccountLoader");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage : AccountLoader {accounts.csv | accounts.json}");
+            System.exit(1);
+        }
+        String file = args[0];
+        String format = file.toLowerCase().endsWith(".csv") ? AccountRecordReader.CSV : AccountRecordReader.NDJSON;
+        int batchSize = AppConfig.getInt("account.import.batchSize", 1000);
+
+        H2Dao h2Dao = new H2Dao();
+        h2Dao.initDatabase();
+        long start = System.currentTimeMillis();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+             AccountRecordReader accounts = AccountRecordReader.open(in, format)) {
+            long imported = h2Dao.getAccountDAO().importAccounts(accounts, batchSize);
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            log.info(imported + " accounts imported in " + elapsed + " ms (" + imported * 1000 / elapsed + " accounts/s)");
+        } finally {
+            ConnectionPool.shutdown();
+        }
+    }
+}
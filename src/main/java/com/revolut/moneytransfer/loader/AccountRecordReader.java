@@ -0,0 +1,134 @@
+package com.revolut.moneytransfer.loader;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.moneytransfer.model.Account;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader of accounts to import, one account at a time whatever the input size
+ * Supported formats :
+ * - CSV : accountOwnerId,accountNo,balance,currencyCode per line, an optional header line being skipped
+ * - JSON : an array of accounts, or one account object per line (NDJSON)
+ */
+public abstract class AccountRecordReader implements Iterator<Account>, Closeable {
+    public static final String CSV = "text/csv";
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @param in     input stream, UTF-8 encoded
+     * @param format CSV for CSV content, JSON otherwise
+     * @return account reader
+     * @throws IOException e
+     */
+    public static AccountRecordReader open(InputStream in, String format) throws IOException {
+        if (format != null && format.toLowerCase().startsWith(CSV)) {
+            return new Csv(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        return new Json(in);
+    }
+
+    private static class Csv extends AccountRecordReader {
+        private final BufferedReader reader;
+        private long lineNo;
+        private String next;
+
+        Csv(Reader reader) throws IOException {
+            this.reader = new BufferedReader(reader);
+            this.next = readLine();
+            // header line
+            if (next != null && !Character.isDigit(next.charAt(0))) {
+                this.next = readLine();
+            }
+        }
+
+        private String readLine() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                lineNo++;
+            } while (line != null && line.trim().isEmpty());
+            return line == null ? null : line.trim();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Account next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String[] fields = next.split(",");
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("Line " + lineNo + " : 4 fields expected (accountOwnerId,accountNo,balance,currencyCode).");
+            }
+            Account account = new Account();
+            try {
+                account.setAccountOwnerId(Integer.parseInt(fields[0].trim()));
+                account.setAccountNo(Long.parseLong(fields[1].trim()));
+                account.setBalance(new BigDecimal(fields[2].trim()));
+                account.setCurrencyCode(fields[3].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + lineNo + " : invalid number.", e);
+            }
+            try {
+                next = readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return account;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class Json extends AccountRecordReader {
+        private final MappingIterator<Account> accounts;
+
+        Json(InputStream in) throws IOException {
+            this.accounts = mapper.readerFor(Account.class).readValues(in);
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return accounts.hasNextValue();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid JSON content : " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Account next() {
+            try {
+                return accounts.nextValue();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid JSON content : " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            accounts.close();
+        }
+    }
+}
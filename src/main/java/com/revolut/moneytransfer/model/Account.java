@@ -27,6 +27,14 @@ public class Account extends Generic {
      * Account Currency Code
      */
     private String currencyCode;
+    /**
+     * Row version, incremented by every optimistic balance update
+     */
+    private long version;
+    /**
+     * Number of sub-balance slots of a sharded account, 0 if not sharded
+     */
+    private int balanceSlots;
 
     /**
      * Default Account Constructor
@@ -93,11 +101,28 @@ public class Account extends Generic {
         this.accountOwnerId = accountOwnerId;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public int getBalanceSlots() {
+        return balanceSlots;
+    }
+
+    public void setBalanceSlots(int balanceSlots) {
+        this.balanceSlots = balanceSlots;
+    }
+
 
     public enum accountResponse {
         SUCCESS("SUCCESS", null),
         ACCOUNT_NOT_FOUND("ACCOUNT_NOT_FOUND", "Account not found."),
-        BALANCE_NOT_ZERO("BALANCE_NOT_ZERO", "Account balance not zero.");
+        BALANCE_NOT_ZERO("BALANCE_NOT_ZERO", "Account balance not zero."),
+        INVALID_BALANCE_SLOTS("INVALID_BALANCE_SLOTS", "Invalid number of balance slots.");
 
         private final String code;
         private final String errorMessage;
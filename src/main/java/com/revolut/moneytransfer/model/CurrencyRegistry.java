@@ -0,0 +1,105 @@
+package com.revolut.moneytransfer.model;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * CurrencyRegistry Class : the ISO 4217 currencies known to the JVM, built once, each with a small integer ID
+ * A code is looked up by a perfect hash of its three letters A-Z into a table of 26^3 IDs, so that validating a code
+ * costs the same whether it is known or not : no exception and no allocation. Lookups are case sensitive, as
+ * Currency.getInstance is.
+ */
+public final class CurrencyRegistry {
+    /**
+     * ID of an unknown or invalid currency code
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final int LETTERS = 26;
+    // ID + 1 by perfect hash of the code, 0 for an unknown code
+    private static final short[] ids = new short[LETTERS * LETTERS * LETTERS];
+    private static final String[] codes;
+    private static final byte[] fractionDigits;
+
+    static {
+        List<String> known = new ArrayList<>();
+        TreeSet<String> sorted = new TreeSet<>();
+        for (Currency currency : Currency.getAvailableCurrencies()) {
+            sorted.add(currency.getCurrencyCode());
+        }
+        for (String code : sorted) {
+            if (hash(code) >= 0) {
+                known.add(code);
+            }
+        }
+        codes = known.toArray(new String[0]);
+        fractionDigits = new byte[codes.length];
+        for (int id = 0; id < codes.length; id++) {
+            ids[hash(codes[id])] = (short) (id + 1);
+            fractionDigits[id] = (byte) Currency.getInstance(codes[id]).getDefaultFractionDigits();
+        }
+    }
+
+    private CurrencyRegistry() {
+    }
+
+    /**
+     * @return index of a three letters A-Z code in the table, -1 for any other string
+     */
+    private static int hash(String code) {
+        if (code == null || code.length() != 3) {
+            return -1;
+        }
+        int hash = 0;
+        for (int i = 0; i < 3; i++) {
+            int letter = code.charAt(i) - 'A';
+            if (letter < 0 || letter >= LETTERS) {
+                return -1;
+            }
+            hash = hash * LETTERS + letter;
+        }
+        return hash;
+    }
+
+    /**
+     * @param code currency code, may be null
+     * @return ID of the currency, UNKNOWN if the code is not a supported ISO 4217 code
+     */
+    public static int id(String code) {
+        int hash = hash(code);
+        return hash < 0 ? UNKNOWN : ids[hash] - 1;
+    }
+
+    /**
+     * @param code currency code, may be null
+     * @return true if the code is a supported ISO 4217 code
+     */
+    public static boolean isValid(String code) {
+        return id(code) != UNKNOWN;
+    }
+
+    /**
+     * @param id currency ID
+     * @return currency code
+     */
+    public static String code(int id) {
+        return codes[id];
+    }
+
+    /**
+     * @param id currency ID
+     * @return default fraction digits of the currency, -1 for a pseudo-currency
+     */
+    public static int fractionDigits(int id) {
+        return fractionDigits[id];
+    }
+
+    /**
+     * @return number of currencies, IDs ranging from 0 to count - 1
+     */
+    public static int count() {
+        return codes.length;
+    }
+}
@@ -0,0 +1,239 @@
+package com.revolut.moneytransfer.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money Class : an immutable amount held as a long number of minor units, with its number of fraction digits
+ * Amounts are converted from and to BigDecimal at the JSON and JDBC boundary only, arithmetic and comparisons being
+ * done on the minor units. Conversions at a rate are computed exactly on longs and rounded once, falling back to
+ * BigDecimal only if an intermediate product overflows.
+ */
+public final class Money implements Comparable<Money> {
+    /**
+     * Scale of the amount and balance columns : fraction digits are capped to it
+     */
+    public static final int AMOUNT_SCALE = 2;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L,
+            100000000000L, 1000000000000L, 10000000000000L, 100000000000000L, 1000000000000000L,
+            10000000000000000L, 100000000000000000L, 1000000000000000000L};
+
+    private final long minor;
+    private final int fractionDigits;
+
+    private Money(long minor, int fractionDigits) {
+        this.minor = minor;
+        this.fractionDigits = fractionDigits;
+    }
+
+    /**
+     * @param minor          amount in minor units
+     * @param fractionDigits number of fraction digits of the amount
+     * @return money
+     */
+    public static Money ofMinor(long minor, int fractionDigits) {
+        checkFractionDigits(fractionDigits);
+        return new Money(minor, fractionDigits);
+    }
+
+    /**
+     * @param amount         amount, rounded half even to the fraction digits
+     * @param fractionDigits number of fraction digits of the amount
+     * @return money
+     * @throws ArithmeticException if the amount does not fit in a long number of minor units
+     */
+    public static Money of(BigDecimal amount, int fractionDigits) {
+        checkFractionDigits(fractionDigits);
+        return new Money(amount.setScale(fractionDigits, RoundingMode.HALF_EVEN).scaleByPowerOfTen(fractionDigits).longValueExact(), fractionDigits);
+    }
+
+    /**
+     * @param currencyCode ISO 4217 currency code
+     * @return default fraction digits of the currency, capped to the scale of the amount columns, AMOUNT_SCALE for a
+     * pseudo-currency
+     * @throws IllegalArgumentException if the currency code is not a supported ISO 4217 code
+     */
+    public static int fractionDigits(String currencyCode) {
+        int currencyId = CurrencyRegistry.id(currencyCode);
+        if (currencyId == CurrencyRegistry.UNKNOWN) {
+            throw new IllegalArgumentException("Invalid currency code : " + currencyCode);
+        }
+        return fractionDigits(currencyId);
+    }
+
+    /**
+     * @param currencyId currency ID in the CurrencyRegistry
+     * @return default fraction digits of the currency, capped to the scale of the amount columns, AMOUNT_SCALE for a
+     * pseudo-currency
+     */
+    public static int fractionDigits(int currencyId) {
+        int fractionDigits = CurrencyRegistry.fractionDigits(currencyId);
+        return fractionDigits < 0 ? AMOUNT_SCALE : Math.min(fractionDigits, AMOUNT_SCALE);
+    }
+
+    /**
+     * @param rate  rate
+     * @param scale number of decimals the rate is rounded half even to
+     * @return rate as a long number of units of 10^-scale
+     */
+    public static long scaled(BigDecimal rate, int scale) {
+        return rate.setScale(scale, RoundingMode.HALF_EVEN).scaleByPowerOfTen(scale).longValueExact();
+    }
+
+    /**
+     * @return amount in minor units
+     */
+    public long getMinor() {
+        return minor;
+    }
+
+    /**
+     * @return number of fraction digits of the amount
+     */
+    public int getFractionDigits() {
+        return fractionDigits;
+    }
+
+    /**
+     * @return amount, with its fraction digits as scale
+     */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minor, fractionDigits);
+    }
+
+    /**
+     * @param fractionDigits number of fraction digits
+     * @return the amount with this number of fraction digits, rounded half even if fewer
+     */
+    public Money withFractionDigits(int fractionDigits) {
+        return fractionDigits == this.fractionDigits ? this : times(1, 0, fractionDigits, RoundingMode.HALF_EVEN);
+    }
+
+    public Money plus(Money other) {
+        checkSameFractionDigits(other);
+        return new Money(Math.addExact(minor, other.minor), fractionDigits);
+    }
+
+    public Money minus(Money other) {
+        checkSameFractionDigits(other);
+        return new Money(Math.subtractExact(minor, other.minor), fractionDigits);
+    }
+
+    public Money negate() {
+        return new Money(Math.negateExact(minor), fractionDigits);
+    }
+
+    public boolean isZero() {
+        return minor == 0;
+    }
+
+    public boolean isNegative() {
+        return minor < 0;
+    }
+
+    /**
+     * Convert at a rate : amount * rate
+     * @param rate           rate, in units of 10^-rateScale
+     * @param rateScale      number of decimals of the rate
+     * @param fractionDigits fraction digits of the converted amount
+     * @param roundingMode   HALF_UP, HALF_EVEN, UP, DOWN or UNNECESSARY
+     * @return converted amount
+     */
+    public Money times(long rate, int rateScale, int fractionDigits, RoundingMode roundingMode) {
+        checkFractionDigits(fractionDigits);
+        try {
+            // minor * rate * 10^fractionDigits / 10^(this.fractionDigits + rateScale)
+            long numerator = Math.multiplyExact(Math.multiplyExact(minor, rate), POWERS_OF_TEN[fractionDigits]);
+            return new Money(divide(numerator, POWERS_OF_TEN[this.fractionDigits + rateScale], roundingMode), fractionDigits);
+        } catch (ArithmeticException | ArrayIndexOutOfBoundsException e) {
+            return of(toBigDecimal().multiply(BigDecimal.valueOf(rate, rateScale)).setScale(fractionDigits, roundingMode), fractionDigits);
+        }
+    }
+
+    /**
+     * Convert at the inverse of a rate : amount / rate
+     * @param rate           rate, in units of 10^-rateScale, not zero
+     * @param rateScale      number of decimals of the rate
+     * @param fractionDigits fraction digits of the converted amount
+     * @param roundingMode   HALF_UP, HALF_EVEN, UP, DOWN or UNNECESSARY
+     * @return converted amount
+     */
+    public Money dividedBy(long rate, int rateScale, int fractionDigits, RoundingMode roundingMode) {
+        checkFractionDigits(fractionDigits);
+        if (rate == 0) {
+            throw new ArithmeticException("Division by a zero rate.");
+        }
+        try {
+            // minor * 10^(rateScale + fractionDigits) / (rate * 10^this.fractionDigits)
+            long numerator = Math.multiplyExact(minor, POWERS_OF_TEN[rateScale + fractionDigits]);
+            return new Money(divide(numerator, Math.multiplyExact(rate, POWERS_OF_TEN[this.fractionDigits]), roundingMode), fractionDigits);
+        } catch (ArithmeticException | ArrayIndexOutOfBoundsException e) {
+            return of(toBigDecimal().divide(BigDecimal.valueOf(rate, rateScale), fractionDigits, roundingMode), fractionDigits);
+        }
+    }
+
+    /**
+     * @return numerator / denominator, rounded
+     */
+    public static long divide(long numerator, long denominator, RoundingMode roundingMode) {
+        long quotient = numerator / denominator;
+        long remainder = numerator % denominator;
+        if (remainder == 0) {
+            return quotient;
+        }
+        int sign = Long.signum(numerator) * Long.signum(denominator);
+        long absRemainder = Math.abs(remainder);
+        long absRest = Math.abs(denominator) - absRemainder;
+        switch (roundingMode) {
+            case DOWN:
+                return quotient;
+            case UP:
+                return quotient + sign;
+            case HALF_UP:
+                return absRemainder >= absRest ? quotient + sign : quotient;
+            case HALF_EVEN:
+                return absRemainder > absRest || (absRemainder == absRest && (quotient & 1) != 0) ? quotient + sign : quotient;
+            case UNNECESSARY:
+                throw new ArithmeticException("Rounding necessary : " + numerator + " / " + denominator);
+            default:
+                throw new IllegalArgumentException("Unsupported rounding mode : " + roundingMode);
+        }
+    }
+
+    private static void checkFractionDigits(int fractionDigits) {
+        if (fractionDigits < 0 || fractionDigits > 9) {
+            throw new IllegalArgumentException("Invalid number of fraction digits : " + fractionDigits);
+        }
+    }
+
+    private void checkSameFractionDigits(Money other) {
+        if (other.fractionDigits != fractionDigits) {
+            throw new IllegalArgumentException("Amounts with " + fractionDigits + " and " + other.fractionDigits + " fraction digits.");
+        }
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        checkSameFractionDigits(other);
+        return Long.compare(minor, other.minor);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Money)) return false;
+        Money money = (Money) o;
+        return minor == money.minor && fractionDigits == money.fractionDigits;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minor) + fractionDigits;
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
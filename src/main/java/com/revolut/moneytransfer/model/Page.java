@@ -0,0 +1,36 @@
+package com.revolut.moneytransfer.model;
+
+import java.util.List;
+
+/**
+ * Page Model Class
+ * One page of a keyset paginated result : the items, ordered by ID, and the cursor of the next page
+ * @param <T> item type
+ */
+public class Page<T> {
+    /**
+     * Items of the page
+     */
+    private final List<T> items;
+    /**
+     * ID to pass as after parameter to get the next page, null on the last page
+     */
+    private final Long nextCursor;
+
+    /**
+     * @param items      items of the page
+     * @param nextCursor ID of the last item when more items follow, null otherwise
+     */
+    public Page(List<T> items, Long nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+}
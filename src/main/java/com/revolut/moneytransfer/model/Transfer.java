@@ -10,7 +10,7 @@ public class Transfer extends Generic {
     /**
      * Unique Transfer Identifier
      */
-    private int id;
+    private long id;
     /**
      * Source Account id
      */
@@ -79,7 +79,7 @@ public class Transfer extends Generic {
      * @param createdDt creation date time of transfer
      * @param lastUpdateDt last update date time of transfer
      */
-    public Transfer(int id, Long sourceAccountNo, Long destinationAccountNo, BigDecimal debitedAmount, String sourceCurrencyCode, BigDecimal transferAmount, String transferCurrencyCode, BigDecimal creditedAmount, String destinationCurrencyCode, BigDecimal rate, String status, Date createdDt, Date lastUpdateDt) {
+    public Transfer(long id, Long sourceAccountNo, Long destinationAccountNo, BigDecimal debitedAmount, String sourceCurrencyCode, BigDecimal transferAmount, String transferCurrencyCode, BigDecimal creditedAmount, String destinationCurrencyCode, BigDecimal rate, String status, Date createdDt, Date lastUpdateDt) {
         this.id = id;
         this.sourceAccountNo = sourceAccountNo;
         this.destinationAccountNo = destinationAccountNo;
@@ -103,11 +103,11 @@ public class Transfer extends Generic {
         this.transferCurrencyCode = transferCurrencyCode;
     }
 
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -209,7 +209,8 @@ public class Transfer extends Generic {
         INVALID_CURRENCY_TO_ACC(5, "Invalid currency on destination account."),
         INVALID_CURRENCY_TRANSFER(6, "Invalid transfer currency."),
         TRANSFER_CURRENCY_MISMATCH(7, "Transfer currency doesn't correspond to either account currencies."),
-        RATE_NOT_FOUND(8, "Rate not found for source and destination currencies");
+        RATE_NOT_FOUND(8, "Rate not found for source and destination currencies"),
+        ROLLED_BACK(9, "Transfer not applied, another transfer of the batch failed.");
 
         private final int code;
         private final String errorMessage;
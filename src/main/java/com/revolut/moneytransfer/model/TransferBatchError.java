@@ -0,0 +1,36 @@
+package com.revolut.moneytransfer.model;
+
+import java.util.List;
+
+/**
+ * Transfer Batch Error Model Class
+ * Error interrupting a best-effort batch midway : the transfers processed before it are recorded, and answered with
+ * the error
+ */
+public class TransferBatchError {
+    /**
+     * Error message
+     */
+    private final String error;
+    /**
+     * Transfers processed before the error, in request order, with their ID and response
+     */
+    private final List<Transfer> transfers;
+
+    /**
+     * @param error     error message
+     * @param transfers transfers processed before the error
+     */
+    public TransferBatchError(String error, List<Transfer> transfers) {
+        this.error = error;
+        this.transfers = transfers;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public List<Transfer> getTransfers() {
+        return transfers;
+    }
+}
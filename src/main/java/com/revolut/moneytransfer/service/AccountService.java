@@ -1,13 +1,21 @@
 package com.revolut.moneytransfer.service;
 
+import com.revolut.moneytransfer.config.AppConfig;
 import com.revolut.moneytransfer.dao.H2Dao;
+import com.revolut.moneytransfer.exception.ProjectException;
+import com.revolut.moneytransfer.loader.AccountRecordReader;
 import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Page;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.InputStream;
 import java.math.BigDecimal;
-import java.util.List;
+import java.sql.SQLException;
+import java.util.Collections;
 import java.util.logging.Logger;
 
 /**
@@ -20,29 +28,34 @@ public class AccountService {
     private final H2Dao h2Dao = new H2Dao();
 
     /**
-     * Method returning all accounts available
-     * @return All accounts
+     * Method returning the accounts available, one page at a time in ID order
+     * @param after   cursor : ID of the last account of the previous page (X-Next-Cursor header), none for the first page
+     * @param limit   page size, capped to the maximum page size
+     * @param uriInfo request URI
+     * @return Page of accounts
      */
     @GET
     @Path("")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAccounts() {
+    public Response getAccounts(@QueryParam("after") Long after, @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
         log.info("REST : getAllAccounts");
-        List<Account> accounts;
+        Page<Account> accounts;
+        int pageSize;
         try {
-             accounts = h2Dao.getAccountDAO().getAllAccounts();
-             if(accounts == null){
-                 return Response.status(Response.Status.NOT_FOUND).entity("No account found.").build();
-             }
+            pageSize = Pagination.limit(limit);
+            accounts = h2Dao.getAccountDAO().getAccountsPage(Pagination.after(after), pageSize);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e){
             log.severe(e.getMessage());
             return Response.serverError().entity("Error while getting accounts.").build();
         }
-        return Response.status(Response.Status.OK).entity(accounts).build();
+        return Pagination.ok(accounts, pageSize, uriInfo);
     }
 
     /**
-     * Service returning the Account object
+     * Service returning the Account object, with the balance held by the transfer engine when the database lags
+     * behind it (ledger engine in journal mode)
      * @param accountNo Account Number
      * @return Account
      */
@@ -60,6 +73,10 @@ public class AccountService {
             if(account == null){
                 return Response.status(Response.Status.NOT_FOUND).entity("No account found, accountNo : " + accountNo).build();
             }
+            BigDecimal unrecorded = h2Dao.getTransferEngine().getUnrecordedBalance(accountNo);
+            if (unrecorded != null) {
+                account = withBalance(account, unrecorded);
+            }
         } catch (Exception e){
             log.severe(e.getMessage());
             return Response.serverError().entity("Error while getting account.").build();
@@ -68,7 +85,8 @@ public class AccountService {
     }
 
     /**
-     * Service returning the balance available on the account
+     * Service returning the balance available on the account, the one held by the transfer engine when the database
+     * lags behind it (ledger engine in journal mode)
      * @param accountNo Account Number
      * @return Account
      */
@@ -86,6 +104,10 @@ public class AccountService {
             if(balance == null){
                 return Response.status(Response.Status.NOT_FOUND).entity("No account found, accountNo : " + accountNo).build();
             }
+            BigDecimal unrecorded = h2Dao.getTransferEngine().getUnrecordedBalance(accountNo);
+            if (unrecorded != null) {
+                balance = unrecorded;
+            }
         } catch (Exception e){
             log.severe(e.getMessage());
             return Response.serverError().entity("Error while getting account.").build();
@@ -93,6 +115,38 @@ public class AccountService {
         return Response.status(Response.Status.OK).entity(balance).build();
     }
 
+    /**
+     * Shard the balance of a high fan-in account over sub-balance slots, credits then spreading over the slots instead
+     * of serializing on the account row, or change its number of slots (0 to stop sharding it)
+     *
+     * @param accountNo    account number
+     * @param balanceSlots number of slots, from 0 to 64
+     * @return Response 200 with the account, 400 invalid number of slots, 404
+     */
+    @PUT
+    @Path("/{accountNo}/balanceSlots/{balanceSlots}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response setBalanceSlots(@PathParam("accountNo") Long accountNo, @PathParam("balanceSlots") Integer balanceSlots) {
+        log.info("REST : setBalanceSlots");
+        if (accountNo == null || balanceSlots == null) {
+            return Response.serverError().entity("accountNo and balanceSlots cannot be null.").build();
+        }
+        Account account;
+        try {
+            Account.accountResponse response = h2Dao.getAccountDAO().setBalanceSlots(accountNo, balanceSlots);
+            if (response.equals(Account.accountResponse.ACCOUNT_NOT_FOUND)) {
+                return Response.status(Response.Status.NOT_FOUND).entity("No account found, accountNo : " + accountNo).build();
+            } else if (response.equals(Account.accountResponse.INVALID_BALANCE_SLOTS)) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(response.getErrorMessage()).build();
+            }
+            account = h2Dao.getAccountDAO().getAccountByAccountNo(accountNo);
+        } catch (Exception e) {
+            log.severe(e.getMessage());
+            return Response.serverError().entity("Error while setting account balance slots.").build();
+        }
+        return Response.status(Response.Status.OK).entity(account).build();
+    }
+
     /**
      * Delete account by account number (will only delete if balance is zero)
      *
@@ -108,7 +162,8 @@ public class AccountService {
             return Response.serverError().entity("accountNo cannot be null.").build();
         }
         try {
-            Account.accountResponse response = h2Dao.getAccountDAO().deleteAccount(accountNo);
+            // through the transfer engine, which may hold the balance in memory
+            Account.accountResponse response = h2Dao.getTransferEngine().deleteAccount(accountNo);
             if (response.equals(Account.accountResponse.ACCOUNT_NOT_FOUND)) {
                 return Response.status(Response.Status.NOT_FOUND).entity("No account found, accountNo : " + accountNo).build();
             } else if (response.equals(Account.accountResponse.BALANCE_NOT_ZERO)) {
@@ -122,4 +177,48 @@ public class AccountService {
         return Response.status(Response.Status.NO_CONTENT).build();
     }
 
+    /**
+     * Bulk import of accounts, streamed from the request body
+     * Body : JSON array of accounts, NDJSON (one account per line) or CSV (accountOwnerId,accountNo,balance,currencyCode)
+     * Accounts are committed in chunks : on failure, the accounts of the chunks already committed stay imported.
+     *
+     * @param contentType request content type, text/csv for CSV
+     * @param body        accounts to import
+     * @return Response 201 with the number of accounts imported, 400 invalid account, 409 duplicate account number
+     */
+    @POST
+    @Path("/bulk")
+    @Consumes({MediaType.APPLICATION_JSON, AccountRecordReader.NDJSON, AccountRecordReader.CSV})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response importAccounts(@HeaderParam("Content-Type") String contentType, InputStream body) {
+        log.info("REST : importAccounts");
+        long imported;
+        try (AccountRecordReader accounts = AccountRecordReader.open(body, contentType)) {
+            imported = h2Dao.getAccountDAO().importAccounts(accounts, AppConfig.getInt("account.import.batchSize", 1000));
+        } catch (ProjectException e) {
+            log.severe(e.getMessage());
+            if (e.getCause() instanceof IllegalArgumentException) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+            } else if (e.getCause() instanceof SQLException && ((SQLException) e.getCause()).getSQLState().startsWith("23")) {
+                return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+            }
+            return Response.serverError().entity("Error while importing accounts. " + e.getMessage()).build();
+        } catch (Exception e) {
+            log.severe(e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid accounts content.").build();
+        }
+        return Response.status(Response.Status.CREATED).entity(Collections.singletonMap("imported", imported)).build();
+    }
+
+    /**
+     * @return copy of the account with the balance held by the transfer engine, the account read being shared by the
+     * account cache
+     */
+    private static Account withBalance(Account account, BigDecimal balance) {
+        Account copy = new Account(account.getId(), account.getAccountOwnerId(), account.getAccountNo(), balance,
+                account.getCurrencyCode(), account.getCreatedDt(), account.getLastUpdatedDt());
+        copy.setVersion(account.getVersion());
+        copy.setBalanceSlots(account.getBalanceSlots());
+        return copy;
+    }
 }
@@ -0,0 +1,86 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.dao.ConnectionPool;
+import com.revolut.moneytransfer.dao.H2Dao;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.logging.Logger;
+
+/**
+ * Metrics Service Class
+ */
+@Path("/metrics")
+@Produces(MediaType.APPLICATION_JSON)
+public class MetricsService {
+    private static final Logger log = Logger.getLogger("MetricsService");
+    private final H2Dao h2Dao = new H2Dao();
+
+    /**
+     * Connection pool metrics : pool size, active/idle connections, waiting threads, saturation and wait times
+     *
+     * @return pool metrics
+     */
+    @GET
+    @Path("/pool")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getPoolMetrics() {
+        log.info("REST : getPoolMetrics");
+        return Response.status(Response.Status.OK).entity(ConnectionPool.getMetrics().snapshot()).build();
+    }
+
+    /**
+     * Account lock contention metrics : lock wait times, lock timeouts and retries
+     *
+     * @return lock metrics
+     */
+    @GET
+    @Path("/locks")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLockMetrics() {
+        log.info("REST : getLockMetrics");
+        return Response.status(Response.Status.OK).entity(h2Dao.getTransferDAO().getLockRetryPolicy().snapshot()).build();
+    }
+
+    /**
+     * Account cache metrics : size, hits, misses, hit rate, evictions, expirations and invalidations
+     *
+     * @return account cache metrics
+     */
+    @GET
+    @Path("/accounts")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAccountCacheMetrics() {
+        log.info("REST : getAccountCacheMetrics");
+        return Response.status(Response.Status.OK).entity(h2Dao.getAccountDAO().getAccountCache().snapshot()).build();
+    }
+
+    /**
+     * Transfer engine metrics : for the lanes engine, queue depth and task latencies per lane
+     *
+     * @return engine metrics
+     */
+    @GET
+    @Path("/engine")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getEngineMetrics() {
+        log.info("REST : getEngineMetrics");
+        return Response.status(Response.Status.OK).entity(h2Dao.getTransferEngine().snapshot()).build();
+    }
+
+    /**
+     * Asynchronous transfer metrics : pending transfers, workers queue depth, accepted, rejected and failed transfers
+     *
+     * @return asynchronous transfer metrics
+     */
+    @GET
+    @Path("/async")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAsyncMetrics() {
+        log.info("REST : getAsyncMetrics");
+        return Response.status(Response.Status.OK).entity(h2Dao.getAsyncTransfers().snapshot()).build();
+    }
+}
@@ -0,0 +1,69 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.config.AppConfig;
+import com.revolut.moneytransfer.model.Page;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * Keyset pagination parameters and response
+ * Pages are requested with ?after={cursor}&amp;limit={size}. The body is the array of items; the cursor of the next page
+ * is returned in the X-Next-Cursor header, with a Link rel="next" header holding the next page URI.
+ */
+final class Pagination {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final int DEFAULT_SIZE = AppConfig.getInt("page.defaultSize", 100);
+    private static final int MAX_SIZE = AppConfig.getInt("page.maxSize", 1000);
+
+    private Pagination() {
+    }
+
+    /**
+     * @param after cursor requested, null for the first page
+     * @return cursor to use
+     * @throws IllegalArgumentException if negative
+     */
+    static long after(Long after) {
+        if (after == null) {
+            return 0;
+        }
+        if (after < 0) {
+            throw new IllegalArgumentException("after cannot be negative.");
+        }
+        return after;
+    }
+
+    /**
+     * @param limit page size requested, null for the default size
+     * @return page size to use, capped to the maximum page size
+     * @throws IllegalArgumentException if not positive
+     */
+    static int limit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_SIZE;
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive.");
+        }
+        return Math.min(limit, MAX_SIZE);
+    }
+
+    /**
+     * @param page    page to return
+     * @param limit   page size used
+     * @param uriInfo request URI, reused with the next cursor for the next page link
+     * @return Response 200 with the page items and the next page headers
+     */
+    static Response ok(Page<?> page, int limit, UriInfo uriInfo) {
+        Response.ResponseBuilder response = Response.status(Response.Status.OK).entity(page.getItems());
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor())
+                    .link(uriInfo.getRequestUriBuilder()
+                            .replaceQueryParam("after", page.getNextCursor())
+                            .replaceQueryParam("limit", limit).build(), "next");
+        }
+        return response.build();
+    }
+}
@@ -6,6 +6,10 @@ import com.revolut.moneytransfer.model.Rate;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -95,6 +99,52 @@ public class RateService {
         return Response.status(Response.Status.OK).entity(rate).build();
     }
 
+    /**
+     * Service returning the Rate effective at an instant, based on source and destination currency code
+     *
+     * @param source      Source Currency
+     * @param destination Destination Currency
+     * @param instant     instant, yyyy-MM-ddTHH:mm:ss in server time or with an offset
+     * @return Rate version effective at the instant
+     */
+    @GET
+    @Path("/at")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getRateAt(@QueryParam("source") String source, @QueryParam("destination") String destination, @QueryParam("instant") String instant) {
+        log.info("REST : getRateAt");
+        if (source == null || destination == null || instant == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("source, destination and instant are required.").build();
+        }
+        long at;
+        try {
+            at = parseInstant(instant);
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("instant must be formatted as yyyy-MM-ddTHH:mm:ss, with an optional offset.").build();
+        }
+        Rate rate;
+        try {
+            rate = h2Dao.getRateDao().getRateAt(source, destination, at);
+            if (rate == null) {
+                return Response.status(Response.Status.NOT_FOUND).entity("No rate found, for " + source + " to " + destination + " at " + instant).build();
+            }
+        } catch (Exception e) {
+            log.severe(e.getMessage());
+            return Response.serverError().entity("Getting rate at instant failed.").build();
+        }
+        return Response.status(Response.Status.OK).entity(rate).build();
+    }
+
+    /**
+     * @return instant in milliseconds since the epoch, a local date time being in server time as the stored dates
+     */
+    private static long parseInstant(String instant) {
+        try {
+            return OffsetDateTime.parse(instant).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Timestamp.valueOf(LocalDateTime.parse(instant)).getTime();
+        }
+    }
+
     /**
      * Service updating the currency rate by id
      *
@@ -1,41 +1,143 @@
 package com.revolut.moneytransfer.service;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.revolut.moneytransfer.config.AppConfig;
 import com.revolut.moneytransfer.dao.H2Dao;
+import com.revolut.moneytransfer.dao.IdempotencyConflictException;
+import com.revolut.moneytransfer.dao.IdempotencyDao;
+import com.revolut.moneytransfer.engine.AsyncTransferProcessor;
+import com.revolut.moneytransfer.loader.AccountRecordReader;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Page;
 import com.revolut.moneytransfer.model.Transfer;
+import com.revolut.moneytransfer.model.TransferBatchError;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 @Path("/transfers")
 @Produces(MediaType.APPLICATION_JSON)
 public class TransferService {
     private static final Logger log = Logger.getLogger("TransferService");
+    private static final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ObjectReader transferReader = new ObjectMapper().readerFor(Transfer.class);
     private final H2Dao h2Dao = new H2Dao();
 
     /**
-     * Method returning all transfers available
-     * @return All transfers
+     * Method returning the transfers available, one page at a time in ID order
+     * @param after   cursor : ID of the last transfer of the previous page (X-Next-Cursor header), none for the first page
+     * @param limit   page size, capped to the maximum page size
+     * @param uriInfo request URI
+     * @return Page of transfers
      */
     @GET
     @Path("")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getTransfers() {
+    public Response getTransfers(@QueryParam("after") Long after, @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
         log.info("REST : getTransfers");
-        List<Transfer> transfers;
+        Page<Transfer> transfers;
+        int pageSize;
         try {
-            transfers = h2Dao.getTransferDAO().getAllTransfers();
-            if(transfers == null){
-                return Response.status(Response.Status.NO_CONTENT).entity("No transfer found.").build();
-            }
+            pageSize = Pagination.limit(limit);
+            transfers = h2Dao.getTransferDAO().getTransfersPage(Pagination.after(after), pageSize);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e){
             log.severe(e.getMessage());
             return Response.serverError().entity("SError while getting transfers.").build();
         }
-        return Response.status(Response.Status.OK).entity(transfers).build();
+        return Pagination.ok(transfers, pageSize, uriInfo);
+    }
+
+    /**
+     * Transfer by ID, with its status : PENDING while an asynchronous transfer is not processed, ERROR if it could
+     * not be processed, otherwise its recorded status, read from the transfer engine while the transfer is answered
+     * but not recorded yet (ledger engine in journal mode)
+     * With wait, a pending transfer is waited for up to wait milliseconds (long polling), capped to
+     * transfer.async.maxWaitMs.
+     *
+     * @param id   transfer ID
+     * @param wait maximum time to wait for a pending transfer, in milliseconds
+     * @return Response 200 with the transfer, 404 unknown transfer
+     */
+    @GET
+    @Path("/{id: [0-9]+}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getTransfer(@PathParam("id") long id, @QueryParam("wait") Long wait) {
+        log.info("REST : getTransfer");
+        Transfer transfer;
+        try {
+            long waitMillis = wait == null ? 0 : Math.max(0, Math.min(wait, AppConfig.getLong("transfer.async.maxWaitMs", 30000)));
+            transfer = h2Dao.getAsyncTransfers().getTransfer(id, waitMillis);
+        } catch (Exception e) {
+            log.severe(e.getMessage());
+            return Response.serverError().entity("Error while getting transfer.").build();
+        }
+        if (transfer == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("No transfer found, id : " + id).build();
+        }
+        return Response.status(Response.Status.OK).entity(transfer).build();
+    }
+
+    /**
+     * Streaming export of every transfer created in a period, in ID order
+     * Transfers are written to the response as they are read from the database, whatever their number.
+     *
+     * @param fromDate first day of the period (yyyy-MM-dd), inclusive
+     * @param toDate   last day of the period (yyyy-MM-dd), inclusive
+     * @return JSON array of transfers
+     */
+    @GET
+    @Path("/export")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exportTransfers(@QueryParam("fromDate") String fromDate, @QueryParam("toDate") String toDate) {
+        log.info("REST : exportTransfers");
+        if (fromDate == null || toDate == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("fromDate and toDate are mandatory.").build();
+        }
+        Timestamp from;
+        Timestamp to;
+        try {
+            from = Timestamp.valueOf(LocalDate.parse(fromDate).atStartOfDay());
+            to = Timestamp.valueOf(LocalDate.parse(toDate).plusDays(1).atStartOfDay());
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Dates must be formatted as yyyy-MM-dd.").build();
+        }
+        if (!from.before(to)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("fromDate cannot be after toDate.").build();
+        }
+        StreamingOutput export = output -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(output, JsonEncoding.UTF8)) {
+                h2Dao.getTransferDAO().exportTransfers(from, to, generator);
+            } catch (Exception e) {
+                // the response is already committed : the client gets a truncated document
+                log.severe("Error while exporting transfers : " + e.getMessage());
+                throw new WebApplicationException(e);
+            }
+        };
+        return Response.status(Response.Status.OK).entity(export).build();
     }
 
     /**
@@ -43,12 +145,16 @@ public class TransferService {
      *
      * @param sourceAccountNo Source Account Number
      * @param destinationAccountNo Destination Account Number
-     * @return List of transfers
+     * @param after cursor : ID of the last transfer of the previous page (X-Next-Cursor header), none for the first page
+     * @param limit page size, capped to the maximum page size
+     * @param uriInfo request URI
+     * @return Page of transfers
      */
     @GET
     @Path("/query")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getTransfersByAccountNo(@QueryParam("from") Long sourceAccountNo, @QueryParam("to") Long destinationAccountNo) {
+    public Response getTransfersByAccountNo(@QueryParam("from") Long sourceAccountNo, @QueryParam("to") Long destinationAccountNo,
+                                            @QueryParam("after") Long after, @QueryParam("limit") Integer limit, @Context UriInfo uriInfo) {
         log.info("REST : getTransferByAccountNo");
         if (sourceAccountNo == null && destinationAccountNo == null) {
             return Response.serverError().entity("Source and Destination account numbers cannot be null.").build();
@@ -65,50 +171,196 @@ public class TransferService {
             accountNo = destinationAccountNo;
             mode = "TO";
         }
-        List<Transfer> transfers;
+        Page<Transfer> transfers;
+        int pageSize;
         try {
-            transfers = h2Dao.getTransferDAO().getTransfersByAccountNo(accountNo, mode);
-            if (transfers == null) {
-                return Response.status(Response.Status.NO_CONTENT).entity("No transfer found for account : " + accountNo).build();
-            }
+            pageSize = Pagination.limit(limit);
+            transfers = h2Dao.getTransferDAO().getTransfersByAccountNoPage(accountNo, mode, Pagination.after(after), pageSize);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             log.severe(e.getMessage());
             return Response.serverError().entity("Error while getting transfer.").build();
         }
-        return Response.status(Response.Status.OK).entity(transfers).build();
+        return Pagination.ok(transfers, pageSize, uriInfo);
     }
 
 
     /**
-     * @param transfer Transfer object
+     * Transfer processed before the response (201), or accepted for asynchronous processing (202) : the transfer is
+     * then answered at once with its ID and the PENDING status, its outcome being read with GET /transfers/{id}
+     * With an Idempotency-Key, a request retried with the same key gets the response of the first one, its transfer
+     * being processed once.
+     *
+     * @param async          true to process the transfer asynchronously
+     * @param idempotencyKey optional key identifying the request across retries
+     * @param transfer       Transfer object
+     * @param uriInfo        request URI
      * @return Response
      */
     @POST
     @Path("")
-    public Response transferAmount(Transfer transfer) {
+    public Response transferAmount(@QueryParam("async") boolean async, @HeaderParam("Idempotency-Key") String idempotencyKey,
+                                   Transfer transfer, @Context UriInfo uriInfo) {
         log.info("REST : transferAmount");
-        if (transfer == null)
-            return Response.serverError().entity("Transfer cannot be null.").build();
-        if (transfer.getSourceAccountNo() == null || transfer.getSourceAccountNo().compareTo(0L) == 0) {
-            return Response.serverError().entity("Source account cannot be null.").build();
-        } else if (transfer.getDestinationAccountNo() == null || transfer.getDestinationAccountNo().compareTo(0L) == 0) {
-            return Response.serverError().entity("Destination account cannot be null.").build();
-        } else if (transfer.getTransferAmount() == null || transfer.getTransferAmount().setScale(2, BigDecimal.ROUND_HALF_EVEN).equals(new BigDecimal(0).setScale(2, BigDecimal.ROUND_HALF_EVEN))) {
-            return Response.serverError().entity("Amount to transfer cannot be null.").build();
-        } else if (transfer.getTransferCurrencyCode() == null || transfer.getTransferCurrencyCode().isEmpty()) {
-            return Response.serverError().entity("Currency cannot be null.").build();
+        String invalid = validate(transfer);
+        if (invalid != null) {
+            return Response.serverError().entity(invalid).build();
+        }
+        if (idempotencyKey != null && (idempotencyKey.isEmpty() || idempotencyKey.length() > IdempotencyDao.MAX_KEY_LENGTH)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Idempotency-Key must be 1 to " + IdempotencyDao.MAX_KEY_LENGTH + " characters long.").build();
         }
+        // IDs are allocated by the application
+        transfer.setId(0);
+        Transfer submitted = transfer;
+        // an asynchronous transfer ending in error releases its key, the request being retried with it
+        Callable<Transfer> processing = async
+                ? () -> h2Dao.getAsyncTransfers().submit(submitted, idempotencyKey == null ? null
+                        : failed -> h2Dao.getIdempotencyDao().releaseFailed(idempotencyKey, failed.getId()))
+                : () -> h2Dao.getTransferEngine().process(submitted);
         try {
-            transfer = h2Dao.getTransferDAO().processTransfer(transfer);
-            if (transfer.getResponse() == Transfer.transferResponse.INVALID_FROM_ACC || transfer.getResponse() == Transfer.transferResponse.INVALID_TO_ACC || transfer.getResponse() == Transfer.transferResponse.RATE_NOT_FOUND) {
-                return Response.status(Response.Status.NOT_FOUND).entity(transfer.getResponse().getErrorMessage()).build();
-            } else if (transfer.getResponse().getErrorMessage() != null) {
-                return Response.status(Response.Status.BAD_REQUEST).entity(transfer.getResponse().getErrorMessage()).build();
-            }
+            transfer = idempotencyKey == null ? processing.call() : h2Dao.getIdempotencyDao().execute(idempotencyKey, submitted, processing);
+        } catch (IdempotencyConflictException e) {
+            return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+        } catch (RejectedExecutionException e) {
+            log.warning("Asynchronous transfer rejected : " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).entity("Too many pending transfers.").build();
         } catch (Exception e) {
             log.severe("Error while processing transfer : " + e.getMessage());
             return Response.serverError().entity("Error while processing transfer.").build();
         }
+        if (AsyncTransferProcessor.PENDING.equals(transfer.getStatus())) {
+            return Response.status(Response.Status.ACCEPTED)
+                    .location(uriInfo.getBaseUriBuilder().path(TransferService.class).path(String.valueOf(transfer.getId())).build())
+                    .entity(transfer).build();
+        }
+        if (transfer.getResponse() == Transfer.transferResponse.INVALID_FROM_ACC || transfer.getResponse() == Transfer.transferResponse.INVALID_TO_ACC || transfer.getResponse() == Transfer.transferResponse.RATE_NOT_FOUND) {
+            return Response.status(Response.Status.NOT_FOUND).entity(transfer.getResponse().getErrorMessage()).build();
+        } else if (transfer.getResponse().getErrorMessage() != null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(transfer.getResponse().getErrorMessage()).build();
+        }
         return Response.status(Response.Status.CREATED).entity(transfer).build();
     }
+
+    /**
+     * Reprice recorded transfers at the rates effective when they were created, for audit : the transfers are answered
+     * as recorded, with the rate and the debited / credited amounts of their creation time, and a RATE_NOT_FOUND
+     * response if no rate was effective then
+     *
+     * @param ids IDs of at most transfer.reprice.maxSize transfers
+     * @return Response 200 with the repriced transfers in request order, 404 if a transfer is not found
+     */
+    @POST
+    @Path("/reprice")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response repriceTransfers(List<Long> ids) {
+        log.info("REST : repriceTransfers");
+        int maxSize = AppConfig.getInt("transfer.reprice.maxSize", 10000);
+        if (ids == null || ids.isEmpty() || ids.size() > maxSize || ids.contains(null)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("1 to " + maxSize + " transfer IDs are required.").build();
+        }
+        List<Transfer> repriced;
+        try {
+            repriced = h2Dao.getTransferDAO().repriceTransfers(ids);
+        } catch (Exception e) {
+            log.severe(e.getMessage());
+            return Response.serverError().entity("Repricing transfers failed.").build();
+        }
+        if (repriced.size() < ids.size()) {
+            Set<Long> unknown = new LinkedHashSet<>(ids);
+            for (Transfer transfer : repriced) {
+                unknown.remove(transfer.getId());
+            }
+            if (!unknown.isEmpty()) {
+                return Response.status(Response.Status.NOT_FOUND).entity("Transfers not found : " + unknown).build();
+            }
+        }
+        return Response.status(Response.Status.OK).entity(repriced).build();
+    }
+
+    /**
+     * Batch of transfers, streamed from the request body : JSON array of transfers or NDJSON (one transfer per line)
+     * Best-effort (default) : transfers are processed in chunks of transfer.batch.chunkSize transfers, one transaction
+     * per chunk with the database engine, each transfer getting its own response. Atomic : the batch, of at most
+     * transfer.batch.maxAtomicSize transfers, is applied as a whole or not at all.
+     * A best-effort batch interrupted midway is answered with the error and the transfers processed before it, those
+     * of the chunks already committed.
+     *
+     * @param atomic true for an all-or-nothing batch
+     * @param body   transfers
+     * @return Response 200 (best-effort) or 201 (atomic) with the transfers in request order and their responses,
+     * 409 atomic batch rolled back with the transfers and their responses, 400 invalid transfer or batch and 500 error,
+     * with the transfers processed before
+     */
+    @POST
+    @Path("/batch")
+    @Consumes({MediaType.APPLICATION_JSON, AccountRecordReader.NDJSON})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response transferBatch(@QueryParam("atomic") boolean atomic, InputStream body) {
+        log.info("REST : transferBatch");
+        int chunkSize = atomic ? AppConfig.getInt("transfer.batch.maxAtomicSize", 10000) : AppConfig.getInt("transfer.batch.chunkSize", 1000);
+        List<Transfer> processed = new ArrayList<>();
+        try (MappingIterator<Transfer> transfers = transferReader.readValues(body)) {
+            while (transfers.hasNextValue()) {
+                List<Transfer> chunk = new ArrayList<>(Math.min(chunkSize, 1000));
+                while (chunk.size() < chunkSize && transfers.hasNextValue()) {
+                    Transfer transfer = transfers.nextValue();
+                    String invalid = validate(transfer);
+                    if (invalid != null) {
+                        return Response.status(Response.Status.BAD_REQUEST)
+                                .entity(new TransferBatchError("Transfer " + (processed.size() + chunk.size() + 1) + " : " + invalid, processed)).build();
+                    }
+                    // IDs are allocated by the application
+                    transfer.setId(0);
+                    chunk.add(transfer);
+                }
+                if (atomic && transfers.hasNextValue()) {
+                    return Response.status(Response.Status.BAD_REQUEST).entity("Atomic batches are limited to " + chunkSize + " transfers.").build();
+                }
+                processed.addAll(h2Dao.getTransferEngine().processBatch(chunk, atomic));
+            }
+        } catch (JsonProcessingException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(new TransferBatchError("Invalid transfers content.", processed)).build();
+        } catch (Exception e) {
+            log.severe("Error while processing transfer batch : " + e.getMessage());
+            return Response.serverError().entity(new TransferBatchError("Error while processing transfers.", processed)).build();
+        }
+        if (!atomic) {
+            return Response.status(Response.Status.OK).entity(processed).build();
+        }
+        for (Transfer transfer : processed) {
+            if (transfer.getResponse() != Transfer.transferResponse.SUCCESS) {
+                return Response.status(Response.Status.CONFLICT).entity(processed).build();
+            }
+        }
+        return Response.status(Response.Status.CREATED).entity(processed).build();
+    }
+
+    /**
+     * @return true if the amount rounds to zero at the scale of the amount columns
+     */
+    private static boolean isZero(BigDecimal amount) {
+        // amounts of a unit or more are never zero, whatever their range
+        return amount.abs().compareTo(BigDecimal.ONE) < 0 && Money.of(amount, Money.AMOUNT_SCALE).isZero();
+    }
+
+    /**
+     * @param transfer transfer to process
+     * @return error message if a mandatory field is missing, null otherwise
+     */
+    private static String validate(Transfer transfer) {
+        if (transfer == null) {
+            return "Transfer cannot be null.";
+        } else if (transfer.getSourceAccountNo() == null || transfer.getSourceAccountNo().compareTo(0L) == 0) {
+            return "Source account cannot be null.";
+        } else if (transfer.getDestinationAccountNo() == null || transfer.getDestinationAccountNo().compareTo(0L) == 0) {
+            return "Destination account cannot be null.";
+        } else if (transfer.getTransferAmount() == null || isZero(transfer.getTransferAmount())) {
+            return "Amount to transfer cannot be null.";
+        } else if (transfer.getTransferCurrencyCode() == null || transfer.getTransferCurrencyCode().isEmpty()) {
+            return "Currency cannot be null.";
+        }
+        return null;
+    }
 }
@@ -0,0 +1,55 @@
+-- ACCOUNTS TABLE CREATION
+-- CUSTOMER_ID is the CUSTOMER primary key linking to the Customer Management (not represented in this project)
+CREATE TABLE ACCOUNTS (
+   ID INT NOT NULL,
+   CUSTOMER_ID INT NOT NULL,
+   ACCOUNT_NUMBER NUMBER(11) NOT NULL,
+   BALANCE DECIMAL(10,2) NOT NULL,
+   CURRENCY_CODE VARCHAR(3) NOT NULL,
+   CREATED_DT datetime,
+   LAST_UPDATED_DT datetime,
+);
+ALTER TABLE ACCOUNTS ADD CONSTRAINT ACCOUNT_PK PRIMARY KEY(ID);
+
+-- TRANSFERS TABLE CREATION
+CREATE TABLE TRANSFERS (
+   ID INT NOT NULL,
+   FROM_ACCOUNT_NO NUMBER(15) NOT NULL,
+   TO_ACCOUNT_NO NUMBER(15) NOT NULL,
+   DEBITED_AMOUNT DECIMAL(10,2),
+   DEBITED_CURRENCY_CODE VARCHAR(3),
+   TRANSFER_AMOUNT DECIMAL(10,2) NOT NULL,
+   TRANSFER_CURRENCY_CODE VARCHAR(3) NOT NULL,
+   CREDITED_AMOUNT DECIMAL(10,2),
+   CREDITED_CURRENCY_CODE VARCHAR(3),
+   RATE DECIMAL(10,4),
+   STATUS VARCHAR(50) NOT NULL,
+   CREATED_DT datetime,
+   LAST_UPDATED_DT datetime
+);
+ALTER TABLE TRANSFERS ADD CONSTRAINT TRANSFER_PK PRIMARY KEY(ID);
+
+-- RATES TABLE CREATION
+CREATE TABLE RATES(
+    ID INT NOT NULL,
+    SOURCE_CURRENCY_CODE VARCHAR(3) NOT NULL,
+    DESTINATION_CURRENCY_CODE VARCHAR(3) NOT NULL,
+    RATE DECIMAL(10,4) NOT NULL,
+    EFFECTIVE_DT datetime,
+    CREATED_DT datetime,
+    LAST_UPDATED_DT datetime
+);
+ALTER TABLE RATES ADD CONSTRAINT RATE_PK PRIMARY KEY(ID);
+
+-- CREATE SEQUENCES
+CREATE SEQUENCE TRANSFERS_SEQ
+    START WITH 1
+    INCREMENT BY 1;
+
+CREATE SEQUENCE ACCOUNTS_SEQ
+    START WITH 1
+    INCREMENT BY 1;
+
+CREATE SEQUENCE RATES_SEQ
+    START WITH 1
+    INCREMENT BY 1;
@@ -0,0 +1,9 @@
+-- ACCOUNTS : every lookup, lock and balance update filters on the account number
+CREATE UNIQUE INDEX ACCOUNT_NUMBER_UK ON ACCOUNTS(ACCOUNT_NUMBER);
+
+-- TRANSFERS : transfer history by source or destination account, in ID order
+CREATE INDEX TRANSFER_FROM_ACCOUNT_IDX ON TRANSFERS(FROM_ACCOUNT_NO, ID);
+CREATE INDEX TRANSFER_TO_ACCOUNT_IDX ON TRANSFERS(TO_ACCOUNT_NO, ID);
+
+-- RATES : effective rate of a currency pair at a given date
+CREATE INDEX RATE_CURRENCY_PAIR_IDX ON RATES(SOURCE_CURRENCY_CODE, DESTINATION_CURRENCY_CODE, EFFECTIVE_DT);
@@ -0,0 +1,2 @@
+-- TRANSFERS : IDs are 64-bit time-ordered IDs generated by the application (SnowflakeIdGenerator)
+ALTER TABLE TRANSFERS ALTER COLUMN ID BIGINT NOT NULL;
@@ -0,0 +1,10 @@
+-- JOURNAL_CHECKPOINT : last transfer journal sequence projected into the ACCOUNTS and TRANSFERS tables, updated in the
+-- same transaction as every projected batch. JOURNAL_ID identifies the journal the database is projected from, 0 none.
+CREATE TABLE JOURNAL_CHECKPOINT (
+   ID INT NOT NULL,
+   JOURNAL_ID BIGINT NOT NULL,
+   JOURNAL_SEQUENCE BIGINT NOT NULL,
+   LAST_UPDATED_DT datetime
+);
+ALTER TABLE JOURNAL_CHECKPOINT ADD CONSTRAINT JOURNAL_CHECKPOINT_PK PRIMARY KEY(ID);
+INSERT INTO JOURNAL_CHECKPOINT values (1, 0, 0, SYSDATE);
@@ -0,0 +1,2 @@
+-- VERSION : row version of the account, incremented by every optimistic balance update (transfer.concurrency=optimistic)
+ALTER TABLE ACCOUNTS ADD VERSION BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,12 @@
+-- BALANCE_SLOTS : number of sub-balance slots of a sharded account, 0 if the account is not sharded
+ALTER TABLE ACCOUNTS ADD BALANCE_SLOTS INT DEFAULT 0 NOT NULL;
+
+-- ACCOUNT_BALANCE_SLOTS : sub-balances of the sharded accounts, credited without contending on the ACCOUNTS row.
+-- The balance of a sharded account is its ACCOUNTS balance plus the sum of its slots.
+CREATE TABLE ACCOUNT_BALANCE_SLOTS (
+   ACCOUNT_NUMBER NUMBER(11) NOT NULL,
+   SLOT INT NOT NULL,
+   BALANCE DECIMAL(10,2) NOT NULL,
+   LAST_UPDATED_DT datetime
+);
+ALTER TABLE ACCOUNT_BALANCE_SLOTS ADD CONSTRAINT ACCOUNT_BALANCE_SLOTS_PK PRIMARY KEY(ACCOUNT_NUMBER, SLOT);
@@ -0,0 +1,9 @@
+-- IDEMPOTENCY_KEYS : Idempotency-Key of a transfer request and the ID allocated to its transfer, claimed before the
+-- transfer is processed. REQUEST_HASH fingerprints the transfer, a key being rejected when reused for another transfer.
+CREATE TABLE IDEMPOTENCY_KEYS (
+   IDEMPOTENCY_KEY VARCHAR(255) NOT NULL,
+   TRANSFER_ID BIGINT NOT NULL,
+   REQUEST_HASH INT NOT NULL,
+   CREATED_DT datetime NOT NULL
+);
+ALTER TABLE IDEMPOTENCY_KEYS ADD CONSTRAINT IDEMPOTENCY_KEYS_PK PRIMARY KEY(IDEMPOTENCY_KEY);
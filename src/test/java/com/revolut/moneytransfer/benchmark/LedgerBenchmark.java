@@ -0,0 +1,163 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.ConcurrencyMode;
+import com.revolut.moneytransfer.dao.RateDao;
+import com.revolut.moneytransfer.dao.SchemaMigrator;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.engine.DatabaseTransferEngine;
+import com.revolut.moneytransfer.engine.LaneTransferEngine;
+import com.revolut.moneytransfer.engine.Ledger;
+import com.revolut.moneytransfer.engine.LedgerTransferEngine;
+import com.revolut.moneytransfer.engine.SequencerTransferEngine;
+import com.revolut.moneytransfer.engine.TransferEngine;
+import com.revolut.moneytransfer.engine.TransferJournal;
+import com.revolut.moneytransfer.engine.WriteMode;
+import com.revolut.moneytransfer.model.Transfer;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transfer engine throughput benchmark, on uncontended accounts then on a hot account
+ * Loads benchmark.accounts EUR accounts (default 100k) and runs transfers between random accounts from
+ * benchmark.threads threads (default 8) : raw ledger moves, then the database engine, the ledger engine (every write
+ * mode), the sequencer engine and the lanes engine (benchmark.lanes lanes, default one per core) end to end, up to
+ * the transfer being recorded in the database. The engines are then run again with every transfer debiting the same
+ * account.
+ *
+ * Run with :
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) com.revolut.moneytransfer.benchmark.LedgerBenchmark
+ */
+public class LedgerBenchmark {
+    private static final int ACCOUNTS = Integer.getInteger("benchmark.accounts", 100000);
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 8);
+    private static final int LEDGER_TRANSFERS = Integer.getInteger("benchmark.ledgerTransfers", 10000000);
+    private static final int ENGINE_TRANSFERS = Integer.getInteger("benchmark.engineTransfers", 50000);
+    private static final String JOURNAL = System.getProperty("benchmark.journal", "./target/ledgerbenchmark-journal");
+    private static final int LANES = Integer.getInteger("benchmark.lanes", Runtime.getRuntime().availableProcessors());
+    private static final long FIRST_ACCOUNT_NO = 10000000000L;
+
+    public static void main(String[] args) throws Exception {
+        // per-transfer logging would dominate the measure
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        Ledger ledger = new Ledger(1024);
+        for (int i = 1; i <= ACCOUNTS; i++) {
+            ledger.putIfAbsent(FIRST_ACCOUNT_NO + i, "EUR", 100000000);
+        }
+        run("ledger moves", LEDGER_TRANSFERS, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ledger.transfer(randomAccountNo(random), randomAccountNo(random), 1, 1);
+            return null;
+        });
+
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:ledgerbenchmark;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=1000");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+        dataSource.setMaximumPoolSize(THREADS + 2);
+        AccountDao accountDao = new AccountDao(dataSource);
+        TransferDao transferDao = new TransferDao(dataSource, accountDao, new RateDao(dataSource), ConcurrencyMode.CONDITIONAL);
+
+        load(dataSource);
+        runEngine("database engine", new DatabaseTransferEngine(accountDao, transferDao));
+        load(dataSource);
+        runEngine("ledger engine, sync", new LedgerTransferEngine(accountDao, transferDao, 1024, WriteMode.SYNC, 65536, 1000, 10));
+        load(dataSource);
+        runEngine("ledger engine, batch", new LedgerTransferEngine(accountDao, transferDao, 1024, WriteMode.BATCH, 65536, 1000, 10));
+        load(dataSource);
+        runEngine("ledger engine, journal", new LedgerTransferEngine(accountDao, transferDao, 1024, new TransferJournal(Paths.get(JOURNAL), 67108864, 2), 1000, 10));
+        load(dataSource);
+        runEngine("sequencer engine", new SequencerTransferEngine(accountDao, transferDao, 16384, 1000));
+        load(dataSource);
+        runEngine("lanes engine", new LaneTransferEngine(accountDao, transferDao, LANES, 65536, 1000, 2));
+
+        System.out.println("hot account :");
+        load(dataSource);
+        runHotEngine("database engine", new DatabaseTransferEngine(accountDao, transferDao));
+        load(dataSource);
+        runHotEngine("ledger engine, sync", new LedgerTransferEngine(accountDao, transferDao, 1024, WriteMode.SYNC, 65536, 1000, 10));
+        load(dataSource);
+        runHotEngine("sequencer engine", new SequencerTransferEngine(accountDao, transferDao, 16384, 1000));
+        load(dataSource);
+        runHotEngine("lanes engine", new LaneTransferEngine(accountDao, transferDao, LANES, 65536, 1000, 2));
+        dataSource.close();
+    }
+
+    private static void load(HikariDataSource dataSource) throws Exception {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP ALL OBJECTS");
+            SchemaMigrator.migrate(conn);
+            stmt.executeUpdate("INSERT INTO ACCOUNTS (ID, CUSTOMER_ID, ACCOUNT_NUMBER, BALANCE, CURRENCY_CODE, CREATED_DT, LAST_UPDATED_DT) SELECT X, X, " + FIRST_ACCOUNT_NO + " + X, 1000000, 'EUR', SYSDATE, NULL FROM SYSTEM_RANGE(1, " + ACCOUNTS + ")");
+        }
+    }
+
+    private static void runEngine(String name, TransferEngine engine) throws Exception {
+        BigDecimal amount = new BigDecimal("0.01");
+        long start = System.nanoTime();
+        run(name + " (answered)", ENGINE_TRANSFERS, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            engine.process(new Transfer(randomAccountNo(random), randomAccountNo(random), amount, "EUR"));
+            return null;
+        });
+        // batch mode : until the last transfer is recorded
+        engine.shutdown();
+        print(name + " (recorded)", ENGINE_TRANSFERS, System.nanoTime() - start);
+    }
+
+    private static void runHotEngine(String name, TransferEngine engine) throws Exception {
+        BigDecimal amount = new BigDecimal("0.01");
+        run(name, ENGINE_TRANSFERS, () -> {
+            engine.process(new Transfer(FIRST_ACCOUNT_NO + 1, randomAccountNo(ThreadLocalRandom.current()), amount, "EUR"));
+            return null;
+        });
+        engine.shutdown();
+    }
+
+    private static long randomAccountNo(ThreadLocalRandom random) {
+        return FIRST_ACCOUNT_NO + 1 + random.nextInt(ACCOUNTS);
+    }
+
+    private static void run(String name, int transfers, Callable<Void> transfer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int count = transfers / THREADS;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        transfer.call();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+            print(name, transfers, System.nanoTime() - start);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void print(String name, int transfers, long nanos) {
+        System.out.printf("  %-32s %10d transfers/s   %8.2f us/transfer%n", name,
+                (long) (transfers / (nanos / 1e9)), nanos / 1e3 / transfers);
+    }
+}
@@ -0,0 +1,129 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.dao.SchemaMigrator;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Lookup latency benchmark, before and after the index migration
+ * Loads benchmark.accounts accounts (default 1M) and benchmark.transfers transfers (default 10M) with the V1 schema,
+ * times the account, transfer history and rate lookups, applies the remaining migrations and times them again.
+ *
+ * Run with :
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) com.revolut.moneytransfer.benchmark.LookupBenchmark
+ */
+public class LookupBenchmark {
+    private static final String URL = System.getProperty("benchmark.url", "jdbc:h2:./target/lookupbenchmark");
+    private static final int ACCOUNTS = Integer.getInteger("benchmark.accounts", 1000000);
+    private static final int TRANSFERS = Integer.getInteger("benchmark.transfers", 10000000);
+    // full scans are slow : fewer iterations before indexing
+    private static final int SCAN_ITERATIONS = Integer.getInteger("benchmark.scanIterations", 20);
+    private static final int INDEX_ITERATIONS = Integer.getInteger("benchmark.indexIterations", 10000);
+    private static final long FIRST_ACCOUNT_NO = 10000000000L;
+    private static final int BATCH_ROWS = 100000;
+    private static final String[] CURRENCIES = {"EUR", "USD", "GBP", "CHF", "SGD", "AUD", "JPY", "CAD", "SEK", "NOK"};
+    private static final int RATE_DAYS = 1000;
+
+    private static final String SELECT_ACCOUNT = "SELECT * FROM ACCOUNTS WHERE ACCOUNT_NUMBER = ?";
+    private static final String SELECT_TRANSFERS = "SELECT * FROM TRANSFERS WHERE FROM_ACCOUNT_NO = ?";
+    private static final String SELECT_RATE = "SELECT * FROM RATES WHERE SOURCE_CURRENCY_CODE = ? AND DESTINATION_CURRENCY_CODE = ? AND ? >= EFFECTIVE_DT ORDER BY EFFECTIVE_DT DESC";
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = DriverManager.getConnection(URL, "sa", "sa")) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP ALL OBJECTS");
+            }
+            SchemaMigrator.migrate(conn, 1);
+            load(conn);
+
+            System.out.println("Without lookup indexes (schema version 1)");
+            run(conn, SCAN_ITERATIONS);
+
+            long start = System.nanoTime();
+            int version = SchemaMigrator.migrate(conn);
+            System.out.printf("Migrated to schema version %d in %d ms%n", version, (System.nanoTime() - start) / 1000000);
+
+            System.out.println("With lookup indexes (schema version " + version + ")");
+            run(conn, INDEX_ITERATIONS);
+        }
+    }
+
+    private static void load(Connection conn) throws Exception {
+        long start = System.nanoTime();
+        try (Statement stmt = conn.createStatement()) {
+            for (int from = 1; from <= ACCOUNTS; from += BATCH_ROWS) {
+                int to = Math.min(ACCOUNTS, from + BATCH_ROWS - 1);
+                stmt.executeUpdate("INSERT INTO ACCOUNTS (ID, CUSTOMER_ID, ACCOUNT_NUMBER, BALANCE, CURRENCY_CODE, CREATED_DT, LAST_UPDATED_DT) SELECT X, MOD(X, 100000), " + FIRST_ACCOUNT_NO + " + X, 1000, 'EUR', SYSDATE, NULL FROM SYSTEM_RANGE(" + from + ", " + to + ")");
+            }
+            for (int from = 1; from <= TRANSFERS; from += BATCH_ROWS) {
+                int to = Math.min(TRANSFERS, from + BATCH_ROWS - 1);
+                stmt.executeUpdate("INSERT INTO TRANSFERS SELECT X, " + FIRST_ACCOUNT_NO + " + 1 + MOD(X * 7919, " + ACCOUNTS + "), " + FIRST_ACCOUNT_NO + " + 1 + MOD(X * 104729, " + ACCOUNTS + "), 1, 'EUR', 1, 'EUR', 1, 'EUR', 1, 'SUCCESS', SYSDATE, SYSDATE FROM SYSTEM_RANGE(" + from + ", " + to + ")");
+            }
+            int rateId = 0;
+            for (String source : CURRENCIES) {
+                for (String destination : CURRENCIES) {
+                    if (!source.equals(destination)) {
+                        stmt.executeUpdate("INSERT INTO RATES SELECT " + rateId + " + X, '" + source + "', '" + destination + "', 1.1, DATEADD('DAY', -X, SYSDATE), SYSDATE, NULL FROM SYSTEM_RANGE(1, " + RATE_DAYS + ")");
+                        rateId += RATE_DAYS;
+                    }
+                }
+            }
+        }
+        System.out.printf("Loaded %d accounts, %d transfers, %d rates in %d ms%n", ACCOUNTS, TRANSFERS, CURRENCIES.length * (CURRENCIES.length - 1) * RATE_DAYS, (System.nanoTime() - start) / 1000000);
+    }
+
+    private static void run(Connection conn, int iterations) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try (PreparedStatement account = conn.prepareStatement(SELECT_ACCOUNT);
+             PreparedStatement transfers = conn.prepareStatement(SELECT_TRANSFERS);
+             PreparedStatement rate = conn.prepareStatement(SELECT_RATE)) {
+            long[] accountNanos = new long[iterations];
+            long[] transferNanos = new long[iterations];
+            long[] rateNanos = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                long accountNo = FIRST_ACCOUNT_NO + 1 + random.nextInt(ACCOUNTS);
+                account.setLong(1, accountNo);
+                accountNanos[i] = time(account);
+
+                transfers.setLong(1, accountNo);
+                transferNanos[i] = time(transfers);
+
+                int source = random.nextInt(CURRENCIES.length);
+                rate.setString(1, CURRENCIES[source]);
+                rate.setString(2, CURRENCIES[(source + 1 + random.nextInt(CURRENCIES.length - 1)) % CURRENCIES.length]);
+                rate.setDate(3, new java.sql.Date(System.currentTimeMillis() - random.nextInt(RATE_DAYS) * 86400000L));
+                rateNanos[i] = time(rate);
+            }
+            print("account by number", accountNanos);
+            print("transfers by account", transferNanos);
+            print("rate by currency pair", rateNanos);
+        }
+    }
+
+    private static long time(PreparedStatement stmt) throws Exception {
+        long start = System.nanoTime();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rs.getLong(1);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void print(String lookup, long[] nanos) {
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        System.out.printf("  %-22s avg %10d us   p50 %10d us   p99 %10d us%n", lookup,
+                total / nanos.length / 1000, nanos[nanos.length / 2] / 1000, nanos[(int) (nanos.length * 0.99)] / 1000);
+    }
+}
@@ -0,0 +1,86 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.model.Money;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Transfer arithmetic benchmark : latency and allocation of the validation and fund movement arithmetic of a transfer,
+ * with BigDecimal as before and with Money
+ * Each operation prices a cross-currency transfer (debited and credited amounts at a rate), checks the source balance
+ * and computes both new balances, over benchmark.amounts distinct amounts (default 1024). Allocation is read from the
+ * allocated bytes counter of the benchmark thread.
+ *
+ * Run with :
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) com.revolut.moneytransfer.benchmark.MoneyBenchmark
+ */
+public class MoneyBenchmark {
+    private static final int AMOUNTS = Integer.getInteger("benchmark.amounts", 1024);
+    private static final int OPERATIONS = Integer.getInteger("benchmark.operations", 20000000);
+    private static final int ROUNDS = Integer.getInteger("benchmark.rounds", 5);
+
+    private static final BigDecimal[] amounts = new BigDecimal[AMOUNTS];
+    private static final BigDecimal balance = new BigDecimal("1000000.00");
+    private static final BigDecimal rate = new BigDecimal("1.1234");
+    // consumed so that the computations are not eliminated
+    private static long sink;
+
+    public static void main(String[] args) {
+        for (int i = 0; i < AMOUNTS; i++) {
+            amounts[i] = BigDecimal.valueOf(100 + i * 37L, 2);
+        }
+        for (int round = 1; round <= ROUNDS; round++) {
+            // the first rounds are the warm-up
+            System.out.println("round " + round + " :");
+            run("BigDecimal", MoneyBenchmark::bigDecimal);
+            run("Money", MoneyBenchmark::money);
+        }
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    private static long bigDecimal(BigDecimal transferAmount) {
+        BigDecimal debitedAmount = transferAmount.setScale(2, BigDecimal.ROUND_HALF_EVEN).divide(rate, 2, BigDecimal.ROUND_HALF_UP);
+        BigDecimal creditedAmount = transferAmount.setScale(2, BigDecimal.ROUND_HALF_EVEN).multiply(rate.setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        BigDecimal newBalance = balance.setScale(2, BigDecimal.ROUND_HALF_EVEN).subtract(debitedAmount.setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        if (newBalance.compareTo(new BigDecimal(0).setScale(2, BigDecimal.ROUND_HALF_EVEN)) < 0) {
+            return 0;
+        }
+        BigDecimal newDestinationBalance = balance.setScale(2, BigDecimal.ROUND_HALF_EVEN).add(creditedAmount.setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        return newBalance.hashCode() + newDestinationBalance.hashCode();
+    }
+
+    private static long money(BigDecimal transferAmount) {
+        Money amount = Money.of(transferAmount, Money.AMOUNT_SCALE);
+        Money debitedAmount = amount.dividedBy(Money.scaled(rate, 4), 4, Money.AMOUNT_SCALE, RoundingMode.HALF_UP);
+        Money creditedAmount = amount.times(Money.scaled(rate, 2), 2, Money.AMOUNT_SCALE, RoundingMode.HALF_EVEN);
+        Money sourceBalance = Money.of(balance, Money.AMOUNT_SCALE);
+        Money newBalance = sourceBalance.minus(debitedAmount);
+        if (newBalance.isNegative()) {
+            return 0;
+        }
+        return newBalance.getMinor() + sourceBalance.plus(creditedAmount).getMinor();
+    }
+
+    private interface Operation {
+        long apply(BigDecimal transferAmount);
+    }
+
+    private static void run(String name, Operation operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long result = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            result += operation.apply(amounts[i % AMOUNTS]);
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        sink += result;
+        System.out.printf("  %-12s %8.1f ns/op   %8.1f bytes/op   %8.1f MB/s allocated%n", name,
+                (double) nanos / OPERATIONS, (double) allocated / OPERATIONS, allocated / 1e6 / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,101 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.dao.SchemaMigrator;
+import org.h2.tools.RunScript;
+
+import java.io.FileReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Database startup time benchmark
+ * Builds a file store of benchmark.accounts accounts (default 1M) and compares the time to the first query when
+ * replaying a SQL script into an in-memory database (as db.sql is loaded), when opening the existing file store and
+ * when starting from a copy of a prebuilt store image.
+ *
+ * Run with :
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) com.revolut.moneytransfer.benchmark.StartupBenchmark
+ */
+public class StartupBenchmark {
+    private static final String DIRECTORY = System.getProperty("benchmark.directory", "./target/startupbenchmark");
+    private static final int ACCOUNTS = Integer.getInteger("benchmark.accounts", 1000000);
+    private static final int BATCH_ROWS = 100000;
+    private static final String FILE_SETTINGS = ";CACHE_SIZE=65536;WRITE_DELAY=500;MAX_COMPACT_TIME=200";
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get(DIRECTORY).toAbsolutePath();
+        Files.createDirectories(directory);
+        Path store = directory.resolve("store");
+        Path image = directory.resolve("image");
+        Path script = directory.resolve("replay.sql");
+        Files.deleteIfExists(Paths.get(store + ".mv.db"));
+        Files.deleteIfExists(Paths.get(image + ".mv.db"));
+
+        build(store, script);
+        Files.copy(Paths.get(store + ".mv.db"), Paths.get(image + ".mv.db"), StandardCopyOption.REPLACE_EXISTING);
+        System.out.printf("Store file : %d MB, replay script : %d MB%n",
+                Files.size(Paths.get(store + ".mv.db")) >> 20, Files.size(script) >> 20);
+
+        // replay : every start recreates the database from SQL
+        long start = System.nanoTime();
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:startupbenchmark", "sa", "sa");
+             Reader reader = new FileReader(script.toFile())) {
+            RunScript.execute(conn, reader);
+            firstQuery(conn);
+        }
+        print("replay SQL script", start);
+
+        // restart : the existing store is opened as is
+        start = System.nanoTime();
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:file:" + store + FILE_SETTINGS, "sa", "sa")) {
+            SchemaMigrator.migrate(conn);
+            firstQuery(conn);
+        }
+        print("open existing store", start);
+
+        // new node : the prebuilt image is copied, then opened
+        Path copy = directory.resolve("copy");
+        Files.deleteIfExists(Paths.get(copy + ".mv.db"));
+        start = System.nanoTime();
+        Files.copy(Paths.get(image + ".mv.db"), Paths.get(copy + ".mv.db"));
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:file:" + copy + FILE_SETTINGS, "sa", "sa")) {
+            SchemaMigrator.migrate(conn);
+            firstQuery(conn);
+        }
+        print("copy prebuilt image", start);
+    }
+
+    private static void build(Path store, Path script) throws Exception {
+        long start = System.nanoTime();
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:file:" + store + FILE_SETTINGS, "sa", "sa");
+             Statement stmt = conn.createStatement()) {
+            SchemaMigrator.migrate(conn);
+            for (int from = 1; from <= ACCOUNTS; from += BATCH_ROWS) {
+                int to = Math.min(ACCOUNTS, from + BATCH_ROWS - 1);
+                stmt.executeUpdate("INSERT INTO ACCOUNTS (ID, CUSTOMER_ID, ACCOUNT_NUMBER, BALANCE, CURRENCY_CODE, CREATED_DT, LAST_UPDATED_DT) SELECT X, MOD(X, 100000), 10000000000 + X, 1000, 'EUR', SYSDATE, NULL FROM SYSTEM_RANGE(" + from + ", " + to + ")");
+            }
+            stmt.execute("SCRIPT TO '" + script + "'");
+            stmt.execute("SHUTDOWN COMPACT");
+        }
+        System.out.printf("Built store of %d accounts in %d ms%n", ACCOUNTS, (System.nanoTime() - start) / 1000000);
+    }
+
+    private static void firstQuery(Connection conn) throws Exception {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT BALANCE FROM ACCOUNTS WHERE ACCOUNT_NUMBER = " + (10000000000L + ACCOUNTS / 2))) {
+            rs.next();
+        }
+    }
+
+    private static void print(String startup, long start) {
+        System.out.printf("  %-20s %8d ms%n", startup, (System.nanoTime() - start) / 1000000);
+    }
+}
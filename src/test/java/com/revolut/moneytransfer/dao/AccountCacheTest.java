@@ -0,0 +1,63 @@
+package com.revolut.moneytransfer.dao;
+
+import com.revolut.moneytransfer.model.Account;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AccountCacheTest {
+
+    @Test
+    public void accountReadBeforeInvalidationNotCached() {
+        AccountCache cache = new AccountCache(100, 60000);
+        long stamp = cache.stamp(1L);
+        // committed by a writer while the account was read
+        cache.invalidate(1L);
+        cache.put(account(1L, "10.00"), stamp);
+        assertNull(cache.get(1L));
+
+        Account account = account(1L, "20.00");
+        cache.put(account, cache.stamp(1L));
+        assertSame(account, cache.get(1L));
+        cache.invalidate(1L);
+        assertNull(cache.get(1L));
+        assertEquals(1L, cache.snapshot().get("invalidations"));
+    }
+
+    @Test
+    public void leastRecentlyUsedAccountsEvicted() {
+        AccountCache cache = new AccountCache(16, 60000);
+        for (long accountNo = 1; accountNo <= 1000; accountNo++) {
+            cache.put(account(accountNo, "1.00"), cache.stamp(accountNo));
+        }
+        assertTrue((Integer) cache.snapshot().get("size") <= 16);
+        assertEquals(1000L - (Integer) cache.snapshot().get("size"), cache.snapshot().get("evictions"));
+    }
+
+    @Test
+    public void expiredAccountsNotServed() throws Exception {
+        AccountCache cache = new AccountCache(100, 1);
+        cache.put(account(1L, "1.00"), cache.stamp(1L));
+        Thread.sleep(5);
+        assertNull(cache.get(1L));
+        assertEquals(1L, cache.snapshot().get("expirations"));
+        assertEquals(1L, cache.snapshot().get("misses"));
+    }
+
+    @Test
+    public void disabledCacheKeepsNothing() {
+        AccountCache cache = new AccountCache(0, 60000);
+        cache.put(account(1L, "1.00"), cache.stamp(1L));
+        assertNull(cache.get(1L));
+        assertEquals(0, cache.snapshot().get("size"));
+    }
+
+    private static Account account(long accountNo, String balance) {
+        return new Account(1, 1, accountNo, new BigDecimal(balance), "EUR", null, null);
+    }
+}
@@ -1,12 +1,16 @@
 package com.revolut.moneytransfer.dao;
 
+import com.revolut.moneytransfer.exception.ProjectException;
 import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Page;
 import com.revolut.moneytransfer.model.Transfer;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
@@ -172,4 +176,149 @@ public class AccountDaoTest {
         assertNotNull(response);
         assertEquals(Account.accountResponse.BALANCE_NOT_ZERO, response);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shardedAccountReportsTotalBalance() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long shardedAccountNo = Long.parseLong("56789012345");
+        assertEquals(Account.accountResponse.SUCCESS, accountDAO.setBalanceSlots(shardedAccountNo, 4));
+        assertEquals(4, accountDAO.getAccountByAccountNo(shardedAccountNo).getBalanceSlots());
+        assertEquals(new BigDecimal("1171.06"), accountDAO.getAccountBalance(shardedAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+
+        for (int i = 0; i < 10; i++) {
+            Transfer transfer = h2Dao.getTransferDAO().processTransfer(new Transfer(fromAccountNo, shardedAccountNo, new BigDecimal(10), "EUR"));
+            assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+        }
+
+        assertEquals(new BigDecimal("1271.06"), accountDAO.getAccountBalance(shardedAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1271.06"), accountDAO.getAccountByAccountNo(shardedAccountNo).getBalance().setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("400.57"), accountDAO.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+
+        // slots swept back into the account balance
+        assertEquals(Account.accountResponse.SUCCESS, accountDAO.setBalanceSlots(shardedAccountNo, 0));
+        assertEquals(0, accountDAO.getAccountByAccountNo(shardedAccountNo).getBalanceSlots());
+        assertEquals(new BigDecimal("1271.06"), accountDAO.getAccountBalance(shardedAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void shardedAccountDebitSweepsSlots() throws Exception {
+        long shardedAccountNo = Long.parseLong("12345678901");
+        long otherAccountNo = Long.parseLong("56789012345");
+        accountDAO.setBalanceSlots(shardedAccountNo, 4);
+        h2Dao.getTransferDAO().processTransfer(new Transfer(otherAccountNo, shardedAccountNo, new BigDecimal(100), "EUR"));
+
+        // 550 is only covered once the credit held by a slot is swept
+        Transfer transfer = h2Dao.getTransferDAO().processTransfer(new Transfer(shardedAccountNo, otherAccountNo, new BigDecimal(550), "EUR"));
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+        assertEquals(new BigDecimal("50.57"), accountDAO.getAccountBalance(shardedAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+
+        transfer = h2Dao.getTransferDAO().processTransfer(new Transfer(shardedAccountNo, otherAccountNo, new BigDecimal(51), "EUR"));
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfer.getResponse());
+        assertEquals(new BigDecimal("50.57"), accountDAO.getAccountBalance(shardedAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void cachedAccountInvalidatedByWrites() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        long hits = (Long) accountDAO.getAccountCache().snapshot().get("hits");
+        assertEquals(new BigDecimal("500.57"), accountDAO.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("500.57"), accountDAO.getAccountByAccountNo(fromAccountNo).getBalance().setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertTrue((Long) accountDAO.getAccountCache().snapshot().get("hits") > hits);
+
+        Transfer transfer = h2Dao.getTransferDAO().processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+        assertEquals(new BigDecimal("400.57"), accountDAO.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+
+        assertNotNull(accountDAO.getAccountByAccountNo(700L));
+        assertEquals(Account.accountResponse.SUCCESS, accountDAO.deleteAccount(700L));
+        assertNull(accountDAO.getAccountByAccountNo(700L));
+    }
+
+    @Test
+    public void invalidBalanceSlots() throws Exception {
+        assertEquals(Account.accountResponse.INVALID_BALANCE_SLOTS, accountDAO.setBalanceSlots(Long.parseLong("12345678901"), AccountDao.MAX_BALANCE_SLOTS + 1));
+        assertEquals(Account.accountResponse.INVALID_BALANCE_SLOTS, accountDAO.setBalanceSlots(Long.parseLong("12345678901"), -1));
+        assertEquals(Account.accountResponse.ACCOUNT_NOT_FOUND, accountDAO.setBalanceSlots(Long.parseLong("11111111111"), 4));
+    }
+
+    @Test
+    public void importAccountsInSeveralBatches() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            accounts.add(new Account(0, 7, Long.parseLong("30000000000") + i, new BigDecimal("10.50"), "EUR", null, null));
+        }
+        assertEquals(25, accountDAO.importAccounts(accounts.iterator(), 10));
+
+        Account imported = accountDAO.getAccountByAccountNo(Long.parseLong("30000000024"));
+        assertNotNull(imported);
+        assertEquals(new BigDecimal("10.50"), imported.getBalance());
+        assertEquals(7, imported.getAccountOwnerId());
+    }
+
+    @Test
+    public void importAccountsKeepsCommittedBatchesOnDuplicate() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            accounts.add(new Account(0, 7, Long.parseLong("30000000000") + i, new BigDecimal(1), "EUR", null, null));
+        }
+        // duplicate of a demo account in the second batch
+        accounts.add(new Account(0, 7, Long.parseLong("12345678901"), new BigDecimal(1), "EUR", null, null));
+        try {
+            accountDAO.importAccounts(accounts.iterator(), 10);
+            fail("Duplicate account number imported");
+        } catch (ProjectException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+            assertTrue(e.getMessage().startsWith("10 accounts imported"));
+        }
+        assertNotNull(accountDAO.getAccountByAccountNo(Long.parseLong("30000000009")));
+        assertNull(accountDAO.getAccountByAccountNo(Long.parseLong("30000000010")));
+    }
+
+    @Test
+    public void importAccountsRejectsInvalidCurrency() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        accounts.add(new Account(0, 7, Long.parseLong("30000000000"), new BigDecimal(1), "XYZ1", null, null));
+        try {
+            accountDAO.importAccounts(accounts.iterator(), 10);
+            fail("Invalid currency imported");
+        } catch (ProjectException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertNull(accountDAO.getAccountByAccountNo(Long.parseLong("30000000000")));
+    }
+
+    @Test
+    public void importAccountsRejectsBalanceBeyondScale() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        accounts.add(new Account(0, 7, Long.parseLong("30000000000"), new BigDecimal("1.500"), "EUR", null, null));
+        accounts.add(new Account(0, 7, Long.parseLong("30000000001"), new BigDecimal("1.005"), "EUR", null, null));
+        try {
+            accountDAO.importAccounts(accounts.iterator(), 10);
+            fail("Balance with more than 2 decimals imported");
+        } catch (ProjectException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+            assertEquals("Account 2 : invalid balance 1.005.", e.getCause().getMessage());
+        }
+        assertNull(accountDAO.getAccountByAccountNo(Long.parseLong("30000000000")));
+    }
+
+    @Test
+    public void getAccountsPageWalksAllAccounts() throws Exception {
+        int total = accountDAO.getAllAccounts().size();
+        List<Account> walked = new ArrayList<>();
+        long after = 0;
+        Page<Account> page;
+        do {
+            page = accountDAO.getAccountsPage(after, 5);
+            assertTrue(page.getItems().size() <= 5);
+            for (Account account : page.getItems()) {
+                assertTrue(account.getId() > after);
+            }
+            walked.addAll(page.getItems());
+            if (page.getNextCursor() != null)
+                after = page.getNextCursor();
+        } while (page.getNextCursor() != null);
+        assertEquals(total, walked.size());
+    }
+}
@@ -0,0 +1,139 @@
+package com.revolut.moneytransfer.dao;
+
+import com.revolut.moneytransfer.model.Transfer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IdempotencyDaoTest {
+    private static final H2Dao h2Dao = new H2Dao();
+    private static final AccountDao accountDao = h2Dao.getAccountDAO();
+    private static final TransferDao transferDao = h2Dao.getTransferDAO();
+    private static final long fromAccountNo = Long.parseLong("12345678901");
+    private static final long toAccountNo = Long.parseLong("56789012345");
+
+    @Before
+    public void setUp() {
+        //Prepare in memory database
+        //data loaded from db.sql file
+        h2Dao.loadH2Database();
+    }
+
+    @Test
+    public void replayedRequestProcessedOnce() throws Exception {
+        IdempotencyDao idempotencyDao = new IdempotencyDao(ConnectionPool.getDataSource(), transferDao, 16, 60000);
+        AtomicInteger processed = new AtomicInteger();
+
+        Transfer transfer = newTransfer(100);
+        Transfer first = idempotencyDao.execute("replayed", transfer, () -> {
+            processed.incrementAndGet();
+            return transferDao.processTransfer(transfer);
+        });
+        Transfer retry = newTransfer(100);
+        Transfer replayed = idempotencyDao.execute("replayed", retry, () -> {
+            processed.incrementAndGet();
+            return transferDao.processTransfer(retry);
+        });
+        assertEquals(1, processed.get());
+        assertEquals(first.getId(), replayed.getId());
+        assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void replayedRequestFoundInDatabase() throws Exception {
+        IdempotencyDao idempotencyDao = new IdempotencyDao(ConnectionPool.getDataSource(), transferDao, 16, 60000);
+        Transfer transfer = newTransfer(100);
+        Transfer first = idempotencyDao.execute("evicted", transfer, () -> transferDao.processTransfer(transfer));
+        assertEquals(Transfer.transferResponse.SUCCESS, first.getResponse());
+
+        // as after an eviction, or on another instance
+        idempotencyDao.clearCache();
+        Transfer replayed = idempotencyDao.execute("evicted", newTransfer(100), () -> {
+            throw new AssertionError("Transfer processed twice.");
+        });
+        assertEquals(first.getId(), replayed.getId());
+        assertEquals(Transfer.transferResponse.SUCCESS, replayed.getResponse());
+        assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void keyReusedForAnotherTransfer() throws Exception {
+        IdempotencyDao idempotencyDao = new IdempotencyDao(ConnectionPool.getDataSource(), transferDao, 16, 60000);
+        Transfer transfer = newTransfer(100);
+        idempotencyDao.execute("reused", transfer, () -> transferDao.processTransfer(transfer));
+        try {
+            idempotencyDao.execute("reused", newTransfer(200), () -> {
+                throw new AssertionError("Key reused for another transfer.");
+            });
+            fail("Key reused for another transfer.");
+        } catch (IdempotencyConflictException e) {
+            assertEquals("Idempotency-Key already used for another transfer.", e.getMessage());
+        }
+        idempotencyDao.clearCache();
+        try {
+            idempotencyDao.execute("reused", newTransfer(200), () -> {
+                throw new AssertionError("Key reused for another transfer.");
+            });
+            fail("Key reused for another transfer.");
+        } catch (IdempotencyConflictException e) {
+            assertEquals("Idempotency-Key already used for another transfer.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void keyReleasedWhenProcessingFails() throws Exception {
+        IdempotencyDao idempotencyDao = new IdempotencyDao(ConnectionPool.getDataSource(), transferDao, 16, 60000);
+        try {
+            idempotencyDao.execute("failed", newTransfer(100), () -> {
+                throw new IllegalStateException("Engine stopped.");
+            });
+            fail("Processing failure not reported.");
+        } catch (IllegalStateException e) {
+            assertEquals("Engine stopped.", e.getMessage());
+        }
+        Transfer transfer = newTransfer(100);
+        Transfer retried = idempotencyDao.execute("failed", transfer, () -> transferDao.processTransfer(transfer));
+        assertEquals(Transfer.transferResponse.SUCCESS, retried.getResponse());
+    }
+
+    @Test
+    public void keyReleasedWhenAcceptedTransferFails() throws Exception {
+        IdempotencyDao idempotencyDao = new IdempotencyDao(ConnectionPool.getDataSource(), transferDao, 16, 60000);
+        // accepted for asynchronous processing, which then fails without recording the transfer
+        Transfer submitted = newTransfer(100);
+        Transfer accepted = idempotencyDao.execute("accepted", submitted, () -> submitted);
+        idempotencyDao.releaseFailed("accepted", accepted.getId());
+
+        Transfer transfer = newTransfer(100);
+        Transfer retried = idempotencyDao.execute("accepted", transfer, () -> transferDao.processTransfer(transfer));
+        assertEquals(Transfer.transferResponse.SUCCESS, retried.getResponse());
+        // a later claim is kept
+        idempotencyDao.releaseFailed("accepted", accepted.getId());
+        idempotencyDao.clearCache();
+        Transfer replayed = idempotencyDao.execute("accepted", newTransfer(100), () -> {
+            throw new AssertionError("Transfer processed twice.");
+        });
+        assertEquals(retried.getId(), replayed.getId());
+    }
+
+    @Test
+    public void amountScaleIgnoredByRequestHash() throws Exception {
+        IdempotencyDao idempotencyDao = new IdempotencyDao(ConnectionPool.getDataSource(), transferDao, 16, 60000);
+        Transfer transfer = newTransfer(100);
+        Transfer first = idempotencyDao.execute("scaled", transfer, () -> transferDao.processTransfer(transfer));
+        idempotencyDao.clearCache();
+        Transfer replayed = idempotencyDao.execute("scaled", new Transfer(fromAccountNo, toAccountNo, new BigDecimal("100.00"), "EUR"), () -> {
+            throw new AssertionError("Transfer processed twice.");
+        });
+        assertEquals(first.getId(), replayed.getId());
+    }
+
+    private static Transfer newTransfer(int amount) {
+        return new Transfer(fromAccountNo, toAccountNo, new BigDecimal(amount), "EUR");
+    }
+}
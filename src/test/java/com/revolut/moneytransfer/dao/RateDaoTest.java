@@ -5,9 +5,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -94,4 +98,65 @@ public class RateDaoTest {
         }
         assertNull(newRate);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void updatedRateSwappedIntoSnapshot() throws Exception {
+        Rate before = rateDao.getRateBySourceAndDestCurrency("EUR", "SGD");
+        assertSame(before, rateDao.getRateBySourceAndDestCurrency("EUR", "SGD"));
+
+        long tomorrow = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        Rate rate = new Rate();
+        rate.setRate(new BigDecimal("1.62"));
+        rate.setEffectiveDt(new Date(tomorrow));
+        Rate version = rateDao.updateCurrencyRate((long) before.getId(), rate);
+        assertNotEquals(before.getId(), version.getId());
+        assertEquals(new BigDecimal("1.6200"), rateDao.getRateAt("EUR", "SGD", tomorrow + TimeUnit.DAYS.toMillis(1)).getRate());
+        // earlier version kept until the new one is effective
+        assertEquals(before.getRate(), rateDao.getRateBySourceAndDestCurrency("EUR", "SGD").getRate());
+    }
+
+    @Test
+    public void rateVersionEffectiveAtInstant() throws Exception {
+        Rate current = rateDao.getRateBySourceAndDestCurrency("EUR", "CHF");
+        Rate rate = new Rate();
+        rate.setRate(new BigDecimal("1.10"));
+        rate.setEffectiveDt(Date.valueOf("2018-01-01"));
+        rateDao.updateCurrencyRate((long) current.getId(), rate);
+
+        assertNull(rateDao.getRateAt("EUR", "CHF", Date.valueOf("2017-12-31").getTime()));
+        assertEquals(new BigDecimal("1.1000"), rateDao.getRateAt("EUR", "CHF", Date.valueOf("2018-06-01").getTime()).getRate());
+        assertEquals(current.getRate(), rateDao.getRateAt("EUR", "CHF", System.currentTimeMillis()).getRate());
+        assertNull(rateDao.getRateAt("EUR", "CUC", System.currentTimeMillis()));
+    }
+
+    @Test
+    public void futureDatedRateEffectiveOnItsDate() throws Exception {
+        Rate before = rateDao.getRateBySourceAndDestCurrency("EUR", "USD");
+        long effective = System.currentTimeMillis() + 1500;
+        try (Connection conn = ConnectionPool.getDataSource().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("INSERT INTO RATES values (RATES_SEQ.nextVal, 'EUR', 'USD', 1.25, ?, SYSDATE, null)")) {
+            stmt.setTimestamp(1, new Timestamp(effective));
+            stmt.executeUpdate();
+        }
+        // inserted by other means
+        rateDao.invalidateRates();
+        assertEquals(before.getRate(), rateDao.getRateBySourceAndDestCurrency("EUR", "USD").getRate());
+
+        Thread.sleep(Math.max(0, effective - System.currentTimeMillis() + 50));
+        assertEquals(new BigDecimal("1.2500"), rateDao.getRateBySourceAndDestCurrency("EUR", "USD").getRate());
+    }
+
+    @Test
+    public void missingPairDerivedThroughPivot() throws Exception {
+        // SGD to EUR 0.63, EUR to USD 1.18
+        Rate derived = rateDao.getRateBySourceAndDestCurrency("SGD", "USD");
+        assertNotNull(derived);
+        assertEquals(new BigDecimal("0.7434"), derived.getRate());
+        assertSame(derived, rateDao.getRateBySourceAndDestCurrency("SGD", "USD"));
+        assertEquals(new BigDecimal("0.7434"), rateDao.getRateAt("SGD", "USD", System.currentTimeMillis()).getRate());
+
+        RateDao withoutPivot = new RateDao(ConnectionPool.getDataSource());
+        assertNull(withoutPivot.getRateBySourceAndDestCurrency("SGD", "USD"));
+        assertEquals(rateDao.getRateBySourceAndDestCurrency("EUR", "USD").getRate(), withoutPivot.getRateBySourceAndDestCurrency("EUR", "USD").getRate());
+    }
+}
@@ -0,0 +1,48 @@
+package com.revolut.moneytransfer.dao;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SchemaMigratorTest {
+    private static final H2Dao h2Dao = new H2Dao();
+
+    @Before
+    public void setUp() {
+        //Prepare in memory database
+        //schema migrated and data loaded from db.sql file
+        h2Dao.loadH2Database();
+    }
+
+    @Test
+    public void loadAppliesEveryMigration() throws Exception {
+        try (Connection conn = ConnectionPool.getDataSource().getConnection()) {
+            assertEquals(7, SchemaMigrator.currentVersion(conn));
+        }
+    }
+
+    @Test
+    public void migrateIsIdempotent() throws Exception {
+        try (Connection conn = ConnectionPool.getDataSource().getConnection()) {
+            assertEquals(7, SchemaMigrator.migrate(conn));
+        }
+    }
+
+    @Test
+    public void accountNumberIsUnique() throws Exception {
+        try (Connection conn = ConnectionPool.getDataSource().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO ACCOUNTS (ID, CUSTOMER_ID, ACCOUNT_NUMBER, BALANCE, CURRENCY_CODE, CREATED_DT, LAST_UPDATED_DT) values (ACCOUNTS_SEQ.nextVal, 1, 12345678901, 0, 'EUR', SYSDATE, null)");
+            fail("Duplicate account number accepted");
+        } catch (SQLException e) {
+            // unique index violation
+            assertEquals(23505, e.getErrorCode());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.revolut.moneytransfer.dao;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnowflakeIdGeneratorTest {
+
+    @Test
+    public void idsAreIncreasing() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        long previous = 0;
+        // more than one millisecond worth of sequence numbers
+        for (int i = 0; i < 20000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void idsCarryTimeAndNode() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(513);
+        long before = System.currentTimeMillis();
+        long id = generator.nextId();
+        assertEquals(513, SnowflakeIdGenerator.nodeOf(id));
+        assertTrue(SnowflakeIdGenerator.timestampOf(id) >= before);
+        assertTrue(SnowflakeIdGenerator.timestampOf(id) <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void concurrentIdsAreUnique() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            results.add(executor.submit(() -> {
+                long[] ids = new long[10000];
+                for (int i = 0; i < ids.length; i++)
+                    ids[i] = generator.nextId();
+                return ids;
+            }));
+        }
+        Set<Long> unique = new HashSet<>();
+        for (Future<long[]> result : results) {
+            for (long id : result.get())
+                unique.add(id);
+        }
+        executor.shutdown();
+        assertEquals(80000, unique.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodeIdOutOfRange() {
+        new SnowflakeIdGenerator(1024);
+    }
+}
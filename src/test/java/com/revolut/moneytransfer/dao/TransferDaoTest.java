@@ -1,12 +1,25 @@
 package com.revolut.moneytransfer.dao;
 
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Page;
+import com.revolut.moneytransfer.model.Rate;
 import com.revolut.moneytransfer.model.Transfer;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -14,6 +27,8 @@ import static org.junit.Assert.assertTrue;
 public class TransferDaoTest {
     private static final H2Dao h2Dao = new H2Dao();
     private static final TransferDao transferDao = h2Dao.getTransferDAO();
+    private static final TransferDao conditionalTransferDao = new TransferDao(ConnectionPool.getDataSource(), h2Dao.getAccountDAO(), h2Dao.getRateDao(), ConcurrencyMode.CONDITIONAL);
+    private static final TransferDao optimisticTransferDao = new TransferDao(ConnectionPool.getDataSource(), h2Dao.getAccountDAO(), h2Dao.getRateDao(), ConcurrencyMode.OPTIMISTIC);
 
     @Before
     public void setUp() {
@@ -194,4 +209,317 @@ public class TransferDaoTest {
         transfer = transferDao.processTransfer(transfer);
         assertEquals(Transfer.transferResponse.INVALID_CURRENCY_TO_ACC, transfer.getResponse());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void processTransferCommitsBalancesAndRecord() throws Exception {
+        //Using String + Long.parseLong because literal numbers in java are by default ints
+        //Range -2147483648 to  2147483647 inclusive (too small for this case)
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        Transfer transfer = transferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+        assertTrue(transfer.getId() > 0);
+
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1271.06"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+
+        List<Transfer> transfers = transferDao.getTransfersByAccountNo(toAccountNo, "TO");
+        assertTrue(transfers.stream().anyMatch(t -> t.getId() == transfer.getId() && "SUCCESS".equals(t.getStatus())));
+    }
+
+    @Test
+    public void processTransferRecordsFailedTransfer() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        Transfer transfer = transferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100000), "EUR"));
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfer.getResponse());
+
+        assertEquals(new BigDecimal("500.57"), h2Dao.getAccountDAO().getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        List<Transfer> transfers = transferDao.getTransfersByAccountNo(fromAccountNo, "FROM");
+        assertTrue(transfers.stream().anyMatch(t -> t.getId() == transfer.getId() && "INSUFFICIENT_FUND".equals(t.getStatus())));
+    }
+
+    @Test
+    public void concurrentProcessTransferDoesNotLoseUpdates() throws Exception {
+        long fromAccountNo = Long.parseLong("78901234567");
+        long toAccountNo = Long.parseLong("01234567890");
+        int transfers = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Transfer>> results = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            results.add(executor.submit(() -> transferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(10), "EUR"))));
+        }
+        int succeeded = 0;
+        for (Future<Transfer> result : results) {
+            try {
+                if (result.get().getResponse() == Transfer.transferResponse.SUCCESS)
+                    succeeded++;
+            } catch (ExecutionException e) {
+                // lock timeout : the transfer was rolled back
+            }
+        }
+        executor.shutdown();
+        assertTrue(succeeded > 0);
+
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        BigDecimal moved = new BigDecimal(10 * succeeded);
+        assertEquals(new BigDecimal("1226.15").subtract(moved), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1351.12").add(moved), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void concurrentOppositeDirectionTransfersDoNotDeadlock() throws Exception {
+        long firstAccountNo = Long.parseLong("12345678901");
+        long secondAccountNo = Long.parseLong("56789012345");
+        int transfers = 40;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Transfer>> results = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            boolean forward = i % 2 == 0;
+            results.add(executor.submit(() -> transferDao.processTransfer(new Transfer(forward ? firstAccountNo : secondAccountNo, forward ? secondAccountNo : firstAccountNo, new BigDecimal(1), "EUR"))));
+        }
+        for (Future<Transfer> result : results) {
+            assertEquals(Transfer.transferResponse.SUCCESS, result.get().getResponse());
+        }
+        executor.shutdown();
+
+        // same number of transfers in both directions : balances are unchanged
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        assertEquals(new BigDecimal("500.57"), accountDao.getAccountBalance(firstAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1171.06"), accountDao.getAccountBalance(secondAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(0L, transferDao.getLockRetryPolicy().snapshot().get("retriesExhausted"));
+    }
+
+    @Test
+    public void conditionalTransferCommitsBalances() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        Transfer transfer = conditionalTransferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1271.06"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void conditionalTransferRejectsInsufficientFund() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        Transfer transfer = conditionalTransferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100000), "EUR"));
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfer.getResponse());
+
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        assertEquals(new BigDecimal("500.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1171.06"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        List<Transfer> transfers = conditionalTransferDao.getTransfersByAccountNo(fromAccountNo, "FROM");
+        assertTrue(transfers.stream().anyMatch(t -> t.getId() == transfer.getId() && "INSUFFICIENT_FUND".equals(t.getStatus())));
+    }
+
+    @Test
+    public void concurrentConditionalTransfersNeverOverdraw() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        int transfers = 60;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Transfer>> results = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            results.add(executor.submit(() -> conditionalTransferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(10), "EUR"))));
+        }
+        int succeeded = 0;
+        for (Future<Transfer> result : results) {
+            if (result.get().getResponse() == Transfer.transferResponse.SUCCESS)
+                succeeded++;
+        }
+        executor.shutdown();
+
+        // 500.57 only covers 50 transfers of 10
+        assertEquals(50, succeeded);
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        assertEquals(new BigDecimal("0.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("500.00"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void optimisticTransferCommitsBalancesAndVersions() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        Transfer transfer = optimisticTransferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1271.06"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        try (Connection conn = ConnectionPool.getDataSource().getConnection()) {
+            Map<Long, Account> accounts = accountDao.getAccountsByNumber(conn, fromAccountNo, toAccountNo);
+            assertEquals(1, accounts.get(fromAccountNo).getVersion());
+            assertEquals(1, accounts.get(toAccountNo).getVersion());
+        }
+    }
+
+    @Test(expected = VersionConflictException.class)
+    public void optimisticUpdateRejectsStaleVersion() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        try (Connection conn = ConnectionPool.getDataSource().getConnection()) {
+            Map<Long, Account> accounts = accountDao.getAccountsByNumber(conn, fromAccountNo, toAccountNo);
+            // the source account is updated after being read
+            optimisticTransferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(1), "EUR"));
+
+            Transfer transfer = new Transfer(fromAccountNo, toAccountNo, new BigDecimal(1), "EUR");
+            transfer.setDebitedAmount(new BigDecimal(1));
+            transfer.setCreditedAmount(new BigDecimal(1));
+            accountDao.transferFundOptimistic(conn, accounts.get(fromAccountNo), accounts.get(toAccountNo), transfer);
+        }
+    }
+
+    @Test
+    public void concurrentOptimisticTransfersRetryConflicts() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        int transfers = 60;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Transfer>> results = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            results.add(executor.submit(() -> optimisticTransferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(10), "EUR"))));
+        }
+        int succeeded = 0;
+        for (Future<Transfer> result : results) {
+            if (result.get().getResponse() == Transfer.transferResponse.SUCCESS)
+                succeeded++;
+        }
+        executor.shutdown();
+
+        // 500.57 only covers 50 transfers of 10
+        assertEquals(50, succeeded);
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        assertEquals(new BigDecimal("0.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("500.00"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        Map<String, Object> metrics = optimisticTransferDao.getLockRetryPolicy().snapshot();
+        assertEquals(metrics.get("versionConflicts"), metrics.get("retries"));
+    }
+
+    @Test
+    public void processTransfersBestEffort() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        // only covered before the first transfer
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, Long.parseLong("11111111111"), new BigDecimal(1), "EUR"));
+        batch.add(new Transfer(toAccountNo, fromAccountNo, new BigDecimal("0.57"), "EUR"));
+
+        List<Transfer> transfers = transferDao.processTransfers(batch, false);
+
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+        assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfers.get(2).getResponse());
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(3).getResponse());
+        assertEquals(before + 4, transferDao.getAllTransfers().size());
+        assertEquals(new BigDecimal("201.14"), h2Dao.getAccountDAO().getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1470.49"), h2Dao.getAccountDAO().getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void processTransfersAtomic() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+
+        List<Transfer> transfers = conditionalTransferDao.processTransfers(batch, true);
+
+        assertEquals(Transfer.transferResponse.ROLLED_BACK, transfers.get(0).getResponse());
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+        assertEquals(before, transferDao.getAllTransfers().size());
+        assertEquals(new BigDecimal("500.57"), h2Dao.getAccountDAO().getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+
+        batch.remove(1);
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(200), "EUR"));
+        transfers = transferDao.processTransfers(batch, true);
+
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(1).getResponse());
+        assertEquals(before + 2, transferDao.getAllTransfers().size());
+        assertEquals(new BigDecimal("0.57"), h2Dao.getAccountDAO().getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void concurrentTransfersToShardedAccount() throws Exception {
+        AccountDao accountDao = h2Dao.getAccountDAO();
+        long[] fromAccountNos = {Long.parseLong("12345678901"), Long.parseLong("78901234567"), Long.parseLong("1234567890")};
+        long shardedAccountNo = Long.parseLong("56789012345");
+        accountDao.setBalanceSlots(shardedAccountNo, 8);
+        for (TransferDao dao : new TransferDao[]{transferDao, conditionalTransferDao, optimisticTransferDao}) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Transfer>> results = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                long fromAccountNo = fromAccountNos[i % fromAccountNos.length];
+                results.add(executor.submit(() -> dao.processTransfer(new Transfer(fromAccountNo, shardedAccountNo, new BigDecimal(1), "EUR"))));
+            }
+            for (Future<Transfer> result : results) {
+                assertEquals(Transfer.transferResponse.SUCCESS, result.get().getResponse());
+            }
+            executor.shutdown();
+        }
+
+        assertEquals(new BigDecimal("1261.06"), accountDao.getAccountBalance(shardedAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("470.57"), accountDao.getAccountBalance(fromAccountNos[0]).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void getTransfersByAccountNoPage() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        for (int i = 0; i < 3; i++) {
+            transferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(1), "EUR"));
+        }
+        // demo transfer + 3 new ones
+        Page<Transfer> first = transferDao.getTransfersByAccountNoPage(fromAccountNo, "FROM", 0, 3);
+        assertEquals(3, first.getItems().size());
+        assertEquals(Long.valueOf(first.getItems().get(2).getId()), first.getNextCursor());
+
+        Page<Transfer> second = transferDao.getTransfersByAccountNoPage(fromAccountNo, "FROM", first.getNextCursor(), 3);
+        assertEquals(1, second.getItems().size());
+        assertTrue(second.getItems().get(0).getId() > first.getNextCursor());
+        assertEquals(null, second.getNextCursor());
+    }
+
+    @Test
+    public void repriceTransfersAtCreationRates() throws Exception {
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("34567890123");
+        Transfer recent = transferDao.processTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(10), "EUR"));
+        assertEquals(Transfer.transferResponse.SUCCESS, recent.getResponse());
+
+        // EUR to SGD at 1.50 from 2018-01-01, until the current version
+        Rate current = h2Dao.getRateDao().getRateBySourceAndDestCurrency("EUR", "SGD");
+        Rate version = new Rate();
+        version.setRate(new BigDecimal("1.50"));
+        version.setEffectiveDt(Date.valueOf("2018-01-01"));
+        h2Dao.getRateDao().updateCurrencyRate((long) current.getId(), version);
+        long historicId = transferDao.nextTransferId();
+        try (Connection conn = ConnectionPool.getDataSource().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("INSERT INTO TRANSFERS values (?, ?, ?, 10, 'EUR', 10, 'EUR', 15.80, 'SGD', 1.58, 'SUCCESS', TO_DATE('20180601 120000','YYYYMMDD HH24MISS'), null)")) {
+            stmt.setLong(1, historicId);
+            stmt.setLong(2, fromAccountNo);
+            stmt.setLong(3, toAccountNo);
+            stmt.executeUpdate();
+        }
+
+        List<Transfer> repriced = transferDao.repriceTransfers(Arrays.asList(historicId, 99999L, recent.getId()));
+        assertEquals(2, repriced.size());
+        assertEquals(historicId, repriced.get(0).getId());
+        assertEquals(Transfer.transferResponse.SUCCESS, repriced.get(0).getResponse());
+        assertEquals(new BigDecimal("1.5000"), repriced.get(0).getRate());
+        assertEquals(new BigDecimal("15.00"), repriced.get(0).getCreditedAmount());
+        assertEquals(recent.getId(), repriced.get(1).getId());
+        assertEquals(recent.getCreditedAmount(), repriced.get(1).getCreditedAmount());
+    }
+}
@@ -0,0 +1,94 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.H2Dao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Transfer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncTransferProcessorTest {
+    private static final H2Dao h2Dao = new H2Dao();
+    private static final AccountDao accountDao = h2Dao.getAccountDAO();
+    private static final TransferDao transferDao = h2Dao.getTransferDAO();
+
+    @Before
+    public void setUp() {
+        //Prepare in memory database
+        //data loaded from db.sql file
+        h2Dao.loadH2Database();
+    }
+
+    @Test
+    public void acceptedTransferProcessedInBackground() throws Exception {
+        DatabaseTransferEngine engine = new DatabaseTransferEngine(accountDao, transferDao);
+        AsyncTransferProcessor processor = new AsyncTransferProcessor(() -> engine, transferDao, 2, 16, 16);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+
+        Transfer accepted = processor.submit(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+        assertTrue(accepted.getId() > 0);
+        assertEquals(AsyncTransferProcessor.PENDING, accepted.getStatus());
+
+        Transfer processed = processor.getTransfer(accepted.getId(), 10000);
+        assertEquals(accepted.getId(), processed.getId());
+        assertEquals(Transfer.transferResponse.SUCCESS.name(), processed.getStatus());
+        // recorded with the ID given on submission
+        assertEquals(Transfer.transferResponse.SUCCESS.name(), transferDao.getTransferById(accepted.getId()).getStatus());
+        assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertNull(processor.getTransfer(accepted.getId() + 1, 0));
+        processor.shutdown();
+    }
+
+    @Test
+    public void submissionRejectedWhenQueueFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TransferEngine engine = new TransferEngine() {
+            @Override
+            public Transfer process(Transfer transfer) throws Exception {
+                release.await();
+                throw new IllegalStateException("Engine stopped.");
+            }
+
+            @Override
+            public List<Transfer> processBatch(List<Transfer> transfers, boolean atomic) {
+                throw new IllegalStateException("Engine stopped.");
+            }
+
+            @Override
+            public Account.accountResponse deleteAccount(long accountNo) {
+                throw new IllegalStateException("Engine stopped.");
+            }
+        };
+        AsyncTransferProcessor processor = new AsyncTransferProcessor(() -> engine, transferDao, 1, 1, 16);
+        Transfer first = processor.submit(new Transfer(1L, 2L, new BigDecimal(1), "EUR"));
+        processor.submit(new Transfer(1L, 2L, new BigDecimal(1), "EUR"));
+        try {
+            // one transfer processed, one waiting : the queue is full
+            while (processor.getTransfer(first.getId(), 0) == null || processor.snapshot().get("queueDepth").equals(0)) {
+                Thread.sleep(1);
+            }
+            processor.submit(new Transfer(1L, 2L, new BigDecimal(1), "EUR"));
+            fail("Submission accepted with a full queue.");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1L, processor.snapshot().get("rejected"));
+        }
+        assertEquals(AsyncTransferProcessor.PENDING, processor.getTransfer(first.getId(), 0).getStatus());
+
+        release.countDown();
+        assertEquals(AsyncTransferProcessor.ERROR, processor.getTransfer(first.getId(), 10000).getStatus());
+        processor.shutdown();
+        assertEquals(2L, processor.snapshot().get("failed"));
+    }
+}
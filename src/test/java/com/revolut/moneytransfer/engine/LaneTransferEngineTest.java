@@ -0,0 +1,195 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.H2Dao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Transfer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LaneTransferEngineTest {
+    private static final H2Dao h2Dao = new H2Dao();
+    private static final AccountDao accountDao = h2Dao.getAccountDAO();
+    private static final TransferDao transferDao = h2Dao.getTransferDAO();
+
+    @Before
+    public void setUp() {
+        //Prepare in memory database
+        //data loaded from db.sql file
+        h2Dao.loadH2Database();
+    }
+
+    @Test
+    public void transferRecordedBeforeAnswer() throws Exception {
+        LaneTransferEngine engine = new LaneTransferEngine(accountDao, transferDao, 4, 1024, 100, 1);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        try {
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal("100.57"), "EUR"));
+
+            assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+            assertEquals(before + 1, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("400.00"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(new BigDecimal("1271.63"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(40000, engine.balanceOf(fromAccountNo));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void atomicBatchAppliedAsAWhole() throws Exception {
+        LaneTransferEngine engine = new LaneTransferEngine(accountDao, transferDao, 4, 1024, 100, 1);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        try {
+            List<Transfer> transfers = engine.processBatch(batch, true);
+
+            assertEquals(Transfer.transferResponse.ROLLED_BACK, transfers.get(0).getResponse());
+            assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+            assertEquals(before, transferDao.getAllTransfers().size());
+            assertEquals(50057, engine.balanceOf(fromAccountNo));
+            assertEquals(117106, engine.balanceOf(toAccountNo));
+
+            batch.remove(1);
+            transfers = engine.processBatch(batch, true);
+
+            assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+            assertEquals(before + 1, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("200.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(147106, engine.balanceOf(toAccountNo));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void bestEffortBatchRecordedInOneTransaction() throws Exception {
+        LaneTransferEngine engine = new LaneTransferEngine(accountDao, transferDao, 4, 1024, 100, 1);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+        try {
+            List<Transfer> transfers = engine.processBatch(batch, false);
+
+            assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+            assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+            assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(2).getResponse());
+            assertEquals(before + 3, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("300.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(30057, engine.balanceOf(fromAccountNo));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void accountDeletedThroughEngine() throws Exception {
+        LaneTransferEngine engine = new LaneTransferEngine(accountDao, transferDao, 4, 1024, 100, 1);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        try {
+            engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.BALANCE_NOT_ZERO, engine.deleteAccount(toAccountNo));
+            engine.process(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.SUCCESS, engine.deleteAccount(toAccountNo));
+
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void invalidAccount() throws Exception {
+        LaneTransferEngine engine = new LaneTransferEngine(accountDao, transferDao, 4, 1024, 100, 1);
+        try {
+            Transfer transfer = engine.process(new Transfer(Long.parseLong("12345678901"), Long.parseLong("11111111111"), new BigDecimal(1), "EUR"));
+            assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void sameAndCrossLaneTransfersNeverOverdraw() throws Exception {
+        LaneTransferEngine engine = new LaneTransferEngine(accountDao, transferDao, 4, 1024, 100, 1);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long[] toAccountNos = {Long.parseLong("700"), Long.parseLong("56789012345"), Long.parseLong("78901234567"), Long.parseLong("1234567890")};
+        BigDecimal toBalances = BigDecimal.ZERO;
+        for (long toAccountNo : toAccountNos) {
+            toBalances = toBalances.add(accountDao.getAccountBalance(toAccountNo));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Transfer>> results = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                long toAccountNo = toAccountNos[i % toAccountNos.length];
+                results.add(executor.submit(() -> engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(10), "EUR"))));
+            }
+            int succeeded = 0;
+            for (Future<Transfer> result : results) {
+                if (result.get().getResponse() == Transfer.transferResponse.SUCCESS)
+                    succeeded++;
+            }
+
+            // 500.57 only covers 50 transfers of 10
+            assertEquals(50, succeeded);
+            assertEquals(new BigDecimal("0.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            BigDecimal credited = BigDecimal.ZERO;
+            for (long toAccountNo : toAccountNos) {
+                credited = credited.add(accountDao.getAccountBalance(toAccountNo));
+                assertEquals(Money.ofMinor(engine.balanceOf(toAccountNo), Money.AMOUNT_SCALE).toBigDecimal(), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            }
+            assertEquals(0, new BigDecimal("500").compareTo(credited.subtract(toBalances)));
+        } finally {
+            executor.shutdown();
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void laneMetrics() throws Exception {
+        LaneTransferEngine engine = new LaneTransferEngine(accountDao, transferDao, 4, 1024, 100, 1);
+        try {
+            engine.process(new Transfer(Long.parseLong("12345678901"), Long.parseLong("56789012345"), new BigDecimal(1), "EUR"));
+
+            Map<String, Object> metrics = engine.snapshot();
+            List<Map<String, Object>> lanes = (List<Map<String, Object>>) metrics.get("lanes");
+            assertEquals(4, lanes.size());
+            long tasks = 0;
+            for (Map<String, Object> lane : lanes) {
+                tasks += (Long) lane.get("tasks");
+                assertTrue(lane.containsKey("queueDepth"));
+                assertTrue(lane.containsKey("averageLatencyMicros"));
+            }
+            assertTrue(tasks > 0);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.revolut.moneytransfer.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LedgerTest {
+
+    @Test
+    public void putIfAbsentKeepsHeldBalance() {
+        Ledger ledger = new Ledger(4);
+        assertTrue(ledger.putIfAbsent(1L, "EUR", 1000));
+        assertFalse(ledger.putIfAbsent(1L, "EUR", 5));
+        assertEquals(1000, ledger.balanceOf(1L));
+        assertEquals("EUR", ledger.currencyOf(1L));
+        assertNull(ledger.currencyOf(2L));
+    }
+
+    @Test
+    public void transferMovesFundsWhenCovered() {
+        Ledger ledger = new Ledger(4);
+        ledger.putIfAbsent(1L, "EUR", 1000);
+        ledger.putIfAbsent(2L, "USD", 0);
+        assertTrue(ledger.transfer(1L, 2L, 1000, 1150));
+        assertEquals(0, ledger.balanceOf(1L));
+        assertEquals(0, ledger.balanceOf(2L));
+        assertEquals(1150, ledger.heldCreditOf(2L));
+        ledger.settle(2L, 1150);
+        assertEquals(1150, ledger.balanceOf(2L));
+        assertEquals(0, ledger.heldCreditOf(2L));
+        assertFalse(ledger.transfer(1L, 2L, 1, 1));
+        assertEquals(0, ledger.balanceOf(1L));
+        assertEquals(1150, ledger.balanceOf(2L));
+    }
+
+    @Test
+    public void heldCreditNotSpentBeforeRevert() {
+        Ledger ledger = new Ledger(1);
+        ledger.putIfAbsent(1L, "EUR", 1000);
+        ledger.putIfAbsent(2L, "EUR", 0);
+        ledger.putIfAbsent(3L, "EUR", 0);
+        assertTrue(ledger.transfer(1L, 2L, 400, 400));
+        // the credit is not recorded yet : it cannot be spent
+        assertFalse(ledger.transfer(2L, 3L, 400, 400));
+        assertFalse(ledger.debit(2L, 1));
+        ledger.revert(1L, 2L, 400, 400);
+        assertEquals(1000, ledger.balanceOf(1L));
+        assertEquals(0, ledger.balanceOf(2L));
+        assertEquals(0, ledger.heldCreditOf(2L));
+    }
+
+    @Test
+    public void revertUndoesTransfer() {
+        Ledger ledger = new Ledger(1);
+        ledger.putIfAbsent(1L, "EUR", 1000);
+        ledger.putIfAbsent(2L, "EUR", 0);
+        ledger.transfer(1L, 2L, 400, 400);
+        ledger.revert(1L, 2L, 400, 400);
+        assertEquals(1000, ledger.balanceOf(1L));
+        assertEquals(0, ledger.balanceOf(2L));
+    }
+
+    @Test
+    public void growsAndRemovesAccounts() {
+        Ledger ledger = new Ledger(2);
+        for (long accountNo = 1; accountNo <= 10000; accountNo++) {
+            ledger.putIfAbsent(accountNo, "EUR", accountNo);
+        }
+        for (long accountNo = 1; accountNo <= 10000; accountNo += 2) {
+            ledger.remove(accountNo);
+        }
+        for (long accountNo = 1; accountNo <= 10000; accountNo++) {
+            if (accountNo % 2 == 0) {
+                assertEquals(accountNo, ledger.balanceOf(accountNo));
+            } else {
+                assertNull(ledger.currencyOf(accountNo));
+            }
+        }
+    }
+
+    @Test
+    public void closedAccountNotMoved() {
+        Ledger ledger = new Ledger(4);
+        ledger.putIfAbsent(1L, "EUR", 1000);
+        ledger.putIfAbsent(2L, "EUR", 0);
+        assertTrue(ledger.close(2L));
+        assertFalse(ledger.close(1L));
+        assertNull(ledger.currencyOf(2L));
+        // not loaded again while it is deleted
+        assertFalse(ledger.putIfAbsent(2L, "EUR", 0));
+        try {
+            ledger.transfer(1L, 2L, 1, 1);
+            fail("Funds moved to a closed account.");
+        } catch (IllegalArgumentException e) {
+            assertEquals(1000, ledger.balanceOf(1L));
+        }
+        ledger.reopen(2L);
+        assertTrue(ledger.transfer(1L, 2L, 1, 1));
+
+        // an account not held is held closed, then dropped when reopened
+        assertTrue(ledger.close(3L));
+        assertFalse(ledger.putIfAbsent(3L, "EUR", 0));
+        ledger.reopen(3L);
+        assertTrue(ledger.putIfAbsent(3L, "EUR", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transferFromUnknownAccount() {
+        Ledger ledger = new Ledger(4);
+        ledger.putIfAbsent(2L, "EUR", 0);
+        ledger.transfer(1L, 2L, 1, 1);
+    }
+}
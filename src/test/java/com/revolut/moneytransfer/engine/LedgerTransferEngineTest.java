@@ -0,0 +1,387 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.H2Dao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Transfer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LedgerTransferEngineTest {
+    private static final H2Dao h2Dao = new H2Dao();
+    private static final AccountDao accountDao = h2Dao.getAccountDAO();
+    private static final TransferDao transferDao = h2Dao.getTransferDAO();
+
+    @Before
+    public void setUp() {
+        //Prepare in memory database
+        //data loaded from db.sql file
+        h2Dao.loadH2Database();
+    }
+
+    private static LedgerTransferEngine engine(WriteMode writeMode) throws Exception {
+        return new LedgerTransferEngine(accountDao, transferDao, 16, writeMode, 1024, 100, 5);
+    }
+
+    @Test
+    public void syncTransferRecordedBeforeAnswer() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+
+        Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal("100.57"), "EUR"));
+
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+        assertTrue(transfer.getId() > 0);
+        assertEquals(before + 1, transferDao.getAllTransfers().size());
+        assertEquals(new BigDecimal("400.00"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("1271.63"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(40000, engine.getLedger().balanceOf(fromAccountNo));
+    }
+
+    @Test
+    public void insufficientFundRecordedWithoutMovement() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+
+        Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal("500.58"), "EUR"));
+
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfer.getResponse());
+        assertEquals(new BigDecimal("500.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(50057, engine.getLedger().balanceOf(fromAccountNo));
+    }
+
+    @Test
+    public void atomicBatchAppliedAsAWhole() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+
+        List<Transfer> transfers = engine.processBatch(batch, true);
+
+        assertEquals(Transfer.transferResponse.ROLLED_BACK, transfers.get(0).getResponse());
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+        assertEquals(before, transferDao.getAllTransfers().size());
+        assertEquals(50057, engine.getLedger().balanceOf(fromAccountNo));
+        assertEquals(117106, engine.getLedger().balanceOf(toAccountNo));
+
+        batch.remove(1);
+        transfers = engine.processBatch(batch, true);
+
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+        assertEquals(before + 1, transferDao.getAllTransfers().size());
+        assertEquals(new BigDecimal("200.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(147106, engine.getLedger().balanceOf(toAccountNo));
+    }
+
+    @Test
+    public void bestEffortBatchRecordedInOneTransaction() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+
+        List<Transfer> transfers = engine.processBatch(batch, false);
+
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(2).getResponse());
+        assertEquals(before + 3, transferDao.getAllTransfers().size());
+        assertEquals(new BigDecimal("300.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(30057, engine.getLedger().balanceOf(fromAccountNo));
+    }
+
+    @Test
+    public void unrecordedTransferReverted() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        // deleted behind the engine : the transfer cannot be recorded
+        assertEquals(Account.accountResponse.SUCCESS, accountDao.deleteAccount(toAccountNo));
+
+        try {
+            engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            fail("Transfer to a deleted account recorded.");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(50057, engine.getLedger().balanceOf(fromAccountNo));
+        assertEquals(0, engine.getLedger().balanceOf(toAccountNo));
+        assertEquals(0, engine.getLedger().heldCreditOf(toAccountNo));
+        assertEquals(new BigDecimal("500.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void invalidAccount() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        Transfer transfer = engine.process(new Transfer(Long.parseLong("12345678901"), Long.parseLong("11111111111"), new BigDecimal(1), "EUR"));
+        assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+    }
+
+    @Test
+    public void concurrentTransfersNeverOverdraw() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Transfer>> results = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            results.add(executor.submit(() -> engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(10), "EUR"))));
+        }
+        int succeeded = 0;
+        for (Future<Transfer> result : results) {
+            if (result.get().getResponse() == Transfer.transferResponse.SUCCESS)
+                succeeded++;
+        }
+        executor.shutdown();
+
+        // 500.57 only covers 50 transfers of 10
+        assertEquals(50, succeeded);
+        assertEquals(new BigDecimal("0.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        assertEquals(new BigDecimal("500.00"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+    }
+
+    @Test
+    public void batchTransfersRecordedOnFlush() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.BATCH);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("23456789012");
+        int before = transferDao.getAllTransfers().size();
+        try {
+            for (int i = 0; i < 250; i++) {
+                engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(1), "EUR"));
+            }
+            engine.flush();
+
+            assertEquals(before + 250, transferDao.getAllTransfers().size());
+            assertEquals(Money.ofMinor(engine.getLedger().balanceOf(fromAccountNo), Money.AMOUNT_SCALE).toBigDecimal(), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(Money.ofMinor(engine.getLedger().balanceOf(toAccountNo), Money.AMOUNT_SCALE).toBigDecimal(), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(new BigDecimal("250.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void batchTransferAnsweredOnceRecorded() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.BATCH);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        try {
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+            assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(10000, engine.getLedger().balanceOf(toAccountNo));
+
+            // deleted behind the engine : the transfer cannot be recorded, it fails instead of being answered
+            h2Dao.getTransferDAO().processTransfer(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.SUCCESS, accountDao.deleteAccount(toAccountNo));
+            try {
+                engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+                fail("Transfer to a deleted account answered.");
+            } catch (Exception e) {
+                // expected
+            }
+            assertEquals(40057, engine.getLedger().balanceOf(fromAccountNo));
+            assertEquals(0, engine.getLedger().heldCreditOf(toAccountNo));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void accountCreatedAfterStartLoadedOnFirstUse() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        long accountNo = Long.parseLong("98765432109");
+        accountDao.importAccounts(Collections.singletonList(new Account(0, 1, accountNo, new BigDecimal("100.00"), "GBP", null, null)).iterator(), 10);
+
+        Transfer transfer = engine.process(new Transfer(accountNo, Long.parseLong("90123456789"), new BigDecimal("23.45"), "GBP"));
+
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+        assertEquals(7655, engine.getLedger().balanceOf(accountNo));
+    }
+
+    @Test
+    public void accountDeletedOnceItsTransfersRecorded() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.BATCH);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        try {
+            engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.BALANCE_NOT_ZERO, engine.deleteAccount(toAccountNo));
+
+            engine.process(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.SUCCESS, engine.deleteAccount(toAccountNo));
+            assertEquals(null, accountDao.getAccountByAccountNo(toAccountNo));
+
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+            assertEquals(new BigDecimal("500.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void transferToAccountClosedAfterValidationInvalid() throws Exception {
+        LedgerTransferEngine engine = engine(WriteMode.SYNC);
+        Ledger ledger = engine.getLedger();
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        Transfer transfer = transferDao.priceTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"),
+                LedgerAccounts.account(ledger, accountDao, fromAccountNo), LedgerAccounts.account(ledger, accountDao, toAccountNo));
+        Transfer atomic = transferDao.priceTransfer(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"),
+                LedgerAccounts.account(ledger, accountDao, fromAccountNo), LedgerAccounts.account(ledger, accountDao, toAccountNo));
+        // being deleted
+        assertTrue(ledger.close(toAccountNo));
+
+        LedgerAccounts.apply(ledger, transfer);
+        assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+        assertFalse(LedgerAccounts.applyAtomically(ledger, Collections.singletonList(atomic)));
+        assertEquals(Transfer.transferResponse.INVALID_TO_ACC, atomic.getResponse());
+        assertEquals(50057, ledger.balanceOf(fromAccountNo));
+    }
+
+    @Test
+    public void journalTransfersProjectedIntoDatabase() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        LedgerTransferEngine engine = new LedgerTransferEngine(accountDao, transferDao, 16, new TransferJournal(directory, 4096, 1), 100, 5);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("23456789012");
+        int before = transferDao.getAllTransfers().size();
+        try {
+            for (int i = 0; i < 250; i++) {
+                Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(1), "EUR"));
+                assertTrue(transfer.getId() > 0);
+            }
+            engine.flush();
+
+            assertEquals(before + 250, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("250.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(Money.ofMinor(engine.getLedger().balanceOf(toAccountNo), Money.AMOUNT_SCALE).toBigDecimal(), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        } finally {
+            engine.shutdown();
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void accountDeletedOnceItsTransfersProjected() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        LedgerTransferEngine engine = new LedgerTransferEngine(accountDao, transferDao, 16, new TransferJournal(directory, 4096, 1), 100, 1000);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        try {
+            engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            // zero in the database until projected, not in the ledger
+            assertEquals(Account.accountResponse.BALANCE_NOT_ZERO, engine.deleteAccount(toAccountNo));
+
+            engine.process(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.SUCCESS, engine.deleteAccount(toAccountNo));
+            assertEquals(null, accountDao.getAccountByAccountNo(toAccountNo));
+
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+            // the projection goes on
+            engine.process(new Transfer(fromAccountNo, Long.parseLong("56789012345"), new BigDecimal(100), "EUR"));
+            engine.flush();
+            assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        } finally {
+            engine.shutdown();
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void journalTransferReadBeforeProjected() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        LedgerTransferEngine engine = new LedgerTransferEngine(accountDao, transferDao, 16, new TransferJournal(directory, 4096, 1), 100, 1000);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        try {
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            // answered before it is projected
+            assertEquals(transfer.getId(), engine.getUnrecordedTransfer(transfer.getId()).getId());
+            assertEquals(new BigDecimal("400.57"), engine.getUnrecordedBalance(fromAccountNo));
+
+            engine.flush();
+            assertNull(engine.getUnrecordedTransfer(transfer.getId()));
+            assertEquals(transfer.getId(), transferDao.getTransferById(transfer.getId()).getId());
+        } finally {
+            engine.shutdown();
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void journalTailReplayedOnStart() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        LedgerTransferEngine engine = new LedgerTransferEngine(accountDao, transferDao, 16, new TransferJournal(directory, 4096, 1), 100, 5);
+        engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+        engine.shutdown();
+
+        // transfers journaled but never projected, as after a crash
+        long[] checkpoint = transferDao.getJournalCheckpoint();
+        TransferJournal journal = new TransferJournal(directory, 4096, 0);
+        journal.open(checkpoint[0], checkpoint[1]);
+        for (int i = 0; i < 3; i++) {
+            Transfer transfer = new Transfer(transferDao.nextTransferId(), fromAccountNo, toAccountNo, new BigDecimal("10.00"), "EUR",
+                    new BigDecimal("10.00"), "EUR", new BigDecimal("10.00"), "EUR", BigDecimal.ONE, null, null, null);
+            transfer.setResponse(Transfer.transferResponse.SUCCESS);
+            journal.awaitDurable(journal.append(transfer));
+        }
+        journal.close();
+        assertEquals(new BigDecimal("400.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+
+        LedgerTransferEngine restarted = new LedgerTransferEngine(accountDao, transferDao, 16, new TransferJournal(directory, 4096, 1), 100, 5);
+        try {
+            assertEquals(new BigDecimal("370.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(37057, restarted.getLedger().balanceOf(fromAccountNo));
+            assertEquals(checkpoint[1] + 3, transferDao.getJournalCheckpoint()[1]);
+        } finally {
+            restarted.shutdown();
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,175 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.dao.AccountDao;
+import com.revolut.moneytransfer.dao.H2Dao;
+import com.revolut.moneytransfer.dao.TransferDao;
+import com.revolut.moneytransfer.model.Account;
+import com.revolut.moneytransfer.model.Transfer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SequencerTransferEngineTest {
+    private static final H2Dao h2Dao = new H2Dao();
+    private static final AccountDao accountDao = h2Dao.getAccountDAO();
+    private static final TransferDao transferDao = h2Dao.getTransferDAO();
+
+    @Before
+    public void setUp() {
+        //Prepare in memory database
+        //data loaded from db.sql file
+        h2Dao.loadH2Database();
+    }
+
+    @Test
+    public void transferRecordedBeforeAnswer() throws Exception {
+        SequencerTransferEngine engine = new SequencerTransferEngine(accountDao, transferDao, 16, 4);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        try {
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal("100.57"), "EUR"));
+
+            assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+            assertTrue(transfer.getId() > 0);
+            assertEquals(before + 1, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("400.00"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(new BigDecimal("1271.63"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void atomicBatchAppliedAsAWhole() throws Exception {
+        SequencerTransferEngine engine = new SequencerTransferEngine(accountDao, transferDao, 16, 4);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        try {
+            List<Transfer> transfers = engine.processBatch(batch, true);
+
+            assertEquals(Transfer.transferResponse.ROLLED_BACK, transfers.get(0).getResponse());
+            assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+            assertEquals(before, transferDao.getAllTransfers().size());
+            engine.flush();
+            assertEquals(50057, engine.getLedger().balanceOf(fromAccountNo));
+            assertEquals(117106, engine.getLedger().balanceOf(toAccountNo));
+
+            batch.remove(1);
+            transfers = engine.processBatch(batch, true);
+
+            assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+            assertEquals(before + 1, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("200.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            engine.flush();
+            assertEquals(147106, engine.getLedger().balanceOf(toAccountNo));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void bestEffortBatchRecordedInOneTransaction() throws Exception {
+        SequencerTransferEngine engine = new SequencerTransferEngine(accountDao, transferDao, 16, 4);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("56789012345");
+        int before = transferDao.getAllTransfers().size();
+        List<Transfer> batch = new ArrayList<>();
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(300), "EUR"));
+        batch.add(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+        try {
+            List<Transfer> transfers = engine.processBatch(batch, false);
+
+            assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+            assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers.get(1).getResponse());
+            assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(2).getResponse());
+            assertEquals(before + 3, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("300.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            engine.flush();
+            assertEquals(30057, engine.getLedger().balanceOf(fromAccountNo));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void accountDeletedThroughEngine() throws Exception {
+        SequencerTransferEngine engine = new SequencerTransferEngine(accountDao, transferDao, 16, 4);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        try {
+            engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.BALANCE_NOT_ZERO, engine.deleteAccount(toAccountNo));
+            engine.process(new Transfer(toAccountNo, fromAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Account.accountResponse.SUCCESS, engine.deleteAccount(toAccountNo));
+
+            Transfer transfer = engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(100), "EUR"));
+            assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void invalidAccount() throws Exception {
+        SequencerTransferEngine engine = new SequencerTransferEngine(accountDao, transferDao, 16, 4);
+        try {
+            Transfer transfer = engine.process(new Transfer(Long.parseLong("12345678901"), Long.parseLong("11111111111"), new BigDecimal(1), "EUR"));
+            assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfer.getResponse());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void hotAccountNeverOverdrawnAcrossRingWraps() throws Exception {
+        // 8 slots for 60 transfers : request threads wait for slots to be persisted and reused
+        SequencerTransferEngine engine = new SequencerTransferEngine(accountDao, transferDao, 8, 3);
+        long fromAccountNo = Long.parseLong("12345678901");
+        long toAccountNo = Long.parseLong("700");
+        int before = transferDao.getAllTransfers().size();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Transfer>> results = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                results.add(executor.submit(() -> engine.process(new Transfer(fromAccountNo, toAccountNo, new BigDecimal(10), "EUR"))));
+            }
+            int succeeded = 0;
+            for (Future<Transfer> result : results) {
+                if (result.get().getResponse() == Transfer.transferResponse.SUCCESS)
+                    succeeded++;
+            }
+
+            // 500.57 only covers 50 transfers of 10
+            assertEquals(50, succeeded);
+            assertEquals(before + 60, transferDao.getAllTransfers().size());
+            assertEquals(new BigDecimal("0.57"), accountDao.getAccountBalance(fromAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(new BigDecimal("500.00"), accountDao.getAccountBalance(toAccountNo).setScale(2, BigDecimal.ROUND_HALF_EVEN));
+            assertEquals(57, engine.getLedger().balanceOf(fromAccountNo));
+        } finally {
+            executor.shutdown();
+            engine.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stoppedEngineRejectsTransfers() throws Exception {
+        SequencerTransferEngine engine = new SequencerTransferEngine(accountDao, transferDao, 16, 4);
+        engine.shutdown();
+        engine.process(new Transfer(Long.parseLong("12345678901"), Long.parseLong("56789012345"), new BigDecimal(1), "EUR"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.revolut.moneytransfer.engine;
+
+import com.revolut.moneytransfer.model.Transfer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransferJournalTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : segments()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static Transfer transfer(long id) {
+        Transfer transfer = new Transfer(id, Long.parseLong("12345678901"), Long.parseLong("23456789012"), new BigDecimal("10.00"), "EUR",
+                new BigDecimal("10.00"), "EUR", new BigDecimal("11.52"), "USD", new BigDecimal("1.1523"), null, null, null);
+        transfer.setResponse(Transfer.transferResponse.SUCCESS);
+        return transfer;
+    }
+
+    @Test
+    public void appendedRecordsReadBack() throws Exception {
+        TransferJournal journal = new TransferJournal(directory, 4096, 1);
+        journal.open(0, 0);
+        long sequence = journal.append(transfer(42));
+        Transfer failed = new Transfer(Long.parseLong("12345678901"), Long.parseLong("11111111111"), new BigDecimal("3.5"), "EUR");
+        failed.setId(43);
+        failed.setResponse(Transfer.transferResponse.INVALID_TO_ACC);
+        journal.append(failed);
+        journal.awaitDurable(sequence + 1);
+
+        List<Transfer> transfers = journal.read(sequence, sequence + 1);
+        assertEquals(42, transfers.get(0).getId());
+        assertEquals(new BigDecimal("11.52"), transfers.get(0).getCreditedAmount());
+        assertEquals(new BigDecimal("1.1523"), transfers.get(0).getRate());
+        assertEquals("USD", transfers.get(0).getDestinationCurrencyCode());
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers.get(0).getResponse());
+        assertEquals(Long.valueOf(Long.parseLong("11111111111")), transfers.get(1).getDestinationAccountNo());
+        assertEquals(new BigDecimal("3.50"), transfers.get(1).getTransferAmount());
+        assertNull(transfers.get(1).getDebitedAmount());
+        assertNull(transfers.get(1).getSourceCurrencyCode());
+        assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfers.get(1).getResponse());
+        journal.close();
+    }
+
+    @Test
+    public void reopenedJournalContinuesAfterLastRecord() throws Exception {
+        TransferJournal journal = new TransferJournal(directory, 4096, 0);
+        long journalId = journal.open(0, 0);
+        for (int i = 1; i <= 100; i++) {
+            journal.awaitDurable(journal.append(transfer(i)));
+        }
+        journal.close();
+
+        TransferJournal reopened = new TransferJournal(directory, 4096, 0);
+        assertEquals(journalId, reopened.open(journalId, 10));
+        assertEquals(100, reopened.durableSequence());
+        assertEquals(101, reopened.append(transfer(101)));
+        assertEquals(100, reopened.read(11, 100).get(89).getId());
+        reopened.close();
+    }
+
+    @Test
+    public void corruptedRecordEndsJournal() throws Exception {
+        TransferJournal journal = new TransferJournal(directory, 4096, 0);
+        long journalId = journal.open(0, 0);
+        for (int i = 1; i <= 5; i++) {
+            journal.awaitDurable(journal.append(transfer(i)));
+        }
+        journal.close();
+        // torn write of the 4th record
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 3 * TransferJournal.RECORD_SIZE + 20);
+        }
+
+        TransferJournal reopened = new TransferJournal(directory, 4096, 0);
+        reopened.open(journalId, 0);
+        assertEquals(3, reopened.durableSequence());
+        reopened.close();
+    }
+
+    @Test
+    public void segmentsOfAnotherJournalDeleted() throws Exception {
+        TransferJournal journal = new TransferJournal(directory, 4096, 0);
+        journal.open(0, 0);
+        journal.awaitDurable(journal.append(transfer(1)));
+        journal.close();
+
+        TransferJournal other = new TransferJournal(directory, 4096, 0);
+        other.open(0, 0);
+        assertEquals(0, other.durableSequence());
+        assertEquals(1, segments().size());
+        other.close();
+    }
+
+    @Test
+    public void strayFilesSkipped() throws Exception {
+        Path stray = Files.createFile(directory.resolve("journal-backup-1.log"));
+        TransferJournal journal = new TransferJournal(directory, 4096, 0);
+        journal.open(0, 0);
+        journal.awaitDurable(journal.append(transfer(1)));
+        journal.close();
+        assertTrue(Files.exists(stray));
+        // the stray file and the segment
+        assertEquals(2, segments().size());
+    }
+
+    @Test
+    public void projectedSegmentsReleased() throws Exception {
+        // 4096 bytes : 42 records per segment
+        TransferJournal journal = new TransferJournal(directory, 4096, 1);
+        journal.open(0, 0);
+        long sequence = 0;
+        for (int i = 1; i <= 100; i++) {
+            sequence = journal.append(transfer(i));
+        }
+        journal.awaitDurable(sequence);
+        assertEquals(3, segments().size());
+        assertEquals(100, journal.read(1, 100).size());
+
+        journal.release(84);
+        assertEquals(1, segments().size());
+        assertEquals(100, journal.read(85, 100).get(15).getId());
+        journal.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void currencyCodeTooLong() throws Exception {
+        TransferJournal journal = new TransferJournal(directory, 4096, 1);
+        journal.open(0, 0);
+        try {
+            Transfer transfer = transfer(1);
+            transfer.setTransferCurrencyCode("EURO");
+            journal.append(transfer);
+        } finally {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.revolut.moneytransfer.model;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Currency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CurrencyRegistryTest {
+
+    @Test
+    public void everyCurrencyRegistered() {
+        assertEquals(Currency.getAvailableCurrencies().size(), CurrencyRegistry.count());
+        for (Currency currency : Currency.getAvailableCurrencies()) {
+            int id = CurrencyRegistry.id(currency.getCurrencyCode());
+            assertEquals(currency.getCurrencyCode(), CurrencyRegistry.code(id));
+            assertEquals(currency.getDefaultFractionDigits(), CurrencyRegistry.fractionDigits(id));
+        }
+        assertEquals(2, CurrencyRegistry.fractionDigits(CurrencyRegistry.id("EUR")));
+        assertEquals(0, CurrencyRegistry.fractionDigits(CurrencyRegistry.id("JPY")));
+    }
+
+    @Test
+    public void invalidCodesUnknown() {
+        String[] invalidCodes = {null, "", "EU", "EURO", "eur", "Eur", "E1R", "ZZZ", "aaa", "[[["};
+        for (String code : invalidCodes) {
+            assertEquals(CurrencyRegistry.UNKNOWN, CurrencyRegistry.id(code));
+            assertFalse(CurrencyRegistry.isValid(code));
+        }
+        assertTrue(CurrencyRegistry.isValid("CUC"));
+    }
+
+    @Test
+    public void validationWithoutAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        String[] codes = {"EUR", "XYZ", "eur", "EURO"};
+        int valid = 0;
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            if (CurrencyRegistry.isValid(codes[i & 3])) {
+                valid++;
+            }
+        }
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        assertEquals(25000, valid);
+        // nothing allocated per lookup, whatever the code
+        assertTrue("Allocated bytes : " + allocated, allocated < 10000);
+    }
+}
@@ -0,0 +1,92 @@
+package com.revolut.moneytransfer.model;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MoneyTest {
+
+    @Test
+    public void convertedFromAndToBigDecimal() {
+        Money money = Money.of(new BigDecimal("500.575"), 2);
+        assertEquals(50058, money.getMinor());
+        assertEquals(new BigDecimal("500.58"), money.toBigDecimal());
+        assertTrue(Money.of(new BigDecimal("-0.005"), 2).isZero());
+        assertEquals(Money.ofMinor(-1, 2), Money.ofMinor(1, 2).minus(Money.ofMinor(2, 2)));
+        assertEquals(0, Money.of(new BigDecimal("12.5"), 0).compareTo(Money.ofMinor(12, 0)));
+        try {
+            Money.of(new BigDecimal("1E20"), 2);
+            fail("Amount out of range converted.");
+        } catch (ArithmeticException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void fractionDigitsOfCurrency() {
+        assertEquals(2, Money.fractionDigits("EUR"));
+        assertEquals(0, Money.fractionDigits("JPY"));
+        // capped to the scale of the amount columns
+        assertEquals(2, Money.fractionDigits("KWD"));
+        assertEquals(2, Money.fractionDigits("XAU"));
+    }
+
+    @Test
+    public void convertedAsBigDecimal() {
+        BigDecimal[] rates = {new BigDecimal("1.1234"), new BigDecimal("0.6801"), new BigDecimal("1.0000"), new BigDecimal("145.5050")};
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            BigDecimal amount = BigDecimal.valueOf(random.nextInt(100000000) - 50000000, 2);
+            BigDecimal rate = rates[i % rates.length];
+            Money money = Money.of(amount, 2);
+            assertEquals(amount.divide(rate, 2, BigDecimal.ROUND_HALF_UP),
+                    money.dividedBy(Money.scaled(rate, 4), 4, 2, RoundingMode.HALF_UP).toBigDecimal());
+            assertEquals(amount.multiply(rate.setScale(2, BigDecimal.ROUND_HALF_EVEN)).setScale(2, BigDecimal.ROUND_HALF_EVEN),
+                    money.times(Money.scaled(rate, 2), 2, 2, RoundingMode.HALF_EVEN).toBigDecimal());
+            assertEquals(amount.multiply(rate).setScale(0, BigDecimal.ROUND_HALF_EVEN),
+                    money.times(Money.scaled(rate, 4), 4, 0, RoundingMode.HALF_EVEN).toBigDecimal());
+        }
+    }
+
+    @Test
+    public void overflowConvertedAsBigDecimal() {
+        Money money = Money.ofMinor(Long.MAX_VALUE / 10, 2);
+        assertEquals(money.toBigDecimal().divide(new BigDecimal("2.0000"), 2, BigDecimal.ROUND_HALF_UP),
+                money.dividedBy(20000, 4, 2, RoundingMode.HALF_UP).toBigDecimal());
+        try {
+            money.times(200000, 4, 2, RoundingMode.HALF_EVEN);
+            fail("Amount out of range converted.");
+        } catch (ArithmeticException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void roundedDivision() {
+        assertEquals(2, Money.divide(5, 2, RoundingMode.HALF_EVEN));
+        assertEquals(3, Money.divide(5, 2, RoundingMode.HALF_UP));
+        assertEquals(-2, Money.divide(-5, 2, RoundingMode.HALF_EVEN));
+        assertEquals(-3, Money.divide(-5, 2, RoundingMode.HALF_UP));
+        assertEquals(-2, Money.divide(-5, 2, RoundingMode.DOWN));
+        assertEquals(-3, Money.divide(-5, 2, RoundingMode.UP));
+        assertEquals(4, Money.divide(7, 2, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    public void mixedFractionDigitsRejected() {
+        try {
+            Money.ofMinor(1, 2).plus(Money.ofMinor(1, 0));
+            fail("Amounts with different fraction digits added.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Amounts with 2 and 0 fraction digits.", e.getMessage());
+        }
+        assertTrue(Money.ofMinor(150, 2).withFractionDigits(0).equals(Money.ofMinor(2, 0)));
+        assertEquals(Money.ofMinor(200, 2), Money.ofMinor(2, 0).withFractionDigits(2));
+    }
+}
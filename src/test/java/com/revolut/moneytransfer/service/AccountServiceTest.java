@@ -4,6 +4,9 @@ import com.revolut.moneytransfer.model.Account;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 
@@ -109,4 +112,97 @@ public class AccountServiceTest extends TestService {
         String json = EntityUtils.toString(response.getEntity());
         assertEquals("Account balance not zero.", json);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void importAccountsJson() throws Exception {
+        URI uri = builder.setPath("/accounts/bulk").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity("[{\"accountOwnerId\":1,\"accountNo\":40000000001,\"balance\":10.00,\"currencyCode\":\"EUR\"}," +
+                "{\"accountOwnerId\":2,\"accountNo\":40000000002,\"balance\":20.00,\"currencyCode\":\"GBP\"}]"));
+        HttpResponse response = client.execute(request);
+        assertEquals(201, response.getStatusLine().getStatusCode());
+        assertEquals("{\"imported\":2}", EntityUtils.toString(response.getEntity()));
+
+        HttpResponse balance = client.execute(new HttpGet(builder.setPath("/accounts/40000000002/balance").build()));
+        assertEquals(new BigDecimal("20.00"), mapper.readValue(EntityUtils.toString(balance.getEntity()), BigDecimal.class));
+    }
+
+    @Test
+    public void importAccountsCsv() throws Exception {
+        URI uri = builder.setPath("/accounts/bulk").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "text/csv");
+        request.setEntity(new StringEntity("accountOwnerId,accountNo,balance,currencyCode\n1,40000000003,5.5,EUR\n2,40000000004,0,USD\n"));
+        HttpResponse response = client.execute(request);
+        assertEquals(201, response.getStatusLine().getStatusCode());
+        assertEquals("{\"imported\":2}", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void setBalanceSlots() throws Exception {
+        URI uri = builder.setPath("/accounts/56789012345/balanceSlots/4").build();
+        HttpResponse response = client.execute(new HttpPut(uri));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        Account account = mapper.readValue(EntityUtils.toString(response.getEntity()), Account.class);
+        assertEquals(4, account.getBalanceSlots());
+
+        uri = builder.setPath("/accounts/56789012345/balanceSlots/65").build();
+        response = client.execute(new HttpPut(uri));
+        assertEquals(400, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+
+        uri = builder.setPath("/accounts/11111111111/balanceSlots/4").build();
+        response = client.execute(new HttpPut(uri));
+        assertEquals(404, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+
+        uri = builder.setPath("/accounts/56789012345/balanceSlots/0").build();
+        response = client.execute(new HttpPut(uri));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+    }
+
+    @Test
+    public void importAccountsDuplicate() throws Exception {
+        URI uri = builder.setPath("/accounts/bulk").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "text/csv");
+        request.setEntity(new StringEntity("1,12345678901,5.5,EUR\n"));
+        HttpResponse response = client.execute(request);
+        assertEquals(409, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void importAccountsInvalid() throws Exception {
+        URI uri = builder.setPath("/accounts/bulk").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "text/csv");
+        request.setEntity(new StringEntity("1,40000000005,-5,EUR\n"));
+        HttpResponse response = client.execute(request);
+        assertEquals(400, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void getAccountsPaged() throws Exception {
+        URI uri = builder.setPath("/accounts").setParameter("limit", "2").build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        Account[] accounts = mapper.readValue(EntityUtils.toString(response.getEntity()), Account[].class);
+        assertEquals(2, accounts.length);
+        assertEquals(String.valueOf(accounts[1].getId()), response.getFirstHeader("X-Next-Cursor").getValue());
+        assertTrue(response.getFirstHeader("Link").getValue().contains("after=" + accounts[1].getId()));
+
+        uri = builder.setPath("/accounts").setParameter("after", String.valueOf(accounts[1].getId())).setParameter("limit", "2").build();
+        response = client.execute(new HttpGet(uri));
+        Account[] next = mapper.readValue(EntityUtils.toString(response.getEntity()), Account[].class);
+        assertTrue(next[0].getId() > accounts[1].getId());
+    }
+
+    @Test
+    public void getAccountsInvalidLimit() throws Exception {
+        URI uri = builder.setPath("/accounts").setParameter("limit", "0").build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        assertEquals(400, response.getStatusLine().getStatusCode());
+    }
+}
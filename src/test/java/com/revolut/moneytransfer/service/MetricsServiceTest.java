@@ -0,0 +1,83 @@
+package com.revolut.moneytransfer.service;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MetricsServiceTest extends TestService {
+
+    @Test
+    public void getPoolMetrics() throws Exception {
+        URI uri = builder.setPath("/metrics/pool").build();
+        HttpGet request = new HttpGet(uri);
+        HttpResponse response = client.execute(request);
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertEquals(200, statusCode);
+
+        String json = EntityUtils.toString(response.getEntity());
+        Map<?, ?> metrics = mapper.readValue(json, Map.class);
+        assertTrue((Integer) metrics.get("maxConnections") > 0);
+        assertTrue(((Number) metrics.get("connectionsAcquired")).longValue() > 0);
+    }
+
+    @Test
+    public void getLockMetrics() throws Exception {
+        URI uri = builder.setPath("/metrics/locks").build();
+        HttpGet request = new HttpGet(uri);
+        HttpResponse response = client.execute(request);
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertEquals(200, statusCode);
+
+        String json = EntityUtils.toString(response.getEntity());
+        Map<?, ?> metrics = mapper.readValue(json, Map.class);
+        assertTrue(metrics.containsKey("lockTimeouts"));
+        assertTrue(metrics.containsKey("retries"));
+    }
+
+    @Test
+    public void getAccountCacheMetrics() throws Exception {
+        URI uri = builder.setPath("/metrics/accounts").build();
+        HttpGet request = new HttpGet(uri);
+        HttpResponse response = client.execute(request);
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertEquals(200, statusCode);
+
+        String json = EntityUtils.toString(response.getEntity());
+        Map<?, ?> metrics = mapper.readValue(json, Map.class);
+        assertTrue(metrics.containsKey("hits"));
+        assertTrue(metrics.containsKey("misses"));
+        assertTrue(metrics.containsKey("evictions"));
+    }
+
+    @Test
+    public void getEngineMetrics() throws Exception {
+        URI uri = builder.setPath("/metrics/engine").build();
+        HttpGet request = new HttpGet(uri);
+        HttpResponse response = client.execute(request);
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertEquals(200, statusCode);
+
+        String json = EntityUtils.toString(response.getEntity());
+        assertNotNull(mapper.readValue(json, Map.class));
+    }
+
+    @Test
+    public void getAsyncMetrics() throws Exception {
+        URI uri = builder.setPath("/metrics/async").build();
+        HttpGet request = new HttpGet(uri);
+        HttpResponse response = client.execute(request);
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertEquals(200, statusCode);
+
+        String json = EntityUtils.toString(response.getEntity());
+        Map<?, ?> metrics = mapper.readValue(json, Map.class);
+        assertTrue(metrics.containsKey("pending"));
+        assertTrue(metrics.containsKey("rejected"));
+    }
+}
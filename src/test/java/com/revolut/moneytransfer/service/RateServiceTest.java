@@ -42,6 +42,47 @@ public class RateServiceTest extends TestService {
         assertTrue(rates.length > 0);
     }
 
+    @Test
+    public void getEffectiveRatesAfterUpdate() throws Exception {
+        Rate current = effectiveRate("CHF", "SGD");
+        // a superseded version and a future-dated one
+        updateRate(current.getId(), new BigDecimal("1.30"), new Date(1L));
+        updateRate(current.getId(), new BigDecimal("1.40"), new Date(System.currentTimeMillis() + 2 * 24 * 3600 * 1000L));
+
+        Rate effective = effectiveRate("CHF", "SGD");
+        assertEquals(current.getId(), effective.getId());
+        assertEquals(0, current.getRate().compareTo(effective.getRate()));
+    }
+
+    /**
+     * @return the only rate of the currency pair served by /rates/effective
+     */
+    private Rate effectiveRate(String sourceCurrencyCode, String destinationCurrencyCode) throws Exception {
+        HttpResponse response = client.execute(new HttpGet(builder.setPath("/rates/effective").build()));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        Rate found = null;
+        for (Rate rate : mapper.readValue(EntityUtils.toString(response.getEntity()), Rate[].class)) {
+            if (rate.getSourceCurrencyCode().equals(sourceCurrencyCode) && rate.getDestinationCurrencyCode().equals(destinationCurrencyCode)) {
+                assertNull("Several effective rates for " + sourceCurrencyCode + " to " + destinationCurrencyCode, found);
+                found = rate;
+            }
+        }
+        assertNotNull(found);
+        return found;
+    }
+
+    private void updateRate(int rateId, BigDecimal value, Date effectiveDt) throws Exception {
+        Rate rate = new Rate();
+        rate.setRate(value);
+        rate.setEffectiveDt(effectiveDt);
+        HttpPut request = new HttpPut(builder.setPath("/rates/" + rateId).build());
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity(mapper.writeValueAsString(rate)));
+        HttpResponse response = client.execute(request);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+    }
+
     @Test
     public void getValidRateBySourceAndDestCurrency() throws Exception {
         URI uri = builder.setPath("/rates/query")
@@ -58,6 +99,29 @@ public class RateServiceTest extends TestService {
         assertNotNull(rate);
     }
 
+    @Test
+    public void getRateAt() throws Exception {
+        URI uri = builder.setPath("/rates/at")
+                .setParameter("source", "USD")
+                .setParameter("destination", "AUD")
+                .setParameter("instant", "2099-01-01T00:00:00Z")
+                .build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        Rate rate = mapper.readValue(EntityUtils.toString(response.getEntity()), Rate.class);
+        assertEquals("AUD", rate.getDestinationCurrencyCode());
+
+        uri = builder.setParameter("instant", "2000-01-01T00:00:00").build();
+        response = client.execute(new HttpGet(uri));
+        assertEquals(404, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+
+        uri = builder.setParameter("instant", "yesterday").build();
+        response = client.execute(new HttpGet(uri));
+        assertEquals(400, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+    }
+
     @Test
     public void getInvalidRateBySourceAndDestCurrency() throws Exception {
         URI uri = builder.setPath("/rates/query")
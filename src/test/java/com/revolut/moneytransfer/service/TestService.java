@@ -59,7 +59,8 @@ public class TestService {
                             AccountService.class.getCanonicalName() + "," +
                             ServiceExceptionMapper.class.getCanonicalName() + "," +
                             RateService.class.getCanonicalName() + "," +
-                            TransferService.class.getCanonicalName());
+                            TransferService.class.getCanonicalName() + "," +
+                            MetricsService.class.getCanonicalName());
             server.start();
         }
     }
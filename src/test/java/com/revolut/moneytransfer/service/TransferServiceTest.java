@@ -1,9 +1,11 @@
 package com.revolut.moneytransfer.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.revolut.moneytransfer.model.Transfer;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.junit.Test;
@@ -162,6 +164,151 @@ public class TransferServiceTest extends TestService {
         assertEquals("Invalid source account.", json);
     }
 
+    @Test
+    public void asyncTransferAccepted() throws Exception {
+        URI uri = builder.setPath("/transfers").setParameter("async", "true").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity(mapper.writeValueAsString(new Transfer(Long.parseLong("78901234567"), Long.parseLong("1234567890"), new BigDecimal(1), "EUR"))));
+        HttpResponse response = client.execute(request);
+        assertEquals(202, response.getStatusLine().getStatusCode());
+        Transfer accepted = mapper.readValue(EntityUtils.toString(response.getEntity()), Transfer.class);
+        assertEquals("PENDING", accepted.getStatus());
+        assertTrue(response.getFirstHeader("Location").getValue().endsWith("/transfers/" + accepted.getId()));
+
+        uri = new URIBuilder(response.getFirstHeader("Location").getValue()).setParameter("wait", "10000").build();
+        response = client.execute(new HttpGet(uri));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        Transfer processed = mapper.readValue(EntityUtils.toString(response.getEntity()), Transfer.class);
+        assertEquals(accepted.getId(), processed.getId());
+        assertEquals("SUCCESS", processed.getStatus());
+    }
+
+    @Test
+    public void getUnknownTransfer() throws Exception {
+        URI uri = builder.setPath("/transfers/99999").build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        assertEquals(404, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+    }
+
+    @Test
+    public void idempotentTransferReplayed() throws Exception {
+        String idempotencyKey = "transfer-" + System.nanoTime();
+        Transfer[] transfers = new Transfer[2];
+        for (int i = 0; i < transfers.length; i++) {
+            URI uri = builder.setPath("/transfers").build();
+            HttpPost request = new HttpPost(uri);
+            request.setHeader("Content-type", "application/json");
+            request.setHeader("Idempotency-Key", idempotencyKey);
+            request.setEntity(new StringEntity(mapper.writeValueAsString(new Transfer(Long.parseLong("78901234567"), Long.parseLong("1234567890"), new BigDecimal(1), "EUR"))));
+            HttpResponse response = client.execute(request);
+            assertEquals(201, response.getStatusLine().getStatusCode());
+            transfers[i] = mapper.readValue(EntityUtils.toString(response.getEntity()), Transfer.class);
+        }
+        assertEquals(transfers[0].getId(), transfers[1].getId());
+
+        URI uri = builder.setPath("/transfers").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setHeader("Idempotency-Key", idempotencyKey);
+        request.setEntity(new StringEntity(mapper.writeValueAsString(new Transfer(Long.parseLong("78901234567"), Long.parseLong("1234567890"), new BigDecimal(2), "EUR"))));
+        HttpResponse response = client.execute(request);
+        assertEquals(409, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+    }
+
+    @Test
+    public void repriceTransfers() throws Exception {
+        URI uri = builder.setPath("/transfers/reprice").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity("[1]"));
+        HttpResponse response = client.execute(request);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        Transfer[] repriced = mapper.readValue(EntityUtils.toString(response.getEntity()), Transfer[].class);
+        assertEquals(1, repriced.length);
+        assertEquals(1, repriced[0].getId());
+        assertEquals("PROCESSED", repriced[0].getStatus());
+
+        request.setEntity(new StringEntity("[1, 99999]"));
+        response = client.execute(request);
+        assertEquals(404, response.getStatusLine().getStatusCode());
+        assertEquals("Transfers not found : [99999]", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void transferBatchBestEffort() throws Exception {
+        URI uri = builder.setPath("/transfers/batch").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/x-ndjson");
+        request.setEntity(new StringEntity("{\"sourceAccountNo\":78901234567,\"destinationAccountNo\":1234567890,\"transferAmount\":1.00,\"transferCurrencyCode\":\"EUR\"}\n"
+                + "{\"sourceAccountNo\":78901234567,\"destinationAccountNo\":11111111111,\"transferAmount\":1.00,\"transferCurrencyCode\":\"EUR\"}\n"));
+        HttpResponse response = client.execute(request);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+
+        Transfer[] transfers = mapper.readValue(EntityUtils.toString(response.getEntity()), Transfer[].class);
+        assertEquals(2, transfers.length);
+        assertEquals(Transfer.transferResponse.SUCCESS, transfers[0].getResponse());
+        assertTrue(transfers[0].getId() > 0);
+        assertEquals(Transfer.transferResponse.INVALID_TO_ACC, transfers[1].getResponse());
+    }
+
+    @Test
+    public void transferBatchAtomicRolledBack() throws Exception {
+        URI uri = builder.setPath("/transfers/batch").setParameter("atomic", "true").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity("[{\"sourceAccountNo\":78901234567,\"destinationAccountNo\":1234567890,\"transferAmount\":1.00,\"transferCurrencyCode\":\"EUR\"},"
+                + "{\"sourceAccountNo\":78901234567,\"destinationAccountNo\":1234567890,\"transferAmount\":1000000.00,\"transferCurrencyCode\":\"EUR\"}]"));
+        HttpResponse response = client.execute(request);
+        assertEquals(409, response.getStatusLine().getStatusCode());
+
+        Transfer[] transfers = mapper.readValue(EntityUtils.toString(response.getEntity()), Transfer[].class);
+        assertEquals(Transfer.transferResponse.ROLLED_BACK, transfers[0].getResponse());
+        assertEquals(Transfer.transferResponse.INSUFFICIENT_FUND, transfers[1].getResponse());
+    }
+
+    @Test
+    public void transferBatchInvalidTransfer() throws Exception {
+        URI uri = builder.setPath("/transfers/batch").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity("[{\"sourceAccountNo\":78901234567,\"destinationAccountNo\":1234567890,\"transferCurrencyCode\":\"EUR\"}]"));
+        HttpResponse response = client.execute(request);
+        assertEquals(400, response.getStatusLine().getStatusCode());
+        JsonNode error = mapper.readTree(EntityUtils.toString(response.getEntity()));
+        assertEquals("Transfer 1 : Amount to transfer cannot be null.", error.get("error").asText());
+        assertEquals(0, error.get("transfers").size());
+    }
+
+    @Test
+    public void transferBatchInvalidTransferAfterCommittedChunk() throws Exception {
+        URI uri = builder.setPath("/transfers/batch").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/x-ndjson");
+        request.setEntity(new StringEntity("{\"sourceAccountNo\":78901234567,\"destinationAccountNo\":1234567890,\"transferAmount\":1.00,\"transferCurrencyCode\":\"EUR\"}\n"
+                + "{\"sourceAccountNo\":78901234567,\"destinationAccountNo\":1234567890,\"transferCurrencyCode\":\"EUR\"}\n"));
+        System.setProperty("transfer.batch.chunkSize", "1");
+        HttpResponse response;
+        try {
+            response = client.execute(request);
+        } finally {
+            System.clearProperty("transfer.batch.chunkSize");
+        }
+        assertEquals(400, response.getStatusLine().getStatusCode());
+
+        // the first chunk is committed, and answered with the error
+        JsonNode error = mapper.readTree(EntityUtils.toString(response.getEntity()));
+        assertEquals("Transfer 2 : Amount to transfer cannot be null.", error.get("error").asText());
+        assertEquals(1, error.get("transfers").size());
+        Transfer transfer = mapper.treeToValue(error.get("transfers").get(0), Transfer.class);
+        assertEquals(Transfer.transferResponse.SUCCESS, transfer.getResponse());
+        response = client.execute(new HttpGet(builder.setPath("/transfers/" + transfer.getId()).clearParameters().build()));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+    }
+
     @Test
     public void invalidToAccountTransferAmount() throws Exception {
         URI uri = builder.setPath("/transfers").build();
@@ -329,4 +476,30 @@ public class TransferServiceTest extends TestService {
         String json = EntityUtils.toString(response.getEntity());
         assertEquals("Rate not found for source and destination currencies", json);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void exportTransfersByPeriod() throws Exception {
+        URI uri = builder.setPath("/transfers/export")
+                .setParameter("fromDate", "2018-05-01")
+                .setParameter("toDate", "2018-05-31")
+                .build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+
+        Transfer[] transfers = mapper.readValue(EntityUtils.toString(response.getEntity()), Transfer[].class);
+        // demo transfer of 2018-05-10 only
+        assertEquals(1, transfers.length);
+        assertEquals("PROCESSED", transfers[0].getStatus());
+        assertEquals(Long.valueOf(Long.parseLong("12345678901")), transfers[0].getSourceAccountNo());
+    }
+
+    @Test
+    public void exportTransfersInvalidDate() throws Exception {
+        URI uri = builder.setPath("/transfers/export")
+                .setParameter("fromDate", "2018-05-01")
+                .setParameter("toDate", "31/05/2018")
+                .build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        assertEquals(400, response.getStatusLine().getStatusCode());
+    }
+}